@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.glyptodon.guacamole.auth.oauth.form.AuthorizationURITemplate;
+import org.glyptodon.guacamole.auth.oauth.form.OAuthTokenField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the construction of the OAuthTokenField sent with every login
+ * prompt, comparing the original approach (URL-encoding all parameters for
+ * each field and drawing each nonce from a single shared SecureRandom) with
+ * the precomputed AuthorizationURITemplate and per-thread nonce generators.
+ * Each approach is measured both from a single thread and from as many
+ * threads as there are available processors.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationURIBenchmark {
+
+    /**
+     * Authorization endpoint of the hypothetical OAuth service.
+     */
+    private static final String AUTHORIZATION_ENDPOINT =
+            "https://login.example.net/oauth2/v2.0/authorize";
+
+    /**
+     * Client ID of the hypothetical OAuth client.
+     */
+    private static final String CLIENT_ID =
+            "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+
+    /**
+     * Redirect URI of the hypothetical OAuth client.
+     */
+    private static final String REDIRECT_URI =
+            "https://guacamole.example.net/guacamole/";
+
+    /**
+     * The single random number generator shared by all threads, as used
+     * prior to the introduction of per-thread generators.
+     */
+    private static final SecureRandom sharedRandom = new SecureRandom();
+
+    /**
+     * The precomputed authorization URI, built once as it would be for each
+     * configuration snapshot.
+     */
+    private final AuthorizationURITemplate template =
+            new AuthorizationURITemplate(AUTHORIZATION_ENDPOINT, CLIENT_ID,
+                    REDIRECT_URI);
+
+    /**
+     * Builds the full authorization URI exactly as the OAuthTokenField
+     * constructor did prior to the introduction of AuthorizationURITemplate.
+     *
+     * @return
+     *     The full authorization URI, including a newly-generated nonce.
+     *
+     * @throws UnsupportedEncodingException
+     *     If UTF-8 is not supported.
+     */
+    private static String buildLegacyURI() throws UnsupportedEncodingException {
+        return AUTHORIZATION_ENDPOINT
+                + "?scope=openid"
+                + "&response_type=id_token"
+                + "&client_id=" + URLEncoder.encode(CLIENT_ID, "UTF-8")
+                + "&redirect_uri=" + URLEncoder.encode(REDIRECT_URI, "UTF-8")
+                + "&nonce=" + new BigInteger(130, sharedRandom).toString(32);
+    }
+
+    /**
+     * Builds the authorization URI using the original approach from a single
+     * thread.
+     *
+     * @return
+     *     The full authorization URI.
+     *
+     * @throws UnsupportedEncodingException
+     *     If UTF-8 is not supported.
+     */
+    @Benchmark
+    public String legacy() throws UnsupportedEncodingException {
+        return buildLegacyURI();
+    }
+
+    /**
+     * Builds the authorization URI using the original approach from all
+     * available processors concurrently.
+     *
+     * @return
+     *     The full authorization URI.
+     *
+     * @throws UnsupportedEncodingException
+     *     If UTF-8 is not supported.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String legacyConcurrent() throws UnsupportedEncodingException {
+        return buildLegacyURI();
+    }
+
+    /**
+     * Creates an OAuthTokenField from the precomputed template from a single
+     * thread.
+     *
+     * @return
+     *     The newly-created field.
+     */
+    @Benchmark
+    public OAuthTokenField template() {
+        return new OAuthTokenField(template);
+    }
+
+    /**
+     * Creates an OAuthTokenField from the precomputed template from all
+     * available processors concurrently.
+     *
+     * @return
+     *     The newly-created field.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public OAuthTokenField templateConcurrent() {
+        return new OAuthTokenField(template);
+    }
+
+}
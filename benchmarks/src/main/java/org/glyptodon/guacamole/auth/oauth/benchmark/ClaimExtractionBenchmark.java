@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimExtractor;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks decoding the claims of a token, comparing the stock jose4j
+ * approach (parsing every claim with JsonUtil) against extracting only the
+ * claims read during validation with ClaimExtractor. The claims include a
+ * "groups" array of the given size which is not read, as is typical of
+ * tokens issued by directories with many groups. Allocation is best compared
+ * by running with "-prof gc".
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimExtractionBenchmark {
+
+    /**
+     * The number of entries within the "groups" claim.
+     */
+    @Param({ "0", "50", "500" })
+    public int groups;
+
+    /**
+     * The JSON claims of the token.
+     */
+    private String json;
+
+    /**
+     * Extractor for the claims read during validation.
+     */
+    private final ClaimExtractor extractor = new ClaimExtractor(Arrays.asList(
+            "iss", "sub", "aud", "exp", "nbf", "nonce", "jti", "email"));
+
+    /**
+     * Generates the JSON claims of the token.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        List<String> names = new ArrayList<String>(groups);
+        for (int i = 0; i < groups; i++)
+            names.add("CN=Group " + i + ",OU=Groups,DC=example,DC=net");
+
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuer("https://issuer.example.net/");
+        claims.setAudience("guacamole");
+        claims.setSubject("0f6b1c2e-3a4d-4e5f-8a9b-0c1d2e3f4a5b");
+        claims.setExpirationTimeMinutesInTheFuture(10);
+        claims.setIssuedAtToNow();
+        claims.setGeneratedJwtId();
+        claims.setClaim("nonce", "n-0S6_WzA2Mj");
+        claims.setClaim("email", "user@example.net");
+        claims.setClaim("name", "Example User");
+        claims.setStringListClaim("groups", names);
+        json = claims.toJson();
+
+    }
+
+    /**
+     * Parses all claims with JsonUtil, as jose4j does.
+     *
+     * @return
+     *     All claims of the token.
+     *
+     * @throws JoseException
+     *     If the claims cannot be parsed.
+     */
+    @Benchmark
+    public Map<String, Object> parseAll() throws JoseException {
+        return JsonUtil.parseJson(json);
+    }
+
+    /**
+     * Extracts only the claims read during validation with ClaimExtractor.
+     *
+     * @return
+     *     The claims read during validation.
+     *
+     * @throws JoseException
+     *     If the claims cannot be parsed.
+     */
+    @Benchmark
+    public Map<String, Object> extract() throws JoseException {
+        return extractor.extract(json);
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.auth.oauth.OAuthAuthenticationProvider;
+import org.glyptodon.guacamole.auth.oauth.OAuthAuthenticationProviderModule;
+import org.glyptodon.guacamole.auth.oauth.token.TokenValidationService;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.NumericDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the rejection of tokens which can never pass validation, as
+ * submitted in bulk by a client spraying forged or stale tokens. Signed
+ * tokens reference a key ID which the identity provider has never
+ * published, such that any token reaching key resolution forces the JWKS to
+ * be retrieved again.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RejectionBenchmark {
+
+    /**
+     * The kind of invalid token submitted: "malformed", "issuer",
+     * "audience", or "expired".
+     */
+    @Param({ "malformed", "issuer", "audience", "expired" })
+    public String kind;
+
+    /**
+     * The identity provider serving the JWKS.
+     */
+    private TestIdentityProvider idp;
+
+    /**
+     * The temporary GUACAMOLE_HOME containing the guacamole.properties used
+     * by the extension.
+     */
+    private File guacamoleHome;
+
+    /**
+     * The service which validates tokens.
+     */
+    private TokenValidationService tokenService;
+
+    /**
+     * The invalid token submitted during each invocation.
+     */
+    private String token;
+
+    /**
+     * Starts the identity provider, writes guacamole.properties, creates the
+     * extension services under test, and produces the invalid token.
+     *
+     * @throws Exception
+     *     If the identity provider cannot be started, the extension cannot
+     *     be configured, or the token cannot be signed.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        idp = new TestIdentityProvider("RS256", 2);
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", TestIdentityProvider.ISSUER + "authorize");
+        properties.setProperty("oauth-jwks-endpoint", idp.getJWKSEndpoint());
+        properties.setProperty("oauth-issuer", TestIdentityProvider.ISSUER);
+        properties.setProperty("oauth-client-id", TestIdentityProvider.CLIENT_ID);
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", TestIdentityProvider.USERNAME_CLAIM_TYPE);
+        properties.setProperty("oauth-nonce-validation", "false");
+
+        guacamoleHome = File.createTempFile("guacamole-home", "");
+        if (!guacamoleHome.delete() || !guacamoleHome.mkdir())
+            throw new IOException("Unable to create temporary GUACAMOLE_HOME.");
+
+        FileOutputStream output = new FileOutputStream(new File(guacamoleHome, "guacamole.properties"));
+        try {
+            properties.store(output, null);
+        }
+        finally {
+            output.close();
+        }
+
+        System.setProperty("guacamole.home", guacamoleHome.getAbsolutePath());
+
+        OAuthAuthenticationProvider authProvider = new OAuthAuthenticationProvider();
+        Injector injector = Guice.createInjector(new OAuthAuthenticationProviderModule(authProvider));
+        tokenService = injector.getInstance(TokenValidationService.class);
+
+        // Produce a token which is invalid in the requested way
+        JwtClaims claims = idp.createClaims("user");
+        if ("malformed".equals(kind)) {
+            token = "not.a-valid.token";
+            return;
+        }
+        else if ("issuer".equals(kind))
+            claims.setIssuer("https://attacker.example.net/");
+        else if ("audience".equals(kind))
+            claims.setAudience("some-other-client");
+        else if ("expired".equals(kind))
+            claims.setExpirationTime(NumericDate.fromSeconds(
+                    System.currentTimeMillis() / 1000 - 3600));
+
+        token = idp.sign(claims, "never-published");
+
+    }
+
+    /**
+     * Stops the identity provider and removes the temporary GUACAMOLE_HOME.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        idp.stop();
+        new File(guacamoleHome, "guacamole.properties").delete();
+        guacamoleHome.delete();
+    }
+
+    /**
+     * Submits the invalid token, which must be rejected.
+     *
+     * @return
+     *     The exception rejecting the token.
+     */
+    @Benchmark
+    public GuacamoleException rejectToken() {
+
+        try {
+            tokenService.processUsername(token);
+        }
+        catch (GuacamoleException e) {
+            return e;
+        }
+
+        throw new IllegalStateException("Invalid token was accepted.");
+
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.glyptodon.guacamole.auth.oauth.replay.InProcessReplayCache;
+import org.glyptodon.guacamole.auth.oauth.replay.MappedFileReplayCache;
+import org.glyptodon.guacamole.auth.oauth.replay.NearCachedReplayCache;
+import org.glyptodon.guacamole.auth.oauth.replay.NetworkReplayCache;
+import org.glyptodon.guacamole.auth.oauth.replay.ReplayCache;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Benchmarks each ReplayCache implementation, measuring both the recording
+ * of tokens not previously seen (which, for shared caches, requires a write
+ * to the file or a round trip to the key/value service) and the rejection of
+ * tokens already used with this server (which is answered by the local near
+ * cache). The network cache is measured against an in-process stand-in for
+ * the key/value service, such that the measurement reflects the overhead of
+ * the client and a loopback round trip. The number of commands and batches
+ * received by the stand-in are reported as secondary results, showing the
+ * effect of batching.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayCacheBenchmark {
+
+    /**
+     * The number of entries in each cache. Entries expire quickly, thus this
+     * need only exceed the number of tokens recorded within each lifetime.
+     */
+    private static final int SIZE = 1 << 20;
+
+    /**
+     * The number of milliseconds that each recorded token remains valid.
+     */
+    private static final long TOKEN_LIFETIME = 100;
+
+    /**
+     * The maximum amount of time to wait for the stand-in key/value service,
+     * in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * The identifier which is recorded once and then repeatedly replayed.
+     */
+    private static final String REPLAYED_ID = "replayed";
+
+    /**
+     * The replay cache implementation being measured: "memory", "file", or
+     * "network".
+     */
+    @Param({ "memory", "file", "network" })
+    public String backend;
+
+    /**
+     * The stand-in key/value service, if measuring the network cache.
+     */
+    private ReplayCacheStandIn standIn;
+
+    /**
+     * The file backing the cache, if measuring the file cache.
+     */
+    private File file;
+
+    /**
+     * The cache being measured.
+     */
+    private ReplayCache cache;
+
+    /**
+     * Source of unique identifiers for tokens not previously seen.
+     */
+    private final AtomicLong nextID = new AtomicLong();
+
+    /**
+     * The number of commands received by the stand-in prior to the current
+     * iteration.
+     */
+    private long initialCommands;
+
+    /**
+     * The number of batches received by the stand-in prior to the current
+     * iteration.
+     */
+    private long initialBatches;
+
+    /**
+     * Counters reporting the number of commands and batches received by the
+     * stand-in key/value service during each iteration. As the stand-in is
+     * shared by all threads, its counts are reported by the first thread
+     * only. If the network cache is not being measured, both counts are
+     * zero.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class StandInCounters {
+
+        /**
+         * The number of commands received during the current iteration.
+         */
+        public long commands;
+
+        /**
+         * The number of batches received during the current iteration.
+         */
+        public long batches;
+
+        /**
+         * Reports the counts of the stand-in accumulated during the current
+         * iteration.
+         *
+         * @param benchmark
+         *     The benchmark whose stand-in should be counted.
+         *
+         * @param thread
+         *     The parameters of the current thread.
+         */
+        @TearDown(Level.Iteration)
+        public void stop(ReplayCacheBenchmark benchmark, ThreadParams thread) {
+            if (benchmark.standIn != null && thread.getThreadIndex() == 0) {
+                commands = benchmark.standIn.getCommands() - benchmark.initialCommands;
+                batches = benchmark.standIn.getBatches() - benchmark.initialBatches;
+            }
+            else {
+                commands = 0;
+                batches = 0;
+            }
+        }
+
+    }
+
+    /**
+     * Creates the cache being measured, along with any file or stand-in
+     * service that it requires, and records the token to be replayed.
+     *
+     * @throws IOException
+     *     If the cache cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        if (backend.equals("memory"))
+            cache = new InProcessReplayCache(SIZE);
+
+        else if (backend.equals("file")) {
+            file = File.createTempFile("replay-cache", ".bin");
+            if (!file.delete())
+                throw new IOException("Unable to prepare replay cache file.");
+            cache = new NearCachedReplayCache(new MappedFileReplayCache(file, SIZE), SIZE);
+        }
+
+        else if (backend.equals("network")) {
+            standIn = new ReplayCacheStandIn();
+            cache = new NearCachedReplayCache(new NetworkReplayCache("127.0.0.1",
+                    standIn.getPort(), TIMEOUT), SIZE);
+        }
+
+        else
+            throw new IllegalArgumentException("Unknown backend: " + backend);
+
+        cache.add(REPLAYED_ID, Long.MAX_VALUE);
+
+    }
+
+    /**
+     * Records the counts of any stand-in key/value service prior to the
+     * current iteration, such that the counts for the iteration alone can be
+     * reported.
+     */
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        if (standIn != null) {
+            initialCommands = standIn.getCommands();
+            initialBatches = standIn.getBatches();
+        }
+    }
+
+    /**
+     * Closes the cache, deleting any file and stopping any stand-in service.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        cache.close();
+
+        if (file != null && !file.delete())
+            file.deleteOnExit();
+
+        if (standIn != null)
+            standIn.stop();
+
+    }
+
+    /**
+     * Records a token not previously seen, from a single thread.
+     *
+     * @param counters
+     *     The counters reporting the activity of any stand-in key/value
+     *     service.
+     *
+     * @return
+     *     true if the token was recorded (always).
+     *
+     * @throws IOException
+     *     If the cache cannot be updated.
+     */
+    @Benchmark
+    public boolean fresh(StandInCounters counters) throws IOException {
+        return cache.add(Long.toString(nextID.incrementAndGet()),
+                System.currentTimeMillis() + TOKEN_LIFETIME);
+    }
+
+    /**
+     * Records tokens not previously seen, from all available processors
+     * concurrently.
+     *
+     * @param counters
+     *     The counters reporting the activity of any stand-in key/value
+     *     service.
+     *
+     * @return
+     *     true if the token was recorded (always).
+     *
+     * @throws IOException
+     *     If the cache cannot be updated.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean freshConcurrent(StandInCounters counters) throws IOException {
+        return fresh(counters);
+    }
+
+    /**
+     * Submits a token which has already been used with this server.
+     *
+     * @return
+     *     false, as the token has already been used.
+     *
+     * @throws IOException
+     *     If the cache cannot be read.
+     */
+    @Benchmark
+    public boolean replayed() throws IOException {
+        return cache.add(REPLAYED_ID, Long.MAX_VALUE);
+    }
+
+}
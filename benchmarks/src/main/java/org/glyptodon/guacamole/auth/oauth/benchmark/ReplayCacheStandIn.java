@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a key/value service speaking the Redis protocol
+ * (RESP), implementing only the commands used by NetworkReplayCache ("SET"
+ * with the "NX" and "PX" options, and "PING"). Commands are served on the
+ * loopback interface, with replies to pipelined commands flushed together.
+ *
+ * @author Michael Jumper
+ */
+public class ReplayCacheStandIn {
+
+    /**
+     * The number of stored keys beyond which expired keys are purged.
+     */
+    private static final int PURGE_THRESHOLD = 100000;
+
+    /**
+     * The socket accepting connections.
+     */
+    private final ServerSocket server;
+
+    /**
+     * The expiration time of each stored key, in milliseconds since midnight
+     * of January 1, 1970 UTC, or Long.MAX_VALUE if the key does not expire.
+     */
+    private final ConcurrentMap<String, Long> keys =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The number of commands received thus far.
+     */
+    private final AtomicLong commands = new AtomicLong();
+
+    /**
+     * The number of writes received thus far. Pipelined commands sent
+     * together are typically received within a single write.
+     */
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Starts a new stand-in listening on an arbitrary port of the loopback
+     * interface.
+     *
+     * @throws IOException
+     *     If the listening socket cannot be created.
+     */
+    public ReplayCacheStandIn() throws IOException {
+
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (;;)
+                        serve(server.accept());
+                }
+                catch (IOException e) {
+                    // Server socket closed
+                }
+            }
+
+        }, "replay-cache-stand-in");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+    }
+
+    /**
+     * Serves the given connection using a new thread.
+     *
+     * @param socket
+     *     The accepted connection.
+     */
+    private void serve(final Socket socket) {
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    socket.setTcpNoDelay(true);
+                    handle(new BufferedInputStream(socket.getInputStream()),
+                            new BufferedOutputStream(socket.getOutputStream()));
+                }
+                catch (IOException e) {
+                    // Connection closed
+                }
+                finally {
+                    try {
+                        socket.close();
+                    }
+                    catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+
+        }, "replay-cache-stand-in-connection");
+
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Reads a single CRLF-terminated line, excluding the CRLF.
+     *
+     * @param input
+     *     The stream to read from.
+     *
+     * @return
+     *     The line read.
+     *
+     * @throws IOException
+     *     If the line cannot be read.
+     */
+    private static String readLine(InputStream input) throws IOException {
+
+        StringBuilder line = new StringBuilder();
+        for (;;) {
+
+            int c = input.read();
+            if (c == -1)
+                throw new EOFException();
+
+            if (c == '\n')
+                return line.toString();
+
+            if (c != '\r')
+                line.append((char) c);
+
+        }
+
+    }
+
+    /**
+     * Reads a single command, sent as a RESP array of bulk strings.
+     *
+     * @param input
+     *     The stream to read from.
+     *
+     * @return
+     *     The elements of the command.
+     *
+     * @throws IOException
+     *     If the command cannot be read or is malformed.
+     */
+    private static List<String> readCommand(InputStream input)
+            throws IOException {
+
+        String header = readLine(input);
+        if (!header.startsWith("*"))
+            throw new IOException("Expected array: " + header);
+
+        int count = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+
+            String length = readLine(input);
+            if (!length.startsWith("$"))
+                throw new IOException("Expected bulk string: " + length);
+
+            byte[] value = new byte[Integer.parseInt(length.substring(1))];
+            int read = 0;
+            while (read < value.length) {
+                int n = input.read(value, read, value.length - read);
+                if (n == -1)
+                    throw new EOFException();
+                read += n;
+            }
+
+            readLine(input);
+            command.add(new String(value, "UTF-8"));
+
+        }
+
+        return command;
+
+    }
+
+    /**
+     * Executes the given "SET" command.
+     *
+     * @param command
+     *     The elements of the command, including "SET" itself.
+     *
+     * @return
+     *     The RESP reply to the command.
+     */
+    private String set(List<String> command) {
+
+        boolean nx = false;
+        long expires = Long.MAX_VALUE;
+        for (int i = 3; i < command.size(); i++) {
+            String option = command.get(i).toUpperCase();
+            if (option.equals("NX"))
+                nx = true;
+            else if (option.equals("PX") && i + 1 < command.size())
+                expires = System.currentTimeMillis() + Long.parseLong(command.get(++i));
+            else
+                return "-ERR syntax error";
+        }
+
+        String key = command.get(1);
+        long now = System.currentTimeMillis();
+
+        // Replace only absent or expired keys if "NX" is specified
+        if (nx) {
+            Long existing = keys.putIfAbsent(key, expires);
+            if (existing != null && (existing > now || !keys.replace(key, existing, expires)))
+                return "$-1";
+        }
+        else
+            keys.put(key, expires);
+
+        // Keep memory usage bounded during long benchmarks
+        if (keys.size() > PURGE_THRESHOLD) {
+            for (Map.Entry<String, Long> entry : keys.entrySet()) {
+                if (entry.getValue() <= now)
+                    keys.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return "+OK";
+
+    }
+
+    /**
+     * Reads and executes commands until the connection is closed.
+     *
+     * @param input
+     *     The stream of commands.
+     *
+     * @param output
+     *     The stream of replies.
+     *
+     * @throws IOException
+     *     If the connection fails or a command is malformed.
+     */
+    private void handle(InputStream input, OutputStream output)
+            throws IOException {
+
+        for (;;) {
+
+            // Count each group of commands arriving together
+            if (input.available() == 0) {
+                output.flush();
+                batches.incrementAndGet();
+            }
+
+            List<String> command = readCommand(input);
+            commands.incrementAndGet();
+
+            String name = command.isEmpty() ? "" : command.get(0).toUpperCase();
+            String reply;
+            if (name.equals("PING"))
+                reply = "+PONG";
+            else if (name.equals("SET") && command.size() >= 3)
+                reply = set(command);
+            else
+                reply = "-ERR unknown command";
+
+            output.write((reply + "\r\n").getBytes("UTF-8"));
+
+        }
+
+    }
+
+    /**
+     * Returns the port on which this stand-in is listening.
+     *
+     * @return
+     *     The port on which this stand-in is listening.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Returns the number of commands received thus far.
+     *
+     * @return
+     *     The number of commands received thus far.
+     */
+    public long getCommands() {
+        return commands.get();
+    }
+
+    /**
+     * Returns the number of groups of commands received thus far. If
+     * commands are pipelined, this will be less than the number of commands.
+     *
+     * @return
+     *     The number of groups of commands received thus far.
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Stops accepting connections.
+     */
+    public void stop() {
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.keys.EllipticCurves;
+import org.jose4j.lang.JoseException;
+
+/**
+ * In-process stand-in for an OpenID provider, signing ID tokens with a
+ * locally-generated RSA or EC key and serving the corresponding JWKS over
+ * HTTP on the loopback interface. The same key may be published under any
+ * number of key IDs, allowing tokens to reference keys which have not yet
+ * been retrieved without generating new key material for every token.
+ *
+ * @author Michael Jumper
+ */
+public class TestIdentityProvider {
+
+    /**
+     * The issuer included within all tokens.
+     */
+    public static final String ISSUER = "https://idp.example.net/";
+
+    /**
+     * The client ID (audience) included within all tokens.
+     */
+    public static final String CLIENT_ID = "guacamole";
+
+    /**
+     * The name of the claim containing the username.
+     */
+    public static final String USERNAME_CLAIM_TYPE = "email";
+
+    /**
+     * The number of seconds after issue that each token expires.
+     */
+    private static final int TOKEN_LIFETIME = 240;
+
+    /**
+     * The signature algorithm used for all tokens.
+     */
+    private final String algorithm;
+
+    /**
+     * The key used to sign all tokens.
+     */
+    private final PublicJsonWebKey signingKey;
+
+    /**
+     * The maximum number of key IDs published within the JWKS at any one
+     * time. Older key IDs are dropped as new key IDs are published.
+     */
+    private final int publishedKeyLimit;
+
+    /**
+     * The key IDs currently published within the JWKS, oldest first.
+     */
+    private final LinkedList<String> publishedKeyIDs = new LinkedList<String>();
+
+    /**
+     * Counter used to generate unique key IDs.
+     */
+    private final AtomicInteger keyIDCounter = new AtomicInteger();
+
+    /**
+     * The number of times the JWKS has been retrieved.
+     */
+    private final AtomicInteger jwksRequests = new AtomicInteger();
+
+    /**
+     * The HTTP server serving the JWKS.
+     */
+    private final HttpServer server;
+
+    /**
+     * Creates and starts a new TestIdentityProvider which signs tokens using
+     * the given algorithm. A single key ID is published initially.
+     *
+     * @param algorithm
+     *     The signature algorithm to use, either "RS256" or "ES256".
+     *
+     * @param publishedKeyLimit
+     *     The maximum number of key IDs to publish within the JWKS at any one
+     *     time.
+     *
+     * @throws JoseException
+     *     If the signing key cannot be generated.
+     *
+     * @throws IOException
+     *     If the HTTP server cannot be started.
+     */
+    public TestIdentityProvider(String algorithm, int publishedKeyLimit)
+            throws JoseException, IOException {
+
+        this.algorithm = algorithm;
+        this.publishedKeyLimit = publishedKeyLimit;
+
+        // Generate signing key
+        if (AlgorithmIdentifiers.RSA_USING_SHA256.equals(algorithm))
+            signingKey = RsaJwkGenerator.generateJwk(2048);
+        else if (AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256.equals(algorithm))
+            signingKey = EcJwkGenerator.generateJwk(EllipticCurves.P256);
+        else
+            throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+
+        publishKeyID();
+
+        // Serve JWKS from loopback interface
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/jwks", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                jwksRequests.incrementAndGet();
+
+                byte[] body;
+                try {
+                    body = getJWKS().getBytes("UTF-8");
+                }
+                catch (JoseException e) {
+                    throw new IOException("Unable to produce JWKS.", e);
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+                exchange.sendResponseHeaders(200, body.length);
+
+                OutputStream output = exchange.getResponseBody();
+                try {
+                    output.write(body);
+                }
+                finally {
+                    output.close();
+                }
+
+            }
+
+        });
+        server.start();
+
+    }
+
+    /**
+     * Publishes the signing key under a new, unique key ID, returning that
+     * key ID. If this would exceed the published key limit, the oldest key
+     * ID is dropped.
+     *
+     * @return
+     *     The newly-published key ID.
+     */
+    public synchronized String publishKeyID() {
+
+        String keyID = "key-" + keyIDCounter.incrementAndGet();
+        publishedKeyIDs.addLast(keyID);
+        while (publishedKeyIDs.size() > publishedKeyLimit)
+            publishedKeyIDs.removeFirst();
+
+        return keyID;
+
+    }
+
+    /**
+     * Returns the most recently-published key ID.
+     *
+     * @return
+     *     The most recently-published key ID.
+     */
+    public synchronized String getCurrentKeyID() {
+        return publishedKeyIDs.getLast();
+    }
+
+    /**
+     * Returns the JSON representation of the JWKS containing the public
+     * portion of the signing key under each published key ID.
+     *
+     * @return
+     *     The JSON representation of the current JWKS.
+     *
+     * @throws JoseException
+     *     If the JWKS cannot be produced.
+     */
+    private String getJWKS() throws JoseException {
+
+        List<String> keyIDs;
+        synchronized (this) {
+            keyIDs = new ArrayList<String>(publishedKeyIDs);
+        }
+
+        List<JsonWebKey> keys = new ArrayList<JsonWebKey>(keyIDs.size());
+        for (String keyID : keyIDs) {
+            PublicJsonWebKey key = PublicJsonWebKey.Factory.newPublicJwk(signingKey.getPublicKey());
+            key.setKeyId(keyID);
+            key.setAlgorithm(algorithm);
+            keys.add(key);
+        }
+
+        return new JsonWebKeySet(keys).toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+
+    }
+
+    /**
+     * Returns the URI of the JWKS served by this identity provider.
+     *
+     * @return
+     *     The URI of the JWKS.
+     */
+    public String getJWKSEndpoint() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/jwks";
+    }
+
+    /**
+     * Returns the number of times the JWKS has been retrieved.
+     *
+     * @return
+     *     The number of times the JWKS has been retrieved.
+     */
+    public int getJWKSRequests() {
+        return jwksRequests.get();
+    }
+
+    /**
+     * Issues a new signed ID token for the given user, referencing the given
+     * key ID.
+     *
+     * @param username
+     *     The username to include within the token.
+     *
+     * @param keyID
+     *     The key ID to include within the header of the token.
+     *
+     * @return
+     *     The compact serialization of the signed ID token.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    public String issue(String username, String keyID) throws JoseException {
+
+        return sign(createClaims(username), keyID);
+
+    }
+
+    /**
+     * Creates the claims of a new, valid ID token for the given user. The
+     * claims may be altered prior to signing to produce invalid tokens.
+     *
+     * @param username
+     *     The username to include within the claims.
+     *
+     * @return
+     *     The claims of a new ID token for the given user.
+     */
+    public JwtClaims createClaims(String username) {
+
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuer(ISSUER);
+        claims.setAudience(CLIENT_ID);
+        claims.setSubject(username);
+        claims.setClaim(USERNAME_CLAIM_TYPE, username);
+        claims.setIssuedAtToNow();
+        claims.setGeneratedJwtId();
+        claims.setExpirationTimeMinutesInTheFuture(TOKEN_LIFETIME / 60f);
+        return claims;
+
+    }
+
+    /**
+     * Signs the given claims, producing an ID token referencing the given
+     * key ID.
+     *
+     * @param claims
+     *     The claims of the token.
+     *
+     * @param keyID
+     *     The key ID to include within the header of the token.
+     *
+     * @return
+     *     The compact serialization of the signed ID token.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    public String sign(JwtClaims claims, String keyID) throws JoseException {
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims.toJson());
+        jws.setKey(signingKey.getPrivateKey());
+        jws.setKeyIdHeaderValue(keyID);
+        jws.setAlgorithmHeaderValue(algorithm);
+        return jws.getCompactSerialization();
+
+    }
+
+    /**
+     * Issues a new signed ID token for the given user, referencing the most
+     * recently-published key ID.
+     *
+     * @param username
+     *     The username to include within the token.
+     *
+     * @return
+     *     The compact serialization of the signed ID token.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    public String issue(String username) throws JoseException {
+        return issue(username, getCurrentKeyID());
+    }
+
+    /**
+     * Stops the HTTP server serving the JWKS.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks repeatedly, doubling the number of threads
+ * with each run from 1 up to the number of available processors (or the
+ * given maximum). Usage:
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.glyptodon.guacamole.auth.oauth.benchmark.ThreadSweep [REGEX [MAX-THREADS]]
+ * </pre>
+ *
+ * @author Michael Jumper
+ */
+public class ThreadSweep {
+
+    /**
+     * Runs the benchmarks matching the given regular expression (by default,
+     * all ValidationBenchmark benchmarks) across a range of thread counts.
+     *
+     * @param args
+     *     The optional regular expression selecting the benchmarks to run,
+     *     followed by the optional maximum number of threads.
+     *
+     * @throws RunnerException
+     *     If the benchmarks cannot be run.
+     */
+    public static void main(String[] args) throws RunnerException {
+
+        String include = args.length >= 1 ? args[0] : ValidationBenchmark.class.getSimpleName();
+        int maxThreads = args.length >= 2 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        // 1, 2, 4, ... up to and including the maximum
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(maxThreads);
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.Credentials;
+import org.glyptodon.guacamole.auth.oauth.AuthenticationProviderService;
+import org.glyptodon.guacamole.auth.oauth.OAuthAuthenticationProvider;
+import org.glyptodon.guacamole.auth.oauth.OAuthAuthenticationProviderModule;
+import org.glyptodon.guacamole.auth.oauth.form.OAuthTokenField;
+import org.glyptodon.guacamole.auth.oauth.token.TokenValidationService;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Benchmarks the validation of received ID tokens, both directly through
+ * TokenValidationService and through the full login path of
+ * AuthenticationProviderService. The extension is configured through a
+ * temporary GUACAMOLE_HOME to use the JWKS served by an in-process
+ * TestIdentityProvider.
+ *
+ * Each benchmark is run under three scenarios:
+ *
+ * <dl>
+ *     <dt>cold</dt>
+ *     <dd>Every token references a key ID published after the JWKS was last
+ *     retrieved, forcing the JWKS to be retrieved again before the token can
+ *     be verified. The token cache is disabled.</dd>
+ *
+ *     <dt>warm</dt>
+ *     <dd>Every token references a key which has already been retrieved, but
+ *     the token cache is disabled, such that every signature is verified.</dd>
+ *
+ *     <dt>repeated</dt>
+ *     <dd>The same token is submitted repeatedly, such that all but the
+ *     first submission are served from the token cache.</dd>
+ * </dl>
+ *
+ * The number of threads is controlled with the standard JMH "-t" option, or
+ * across a range of thread counts with ThreadSweep.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    /**
+     * The signature algorithm of all tokens.
+     */
+    @Param({ "RS256", "ES256" })
+    public String algorithm;
+
+    /**
+     * The caching scenario being measured: "cold", "warm", or "repeated".
+     */
+    @Param({ "cold", "warm", "repeated" })
+    public String scenario;
+
+    /**
+     * The identity provider issuing all tokens and serving the JWKS.
+     */
+    private TestIdentityProvider idp;
+
+    /**
+     * The temporary GUACAMOLE_HOME containing the guacamole.properties used
+     * by the extension.
+     */
+    private File guacamoleHome;
+
+    /**
+     * The service which validates tokens directly.
+     */
+    private TokenValidationService tokenService;
+
+    /**
+     * The service handling the full login path.
+     */
+    private AuthenticationProviderService authService;
+
+    /**
+     * Returns whether the current scenario requires that each token
+     * reference a newly-published key ID.
+     *
+     * @return
+     *     true if each token must reference a newly-published key ID, false
+     *     otherwise.
+     */
+    private boolean isCold() {
+        return "cold".equals(scenario);
+    }
+
+    /**
+     * Starts the identity provider, writes guacamole.properties, and creates
+     * the extension services under test.
+     *
+     * @param params
+     *     The parameters of the current benchmark run, including the number
+     *     of threads.
+     *
+     * @throws Exception
+     *     If the identity provider cannot be started or the extension cannot
+     *     be configured.
+     */
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) throws Exception {
+
+        // Each thread may have one not-yet-retrieved key ID outstanding
+        idp = new TestIdentityProvider(algorithm, params.getThreads() * 2);
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", TestIdentityProvider.ISSUER + "authorize");
+        properties.setProperty("oauth-jwks-endpoint", idp.getJWKSEndpoint());
+        properties.setProperty("oauth-issuer", TestIdentityProvider.ISSUER);
+        properties.setProperty("oauth-client-id", TestIdentityProvider.CLIENT_ID);
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", TestIdentityProvider.USERNAME_CLAIM_TYPE);
+
+        // Tokens are issued directly rather than via a redirect bearing a
+        // nonce
+        properties.setProperty("oauth-nonce-validation", "false");
+
+        // Every token must be fully validated unless explicitly testing
+        // repeated submission of the same token
+        if (!"repeated".equals(scenario))
+            properties.setProperty("oauth-token-cache-size", "0");
+
+        guacamoleHome = File.createTempFile("guacamole-home", "");
+        if (!guacamoleHome.delete() || !guacamoleHome.mkdir())
+            throw new IOException("Unable to create temporary GUACAMOLE_HOME.");
+
+        FileOutputStream output = new FileOutputStream(new File(guacamoleHome, "guacamole.properties"));
+        try {
+            properties.store(output, null);
+        }
+        finally {
+            output.close();
+        }
+
+        System.setProperty("guacamole.home", guacamoleHome.getAbsolutePath());
+
+        OAuthAuthenticationProvider authProvider = new OAuthAuthenticationProvider();
+        Injector injector = Guice.createInjector(new OAuthAuthenticationProviderModule(authProvider));
+        tokenService = injector.getInstance(TokenValidationService.class);
+        authService = injector.getInstance(AuthenticationProviderService.class);
+
+    }
+
+    /**
+     * Stops the identity provider and removes the temporary GUACAMOLE_HOME.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        idp.stop();
+        new File(guacamoleHome, "guacamole.properties").delete();
+        guacamoleHome.delete();
+    }
+
+    /**
+     * The token submitted by a single benchmark thread, along with the
+     * credentials of the HTTP request which submits that token.
+     */
+    @State(Scope.Thread)
+    public static class Login {
+
+        /**
+         * The benchmark state providing the identity provider.
+         */
+        private ValidationBenchmark benchmark;
+
+        /**
+         * The token to submit during the next invocation.
+         */
+        private volatile String token;
+
+        /**
+         * Credentials whose request contains the current token as the
+         * OAuth token parameter.
+         */
+        private Credentials credentials;
+
+        /**
+         * Creates the credentials submitted by this thread.
+         *
+         * @param benchmark
+         *     The benchmark state providing the identity provider.
+         */
+        @Setup(Level.Trial)
+        public void createCredentials(ValidationBenchmark benchmark) {
+
+            this.benchmark = benchmark;
+
+            HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+                    HttpServletRequest.class.getClassLoader(),
+                    new Class<?>[] { HttpServletRequest.class },
+                    new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getParameter".equals(method.getName())
+                            && OAuthTokenField.PARAMETER_NAME.equals(args[0]))
+                        return token;
+                    return null;
+                }
+
+            });
+
+            credentials = new Credentials();
+            credentials.setRequest(request);
+
+        }
+
+        /**
+         * Issues the token used throughout the next iteration, ensuring that
+         * tokens do not expire during long runs.
+         *
+         * @throws JoseException
+         *     If the token cannot be signed.
+         */
+        @Setup(Level.Iteration)
+        public void issueToken() throws JoseException {
+            if (!benchmark.isCold())
+                token = benchmark.idp.issue("user-" + Thread.currentThread().getId());
+        }
+
+        /**
+         * Issues a token referencing a newly-published key ID prior to each
+         * invocation, if testing a cold key cache.
+         *
+         * @throws JoseException
+         *     If the token cannot be signed.
+         */
+        @Setup(Level.Invocation)
+        public void issueColdToken() throws JoseException {
+            if (benchmark.isCold())
+                token = benchmark.idp.issue("user-" + Thread.currentThread().getId(),
+                        benchmark.idp.publishKeyID());
+        }
+
+    }
+
+    /**
+     * Validates the current token using TokenValidationService.
+     *
+     * @param login
+     *     The state of the current thread.
+     *
+     * @return
+     *     The username contained within the token.
+     *
+     * @throws GuacamoleException
+     *     If the token is rejected.
+     */
+    @Benchmark
+    public String processUsername(Login login) throws GuacamoleException {
+        return tokenService.processUsername(login.token);
+    }
+
+    /**
+     * Authenticates using credentials containing the current token, using
+     * the full login path of AuthenticationProviderService.
+     *
+     * @param login
+     *     The state of the current thread.
+     *
+     * @return
+     *     The authenticated user.
+     *
+     * @throws GuacamoleException
+     *     If the token is rejected.
+     */
+    @Benchmark
+    public AuthenticatedUser authenticateUser(Login login) throws GuacamoleException {
+        return authService.authenticateUser(login.credentials);
+    }
+
+}
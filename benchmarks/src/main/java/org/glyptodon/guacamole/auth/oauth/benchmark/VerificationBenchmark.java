@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.benchmark;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.glyptodon.guacamole.auth.oauth.jwks.KeySet;
+import org.glyptodon.guacamole.auth.oauth.token.SignatureVerifier;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jwk.VerificationJwkSelector;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.EllipticCurves;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks locating the key referenced by a token and verifying the
+ * signature of that token, comparing the stock jose4j approach (searching
+ * the JWKS with VerificationJwkSelector and verifying with a Signature looked
+ * up for every token) against the extension's approach (looking up the
+ * already-parsed key within the index of the KeySet and verifying with a
+ * Signature reused by each thread). Key selection is also measured on its
+ * own, using an already-parsed token, as it is independent of the cost of
+ * both parsing and the signature algorithm.
+ *
+ * The signing key is published last within a JWKS containing the given
+ * number of keys, as is typical during key rotation.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerificationBenchmark {
+
+    /**
+     * The signature algorithm of the token.
+     */
+    @Param({ "RS256", "ES256" })
+    public String algorithm;
+
+    /**
+     * The number of keys within the JWKS.
+     */
+    @Param({ "1", "4", "32" })
+    public int keys;
+
+    /**
+     * The key ID of the key which signed the token.
+     */
+    private String keyID;
+
+    /**
+     * The keys published within the JWKS.
+     */
+    private KeySet keySet;
+
+    /**
+     * The signed token.
+     */
+    private String token;
+
+    /**
+     * The already-parsed JWS of the token, used when measuring key selection
+     * alone.
+     */
+    private JsonWebSignature parsed;
+
+    /**
+     * The selector used to search the JWKS in the manner of stock jose4j.
+     */
+    private final VerificationJwkSelector selector = new VerificationJwkSelector();
+
+    /**
+     * Generates a key of the type required by the current algorithm.
+     *
+     * @return
+     *     A newly-generated key of the type required by the current
+     *     algorithm.
+     *
+     * @throws JoseException
+     *     If the key cannot be generated.
+     */
+    private PublicJsonWebKey generateKey() throws JoseException {
+        if (AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256.equals(algorithm))
+            return EcJwkGenerator.generateJwk(EllipticCurves.P256);
+        return RsaJwkGenerator.generateJwk(2048);
+    }
+
+    /**
+     * Generates the keys of the JWKS and signs the token.
+     *
+     * @throws JoseException
+     *     If the keys cannot be generated or the token cannot be signed.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws JoseException {
+
+        List<JsonWebKey> published = new ArrayList<JsonWebKey>(keys);
+        PublicJsonWebKey signingKey = null;
+        for (int i = 0; i < keys; i++) {
+            signingKey = generateKey();
+            signingKey.setKeyId("key-" + i);
+            published.add(signingKey);
+        }
+
+        long now = System.currentTimeMillis();
+        keySet = new KeySet(published, now, now + 3600000);
+        keyID = signingKey.getKeyId();
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload("{\"sub\":\"user\"}");
+        jws.setAlgorithmHeaderValue(algorithm);
+        jws.setKeyIdHeaderValue(keyID);
+        jws.setKey(signingKey.getPrivateKey());
+        token = jws.getCompactSerialization();
+        parsed = parse();
+
+    }
+
+    /**
+     * Parses the token, returning the resulting JWS.
+     *
+     * @return
+     *     The JWS parsed from the token.
+     *
+     * @throws JoseException
+     *     If the token cannot be parsed.
+     */
+    private JsonWebSignature parse() throws JoseException {
+        return (JsonWebSignature) JsonWebStructure.fromCompactSerialization(token);
+    }
+
+    /**
+     * Locates the signing key of the already-parsed token by searching the
+     * JWKS with VerificationJwkSelector.
+     *
+     * @return
+     *     The signing key.
+     *
+     * @throws JoseException
+     *     If the JWKS cannot be searched.
+     */
+    @Benchmark
+    public Key selectSearch() throws JoseException {
+        return selector.select(parsed, keySet.getKeys()).getKey();
+    }
+
+    /**
+     * Locates the signing key of the already-parsed token within the index
+     * of the KeySet.
+     *
+     * @return
+     *     The signing key.
+     */
+    @Benchmark
+    public Key selectIndexed() {
+        return keySet.getKey(parsed.getKeyIdHeaderValue(), parsed.getAlgorithmHeaderValue());
+    }
+
+    /**
+     * Locates the signing key by searching the JWKS and verifies the token
+     * using jose4j, which looks up a new Signature for each token.
+     *
+     * @return
+     *     Whether the signature is valid.
+     *
+     * @throws JoseException
+     *     If the token cannot be parsed or verified.
+     */
+    @Benchmark
+    public boolean verifySearch() throws JoseException {
+        JsonWebSignature jws = parse();
+        jws.setKey(selector.select(jws, keySet.getKeys()).getKey());
+        return jws.verifySignature();
+    }
+
+    /**
+     * Locates the signing key within the index of the KeySet and verifies
+     * the token using SignatureVerifier, which reuses a Signature for each
+     * thread.
+     *
+     * @return
+     *     Whether the signature is valid.
+     *
+     * @throws JoseException
+     *     If the token cannot be parsed or verified.
+     */
+    @Benchmark
+    public boolean verifyIndexed() throws JoseException {
+        JsonWebSignature jws = parse();
+        return SignatureVerifier.verify(jws,
+                keySet.getKey(jws.getKeyIdHeaderValue(), jws.getAlgorithmHeaderValue()));
+    }
+
+}
@@ -25,16 +25,34 @@ package org.glyptodon.guacamole.auth.oauth;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.Arrays;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.GuacamoleClientTooManyException;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
 import org.apache.guacamole.form.Field;
 import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.net.auth.credentials.CredentialsInfo;
 import org.apache.guacamole.net.auth.credentials.GuacamoleInvalidCredentialsException;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.conf.AuthorizationFlow;
 import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.ValidationMode;
+import org.glyptodon.guacamole.auth.oauth.exchange.ExchangeResult;
+import org.glyptodon.guacamole.auth.oauth.exchange.TokenExchangeService;
 import org.glyptodon.guacamole.auth.oauth.form.OAuthTokenField;
+import org.glyptodon.guacamole.auth.oauth.groups.GroupService;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.nonce.NonceService;
+import org.glyptodon.guacamole.auth.oauth.ratelimit.RateLimitService;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
 import org.glyptodon.guacamole.auth.oauth.token.TokenValidationService;
 import org.glyptodon.guacamole.auth.oauth.user.AuthenticatedUser;
+import org.glyptodon.guacamole.auth.oauth.user.OAuthUserContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,6 +81,37 @@ public class AuthenticationProviderService {
     @Inject
     private TokenValidationService tokenService;
 
+    /**
+     * Service for exchanging authorization codes for tokens.
+     */
+    @Inject
+    private TokenExchangeService exchangeService;
+
+    /**
+     * Service for issuing and verifying the nonce of each login.
+     */
+    @Inject
+    private NonceService nonceService;
+
+    /**
+     * Service for resolving the groups of users and the permissions granted
+     * by those groups.
+     */
+    @Inject
+    private GroupService groupService;
+
+    /**
+     * Service for limiting the rate and concurrency of logins.
+     */
+    @Inject
+    private RateLimitService rateLimitService;
+
+    /**
+     * Metrics recording the outcome and latency of each login.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
     /**
      * Provider for AuthenticatedUser objects.
      */
@@ -87,38 +136,162 @@ public class AuthenticationProviderService {
     public AuthenticatedUser authenticateUser(Credentials credentials)
             throws GuacamoleException {
 
+        // Refuse any further requests from clients which have exceeded their
+        // rate limit, whether or not those requests contain a token
+        try {
+            rateLimitService.checkAddress(credentials.getRemoteAddress());
+        }
+        catch (GuacamoleClientTooManyException e) {
+            metrics.recordFailure(FailureCause.RATE_LIMITED);
+            throw e;
+        }
+
         String token = null;
+        String code = null;
+        String state = null;
 
-        // Pull OAuth token from request if present
+        // Pull OAuth token (or authorization code) from request if present
         HttpServletRequest request = credentials.getRequest();
-        if (request != null)
-            token = request.getParameter(OAuthTokenField.PARAMETER_NAME);
+        if (request != null) {
+            if (confService.getAuthorizationFlow() == AuthorizationFlow.CODE)
+                code = request.getParameter(OAuthTokenField.CODE_PARAMETER_NAME);
+            else
+                token = request.getParameter(
+                        confService.getValidationMode() == ValidationMode.INTROSPECTION
+                        ? OAuthTokenField.ACCESS_TOKEN_PARAMETER_NAME
+                        : OAuthTokenField.PARAMETER_NAME);
+            state = request.getParameter(OAuthTokenField.STATE_PARAMETER_NAME);
+        }
 
         // If token provided, validate and produce authenticated user
-        if (token != null) {
+        if (token != null || code != null) {
+
+            // Refuse the login outright, rather than waiting, if too many
+            // logins are already being validated
+            RateLimitService.Permit permit;
+            try {
+                permit = rateLimitService.acquire();
+            }
+            catch (GuacamoleServerBusyException e) {
+                metrics.recordFailure(FailureCause.OVERLOADED);
+                throw e;
+            }
 
-            // Create corresponding authenticated user
-            AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
-            authenticatedUser.init(tokenService.processUsername(token), credentials);
-            return authenticatedUser;
+            long start = System.nanoTime();
+            try {
+
+                // Verify that this login was begun by this browser, is
+                // pending, and has not already been completed (the state is
+                // the nonce issued for the login). This is verified before
+                // any code is exchanged or any token is validated, such that
+                // neither may be submitted twice, even if the resulting token
+                // is already cached.
+                boolean nonceRequired = confService.isNonceValidationEnabled();
+                nonceService.consume(request, state);
+
+                // Obtain token from OAuth service if only a code was provided,
+                // retaining any access token for later group lookups
+                String accessToken = null;
+                if (code != null) {
+                    ExchangeResult result = exchangeService.exchange(code);
+                    token = result.getToken();
+                    accessToken = result.getAccessToken();
+                }
+                else if (confService.getValidationMode() == ValidationMode.INTROSPECTION)
+                    accessToken = token;
+
+                // Any ID token must also have been issued for this login
+                String nonce = nonceRequired ? state : null;
+
+                // Create corresponding authenticated user
+                UserIdentity identity = tokenService.processIdentity(token,
+                        nonce, accessToken);
+
+                // Refuse users which have exceeded their rate limit before
+                // performing any further lookups
+                rateLimitService.checkUser(identity.getUsername());
+                identity = groupService.resolve(identity, accessToken);
+
+                AuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
+                authenticatedUser.init(identity, credentials);
+                metrics.recordSuccess();
+                return authenticatedUser;
+
+            }
+
+            // Record reason for any failure
+            catch (InvalidTokenException e) {
+                metrics.recordFailure(e.getFailureCause());
+                throw e;
+            }
+            catch (GuacamoleServerBusyException e) {
+                metrics.recordFailure(FailureCause.OVERLOADED);
+                throw e;
+            }
+            catch (GuacamoleClientTooManyException e) {
+                metrics.recordFailure(FailureCause.RATE_LIMITED);
+                throw e;
+            }
+            catch (GuacamoleException e) {
+                metrics.recordFailure(FailureCause.ERROR);
+                throw e;
+            }
+
+            finally {
+                permit.release();
+                metrics.recordLatency(Stage.LOGIN, System.nanoTime() - start);
+            }
 
         }
 
+        metrics.recordCredentialsRequested();
+
         // Request OAuth token
         throw new GuacamoleInvalidCredentialsException("Invalid login.",
             new CredentialsInfo(Arrays.asList(new Field[] {
 
                 // OAuth-specific token (will automatically redirect the user
                 // to the authorization page via JavaScript)
-                new OAuthTokenField(
-                    confService.getAuthorizationEndpoint(),
-                    confService.getClientID(),
-                    confService.getRedirectURI()
-                )
+                new OAuthTokenField(confService.getAuthorizationURITemplate(),
+                        nonceService.generate())
 
             }))
         );
 
     }
 
+    /**
+     * Returns a UserContext granting the given user the system permissions
+     * associated with that user's groups. If no permissions are associated
+     * with any groups, or the user was not authenticated via OAuth, no
+     * UserContext is produced.
+     *
+     * @param authenticatedUser
+     *     The user for whom a UserContext should be produced.
+     *
+     * @return
+     *     A UserContext granting the given user the permissions of that
+     *     user's groups, or null if no such UserContext is needed.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public UserContext getUserContext(
+            org.apache.guacamole.net.auth.AuthenticatedUser authenticatedUser)
+            throws GuacamoleException {
+
+        // Only users authenticated via OAuth have groups
+        if (!(authenticatedUser instanceof AuthenticatedUser))
+            return null;
+
+        Set<SystemPermission> permissions = groupService.getSystemPermissions(
+                ((AuthenticatedUser) authenticatedUser).getEffectiveUserGroups());
+        if (permissions == null)
+            return null;
+
+        return new OAuthUserContext(authenticatedUser.getAuthenticationProvider(),
+                authenticatedUser.getIdentifier(), permissions);
+
+    }
+
 }
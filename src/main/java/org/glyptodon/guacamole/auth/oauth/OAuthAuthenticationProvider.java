@@ -29,6 +29,11 @@ import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
 import org.apache.guacamole.net.auth.Credentials;
 import org.apache.guacamole.net.auth.UserContext;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.nonce.NonceService;
+import org.glyptodon.guacamole.auth.oauth.ratelimit.RateLimitService;
+import org.glyptodon.guacamole.auth.oauth.replay.ReplayCacheService;
+import org.glyptodon.guacamole.auth.oauth.token.TokenValidationService;
 
 /**
  * Guacamole authentication backend which authenticates users using an
@@ -61,6 +66,22 @@ public class OAuthAuthenticationProvider implements AuthenticationProvider {
             new OAuthAuthenticationProviderModule(this)
         );
 
+        // Build the token validator immediately, such that the login path
+        // need not consult guacamole.properties for each received token
+        injector.getInstance(TokenValidationService.class).init();
+
+        // Publish login metrics
+        injector.getInstance(LoginMetrics.class).start();
+
+        // Begin removing the nonces of abandoned logins
+        injector.getInstance(NonceService.class).start();
+
+        // Begin removing expired tokens from the replay cache
+        injector.getInstance(ReplayCacheService.class).start();
+
+        // Begin removing the rate limits of idle clients and users
+        injector.getInstance(RateLimitService.class).start();
+
     }
 
     @Override
@@ -92,8 +113,9 @@ public class OAuthAuthenticationProvider implements AuthenticationProvider {
     public UserContext getUserContext(AuthenticatedUser authenticatedUser)
             throws GuacamoleException {
 
-        // No associated data whatsoever
-        return null;
+        // Grant any permissions associated with the user's groups
+        AuthenticationProviderService authProviderService = injector.getInstance(AuthenticationProviderService.class);
+        return authProviderService.getUserContext(authenticatedUser);
 
     }
 
@@ -24,11 +24,25 @@ package org.glyptodon.guacamole.auth.oauth;
 
 import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
 import com.google.inject.AbstractModule;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.glyptodon.guacamole.auth.oauth.discovery.DiscoveryService;
+import org.glyptodon.guacamole.auth.oauth.groups.GroupService;
+import org.glyptodon.guacamole.auth.oauth.http.FetchService;
+import org.glyptodon.guacamole.auth.oauth.jwks.JWKSService;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.nonce.InMemoryNonceStore;
+import org.glyptodon.guacamole.auth.oauth.nonce.NonceService;
+import org.glyptodon.guacamole.auth.oauth.nonce.NonceStore;
+import org.glyptodon.guacamole.auth.oauth.ratelimit.RateLimitService;
+import org.glyptodon.guacamole.auth.oauth.replay.ReplayCacheService;
 import org.glyptodon.guacamole.auth.oauth.token.TokenValidationService;
+import org.glyptodon.guacamole.auth.oauth.userinfo.UserInfoService;
 
 /**
  * Guice module which configures OAuth-specific injections.
@@ -42,6 +56,26 @@ public class OAuthAuthenticationProviderModule extends AbstractModule {
      */
     private final Environment environment;
 
+    /**
+     * Executor which performs short, periodic background tasks, such as
+     * sweeping expired entries from caches and scheduling refreshes of cached
+     * keys and provider metadata. Tasks which may block, such as the
+     * refreshes themselves, are handed off to the refresh executor of the
+     * FetchService. The single thread of this executor is a daemon thread,
+     * and will not prevent the JVM from shutting down.
+     */
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-auth-openid");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
     /**
      * A reference to the OAuthAuthenticationProvider on behalf of which this
      * module has configured injection.
@@ -76,10 +110,24 @@ public class OAuthAuthenticationProviderModule extends AbstractModule {
         // Bind core implementations of guacamole-ext classes
         bind(AuthenticationProvider.class).toInstance(authProvider);
         bind(Environment.class).toInstance(environment);
+        bind(ScheduledExecutorService.class).toInstance(executor);
 
         // Bind OAuth-specific services
         bind(ConfigurationService.class);
+        bind(DiscoveryService.class);
+        bind(FetchService.class);
+        bind(GroupService.class);
+        bind(JWKSService.class);
+        bind(LoginMetrics.class);
+        bind(NonceService.class);
+        bind(RateLimitService.class);
+        bind(ReplayCacheService.class);
         bind(TokenValidationService.class);
+        bind(UserInfoService.class);
+
+        // Pending logins are tracked in the memory of this server unless
+        // overridden, and thus must be completed via the same server
+        bind(NonceStore.class).to(InMemoryNonceStore.class);
 
     }
 
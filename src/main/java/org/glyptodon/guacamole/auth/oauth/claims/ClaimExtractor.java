@@ -0,0 +1,629 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.claims;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Extracts specific top-level claims from the JSON claims of a token in a
+ * single pass, without building objects for any other claims. Claims which
+ * are not extracted are still checked to be well-formed JSON, but are
+ * otherwise skipped without allocation, such that large claims which are
+ * never used (such as lengthy "groups" arrays) cost little more than the
+ * time taken to scan past them. Extracted values have the same types as
+ * those produced by jose4j: String, Long, Double, Boolean, List, and Map.
+ * Instances are immutable and may be shared by multiple threads.
+ *
+ * @author Michael Jumper
+ */
+public class ClaimExtractor {
+
+    /**
+     * The maximum depth to which arrays and objects may be nested. Deeper
+     * structures are rejected rather than risking exhaustion of the stack.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The names of all claims to be extracted.
+     */
+    private final String[] names;
+
+    /**
+     * Creates a new ClaimExtractor which extracts the top-level claims having
+     * the given names.
+     *
+     * @param names
+     *     The names of all claims to be extracted. Duplicate names are
+     *     ignored.
+     */
+    public ClaimExtractor(Collection<String> names) {
+        LinkedHashSet<String> unique = new LinkedHashSet<String>(names);
+        this.names = unique.toArray(new String[unique.size()]);
+    }
+
+    /**
+     * The state of extraction from a single JSON object.
+     */
+    private class Parser {
+
+        /**
+         * The JSON being parsed.
+         */
+        private final String json;
+
+        /**
+         * The index of the next character to be parsed.
+         */
+        private int pos = 0;
+
+        /**
+         * Creates a new Parser which parses the given JSON from the
+         * beginning.
+         *
+         * @param json
+         *     The JSON to parse.
+         */
+        public Parser(String json) {
+            this.json = json;
+        }
+
+        /**
+         * Returns a new exception describing a syntax error at the current
+         * position.
+         *
+         * @return
+         *     A new exception describing a syntax error at the current
+         *     position.
+         */
+        private JoseException error() {
+            return new JoseException("Malformed JSON at position " + pos + ".");
+        }
+
+        /**
+         * Advances past any whitespace, returning the next non-whitespace
+         * character without consuming it.
+         *
+         * @return
+         *     The next non-whitespace character, or -1 if the end of the JSON
+         *     has been reached.
+         */
+        private int peek() {
+
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                    return c;
+                pos++;
+            }
+
+            return -1;
+
+        }
+
+        /**
+         * Consumes the given character, which must be the next
+         * non-whitespace character.
+         *
+         * @param expected
+         *     The character expected.
+         *
+         * @throws JoseException
+         *     If the next non-whitespace character is not the expected
+         *     character.
+         */
+        private void expect(char expected) throws JoseException {
+            if (peek() != expected)
+                throw error();
+            pos++;
+        }
+
+        /**
+         * Advances past a string whose opening quote has already been
+         * consumed, including its closing quote, without decoding the
+         * string.
+         *
+         * @return
+         *     true if the string contains escape sequences, false otherwise.
+         *
+         * @throws JoseException
+         *     If the string is unterminated or contains an invalid escape
+         *     sequence or unescaped control character.
+         */
+        private boolean skipString() throws JoseException {
+
+            boolean escaped = false;
+            while (pos < json.length()) {
+
+                char c = json.charAt(pos++);
+                if (c == '"')
+                    return escaped;
+
+                if (c == '\\') {
+                    escaped = true;
+                    if (pos >= json.length())
+                        break;
+                    char escape = json.charAt(pos++);
+                    if (escape == 'u') {
+                        if (pos + 4 > json.length())
+                            break;
+                        for (int i = 0; i < 4; i++) {
+                            if (Character.digit(json.charAt(pos++), 16) == -1)
+                                throw error();
+                        }
+                    }
+                    else if ("\"\\/bfnrt".indexOf(escape) == -1)
+                        throw error();
+                }
+
+                else if (c < 0x20)
+                    throw error();
+
+            }
+
+            throw error();
+
+        }
+
+        /**
+         * Decodes the string between the given start index and the current
+         * position, which must immediately follow the closing quote of a
+         * string already validated by skipString().
+         *
+         * @param start
+         *     The index of the first character after the opening quote.
+         *
+         * @param escaped
+         *     Whether the string contains escape sequences, as returned by
+         *     skipString().
+         *
+         * @return
+         *     The decoded string.
+         */
+        private String decodeString(int start, boolean escaped) {
+
+            int end = pos - 1;
+            if (!escaped)
+                return json.substring(start, end);
+
+            StringBuilder decoded = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+
+                char c = json.charAt(i);
+                if (c != '\\') {
+                    decoded.append(c);
+                    continue;
+                }
+
+                char escape = json.charAt(++i);
+                switch (escape) {
+                    case 'b': decoded.append('\b'); break;
+                    case 'f': decoded.append('\f'); break;
+                    case 'n': decoded.append('\n'); break;
+                    case 'r': decoded.append('\r'); break;
+                    case 't': decoded.append('\t'); break;
+                    case 'u':
+                        decoded.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default: decoded.append(escape);
+                }
+
+            }
+
+            return decoded.toString();
+
+        }
+
+        /**
+         * Advances past a number, returning whether the number has a
+         * fractional part or exponent.
+         *
+         * @return
+         *     true if the number has a fractional part or exponent, false if
+         *     the number is an integer.
+         *
+         * @throws JoseException
+         *     If the number is malformed.
+         */
+        private boolean skipNumber() throws JoseException {
+
+            boolean integer = true;
+
+            if (pos < json.length() && json.charAt(pos) == '-')
+                pos++;
+
+            // Integer part, without leading zeroes
+            if (pos < json.length() && json.charAt(pos) == '0')
+                pos++;
+            else if (skipDigits() == 0)
+                throw error();
+
+            // Optional fractional part
+            if (pos < json.length() && json.charAt(pos) == '.') {
+                pos++;
+                integer = false;
+                if (skipDigits() == 0)
+                    throw error();
+            }
+
+            // Optional exponent
+            if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+                pos++;
+                integer = false;
+                if (pos < json.length() && (json.charAt(pos) == '+' || json.charAt(pos) == '-'))
+                    pos++;
+                if (skipDigits() == 0)
+                    throw error();
+            }
+
+            return !integer;
+
+        }
+
+        /**
+         * Advances past any decimal digits.
+         *
+         * @return
+         *     The number of digits skipped.
+         */
+        private int skipDigits() {
+            int start = pos;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9')
+                pos++;
+            return pos - start;
+        }
+
+        /**
+         * Advances past the given literal, which must begin at the current
+         * position.
+         *
+         * @param literal
+         *     The literal expected, such as "true".
+         *
+         * @throws JoseException
+         *     If the given literal does not begin at the current position.
+         */
+        private void skipLiteral(String literal) throws JoseException {
+            if (!json.startsWith(literal, pos))
+                throw error();
+            pos += literal.length();
+        }
+
+        /**
+         * Parses or skips the value beginning at the next non-whitespace
+         * character.
+         *
+         * @param depth
+         *     The number of arrays and objects enclosing the value.
+         *
+         * @param build
+         *     Whether the value should be returned. If false, the value is
+         *     only checked for validity, and null is returned.
+         *
+         * @return
+         *     The parsed value, or null if the value is null or was skipped.
+         *
+         * @throws JoseException
+         *     If the value is malformed or too deeply nested.
+         */
+        private Object value(int depth, boolean build) throws JoseException {
+
+            int c = peek();
+            int start = pos;
+            switch (c) {
+
+                case '"': {
+                    pos++;
+                    boolean escaped = skipString();
+                    return build ? decodeString(start + 1, escaped) : null;
+                }
+
+                case '{':
+                    return object(depth + 1, build);
+
+                case '[':
+                    return array(depth + 1, build);
+
+                case 't':
+                    skipLiteral("true");
+                    return build ? Boolean.TRUE : null;
+
+                case 'f':
+                    skipLiteral("false");
+                    return build ? Boolean.FALSE : null;
+
+                case 'n':
+                    skipLiteral("null");
+                    return null;
+
+            }
+
+            if (c != '-' && (c < '0' || c > '9'))
+                throw error();
+
+            boolean decimal = skipNumber();
+            if (!build)
+                return null;
+
+            String number = json.substring(start, pos);
+            try {
+                if (decimal)
+                    return Double.valueOf(number);
+                return Long.valueOf(number);
+            }
+            catch (NumberFormatException e) {
+                throw new JoseException("Unparseable number \"" + number + "\".", e);
+            }
+
+        }
+
+        /**
+         * Parses or skips the array beginning at the next non-whitespace
+         * character.
+         *
+         * @param depth
+         *     The number of arrays and objects enclosing the array, including
+         *     the array itself.
+         *
+         * @param build
+         *     Whether the array should be returned. If false, the array is
+         *     only checked for validity, and null is returned.
+         *
+         * @return
+         *     The parsed array, or null if the array was skipped.
+         *
+         * @throws JoseException
+         *     If the array is malformed or too deeply nested.
+         */
+        private List<Object> array(int depth, boolean build)
+                throws JoseException {
+
+            if (depth > MAX_DEPTH)
+                throw error();
+
+            expect('[');
+            List<Object> array = build ? new ArrayList<Object>() : null;
+
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+
+            do {
+                Object element = value(depth, build);
+                if (build)
+                    array.add(element);
+            } while (next(']'));
+
+            return array;
+
+        }
+
+        /**
+         * Parses or skips the object beginning at the next non-whitespace
+         * character. Duplicate member names are rejected within any object
+         * which is parsed.
+         *
+         * @param depth
+         *     The number of arrays and objects enclosing the object,
+         *     including the object itself.
+         *
+         * @param build
+         *     Whether the object should be returned. If false, the object is
+         *     only checked for validity, and null is returned.
+         *
+         * @return
+         *     The parsed object, or null if the object was skipped.
+         *
+         * @throws JoseException
+         *     If the object is malformed, contains duplicate member names, or
+         *     is too deeply nested.
+         */
+        private Map<String, Object> object(int depth, boolean build)
+                throws JoseException {
+
+            if (depth > MAX_DEPTH)
+                throw error();
+
+            expect('{');
+            Map<String, Object> object = build ? new LinkedHashMap<String, Object>() : null;
+
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+
+            do {
+
+                expect('"');
+                int start = pos;
+                boolean escaped = skipString();
+                String name = build ? decodeString(start, escaped) : null;
+                expect(':');
+
+                if (!build) {
+                    value(depth, false);
+                    continue;
+                }
+
+                if (object.containsKey(name))
+                    throw new JoseException("Duplicate member \"" + name + "\".");
+                object.put(name, value(depth, true));
+
+            } while (next('}'));
+
+            return object;
+
+        }
+
+        /**
+         * Consumes the separator following an element of an array or a
+         * member of an object.
+         *
+         * @param close
+         *     The character which closes the enclosing array or object.
+         *
+         * @return
+         *     true if another element or member follows, false if the
+         *     enclosing array or object has been closed.
+         *
+         * @throws JoseException
+         *     If the next non-whitespace character is neither a comma nor the
+         *     given closing character.
+         */
+        private boolean next(char close) throws JoseException {
+
+            int c = peek();
+            pos++;
+
+            if (c == ',')
+                return true;
+
+            if (c == close)
+                return false;
+
+            pos--;
+            throw error();
+
+        }
+
+        /**
+         * Returns the index of the requested claim name matching the name
+         * of the member beginning at the given index and ending immediately
+         * before the current position (which follows the closing quote).
+         *
+         * @param start
+         *     The index of the first character after the opening quote.
+         *
+         * @param escaped
+         *     Whether the name contains escape sequences.
+         *
+         * @return
+         *     The index of the matching claim name within the names array,
+         *     or -1 if the member is not to be extracted.
+         */
+        private int match(int start, boolean escaped) {
+
+            // Names containing escapes must be decoded prior to comparison
+            if (escaped) {
+                String name = decodeString(start, true);
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(name))
+                        return i;
+                }
+                return -1;
+            }
+
+            // Otherwise, compare in place
+            int length = pos - 1 - start;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].length() == length
+                        && json.regionMatches(start, names[i], 0, length))
+                    return i;
+            }
+
+            return -1;
+
+        }
+
+        /**
+         * Extracts the requested claims from the top-level JSON object,
+         * skipping all other claims. The JSON must consist of exactly one
+         * object.
+         *
+         * @return
+         *     A new map of each requested claim present within the JSON to
+         *     its value.
+         *
+         * @throws JoseException
+         *     If the JSON is malformed, is not an object, or contains any
+         *     requested claim more than once.
+         */
+        public Map<String, Object> claims() throws JoseException {
+
+            Map<String, Object> claims = new LinkedHashMap<String, Object>(names.length * 2);
+
+            expect('{');
+            if (peek() == '}')
+                pos++;
+
+            else {
+                do {
+
+                    expect('"');
+                    int start = pos;
+                    int index = match(start, skipString());
+                    expect(':');
+
+                    if (index == -1) {
+                        value(1, false);
+                        continue;
+                    }
+
+                    if (claims.containsKey(names[index]))
+                        throw new JoseException("Duplicate claim \""
+                                + names[index] + "\".");
+                    claims.put(names[index], value(1, true));
+
+                } while (next('}'));
+            }
+
+            // Nothing may follow the object
+            if (peek() != -1)
+                throw error();
+
+            return claims;
+
+        }
+
+    }
+
+    /**
+     * Extracts the requested claims from the given JSON object, which must be
+     * the JSON claims of a token. Claims which are not requested are not
+     * returned, and are checked only for syntax. A requested claim which
+     * appears more than once causes the JSON to be rejected, as would any
+     * duplicate member name within the value of a requested claim.
+     *
+     * @param json
+     *     The JSON claims of a token.
+     *
+     * @return
+     *     A new map of each requested claim present within the given JSON to
+     *     its value. Claims which are absent are not included.
+     *
+     * @throws JoseException
+     *     If the given JSON is malformed, is not an object, or contains any
+     *     requested claim more than once.
+     */
+    public Map<String, Object> extract(String json) throws JoseException {
+        return new Parser(json).claims();
+    }
+
+}
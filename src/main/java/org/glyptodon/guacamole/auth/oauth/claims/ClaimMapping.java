@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.claims;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled plan for deriving the attributes and groups of a user from the
+ * claims of a validated token. Each attribute and group source is a
+ * ClaimPath, compiled once when the configuration is read, such that
+ * applying the plan to a token requires only walking the claims which were
+ * already parsed during validation.
+ *
+ * @author Michael Jumper
+ */
+public class ClaimMapping {
+
+    /**
+     * The path of the claim which names the source of the "groups" claim if
+     * the groups of the user were omitted from the token, as done by Azure
+     * AD when a user is a member of too many groups (a "groups overage").
+     * This uses the aggregated and distributed claims mechanism of OpenID
+     * Connect Core 1.0, section 5.6.2.
+     */
+    private static final ClaimPath OVERAGE_SOURCE = new ClaimPath("_claim_names.groups");
+
+    /**
+     * The path of the claim which Azure AD includes in place of the "groups"
+     * claim, with the value true, if the groups of the user were omitted from
+     * a token issued via the implicit flow.
+     */
+    private static final ClaimPath HAS_GROUPS = new ClaimPath("hasgroups");
+
+    /**
+     * A ClaimMapping which maps no attributes and no groups.
+     */
+    public static final ClaimMapping NONE = new ClaimMapping(
+            Collections.<String, ClaimPath>emptyMap(),
+            Collections.<ClaimPath>emptyList());
+
+    /**
+     * The name of each mapped attribute.
+     */
+    private final String[] attributeNames;
+
+    /**
+     * The path to the value(s) of each mapped attribute, in the same order
+     * as attributeNames.
+     */
+    private final ClaimPath[] attributePaths;
+
+    /**
+     * The paths to all group names.
+     */
+    private final ClaimPath[] groupPaths;
+
+    /**
+     * Creates a new ClaimMapping which maps the given attributes and groups.
+     *
+     * @param attributes
+     *     The path to the value(s) of each mapped attribute, keyed by
+     *     attribute name.
+     *
+     * @param groups
+     *     The paths to all group names.
+     */
+    public ClaimMapping(Map<String, ClaimPath> attributes,
+            List<ClaimPath> groups) {
+
+        attributeNames = attributes.keySet().toArray(new String[attributes.size()]);
+        attributePaths = attributes.values().toArray(new ClaimPath[attributes.size()]);
+        groupPaths = groups.toArray(new ClaimPath[groups.size()]);
+
+    }
+
+    /**
+     * Splits the given comma-separated list, ignoring commas within quoted
+     * claim names, and trimming whitespace from each element. Empty elements
+     * are omitted.
+     *
+     * @param list
+     *     The comma-separated list to split.
+     *
+     * @return
+     *     The elements of the given list.
+     */
+    private static List<String> split(String list) {
+
+        List<String> elements = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+
+        for (int i = 0; i <= list.length(); i++) {
+
+            if (i == list.length() || (!quoted && list.charAt(i) == ',')) {
+                String element = list.substring(start, i).trim();
+                if (!element.isEmpty())
+                    elements.add(element);
+                start = i + 1;
+            }
+
+            else if (list.charAt(i) == '"')
+                quoted = !quoted;
+
+        }
+
+        return elements;
+
+    }
+
+    /**
+     * Parses the given comma-separated list of attribute mappings, each of
+     * the form "NAME=PATH", where NAME is the name of the attribute and PATH
+     * is the claim path of its value.
+     *
+     * @param mappings
+     *     The comma-separated list of attribute mappings to parse, or null if
+     *     no attributes are mapped.
+     *
+     * @return
+     *     The compiled path of each mapped attribute, keyed by attribute name,
+     *     in the order given.
+     *
+     * @throws IllegalArgumentException
+     *     If any mapping or claim path is not syntactically valid.
+     */
+    public static Map<String, ClaimPath> parseAttributes(String mappings)
+            throws IllegalArgumentException {
+
+        Map<String, ClaimPath> attributes = new LinkedHashMap<String, ClaimPath>();
+        if (mappings == null)
+            return attributes;
+
+        for (String mapping : split(mappings)) {
+
+            int equals = mapping.indexOf('=');
+            if (equals <= 0)
+                throw new IllegalArgumentException("Attribute mapping \""
+                        + mapping + "\" is not of the form \"NAME=PATH\".");
+
+            attributes.put(mapping.substring(0, equals).trim(),
+                    new ClaimPath(mapping.substring(equals + 1).trim()));
+
+        }
+
+        return attributes;
+
+    }
+
+    /**
+     * Parses the given comma-separated list of claim paths.
+     *
+     * @param paths
+     *     The comma-separated list of claim paths to parse, or null if there
+     *     are no such paths.
+     *
+     * @return
+     *     The compiled claim paths, in the order given.
+     *
+     * @throws IllegalArgumentException
+     *     If any claim path is not syntactically valid.
+     */
+    public static List<ClaimPath> parsePaths(String paths)
+            throws IllegalArgumentException {
+
+        List<ClaimPath> compiled = new ArrayList<ClaimPath>();
+        if (paths == null)
+            return compiled;
+
+        for (String path : split(paths))
+            compiled.add(new ClaimPath(path));
+
+        return compiled;
+
+    }
+
+    /**
+     * Returns the names of all top-level claims read by this mapping,
+     * including those which indicate that groups were omitted from the
+     * token. Claims not named here have no effect on the result of map().
+     *
+     * @return
+     *     A new set containing the names of all top-level claims read by
+     *     this mapping.
+     */
+    public Set<String> getClaimNames() {
+
+        Set<String> claimNames = new LinkedHashSet<String>();
+        for (ClaimPath path : attributePaths)
+            claimNames.add(path.getClaimName());
+
+        if (groupPaths.length > 0) {
+            for (ClaimPath path : groupPaths)
+                claimNames.add(path.getClaimName());
+            claimNames.add(OVERAGE_SOURCE.getClaimName());
+            claimNames.add(HAS_GROUPS.getClaimName());
+        }
+
+        return claimNames;
+
+    }
+
+    /**
+     * Returns whether the given claims indicate that the groups of the user
+     * were omitted from the token, as the user is a member of too many
+     * groups.
+     *
+     * @param claims
+     *     The claims of the validated token, as a Map of claim name to value.
+     *
+     * @return
+     *     true if the groups of the user were omitted from the token, false
+     *     otherwise.
+     */
+    private static boolean isGroupOverage(Map<String, ?> claims) {
+
+        List<String> indicators = new ArrayList<String>(1);
+        OVERAGE_SOURCE.collect(claims, indicators);
+        HAS_GROUPS.collect(claims, indicators);
+
+        for (String indicator : indicators) {
+            if (!indicator.equals("false"))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Derives the identity of the user having the given username from the
+     * given claims. Attributes having multiple values are represented by
+     * those values separated by commas. Attributes having no value are
+     * omitted. If groups are mapped and the claims indicate that the groups
+     * of the user were omitted from the token, the returned identity is
+     * marked as having a group overage.
+     *
+     * @param username
+     *     The username of the user.
+     *
+     * @param claims
+     *     The claims of the validated token, as a Map of claim name to value.
+     *
+     * @return
+     *     The identity of the user, including all mapped attributes and
+     *     groups.
+     */
+    public UserIdentity map(String username, Map<String, ?> claims) {
+
+        // Map each attribute
+        Map<String, String> attributes = Collections.emptyMap();
+        if (attributeNames.length > 0) {
+
+            attributes = new LinkedHashMap<String, String>(attributeNames.length * 2);
+            List<String> values = new ArrayList<String>(4);
+            for (int i = 0; i < attributeNames.length; i++) {
+
+                values.clear();
+                attributePaths[i].collect(claims, values);
+
+                if (values.size() == 1)
+                    attributes.put(attributeNames[i], values.get(0));
+                else if (!values.isEmpty()) {
+                    StringBuilder joined = new StringBuilder(values.get(0));
+                    for (int j = 1; j < values.size(); j++)
+                        joined.append(',').append(values.get(j));
+                    attributes.put(attributeNames[i], joined.toString());
+                }
+
+            }
+
+            attributes = Collections.unmodifiableMap(attributes);
+
+        }
+
+        // Map all groups, ignoring duplicates
+        Set<String> groups = Collections.emptySet();
+        boolean overage = false;
+        if (groupPaths.length > 0) {
+
+            groups = new LinkedHashSet<String>();
+            for (ClaimPath path : groupPaths)
+                path.collect(claims, groups);
+
+            groups = Collections.unmodifiableSet(groups);
+            overage = isGroupOverage(claims);
+
+        }
+
+        return new UserIdentity(username, attributes, groups, overage);
+
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof ClaimMapping))
+            return false;
+
+        ClaimMapping other = (ClaimMapping) object;
+        return Arrays.equals(attributeNames, other.attributeNames)
+            && Arrays.equals(attributePaths, other.attributePaths)
+            && Arrays.equals(groupPaths, other.groupPaths);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(groupPaths);
+    }
+
+}
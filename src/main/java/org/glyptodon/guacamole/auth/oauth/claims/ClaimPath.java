@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.claims;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled path to one or more values within the claims of a token. Paths
+ * consist of claim names separated by periods, each optionally followed by
+ * array subscripts, such as "realm_access.roles" or "groups[*].name". Claim
+ * names containing periods or other special characters may be quoted within
+ * brackets, such as ["https://example.net/roles"]. The subscript "[*]"
+ * selects every element of an array, while a numeric subscript selects a
+ * single element.
+ *
+ * <p>Paths are parsed only once, when compiled. Evaluating a path walks the
+ * already-parsed claims directly, without any further parsing.
+ *
+ * @author Michael Jumper
+ */
+public class ClaimPath {
+
+    /**
+     * The index denoting a "[*]" subscript, which selects every element of
+     * an array.
+     */
+    private static final int WILDCARD = -1;
+
+    /**
+     * The original, uncompiled path.
+     */
+    private final String path;
+
+    /**
+     * The name of the claim or property selected by each step, or null if
+     * the step is an array subscript.
+     */
+    private final String[] names;
+
+    /**
+     * The array index selected by each step which is an array subscript, or
+     * WILDCARD if every element is selected. Entries for steps which are not
+     * array subscripts are unused.
+     */
+    private final int[] indices;
+
+    /**
+     * Compiles the given path.
+     *
+     * @param path
+     *     The path to compile.
+     *
+     * @throws IllegalArgumentException
+     *     If the given path is not syntactically valid.
+     */
+    public ClaimPath(String path) throws IllegalArgumentException {
+
+        this.path = path;
+
+        List<String> stepNames = new ArrayList<String>();
+        List<Integer> stepIndices = new ArrayList<Integer>();
+
+        int length = path.length();
+        int pos = 0;
+        while (pos < length) {
+
+            // Each segment begins with a bare or quoted name
+            if (path.startsWith("[\"", pos)) {
+                int end = path.indexOf("\"]", pos + 2);
+                if (end == -1)
+                    throw new IllegalArgumentException("Unterminated quoted "
+                            + "name within claim path \"" + path + "\".");
+                stepNames.add(path.substring(pos + 2, end));
+                pos = end + 2;
+            }
+            else {
+                int end = pos;
+                while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[')
+                    end++;
+                if (end == pos)
+                    throw new IllegalArgumentException("Missing claim name "
+                            + "within claim path \"" + path + "\".");
+                stepNames.add(path.substring(pos, end));
+                pos = end;
+            }
+            stepIndices.add(0);
+
+            // Followed by any number of array subscripts
+            while (pos < length && path.charAt(pos) == '[') {
+
+                int end = path.indexOf(']', pos);
+                if (end == -1)
+                    throw new IllegalArgumentException("Unterminated array "
+                            + "subscript within claim path \"" + path + "\".");
+
+                String subscript = path.substring(pos + 1, end);
+                int index;
+                if (subscript.equals("*"))
+                    index = WILDCARD;
+                else {
+                    try {
+                        index = Integer.parseInt(subscript);
+                    }
+                    catch (NumberFormatException e) {
+                        index = -1;
+                    }
+                    if (index < 0)
+                        throw new IllegalArgumentException("Invalid array "
+                                + "subscript \"[" + subscript + "]\" within "
+                                + "claim path \"" + path + "\".");
+                }
+
+                stepNames.add(null);
+                stepIndices.add(index);
+                pos = end + 1;
+
+            }
+
+            // Segments are separated by periods
+            if (pos < length) {
+                if (path.charAt(pos) != '.' || pos + 1 == length)
+                    throw new IllegalArgumentException("Unexpected character "
+                            + "at position " + pos + " of claim path \""
+                            + path + "\".");
+                pos++;
+            }
+
+        }
+
+        if (stepNames.isEmpty())
+            throw new IllegalArgumentException("Claim paths may not be empty.");
+
+        names = stepNames.toArray(new String[stepNames.size()]);
+        indices = new int[names.length];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = stepIndices.get(i);
+
+    }
+
+    /**
+     * Adds the string form of the given value to the given collection, if
+     * the value is a string, number, or boolean. Values of any other type
+     * are ignored.
+     *
+     * @param value
+     *     The value to add.
+     *
+     * @param values
+     *     The collection to add the value to.
+     */
+    private static void addScalar(Object value, Collection<String> values) {
+        if (value instanceof String || value instanceof Number
+                || value instanceof Boolean)
+            values.add(value.toString());
+    }
+
+    /**
+     * Evaluates the remaining steps of this path against the given node,
+     * adding each value selected to the given collection.
+     *
+     * @param node
+     *     The node that the given step should be evaluated against.
+     *
+     * @param step
+     *     The index of the step to evaluate.
+     *
+     * @param values
+     *     The collection to add each selected value to.
+     */
+    private void collect(Object node, int step, Collection<String> values) {
+
+        if (node == null)
+            return;
+
+        // Add selected values, including each element of selected arrays
+        if (step == names.length) {
+            if (node instanceof List) {
+                for (Object element : (List<?>) node)
+                    addScalar(element, values);
+            }
+            else
+                addScalar(node, values);
+            return;
+        }
+
+        // Select named claim or property
+        String name = names[step];
+        if (name != null) {
+            if (node instanceof Map)
+                collect(((Map<?, ?>) node).get(name), step + 1, values);
+            return;
+        }
+
+        // Select array element(s)
+        if (node instanceof List) {
+
+            List<?> list = (List<?>) node;
+            int index = indices[step];
+
+            if (index == WILDCARD) {
+                for (Object element : list)
+                    collect(element, step + 1, values);
+            }
+            else if (index < list.size())
+                collect(list.get(index), step + 1, values);
+
+        }
+
+    }
+
+    /**
+     * Returns the name of the top-level claim from which this path selects
+     * values. Evaluating this path against claims lacking this claim selects
+     * nothing.
+     *
+     * @return
+     *     The name of the top-level claim from which this path selects
+     *     values.
+     */
+    public String getClaimName() {
+        return names[0];
+    }
+
+    /**
+     * Evaluates this path against the given claims, adding the string form
+     * of each selected value to the given collection. If a selected value is
+     * an array, each of its elements is added. Selected values which are
+     * neither strings, numbers, nor booleans are ignored, as are parts of the
+     * path which do not exist within the claims.
+     *
+     * @param claims
+     *     The claims to evaluate this path against, as a Map of claim name to
+     *     value.
+     *
+     * @param values
+     *     The collection to add each selected value to.
+     */
+    public void collect(Map<String, ?> claims, Collection<String> values) {
+        collect(claims, 0, values);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof ClaimPath
+                && path.equals(((ClaimPath) object).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.claims;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The identity of a user as derived from the claims of a validated token,
+ * consisting of the username and any attributes and groups mapped from those
+ * claims. UserIdentity objects are immutable, and may be shared by all
+ * logins using the same token.
+ *
+ * @author Michael Jumper
+ */
+public class UserIdentity {
+
+    /**
+     * The username of the user, or null if the token lacked the username.
+     */
+    private final String username;
+
+    /**
+     * All attributes of the user, keyed by attribute name.
+     */
+    private final Map<String, String> attributes;
+
+    /**
+     * The names of all groups of which the user is a member.
+     */
+    private final Set<String> groups;
+
+    /**
+     * Whether the token indicated that the user is a member of more groups
+     * than could be included within the token.
+     */
+    private final boolean groupOverage;
+
+    /**
+     * Creates a new UserIdentity having the given username, attributes, and
+     * groups.
+     *
+     * @param username
+     *     The username of the user, or null if the token lacked the username
+     *     and the username must be determined separately.
+     *
+     * @param attributes
+     *     An unmodifiable map of all attributes of the user, keyed by
+     *     attribute name.
+     *
+     * @param groups
+     *     An unmodifiable set of the names of all groups of which the user is
+     *     a member.
+     *
+     * @param groupOverage
+     *     Whether the token indicated that the user is a member of more
+     *     groups than could be included within the token, and thus that the
+     *     given groups are incomplete.
+     */
+    public UserIdentity(String username, Map<String, String> attributes,
+            Set<String> groups, boolean groupOverage) {
+        this.username = username;
+        this.attributes = attributes;
+        this.groups = groups;
+        this.groupOverage = groupOverage;
+    }
+
+    /**
+     * Returns a new UserIdentity which is identical to this UserIdentity,
+     * but which is additionally a member of the given groups. The returned
+     * identity is considered complete, and thus does not have a group
+     * overage.
+     *
+     * @param additionalGroups
+     *     The names of the groups to add.
+     *
+     * @return
+     *     A new UserIdentity which is additionally a member of the given
+     *     groups.
+     */
+    public UserIdentity withGroups(Set<String> additionalGroups) {
+
+        Set<String> allGroups = new LinkedHashSet<String>(groups);
+        allGroups.addAll(additionalGroups);
+
+        return new UserIdentity(username, attributes,
+                Collections.unmodifiableSet(allGroups), false);
+
+    }
+
+    /**
+     * Returns a new UserIdentity combining this UserIdentity with the given
+     * identity, as derived from a separate source of claims such as the
+     * UserInfo endpoint. The username and attributes of this identity take
+     * priority, with the username and attributes of the given identity used
+     * only where this identity lacks them. The returned identity is a member
+     * of the groups of both identities.
+     *
+     * @param other
+     *     The identity to combine with this identity.
+     *
+     * @return
+     *     A new UserIdentity combining this identity with the given identity.
+     */
+    public UserIdentity merge(UserIdentity other) {
+
+        Map<String, String> allAttributes = new HashMap<String, String>(other.attributes);
+        allAttributes.putAll(attributes);
+
+        Set<String> allGroups = new LinkedHashSet<String>(groups);
+        allGroups.addAll(other.groups);
+
+        return new UserIdentity(username != null ? username : other.username,
+                Collections.unmodifiableMap(allAttributes),
+                Collections.unmodifiableSet(allGroups), groupOverage);
+
+    }
+
+    /**
+     * Returns the username of the user.
+     *
+     * @return
+     *     The username of the user, or null if the token lacked the username
+     *     and the username has not yet been determined separately.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns all attributes of the user which were mapped from the claims
+     * of the token.
+     *
+     * @return
+     *     An unmodifiable map of all attributes of the user, keyed by
+     *     attribute name.
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the names of all groups of which the user is a member, as
+     * mapped from the claims of the token.
+     *
+     * @return
+     *     An unmodifiable set of the names of all groups of which the user is
+     *     a member.
+     */
+    public Set<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Returns whether the token indicated that the user is a member of more
+     * groups than could be included within the token, in which case the
+     * groups returned by getGroups() are incomplete and must be resolved
+     * separately.
+     *
+     * @return
+     *     true if the groups of this user are incomplete, false otherwise.
+     */
+    public boolean isGroupOverage() {
+        return groupOverage;
+    }
+
+}
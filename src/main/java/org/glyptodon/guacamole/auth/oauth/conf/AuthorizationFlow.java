@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+/**
+ * The OAuth flows by which the user may be authenticated with the OAuth
+ * service.
+ *
+ * @author Michael Jumper
+ */
+public enum AuthorizationFlow {
+
+    /**
+     * The implicit flow, in which the OAuth service returns the token
+     * directly to the browser within the fragment of the redirect URI.
+     */
+    IMPLICIT("implicit"),
+
+    /**
+     * The authorization code flow, in which the OAuth service returns an
+     * authorization code which is then exchanged for tokens server-side, via
+     * the token endpoint of the OAuth service.
+     */
+    CODE("code");
+
+    /**
+     * The value of the "oauth-flow" property which selects this flow.
+     */
+    private final String value;
+
+    /**
+     * Creates a new AuthorizationFlow selected by the given property value.
+     *
+     * @param value
+     *     The value of the "oauth-flow" property which selects this flow.
+     */
+    private AuthorizationFlow(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the OAuth response type which should be requested from the
+     * authorization endpoint when using this flow with the given validation
+     * mode.
+     *
+     * @param mode
+     *     The means by which received tokens are validated.
+     *
+     * @return
+     *     The OAuth response type to request, such as "code".
+     */
+    public String getResponseType(ValidationMode mode) {
+        return this == CODE ? "code" : mode.getResponseType();
+    }
+
+    /**
+     * Returns the AuthorizationFlow selected by the given value of the
+     * "oauth-flow" property.
+     *
+     * @param value
+     *     The value of the "oauth-flow" property.
+     *
+     * @return
+     *     The AuthorizationFlow selected by the given value, or null if no
+     *     flow has that value.
+     */
+    public static AuthorizationFlow fromValue(String value) {
+
+        for (AuthorizationFlow flow : values()) {
+            if (flow.value.equals(value))
+                return flow;
+        }
+
+        return null;
+
+    }
+
+}
@@ -23,22 +23,254 @@
 package org.glyptodon.guacamole.auth.oauth.conf;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.environment.LocalEnvironment;
+import org.glyptodon.guacamole.auth.oauth.discovery.DiscoveryService;
+import org.glyptodon.guacamole.auth.oauth.discovery.ProviderMetadata;
+import org.glyptodon.guacamole.auth.oauth.form.AuthorizationURITemplate;
+import org.glyptodon.guacamole.auth.oauth.http.FetchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Service for retrieving configuration information regarding the OAuth service.
+ * The configuration is parsed once into an immutable snapshot, which is
+ * atomically replaced whenever guacamole.properties changes on disk or the
+ * OpenID provider metadata is refreshed.
  *
  * @author Michael Jumper
  */
+@Singleton
 public class ConfigurationService {
 
     /**
-     * The Guacamole server environment.
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ConfigurationService.class);
+
+    /**
+     * The number of milliseconds between checks for changes to
+     * guacamole.properties or to the OpenID provider metadata.
+     */
+    private static final long RELOAD_CHECK_INTERVAL = 5000;
+
+    /**
+     * The Guacamole server environment. This is replaced with a new
+     * environment whenever guacamole.properties changes, and must only be
+     * accessed while holding the lock of this ConfigurationService.
      */
     @Inject
     private Environment environment;
 
+    /**
+     * Service for retrieving OpenID provider metadata via discovery.
+     */
+    @Inject
+    private DiscoveryService discoveryService;
+
+    /**
+     * Service which retrieves keys and provider metadata via HTTP, and which
+     * must be reconfigured whenever the configuration changes. Checks for
+     * configuration changes are performed by its refresh executor.
+     */
+    @Inject
+    private FetchService fetchService;
+
+    /**
+     * Executor which periodically schedules checks for configuration
+     * changes.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * The current snapshot of the OAuth configuration, or null if the
+     * configuration has not yet been read.
+     */
+    private volatile OAuthConfiguration configuration;
+
+    /**
+     * The OpenID provider metadata used to create the current snapshot, or
+     * null if discovery is not enabled. This must only be accessed while
+     * holding the lock of this ConfigurationService.
+     */
+    private ProviderMetadata metadata;
+
+    /**
+     * The last modification time of guacamole.properties, as of the last
+     * time it was read. This must only be accessed while holding the lock of
+     * this ConfigurationService.
+     */
+    private long lastModified;
+
+    /**
+     * The size of guacamole.properties, in bytes, as of the last time it was
+     * read. This must only be accessed while holding the lock of this
+     * ConfigurationService.
+     */
+    private long lastLength;
+
+    /**
+     * Whether a check for configuration changes has been scheduled but has
+     * not yet completed.
+     */
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+
+    /**
+     * Returns the guacamole.properties file within GUACAMOLE_HOME. This must
+     * only be invoked while holding the lock of this ConfigurationService.
+     *
+     * @return
+     *     The guacamole.properties file.
+     */
+    private File getPropertiesFile() {
+        return new File(environment.getGuacamoleHome(), "guacamole.properties");
+    }
+
+    /**
+     * Returns the OpenID provider metadata for the discovery URI within the
+     * current environment. The metadata is retrieved only if it has not
+     * already been retrieved for that URI. This must only be invoked while
+     * holding the lock of this ConfigurationService.
+     *
+     * @return
+     *     The OpenID provider metadata, or null if discovery is not enabled.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if discovery is
+     *     enabled but the provider metadata cannot be retrieved.
+     */
+    private ProviderMetadata getMetadata() throws GuacamoleException {
+
+        String discoveryURI = environment.getProperty(OAuthGuacamoleProperties.OAUTH_DISCOVERY_URI);
+        if (discoveryURI == null)
+            return null;
+
+        return discoveryService.getMetadata(discoveryURI);
+
+    }
+
+    /**
+     * Checks whether guacamole.properties or the OpenID provider metadata
+     * have changed, replacing the current configuration snapshot if the
+     * resulting configuration differs. If the new configuration is invalid,
+     * the error is logged and the current configuration remains in effect.
+     */
+    private synchronized void reloadIfChanged() {
+
+        try {
+
+            // Re-read guacamole.properties if changed on disk
+            File file = getPropertiesFile();
+            boolean fileChanged = file.lastModified() != lastModified
+                    || file.length() != lastLength;
+
+            if (fileChanged) {
+                lastModified = file.lastModified();
+                lastLength = file.length();
+                environment = new LocalEnvironment();
+            }
+
+            // Reload only if something has changed
+            ProviderMetadata updatedMetadata = getMetadata();
+            if (!fileChanged && updatedMetadata == metadata)
+                return;
+
+            metadata = updatedMetadata;
+            OAuthConfiguration updated = new OAuthConfiguration(environment, metadata);
+            if (!updated.equals(configuration)) {
+                configuration = updated;
+                fetchService.configure(updated.getFetchConfiguration());
+                logger.info("OAuth configuration reloaded.");
+            }
+
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to reload OAuth configuration. The previous "
+                    + "configuration will remain in effect: {}", e.getMessage());
+            logger.debug("Unable to reload OAuth configuration.", e);
+        }
+
+    }
+
+    /**
+     * Returns the current snapshot of the OAuth configuration. The
+     * configuration is read when this function is first invoked, after which
+     * guacamole.properties is periodically checked for changes in the
+     * background. Subsequent calls return the current snapshot without
+     * locking or reading any properties.
+     *
+     * @return
+     *     The current snapshot of the OAuth configuration.
+     *
+     * @throws GuacamoleException
+     *     If the configuration has not yet been read and guacamole.properties
+     *     cannot be parsed, a required property is missing, or discovery is
+     *     enabled but the provider metadata cannot be retrieved.
+     */
+    public OAuthConfiguration getConfiguration() throws GuacamoleException {
+
+        // Use current snapshot if available
+        OAuthConfiguration current = configuration;
+        if (current != null)
+            return current;
+
+        synchronized (this) {
+
+            if (configuration == null) {
+
+                // Read initial configuration
+                File file = getPropertiesFile();
+                lastModified = file.lastModified();
+                lastLength = file.length();
+
+                // Discovery requires the HTTP settings before the remainder
+                // of the configuration can be read
+                fetchService.configure(new FetchConfiguration(environment));
+                metadata = getMetadata();
+                configuration = new OAuthConfiguration(environment, metadata);
+
+                // Watch for changes, reading files and retrieving metadata
+                // outside the scheduler, and never queueing more than one
+                // check at a time
+                final Runnable reload = new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            reloadIfChanged();
+                        }
+                        finally {
+                            reloadPending.set(false);
+                        }
+                    }
+
+                };
+
+                executor.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (reloadPending.compareAndSet(false, true))
+                            fetchService.getRefreshExecutor().execute(reload);
+                    }
+
+                }, RELOAD_CHECK_INTERVAL, RELOAD_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+            }
+
+            return configuration;
+
+        }
+
+    }
+
     /**
      * Returns the authorization endpoint (URI) of the OAuth service as
      * configured with guacamole.properties.
@@ -49,10 +281,11 @@ public class ConfigurationService {
      *
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed, or if the authorization
-     *     endpoint property is missing.
+     *     endpoint property is missing and cannot be determined via
+     *     discovery.
      */
     public String getAuthorizationEndpoint() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_AUTHORIZATION_ENDPOINT);
+        return getConfiguration().getAuthorizationEndpoint();
     }
 
     /**
@@ -70,7 +303,7 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getClientID() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_CLIENT_ID);
+        return getConfiguration().getClientID();
     }
 
     /**
@@ -88,7 +321,57 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getRedirectURI() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_REDIRECT_URI);
+        return getConfiguration().getRedirectURI();
+    }
+
+    /**
+     * Returns the means by which received tokens should be validated, as
+     * configured with guacamole.properties. By default, tokens are validated
+     * as signed JWTs.
+     *
+     * @return
+     *     The means by which received tokens should be validated.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if the configured
+     *     validation mode is invalid.
+     */
+    public ValidationMode getValidationMode() throws GuacamoleException {
+        return getConfiguration().getValidationMode();
+    }
+
+    /**
+     * Returns the OAuth flow by which users should be authenticated, as
+     * configured with guacamole.properties. By default, the implicit flow is
+     * used.
+     *
+     * @return
+     *     The OAuth flow by which users should be authenticated.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if the configured
+     *     flow is invalid.
+     */
+    public AuthorizationFlow getAuthorizationFlow() throws GuacamoleException {
+        return getConfiguration().getAuthorizationFlow();
+    }
+
+    /**
+     * Returns the authorization URI of the OAuth service, precomputed from
+     * the authorization endpoint, client ID, and redirect URI configured with
+     * guacamole.properties. Only the nonce need be added to produce the full
+     * URI presented to the user.
+     *
+     * @return
+     *     The precomputed authorization URI of the OAuth service.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if any of the
+     *     properties required to build the authorization URI are missing.
+     */
+    public AuthorizationURITemplate getAuthorizationURITemplate()
+            throws GuacamoleException {
+        return getConfiguration().getAuthorizationURITemplate();
     }
 
     /**
@@ -101,10 +384,10 @@ public class ConfigurationService {
      *
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed, or if the issuer property
-     *     is missing.
+     *     is missing and cannot be determined via discovery.
      */
     public String getIssuer() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_ISSUER);
+        return getConfiguration().getIssuer();
     }
 
     /**
@@ -119,10 +402,174 @@ public class ConfigurationService {
      *
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed, or if the JWKS endpoint
-     *     property is missing.
+     *     property is missing and cannot be determined via discovery.
      */
     public String getJWKSEndpoint() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_JWKS_ENDPOINT);
+        return getConfiguration().getJWKSEndpoint();
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that keys retrieved
+     * from the JWKS endpoint may continue to be used after they have expired
+     * while those keys are being refreshed, as configured with
+     * guacamole.properties. By default, expired keys may continue to be used
+     * for up to one hour.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that expired keys may
+     *     continue to be used while being refreshed, as configured with
+     *     guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getJWKSMaxStale() throws GuacamoleException {
+        return getConfiguration().getJWKSMaxStale();
+    }
+
+    /**
+     * Returns the file in which the last set of keys successfully retrieved
+     * from the JWKS endpoint should be saved, as configured with
+     * guacamole.properties. By default, retrieved keys are not saved.
+     *
+     * @return
+     *     The file in which retrieved keys should be saved, as configured
+     *     with guacamole.properties, or null if retrieved keys should not be
+     *     saved.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public File getJWKSCacheFile() throws GuacamoleException {
+        return getConfiguration().getJWKSCacheFile();
+    }
+
+    /**
+     * Returns the maximum number of successfully-validated ID tokens to
+     * cache, as configured with guacamole.properties. By default, up to 1000
+     * tokens are cached.
+     *
+     * @return
+     *     The maximum number of successfully-validated ID tokens to cache, as
+     *     configured with guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTokenCacheSize() throws GuacamoleException {
+        return getConfiguration().getTokenCacheSize();
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that a
+     * successfully-validated ID token may be cached, as configured with
+     * guacamole.properties. By default, tokens are cached for up to five
+     * minutes.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that a
+     *     successfully-validated ID token may be cached, as configured with
+     *     guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTokenCacheLifetime() throws GuacamoleException {
+        return getConfiguration().getTokenCacheLifetime();
+    }
+
+    /**
+     * Returns the maximum number of failed ID tokens and unknown key IDs to
+     * cache, as configured with guacamole.properties. By default, up to 10000
+     * failures are cached.
+     *
+     * @return
+     *     The maximum number of failed ID tokens and unknown key IDs to
+     *     cache, as configured with guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getNegativeCacheSize() throws GuacamoleException {
+        return getConfiguration().getNegativeCacheSize();
+    }
+
+    /**
+     * Returns the amount of time, in seconds, that failed ID tokens and
+     * unknown key IDs should be cached, as configured with
+     * guacamole.properties. By default, failures are cached for 30 seconds.
+     *
+     * @return
+     *     The amount of time, in seconds, that failed ID tokens and unknown
+     *     key IDs should be cached, as configured with guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getNegativeCacheLifetime() throws GuacamoleException {
+        return getConfiguration().getNegativeCacheLifetime();
+    }
+
+    /**
+     * Returns the interval, in seconds, at which a summary of login metrics
+     * should be logged, as configured with guacamole.properties. By default,
+     * no summary is logged.
+     *
+     * @return
+     *     The interval, in seconds, at which a summary of login metrics should
+     *     be logged, or zero if no summary should be logged.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMetricsLogInterval() throws GuacamoleException {
+        return getConfiguration().getMetricsLogInterval();
+    }
+
+    /**
+     * Returns whether each login must return the nonce issued when the user
+     * was redirected to the OAuth service, as configured with
+     * guacamole.properties. By default, nonces are not validated.
+     *
+     * @return
+     *     true if nonces must be validated, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isNonceValidationEnabled() throws GuacamoleException {
+        return getConfiguration().isNonceValidationEnabled();
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that a nonce remains
+     * valid after being issued, as configured with guacamole.properties. By
+     * default, nonces remain valid for 10 minutes.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that a nonce remains valid.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getNonceLifetime() throws GuacamoleException {
+        return getConfiguration().getNonceLifetime();
+    }
+
+    /**
+     * Returns the maximum number of pending logins whose nonces may be stored
+     * at any one time, as configured with guacamole.properties. By default,
+     * up to 50000 logins may be pending, beyond which the oldest pending
+     * logins are discarded.
+     *
+     * @return
+     *     The maximum number of pending logins.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getNonceStoreSize() throws GuacamoleException {
+        return getConfiguration().getNonceStoreSize();
     }
 
     /**
@@ -138,7 +585,7 @@ public class ConfigurationService {
      *     type property is missing.
      */
     public String getUsernameClaimType() throws GuacamoleException {
-        return environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_USERNAME_CLAIM_TYPE);
+        return getConfiguration().getUsernameClaimType();
     }
 
 }
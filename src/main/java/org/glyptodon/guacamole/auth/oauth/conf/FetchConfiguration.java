@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
+
+/**
+ * Immutable configuration describing how keys and provider metadata are
+ * retrieved via HTTP, including the timeouts of each request and the behavior
+ * of the circuit breaker guarding each endpoint. As discovery is performed
+ * while the rest of the configuration is being read, these properties can be
+ * read on their own, ahead of the remainder of the configuration snapshot.
+ *
+ * @author Michael Jumper
+ */
+public class FetchConfiguration {
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to be established.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for data to be
+     * received once connected.
+     */
+    private final int readTimeout;
+
+    /**
+     * The number of consecutive failed requests to an endpoint after which
+     * further requests to that endpoint are rejected immediately.
+     */
+    private final int circuitBreakerThreshold;
+
+    /**
+     * The amount of time, in seconds, that requests to an unhealthy endpoint
+     * are rejected before a trial request is allowed.
+     */
+    private final int circuitBreakerOpenTime;
+
+    /**
+     * Reads the HTTP retrieval properties from the given environment.
+     *
+     * @param environment
+     *     The Guacamole server environment to read properties from.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public FetchConfiguration(Environment environment)
+            throws GuacamoleException {
+        connectTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_FETCH_CONNECT_TIMEOUT, 2000);
+        readTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_FETCH_READ_TIMEOUT, 5000);
+        circuitBreakerThreshold = environment.getProperty(OAuthGuacamoleProperties.OAUTH_CIRCUIT_BREAKER_THRESHOLD, 5);
+        circuitBreakerOpenTime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_CIRCUIT_BREAKER_OPEN_TIME, 30);
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for a
+     * connection to be established.
+     *
+     * @return
+     *     The maximum amount of time, in milliseconds, to wait for a
+     *     connection to be established.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for data
+     * to be received once connected.
+     *
+     * @return
+     *     The maximum amount of time, in milliseconds, to wait for data to be
+     *     received once connected.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Returns the number of consecutive failed requests to an endpoint after
+     * which further requests to that endpoint are rejected immediately.
+     *
+     * @return
+     *     The number of consecutive failed requests to an endpoint after
+     *     which further requests to that endpoint are rejected immediately.
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * Returns the amount of time, in seconds, that requests to an unhealthy
+     * endpoint are rejected before a trial request is allowed.
+     *
+     * @return
+     *     The amount of time, in seconds, that requests to an unhealthy
+     *     endpoint are rejected before a trial request is allowed.
+     */
+    public int getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof FetchConfiguration))
+            return false;
+
+        FetchConfiguration other = (FetchConfiguration) object;
+        return connectTimeout == other.connectTimeout
+            && readTimeout == other.readTimeout
+            && circuitBreakerThreshold == other.circuitBreakerThreshold
+            && circuitBreakerOpenTime == other.circuitBreakerOpenTime;
+
+    }
+
+    @Override
+    public int hashCode() {
+        return connectTimeout ^ readTimeout;
+    }
+
+}
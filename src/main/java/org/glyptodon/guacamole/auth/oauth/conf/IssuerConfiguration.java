@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+/**
+ * Immutable configuration describing a single issuer of ID tokens, along with
+ * how tokens from that issuer should be verified and interpreted.
+ *
+ * @author Michael Jumper
+ */
+public class IssuerConfiguration {
+
+    /**
+     * The issuer to expect for all ID tokens from this issuer.
+     */
+    private final String issuer;
+
+    /**
+     * The endpoint (URI) of the JWKS service of this issuer.
+     */
+    private final String jwksEndpoint;
+
+    /**
+     * The client ID to expect as the audience of all ID tokens from this
+     * issuer.
+     */
+    private final String clientID;
+
+    /**
+     * The claim type which contains the username within ID tokens from this
+     * issuer.
+     */
+    private final String usernameClaimType;
+
+    /**
+     * Creates a new IssuerConfiguration having the given properties.
+     *
+     * @param issuer
+     *     The issuer to expect for all ID tokens from this issuer.
+     *
+     * @param jwksEndpoint
+     *     The endpoint (URI) of the JWKS service of this issuer.
+     *
+     * @param clientID
+     *     The client ID to expect as the audience of all ID tokens from this
+     *     issuer.
+     *
+     * @param usernameClaimType
+     *     The claim type which contains the username within ID tokens from
+     *     this issuer.
+     */
+    public IssuerConfiguration(String issuer, String jwksEndpoint,
+            String clientID, String usernameClaimType) {
+        this.issuer = issuer;
+        this.jwksEndpoint = jwksEndpoint;
+        this.clientID = clientID;
+        this.usernameClaimType = usernameClaimType;
+    }
+
+    /**
+     * Returns the issuer to expect for all ID tokens from this issuer.
+     *
+     * @return
+     *     The issuer to expect for all ID tokens from this issuer.
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * Returns the endpoint (URI) of the JWKS service of this issuer.
+     *
+     * @return
+     *     The endpoint of the JWKS service of this issuer.
+     */
+    public String getJWKSEndpoint() {
+        return jwksEndpoint;
+    }
+
+    /**
+     * Returns the client ID to expect as the audience of all ID tokens from
+     * this issuer.
+     *
+     * @return
+     *     The client ID to expect as the audience of all ID tokens from this
+     *     issuer.
+     */
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Returns the claim type which contains the username within ID tokens
+     * from this issuer.
+     *
+     * @return
+     *     The claim type which contains the username within ID tokens from
+     *     this issuer.
+     */
+    public String getUsernameClaimType() {
+        return usernameClaimType;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof IssuerConfiguration))
+            return false;
+
+        IssuerConfiguration other = (IssuerConfiguration) object;
+        return issuer.equals(other.issuer)
+            && jwksEndpoint.equals(other.jwksEndpoint)
+            && clientID.equals(other.clientID)
+            && usernameClaimType.equals(other.usernameClaimType);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return issuer.hashCode();
+    }
+
+}
@@ -0,0 +1,1560 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.apache.guacamole.properties.StringGuacamoleProperty;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimMapping;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimPath;
+import org.glyptodon.guacamole.auth.oauth.discovery.ProviderMetadata;
+import org.glyptodon.guacamole.auth.oauth.form.AuthorizationURITemplate;
+
+/**
+ * Immutable snapshot of the OAuth configuration within guacamole.properties.
+ * All properties are parsed and validated when the snapshot is created, such
+ * that reading the configuration requires only field access.
+ *
+ * @author Michael Jumper
+ */
+public class OAuthConfiguration {
+
+    /**
+     * The port of the key/value service used by the "network" replay cache,
+     * if no port is specified. This is the standard Redis port.
+     */
+    private static final int DEFAULT_REPLAY_CACHE_PORT = 6379;
+
+    /**
+     * The URI of the OpenID discovery document, or null if discovery is not
+     * enabled.
+     */
+    private final String discoveryURI;
+
+    /**
+     * The authorization endpoint (URI) of the OAuth service.
+     */
+    private final String authorizationEndpoint;
+
+    /**
+     * The means by which received tokens are validated.
+     */
+    private final ValidationMode validationMode;
+
+    /**
+     * The OAuth flow by which users are authenticated.
+     */
+    private final AuthorizationFlow authorizationFlow;
+
+    /**
+     * The OAuth client ID.
+     */
+    private final String clientID;
+
+    /**
+     * The OAuth client secret, or null if no client secret is configured.
+     */
+    private final String clientSecret;
+
+    /**
+     * The URI that the OAuth service should redirect to after the
+     * authentication process is complete.
+     */
+    private final String redirectURI;
+
+    /**
+     * The precomputed authorization URI of the OAuth service, lacking only
+     * the nonce.
+     */
+    private final AuthorizationURITemplate authorizationURITemplate;
+
+    /**
+     * The issuer to expect for all received ID tokens, or null if tokens are
+     * validated via introspection and no issuer is configured.
+     */
+    private final String issuer;
+
+    /**
+     * The endpoint (URI) of the JWKS service, or null if tokens are validated
+     * via introspection and no JWKS endpoint is configured.
+     */
+    private final String jwksEndpoint;
+
+    /**
+     * The token introspection endpoint (URI) of the OAuth service, or null if
+     * tokens are not validated via introspection.
+     */
+    private final String introspectionEndpoint;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to the token introspection endpoint.
+     */
+    private final int introspectionConnectTimeout;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for the token
+     * introspection endpoint to respond.
+     */
+    private final int introspectionReadTimeout;
+
+    /**
+     * The token endpoint (URI) of the OAuth service, or null if the
+     * authorization code flow is not used.
+     */
+    private final String tokenEndpoint;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to the token endpoint.
+     */
+    private final int tokenExchangeConnectTimeout;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for the token
+     * endpoint to respond.
+     */
+    private final int tokenExchangeReadTimeout;
+
+    /**
+     * The maximum number of authorization codes which may be exchanged
+     * concurrently.
+     */
+    private final int tokenExchangeMaxConcurrent;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for an exchange
+     * to begin while the maximum number of concurrent exchanges are in
+     * progress.
+     */
+    private final int tokenExchangeQueueTimeout;
+
+    /**
+     * Whether each login must return the nonce issued for that login.
+     */
+    private final boolean nonceValidationEnabled;
+
+    /**
+     * The maximum amount of time, in seconds, that a nonce remains valid.
+     */
+    private final int nonceLifetime;
+
+    /**
+     * The maximum number of pending logins whose nonces may be stored.
+     */
+    private final int nonceStoreSize;
+
+    /**
+     * The maximum number of logins per minute from any one client address,
+     * or zero if logins are not limited per address.
+     */
+    private final int rateLimitPerAddress;
+
+    /**
+     * The maximum number of logins per minute by any one user, or zero if
+     * logins are not limited per user.
+     */
+    private final int rateLimitPerUser;
+
+    /**
+     * The number of logins which may be attempted in rapid succession before
+     * any rate limit applies.
+     */
+    private final int rateLimitBurst;
+
+    /**
+     * The maximum number of logins which may be validated at any one time,
+     * or zero if the number of concurrent logins is not limited.
+     */
+    private final int maxConcurrentLogins;
+
+    /**
+     * The storage used to record ID tokens which have already been used.
+     */
+    private final ReplayCacheType replayCacheType;
+
+    /**
+     * The maximum number of used ID tokens to record.
+     */
+    private final int replayCacheSize;
+
+    /**
+     * The memory-mapped file in which used ID tokens are recorded, or null
+     * if the "file" replay cache is not used.
+     */
+    private final File replayCacheFile;
+
+    /**
+     * The hostname or address of the key/value service in which used ID
+     * tokens are recorded, or null if the "network" replay cache is not
+     * used.
+     */
+    private final String replayCacheHost;
+
+    /**
+     * The port of the key/value service in which used ID tokens are
+     * recorded, or zero if the "network" replay cache is not used.
+     */
+    private final int replayCachePort;
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to or reply from the key/value service used by the "network" replay
+     * cache.
+     */
+    private final int replayCacheTimeout;
+
+    /**
+     * The maximum number of introspection results to cache.
+     */
+    private final int introspectionCacheSize;
+
+    /**
+     * The maximum amount of time, in seconds, that an introspection result
+     * may be cached.
+     */
+    private final int introspectionCacheLifetime;
+
+    /**
+     * The maximum amount of time, in seconds, that expired keys may continue
+     * to be used while being refreshed.
+     */
+    private final int jwksMaxStale;
+
+    /**
+     * The file in which retrieved keys should be saved, or null if retrieved
+     * keys should not be saved.
+     */
+    private final File jwksCacheFile;
+
+    /**
+     * How keys and provider metadata are retrieved via HTTP.
+     */
+    private final FetchConfiguration fetchConfiguration;
+
+    /**
+     * The maximum number of successfully-validated ID tokens to cache.
+     */
+    private final int tokenCacheSize;
+
+    /**
+     * The maximum amount of time, in seconds, that a successfully-validated
+     * ID token may be cached.
+     */
+    private final int tokenCacheLifetime;
+
+    /**
+     * The maximum number of failed ID tokens and unknown key IDs to cache.
+     */
+    private final int negativeCacheSize;
+
+    /**
+     * The amount of time, in seconds, that failed ID tokens and unknown key
+     * IDs should be cached.
+     */
+    private final int negativeCacheLifetime;
+
+    /**
+     * The interval, in seconds, at which a summary of login metrics should be
+     * logged, or zero if no summary should be logged.
+     */
+    private final int metricsLogInterval;
+
+    /**
+     * The claim type which contains the authenticated user's username within
+     * any valid JWT.
+     */
+    private final String usernameClaimType;
+
+    /**
+     * The compiled plan for deriving user attributes and groups from the
+     * claims of each token.
+     */
+    private final ClaimMapping claimMapping;
+
+    /**
+     * The endpoint (URI) from which the groups of users having a groups
+     * overage are retrieved, or null if such groups are not retrieved.
+     */
+    private final String groupLookupEndpoint;
+
+    /**
+     * The compiled paths of the members of the group lookup response which
+     * contain group names.
+     */
+    private final List<ClaimPath> groupLookupClaims;
+
+    /**
+     * The maximum amount of time that a login may wait for the groups of the
+     * user to be retrieved, in milliseconds.
+     */
+    private final int groupLookupTimeout;
+
+    /**
+     * The maximum number of group lookups which may be in progress at any
+     * one time.
+     */
+    private final int groupLookupThreads;
+
+    /**
+     * The maximum number of users whose retrieved groups should be cached.
+     */
+    private final int groupCacheSize;
+
+    /**
+     * The amount of time that the retrieved groups of a user may be cached,
+     * in seconds.
+     */
+    private final int groupCacheLifetime;
+
+    /**
+     * The system permissions granted to the members of each group, keyed by
+     * group name.
+     */
+    private final Map<String, Set<SystemPermission.Type>> groupPermissions;
+
+    /**
+     * When the UserInfo endpoint should be consulted for information about
+     * the user.
+     */
+    private final UserInfoMode userInfoMode;
+
+    /**
+     * The UserInfo endpoint (URI) of the OpenID provider, or null if the
+     * UserInfo endpoint is never consulted.
+     */
+    private final String userInfoEndpoint;
+
+    /**
+     * The maximum amount of time that a login may wait for the UserInfo of
+     * the user to be retrieved, in milliseconds.
+     */
+    private final int userInfoTimeout;
+
+    /**
+     * The maximum number of UserInfo requests which may be in progress at
+     * any one time.
+     */
+    private final int userInfoThreads;
+
+    /**
+     * The maximum number of users whose UserInfo should be cached.
+     */
+    private final int userInfoCacheSize;
+
+    /**
+     * The amount of time that the UserInfo of a user may be cached, in
+     * seconds.
+     */
+    private final int userInfoCacheLifetime;
+
+    /**
+     * Whether UserInfo should be requested as soon as the signature of the
+     * ID token has been verified.
+     */
+    private final boolean userInfoPrefetchEnabled;
+
+    /**
+     * All issuers whose ID tokens should be accepted, beginning with the
+     * issuer described by the main OAuth properties and followed by the
+     * issuer of each additional tenant.
+     */
+    private final List<IssuerConfiguration> issuers;
+
+    /**
+     * Reads and validates all OAuth properties from the given environment,
+     * creating a new snapshot of the OAuth configuration. Properties which
+     * are not specified, but which may be determined via OpenID discovery,
+     * are taken from the given provider metadata.
+     *
+     * @param environment
+     *     The Guacamole server environment to read properties from.
+     *
+     * @param metadata
+     *     The metadata of the OpenID provider, as retrieved from the
+     *     configured discovery URI, or null if discovery is not enabled.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if a required property
+     *     is missing and cannot be determined via discovery.
+     */
+    public OAuthConfiguration(Environment environment, ProviderMetadata metadata)
+            throws GuacamoleException {
+
+        discoveryURI = environment.getProperty(OAuthGuacamoleProperties.OAUTH_DISCOVERY_URI);
+
+        // Tokens are JWTs unless otherwise specified
+        String mode = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_VALIDATION, "jwt");
+        validationMode = ValidationMode.fromValue(mode);
+        if (validationMode == null)
+            throw new GuacamoleServerException("\"" + mode + "\" is not a "
+                    + "valid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_TOKEN_VALIDATION.getName()
+                    + "\". Valid values are \"jwt\" and \"introspection\".");
+
+        boolean introspection = (validationMode == ValidationMode.INTROSPECTION);
+
+        // Tokens are returned directly to the browser unless otherwise
+        // specified
+        String flow = environment.getProperty(OAuthGuacamoleProperties.OAUTH_FLOW, "implicit");
+        authorizationFlow = AuthorizationFlow.fromValue(flow);
+        if (authorizationFlow == null)
+            throw new GuacamoleServerException("\"" + flow + "\" is not a "
+                    + "valid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_FLOW.getName()
+                    + "\". Valid values are \"implicit\" and \"code\".");
+
+        boolean code = (authorizationFlow == AuthorizationFlow.CODE);
+
+        // Endpoints and issuer may be determined via discovery, and are
+        // required only if needed by the validation mode or flow
+        authorizationEndpoint = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_AUTHORIZATION_ENDPOINT,
+                ProviderMetadata.AUTHORIZATION_ENDPOINT, true);
+        issuer = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_ISSUER,
+                ProviderMetadata.ISSUER, !introspection);
+        jwksEndpoint = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_JWKS_ENDPOINT,
+                ProviderMetadata.JWKS_URI, !introspection);
+        introspectionEndpoint = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_INTROSPECTION_ENDPOINT,
+                ProviderMetadata.INTROSPECTION_ENDPOINT, introspection);
+        tokenEndpoint = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_TOKEN_ENDPOINT,
+                ProviderMetadata.TOKEN_ENDPOINT, code);
+
+        // Client-specific properties are always required, except for the
+        // client secret, which is needed only to authenticate introspection
+        // and code exchange
+        clientID = environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_CLIENT_ID);
+        clientSecret = introspection || code
+                ? environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_CLIENT_SECRET)
+                : environment.getProperty(OAuthGuacamoleProperties.OAUTH_CLIENT_SECRET);
+        redirectURI = environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_REDIRECT_URI);
+        authorizationURITemplate = new AuthorizationURITemplate(
+                authorizationEndpoint, clientID, redirectURI,
+                authorizationFlow.getResponseType(validationMode));
+        usernameClaimType = environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_USERNAME_CLAIM_TYPE);
+
+        // Compile attribute and group mappings once, such that each login
+        // need only walk the claims already parsed during validation
+        Map<String, ClaimPath> attributePaths;
+        try {
+            attributePaths = ClaimMapping.parseAttributes(environment.getProperty(OAuthGuacamoleProperties.OAUTH_ATTRIBUTE_MAPPINGS));
+        }
+        catch (IllegalArgumentException e) {
+            throw new GuacamoleServerException("Invalid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_ATTRIBUTE_MAPPINGS.getName()
+                    + "\": " + e.getMessage(), e);
+        }
+
+        List<ClaimPath> groupPaths;
+        try {
+            groupPaths = ClaimMapping.parsePaths(environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_CLAIMS));
+        }
+        catch (IllegalArgumentException e) {
+            throw new GuacamoleServerException("Invalid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_GROUP_CLAIMS.getName()
+                    + "\": " + e.getMessage(), e);
+        }
+
+        claimMapping = new ClaimMapping(attributePaths, groupPaths);
+
+        // Groups omitted from tokens are retrieved only if an endpoint is
+        // configured
+        groupLookupEndpoint = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_LOOKUP_ENDPOINT);
+        try {
+            groupLookupClaims = Collections.unmodifiableList(ClaimMapping.parsePaths(
+                    environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_LOOKUP_CLAIMS, "groups")));
+        }
+        catch (IllegalArgumentException e) {
+            throw new GuacamoleServerException("Invalid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_GROUP_LOOKUP_CLAIMS.getName()
+                    + "\": " + e.getMessage(), e);
+        }
+        groupLookupTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_LOOKUP_TIMEOUT, 5000);
+        groupLookupThreads = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_LOOKUP_THREADS, 4);
+        groupCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_CACHE_SIZE, 1000);
+        groupCacheLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_CACHE_LIFETIME, 300);
+        groupPermissions = getGroupPermissions(environment);
+
+        // UserInfo is never consulted unless otherwise specified
+        String userInfo = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO, "none");
+        userInfoMode = UserInfoMode.fromValue(userInfo);
+        if (userInfoMode == null)
+            throw new GuacamoleServerException("\"" + userInfo + "\" is not a "
+                    + "valid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_USERINFO.getName()
+                    + "\". Valid values are \"none\", \"fallback\", and "
+                    + "\"always\".");
+
+        userInfoEndpoint = getDiscoverableProperty(environment, metadata,
+                OAuthGuacamoleProperties.OAUTH_USERINFO_ENDPOINT,
+                ProviderMetadata.USERINFO_ENDPOINT,
+                userInfoMode != UserInfoMode.NONE);
+        userInfoTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO_TIMEOUT, 5000);
+        userInfoThreads = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO_THREADS, 4);
+        userInfoCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO_CACHE_SIZE, 1000);
+        userInfoCacheLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO_CACHE_LIFETIME, 300);
+        userInfoPrefetchEnabled = environment.getProperty(OAuthGuacamoleProperties.OAUTH_USERINFO_PREFETCH, true);
+
+        // Introspection requests must not block logins indefinitely
+        introspectionConnectTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_INTROSPECTION_CONNECT_TIMEOUT, 5000);
+        introspectionReadTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_INTROSPECTION_READ_TIMEOUT, 5000);
+
+        // Likewise for code exchange, which is further limited in
+        // concurrency such that a slow token endpoint cannot tie up every
+        // request thread
+        tokenExchangeConnectTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_EXCHANGE_CONNECT_TIMEOUT, 5000);
+        tokenExchangeReadTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_EXCHANGE_READ_TIMEOUT, 5000);
+        tokenExchangeMaxConcurrent = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_EXCHANGE_MAX_CONCURRENT, 16);
+        tokenExchangeQueueTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_EXCHANGE_QUEUE_TIMEOUT, 1000);
+
+        // Pending logins are tracked only within this server, and thus are
+        // not validated unless explicitly enabled, as a login completed via
+        // any other server behind the same load balancer would be refused
+        nonceValidationEnabled = environment.getProperty(OAuthGuacamoleProperties.OAUTH_NONCE_VALIDATION, false);
+        nonceLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_NONCE_LIFETIME, 600);
+        nonceStoreSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_NONCE_STORE_SIZE, 50000);
+
+        // Logins are limited only in overall concurrency unless per-address
+        // or per-user limits are specified
+        rateLimitPerAddress = environment.getProperty(OAuthGuacamoleProperties.OAUTH_RATE_LIMIT_PER_ADDRESS, 0);
+        rateLimitPerUser = environment.getProperty(OAuthGuacamoleProperties.OAUTH_RATE_LIMIT_PER_USER, 0);
+        rateLimitBurst = environment.getProperty(OAuthGuacamoleProperties.OAUTH_RATE_LIMIT_BURST, 10);
+        maxConcurrentLogins = environment.getProperty(OAuthGuacamoleProperties.OAUTH_MAX_CONCURRENT_LOGINS, 64);
+
+        // Used tokens are not recorded unless otherwise specified, as doing
+        // so refuses resubmission of the same token by the same browser
+        String replayCache = environment.getProperty(OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE, "none");
+        replayCacheType = ReplayCacheType.fromValue(replayCache);
+        if (replayCacheType == null)
+            throw new GuacamoleServerException("\"" + replayCache + "\" is not a "
+                    + "valid value for property \""
+                    + OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE.getName()
+                    + "\". Valid values are \"none\", \"memory\", \"file\", "
+                    + "and \"network\".");
+
+        replayCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE_SIZE, 100000);
+        replayCacheFile = replayCacheType == ReplayCacheType.FILE
+                ? environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE_FILE)
+                : null;
+        replayCacheTimeout = environment.getProperty(OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE_TIMEOUT, 1000);
+
+        // Parse "HOST:PORT" address of shared replay cache, if used
+        if (replayCacheType == ReplayCacheType.NETWORK) {
+
+            String address = environment.getRequiredProperty(OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE_ADDRESS);
+            int colon = address.lastIndexOf(':');
+            if (colon == -1) {
+                replayCacheHost = address;
+                replayCachePort = DEFAULT_REPLAY_CACHE_PORT;
+            }
+            else {
+                replayCacheHost = address.substring(0, colon);
+                try {
+                    replayCachePort = Integer.parseInt(address.substring(colon + 1));
+                }
+                catch (NumberFormatException e) {
+                    throw new GuacamoleServerException("\"" + address + "\" is "
+                            + "not a valid value for property \""
+                            + OAuthGuacamoleProperties.OAUTH_REPLAY_CACHE_ADDRESS.getName()
+                            + "\". Addresses must be of the form \"HOST:PORT\".", e);
+                }
+            }
+
+        }
+        else {
+            replayCacheHost = null;
+            replayCachePort = 0;
+        }
+
+        // Caching behavior is optional
+        jwksMaxStale = environment.getProperty(OAuthGuacamoleProperties.OAUTH_JWKS_MAX_STALE, 3600);
+        jwksCacheFile = environment.getProperty(OAuthGuacamoleProperties.OAUTH_JWKS_CACHE_FILE);
+        fetchConfiguration = new FetchConfiguration(environment);
+        tokenCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_CACHE_SIZE, 1000);
+        tokenCacheLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TOKEN_CACHE_LIFETIME, 300);
+        negativeCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_NEGATIVE_CACHE_SIZE, 10000);
+        negativeCacheLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_NEGATIVE_CACHE_LIFETIME, 30);
+        metricsLogInterval = environment.getProperty(OAuthGuacamoleProperties.OAUTH_METRICS_LOG_INTERVAL, 0);
+        introspectionCacheSize = environment.getProperty(OAuthGuacamoleProperties.OAUTH_INTROSPECTION_CACHE_SIZE, 1000);
+        introspectionCacheLifetime = environment.getProperty(OAuthGuacamoleProperties.OAUTH_INTROSPECTION_CACHE_LIFETIME, 60);
+
+        // Accept JWTs from the main issuer and any additional tenants
+        List<IssuerConfiguration> allIssuers = new ArrayList<IssuerConfiguration>();
+        if (!introspection) {
+            allIssuers.add(new IssuerConfiguration(issuer, jwksEndpoint, clientID,
+                    usernameClaimType));
+            allIssuers.addAll(getTenants(environment, clientID, usernameClaimType));
+        }
+        issuers = Collections.unmodifiableList(allIssuers);
+
+        // Issuers are identified by the "iss" claim, and thus must be unique
+        Set<String> issuerNames = new HashSet<String>();
+        for (IssuerConfiguration config : issuers) {
+            if (!issuerNames.add(config.getIssuer()))
+                throw new GuacamoleServerException("Issuer \"" + config.getIssuer()
+                        + "\" is configured more than once.");
+        }
+
+    }
+
+    /**
+     * Returns the value of the given property from the given environment. If
+     * the property is not specified and provider metadata is available, the
+     * corresponding value from the provider metadata is returned instead.
+     *
+     * @param environment
+     *     The Guacamole server environment to read the property from.
+     *
+     * @param metadata
+     *     The metadata of the OpenID provider, or null if discovery is not
+     *     enabled.
+     *
+     * @param property
+     *     The property to retrieve.
+     *
+     * @param name
+     *     The name of the corresponding value within the OpenID provider
+     *     metadata.
+     *
+     * @param required
+     *     Whether the value is required. If false, null is returned in place
+     *     of any missing value.
+     *
+     * @return
+     *     The value of the given property, or of the corresponding value
+     *     within the OpenID provider metadata, or null if the value is not
+     *     required and is missing.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if the value is
+     *     required but is missing both from guacamole.properties and from
+     *     the OpenID provider metadata.
+     */
+    private static String getDiscoverableProperty(Environment environment,
+            ProviderMetadata metadata, StringGuacamoleProperty property,
+            String name, boolean required) throws GuacamoleException {
+
+        // Explicitly-configured values take priority
+        String value = environment.getProperty(property);
+        if (value != null)
+            return value;
+
+        // Fall back to provider metadata only if discovery is enabled
+        if (metadata == null)
+            return required ? environment.getRequiredProperty(property) : null;
+
+        value = metadata.getString(name);
+        if (value == null && required)
+            throw new GuacamoleServerException("Property \"" + property.getName()
+                    + "\" is not specified and \"" + name + "\" is missing "
+                    + "from the OpenID discovery document.");
+
+        return value;
+
+    }
+
+    /**
+     * Reads the configuration of each additional tenant listed within the
+     * "oauth-tenants" property.
+     *
+     * @param environment
+     *     The Guacamole server environment to read properties from.
+     *
+     * @param defaultClientID
+     *     The client ID to use for tenants which do not specify their own.
+     *
+     * @param defaultUsernameClaimType
+     *     The username claim type to use for tenants which do not specify
+     *     their own.
+     *
+     * @return
+     *     The issuer configuration of each additional tenant, in the order
+     *     listed. If no tenants are listed, the list is empty.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if a required tenant
+     *     property is missing.
+     */
+    private static List<IssuerConfiguration> getTenants(Environment environment,
+            String defaultClientID, String defaultUsernameClaimType)
+            throws GuacamoleException {
+
+        String tenantList = environment.getProperty(OAuthGuacamoleProperties.OAUTH_TENANTS);
+        if (tenantList == null)
+            return Collections.<IssuerConfiguration>emptyList();
+
+        List<IssuerConfiguration> tenants = new ArrayList<IssuerConfiguration>();
+        for (String tenant : tenantList.split(",")) {
+
+            // Ignore empty entries, such as those due to trailing commas
+            tenant = tenant.trim();
+            if (tenant.isEmpty())
+                continue;
+
+            tenants.add(new IssuerConfiguration(
+                environment.getRequiredProperty(OAuthGuacamoleProperties.getTenantProperty(
+                        tenant, OAuthGuacamoleProperties.TENANT_ISSUER)),
+                environment.getRequiredProperty(OAuthGuacamoleProperties.getTenantProperty(
+                        tenant, OAuthGuacamoleProperties.TENANT_JWKS_ENDPOINT)),
+                environment.getProperty(OAuthGuacamoleProperties.getTenantProperty(
+                        tenant, OAuthGuacamoleProperties.TENANT_CLIENT_ID), defaultClientID),
+                environment.getProperty(OAuthGuacamoleProperties.getTenantProperty(
+                        tenant, OAuthGuacamoleProperties.TENANT_USERNAME_CLAIM_TYPE), defaultUsernameClaimType)
+            ));
+
+        }
+
+        return tenants;
+
+    }
+
+    /**
+     * Parses the system permissions granted to the members of each group, as
+     * configured with the "oauth-group-permissions" property.
+     *
+     * @param environment
+     *     The Guacamole server environment.
+     *
+     * @return
+     *     An unmodifiable map of the system permissions granted to the members
+     *     of each group, keyed by group name. If no permissions are
+     *     configured, the map is empty.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if the
+     *     "oauth-group-permissions" property is not valid.
+     */
+    private static Map<String, Set<SystemPermission.Type>> getGroupPermissions(
+            Environment environment) throws GuacamoleException {
+
+        String permissionList = environment.getProperty(OAuthGuacamoleProperties.OAUTH_GROUP_PERMISSIONS);
+        if (permissionList == null)
+            return Collections.<String, Set<SystemPermission.Type>>emptyMap();
+
+        Map<String, Set<SystemPermission.Type>> permissions =
+                new HashMap<String, Set<SystemPermission.Type>>();
+
+        for (String entry : permissionList.split(",")) {
+
+            // Ignore empty entries, such as those due to trailing commas
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+
+            // Group names may themselves contain "="
+            int equals = entry.lastIndexOf('=');
+            if (equals <= 0)
+                throw new GuacamoleServerException("\"" + entry + "\" is not "
+                        + "a valid entry for property \""
+                        + OAuthGuacamoleProperties.OAUTH_GROUP_PERMISSIONS.getName()
+                        + "\". Entries must be of the form \"GROUP=PERMISSION\".");
+
+            String group = entry.substring(0, equals).trim();
+            Set<SystemPermission.Type> granted = permissions.get(group);
+            if (granted == null) {
+                granted = EnumSet.noneOf(SystemPermission.Type.class);
+                permissions.put(group, granted);
+            }
+
+            for (String type : entry.substring(equals + 1).split("\\|")) {
+                try {
+                    granted.add(SystemPermission.Type.valueOf(type.trim()));
+                }
+                catch (IllegalArgumentException e) {
+                    throw new GuacamoleServerException("\"" + type.trim()
+                            + "\" is not a valid system permission for property \""
+                            + OAuthGuacamoleProperties.OAUTH_GROUP_PERMISSIONS.getName()
+                            + "\".", e);
+                }
+            }
+
+        }
+
+        return Collections.unmodifiableMap(permissions);
+
+    }
+
+    /**
+     * Returns whether the two given objects are equal, where null is equal
+     * only to null.
+     *
+     * @param a
+     *     The first object to compare, which may be null.
+     *
+     * @param b
+     *     The second object to compare, which may be null.
+     *
+     * @return
+     *     true if both objects are null or are equal, false otherwise.
+     */
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the URI of the OpenID discovery document.
+     *
+     * @return
+     *     The URI of the OpenID discovery document, or null if discovery is
+     *     not enabled.
+     */
+    public String getDiscoveryURI() {
+        return discoveryURI;
+    }
+
+    /**
+     * Returns the authorization endpoint (URI) of the OAuth service.
+     *
+     * @return
+     *     The authorization endpoint of the OAuth service.
+     */
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    /**
+     * Returns the means by which received tokens are validated.
+     *
+     * @return
+     *     The means by which received tokens are validated.
+     */
+    public ValidationMode getValidationMode() {
+        return validationMode;
+    }
+
+    /**
+     * Returns the OAuth flow by which users are authenticated.
+     *
+     * @return
+     *     The OAuth flow by which users are authenticated.
+     */
+    public AuthorizationFlow getAuthorizationFlow() {
+        return authorizationFlow;
+    }
+
+    /**
+     * Returns the OAuth client ID.
+     *
+     * @return
+     *     The OAuth client ID.
+     */
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Returns the OAuth client secret.
+     *
+     * @return
+     *     The OAuth client secret, or null if no client secret is configured.
+     */
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    /**
+     * Returns the URI that the OAuth service should redirect to after the
+     * authentication process is complete.
+     *
+     * @return
+     *     The URI that the OAuth service should redirect to.
+     */
+    public String getRedirectURI() {
+        return redirectURI;
+    }
+
+    /**
+     * Returns the precomputed authorization URI of the OAuth service, which
+     * lacks only the nonce. The template is built once for each configuration
+     * and may be shared by all logins.
+     *
+     * @return
+     *     The precomputed authorization URI of the OAuth service.
+     */
+    public AuthorizationURITemplate getAuthorizationURITemplate() {
+        return authorizationURITemplate;
+    }
+
+    /**
+     * Returns the issuer to expect for all received ID tokens.
+     *
+     * @return
+     *     The issuer to expect for all received ID tokens, or null if tokens
+     *     are validated via introspection and no issuer is configured.
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * Returns the endpoint (URI) of the JWKS service.
+     *
+     * @return
+     *     The endpoint (URI) of the JWKS service, or null if tokens are
+     *     validated via introspection and no JWKS endpoint is configured.
+     */
+    public String getJWKSEndpoint() {
+        return jwksEndpoint;
+    }
+
+    /**
+     * Returns the token introspection endpoint (URI) of the OAuth service.
+     *
+     * @return
+     *     The token introspection endpoint of the OAuth service, or null if
+     *     tokens are not validated via introspection and no introspection
+     *     endpoint is configured.
+     */
+    public String getIntrospectionEndpoint() {
+        return introspectionEndpoint;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for a
+     * connection to the token introspection endpoint to be established.
+     *
+     * @return
+     *     The connect timeout for token introspection, in milliseconds.
+     */
+    public int getIntrospectionConnectTimeout() {
+        return introspectionConnectTimeout;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for the
+     * token introspection endpoint to respond once connected.
+     *
+     * @return
+     *     The read timeout for token introspection, in milliseconds.
+     */
+    public int getIntrospectionReadTimeout() {
+        return introspectionReadTimeout;
+    }
+
+    /**
+     * Returns the token endpoint (URI) of the OAuth service.
+     *
+     * @return
+     *     The token endpoint of the OAuth service, or null if the
+     *     authorization code flow is not used and no token endpoint is
+     *     configured.
+     */
+    public String getTokenEndpoint() {
+        return tokenEndpoint;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for a
+     * connection to the token endpoint to be established.
+     *
+     * @return
+     *     The connect timeout for code exchange, in milliseconds.
+     */
+    public int getTokenExchangeConnectTimeout() {
+        return tokenExchangeConnectTimeout;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for the
+     * token endpoint to respond once connected.
+     *
+     * @return
+     *     The read timeout for code exchange, in milliseconds.
+     */
+    public int getTokenExchangeReadTimeout() {
+        return tokenExchangeReadTimeout;
+    }
+
+    /**
+     * Returns the maximum number of authorization codes which may be
+     * exchanged concurrently.
+     *
+     * @return
+     *     The maximum number of concurrent code exchanges.
+     */
+    public int getTokenExchangeMaxConcurrent() {
+        return tokenExchangeMaxConcurrent;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, that a login may
+     * wait for its code exchange to begin while the maximum number of
+     * concurrent exchanges are already in progress.
+     *
+     * @return
+     *     The maximum amount of time to wait for an exchange to begin, in
+     *     milliseconds.
+     */
+    public int getTokenExchangeQueueTimeout() {
+        return tokenExchangeQueueTimeout;
+    }
+
+    /**
+     * Returns whether each login must return the nonce issued when the user
+     * was redirected to the OAuth service.
+     *
+     * @return
+     *     true if nonces must be validated, false otherwise.
+     */
+    public boolean isNonceValidationEnabled() {
+        return nonceValidationEnabled;
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that a nonce remains
+     * valid after being issued.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that a nonce remains valid.
+     */
+    public int getNonceLifetime() {
+        return nonceLifetime;
+    }
+
+    /**
+     * Returns the maximum number of pending logins whose nonces may be
+     * stored at any one time.
+     *
+     * @return
+     *     The maximum number of pending logins.
+     */
+    public int getNonceStoreSize() {
+        return nonceStoreSize;
+    }
+
+    /**
+     * Returns the maximum number of logins per minute from any one client
+     * address.
+     *
+     * @return
+     *     The maximum number of logins per minute from any one client
+     *     address, or zero if logins are not limited per address.
+     */
+    public int getRateLimitPerAddress() {
+        return rateLimitPerAddress;
+    }
+
+    /**
+     * Returns the maximum number of logins per minute by any one user.
+     *
+     * @return
+     *     The maximum number of logins per minute by any one user, or zero if
+     *     logins are not limited per user.
+     */
+    public int getRateLimitPerUser() {
+        return rateLimitPerUser;
+    }
+
+    /**
+     * Returns the number of logins which may be attempted in rapid
+     * succession before any rate limit applies.
+     *
+     * @return
+     *     The number of logins which may be attempted in rapid succession.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Returns the maximum number of logins which may be validated at any one
+     * time.
+     *
+     * @return
+     *     The maximum number of logins which may be validated at any one
+     *     time, or zero if the number of concurrent logins is not limited.
+     */
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    /**
+     * Returns the storage used to record ID tokens which have already been
+     * used to log in.
+     *
+     * @return
+     *     The storage used to record used ID tokens.
+     */
+    public ReplayCacheType getReplayCacheType() {
+        return replayCacheType;
+    }
+
+    /**
+     * Returns the maximum number of used ID tokens to record.
+     *
+     * @return
+     *     The maximum number of used ID tokens to record.
+     */
+    public int getReplayCacheSize() {
+        return replayCacheSize;
+    }
+
+    /**
+     * Returns the memory-mapped file in which used ID tokens are recorded.
+     *
+     * @return
+     *     The memory-mapped file in which used ID tokens are recorded, or
+     *     null if the "file" replay cache is not used.
+     */
+    public File getReplayCacheFile() {
+        return replayCacheFile;
+    }
+
+    /**
+     * Returns the hostname or address of the key/value service in which used
+     * ID tokens are recorded.
+     *
+     * @return
+     *     The hostname or address of the key/value service, or null if the
+     *     "network" replay cache is not used.
+     */
+    public String getReplayCacheHost() {
+        return replayCacheHost;
+    }
+
+    /**
+     * Returns the port of the key/value service in which used ID tokens are
+     * recorded.
+     *
+     * @return
+     *     The port of the key/value service, or zero if the "network" replay
+     *     cache is not used.
+     */
+    public int getReplayCachePort() {
+        return replayCachePort;
+    }
+
+    /**
+     * Returns the maximum amount of time, in milliseconds, to wait for a
+     * connection to or reply from the key/value service used by the
+     * "network" replay cache.
+     *
+     * @return
+     *     The timeout for the "network" replay cache, in milliseconds.
+     */
+    public int getReplayCacheTimeout() {
+        return replayCacheTimeout;
+    }
+
+    /**
+     * Returns the maximum number of introspection results to cache.
+     *
+     * @return
+     *     The maximum number of introspection results to cache.
+     */
+    public int getIntrospectionCacheSize() {
+        return introspectionCacheSize;
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that an introspection
+     * result may be cached.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that an introspection result
+     *     may be cached.
+     */
+    public int getIntrospectionCacheLifetime() {
+        return introspectionCacheLifetime;
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that expired keys may
+     * continue to be used while being refreshed.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that expired keys may
+     *     continue to be used while being refreshed.
+     */
+    public int getJWKSMaxStale() {
+        return jwksMaxStale;
+    }
+
+    /**
+     * Returns how keys and provider metadata are retrieved via HTTP.
+     *
+     * @return
+     *     How keys and provider metadata are retrieved via HTTP.
+     */
+    public FetchConfiguration getFetchConfiguration() {
+        return fetchConfiguration;
+    }
+
+    /**
+     * Returns the file in which retrieved keys should be saved.
+     *
+     * @return
+     *     The file in which retrieved keys should be saved, or null if
+     *     retrieved keys should not be saved.
+     */
+    public File getJWKSCacheFile() {
+        return jwksCacheFile;
+    }
+
+    /**
+     * Returns the maximum number of successfully-validated ID tokens to
+     * cache.
+     *
+     * @return
+     *     The maximum number of successfully-validated ID tokens to cache.
+     */
+    public int getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    /**
+     * Returns the maximum amount of time, in seconds, that a
+     * successfully-validated ID token may be cached.
+     *
+     * @return
+     *     The maximum amount of time, in seconds, that a
+     *     successfully-validated ID token may be cached.
+     */
+    public int getTokenCacheLifetime() {
+        return tokenCacheLifetime;
+    }
+
+    /**
+     * Returns the maximum number of failed ID tokens and unknown key IDs to
+     * cache.
+     *
+     * @return
+     *     The maximum number of failed ID tokens and unknown key IDs to
+     *     cache.
+     */
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    /**
+     * Returns the amount of time, in seconds, that failed ID tokens and
+     * unknown key IDs should be cached.
+     *
+     * @return
+     *     The amount of time, in seconds, that failed ID tokens and unknown
+     *     key IDs should be cached.
+     */
+    public int getNegativeCacheLifetime() {
+        return negativeCacheLifetime;
+    }
+
+    /**
+     * Returns the interval, in seconds, at which a summary of login metrics
+     * should be logged.
+     *
+     * @return
+     *     The interval, in seconds, at which a summary of login metrics should
+     *     be logged, or zero if no summary should be logged.
+     */
+    public int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    /**
+     * Returns the claim type which contains the authenticated user's username
+     * within any valid JWT.
+     *
+     * @return
+     *     The claim type which contains the authenticated user's username.
+     */
+    public String getUsernameClaimType() {
+        return usernameClaimType;
+    }
+
+    /**
+     * Returns the compiled plan for deriving user attributes and groups from
+     * the claims of each token.
+     *
+     * @return
+     *     The compiled plan for deriving user attributes and groups from the
+     *     claims of each token.
+     */
+    public ClaimMapping getClaimMapping() {
+        return claimMapping;
+    }
+
+    /**
+     * Returns the endpoint (URI) from which the groups of users having a
+     * groups overage are retrieved.
+     *
+     * @return
+     *     The endpoint from which the groups of users having a groups overage
+     *     are retrieved, or null if such groups are not retrieved.
+     */
+    public String getGroupLookupEndpoint() {
+        return groupLookupEndpoint;
+    }
+
+    /**
+     * Returns the compiled paths of the members of the group lookup response
+     * which contain group names.
+     *
+     * @return
+     *     An unmodifiable list of the compiled paths of the members of the
+     *     group lookup response which contain group names.
+     */
+    public List<ClaimPath> getGroupLookupClaims() {
+        return groupLookupClaims;
+    }
+
+    /**
+     * Returns the maximum amount of time that a login may wait for the
+     * groups of the user to be retrieved.
+     *
+     * @return
+     *     The maximum amount of time that a login may wait for the groups of
+     *     the user to be retrieved, in milliseconds.
+     */
+    public int getGroupLookupTimeout() {
+        return groupLookupTimeout;
+    }
+
+    /**
+     * Returns the maximum number of group lookups which may be in progress at
+     * any one time.
+     *
+     * @return
+     *     The maximum number of group lookups which may be in progress at any
+     *     one time.
+     */
+    public int getGroupLookupThreads() {
+        return groupLookupThreads;
+    }
+
+    /**
+     * Returns the maximum number of users whose retrieved groups should be
+     * cached.
+     *
+     * @return
+     *     The maximum number of users whose retrieved groups should be cached.
+     */
+    public int getGroupCacheSize() {
+        return groupCacheSize;
+    }
+
+    /**
+     * Returns the amount of time that the retrieved groups of a user may be
+     * cached.
+     *
+     * @return
+     *     The amount of time that the retrieved groups of a user may be
+     *     cached, in seconds.
+     */
+    public int getGroupCacheLifetime() {
+        return groupCacheLifetime;
+    }
+
+    /**
+     * Returns the system permissions granted to the members of each group.
+     *
+     * @return
+     *     An unmodifiable map of the system permissions granted to the members
+     *     of each group, keyed by group name.
+     */
+    public Map<String, Set<SystemPermission.Type>> getGroupPermissions() {
+        return groupPermissions;
+    }
+
+    /**
+     * Returns when the UserInfo endpoint should be consulted for information
+     * about the user.
+     *
+     * @return
+     *     When the UserInfo endpoint should be consulted.
+     */
+    public UserInfoMode getUserInfoMode() {
+        return userInfoMode;
+    }
+
+    /**
+     * Returns the UserInfo endpoint of the OpenID provider.
+     *
+     * @return
+     *     The UserInfo endpoint of the OpenID provider, or null if the
+     *     UserInfo endpoint is never consulted and no such endpoint is known.
+     */
+    public String getUserInfoEndpoint() {
+        return userInfoEndpoint;
+    }
+
+    /**
+     * Returns the maximum amount of time that a login may wait for the
+     * UserInfo of the user to be retrieved.
+     *
+     * @return
+     *     The maximum amount of time that a login may wait for UserInfo, in
+     *     milliseconds.
+     */
+    public int getUserInfoTimeout() {
+        return userInfoTimeout;
+    }
+
+    /**
+     * Returns the maximum number of UserInfo requests which may be in
+     * progress at any one time.
+     *
+     * @return
+     *     The maximum number of UserInfo requests which may be in progress at
+     *     any one time.
+     */
+    public int getUserInfoThreads() {
+        return userInfoThreads;
+    }
+
+    /**
+     * Returns the maximum number of users whose UserInfo should be cached.
+     *
+     * @return
+     *     The maximum number of users whose UserInfo should be cached.
+     */
+    public int getUserInfoCacheSize() {
+        return userInfoCacheSize;
+    }
+
+    /**
+     * Returns the amount of time that the UserInfo of a user may be cached.
+     *
+     * @return
+     *     The amount of time that the UserInfo of a user may be cached, in
+     *     seconds.
+     */
+    public int getUserInfoCacheLifetime() {
+        return userInfoCacheLifetime;
+    }
+
+    /**
+     * Returns whether UserInfo should be requested as soon as the signature
+     * of the ID token has been verified, in parallel with the remaining
+     * checks of the login.
+     *
+     * @return
+     *     true if UserInfo should be requested as soon as the signature of
+     *     the ID token has been verified, false if UserInfo should be
+     *     requested only once all other checks have passed.
+     */
+    public boolean isUserInfoPrefetchEnabled() {
+        return userInfoPrefetchEnabled;
+    }
+
+    /**
+     * Returns all issuers whose ID tokens should be accepted. The first
+     * issuer is always the issuer described by the main OAuth properties,
+     * and is followed by the issuer of each additional tenant, if any. No two
+     * issuers share the same "iss" value.
+     *
+     * @return
+     *     An unmodifiable list of all issuers whose ID tokens should be
+     *     accepted.
+     */
+    public List<IssuerConfiguration> getIssuers() {
+        return issuers;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof OAuthConfiguration))
+            return false;
+
+        OAuthConfiguration other = (OAuthConfiguration) object;
+        return equal(discoveryURI, other.discoveryURI)
+            && equal(authorizationEndpoint, other.authorizationEndpoint)
+            && equal(clientID, other.clientID)
+            && equal(redirectURI, other.redirectURI)
+            && equal(issuer, other.issuer)
+            && equal(jwksEndpoint, other.jwksEndpoint)
+            && jwksMaxStale == other.jwksMaxStale
+            && equal(jwksCacheFile, other.jwksCacheFile)
+            && fetchConfiguration.equals(other.fetchConfiguration)
+            && tokenCacheSize == other.tokenCacheSize
+            && tokenCacheLifetime == other.tokenCacheLifetime
+            && negativeCacheSize == other.negativeCacheSize
+            && negativeCacheLifetime == other.negativeCacheLifetime
+            && metricsLogInterval == other.metricsLogInterval
+            && equal(usernameClaimType, other.usernameClaimType)
+            && claimMapping.equals(other.claimMapping)
+            && equal(groupLookupEndpoint, other.groupLookupEndpoint)
+            && groupLookupClaims.equals(other.groupLookupClaims)
+            && groupLookupTimeout == other.groupLookupTimeout
+            && groupLookupThreads == other.groupLookupThreads
+            && groupCacheSize == other.groupCacheSize
+            && groupCacheLifetime == other.groupCacheLifetime
+            && groupPermissions.equals(other.groupPermissions)
+            && userInfoMode == other.userInfoMode
+            && equal(userInfoEndpoint, other.userInfoEndpoint)
+            && userInfoTimeout == other.userInfoTimeout
+            && userInfoThreads == other.userInfoThreads
+            && userInfoCacheSize == other.userInfoCacheSize
+            && userInfoCacheLifetime == other.userInfoCacheLifetime
+            && userInfoPrefetchEnabled == other.userInfoPrefetchEnabled
+            && issuers.equals(other.issuers)
+            && validationMode == other.validationMode
+            && equal(clientSecret, other.clientSecret)
+            && equal(introspectionEndpoint, other.introspectionEndpoint)
+            && introspectionConnectTimeout == other.introspectionConnectTimeout
+            && introspectionReadTimeout == other.introspectionReadTimeout
+            && introspectionCacheSize == other.introspectionCacheSize
+            && introspectionCacheLifetime == other.introspectionCacheLifetime
+            && authorizationFlow == other.authorizationFlow
+            && equal(tokenEndpoint, other.tokenEndpoint)
+            && tokenExchangeConnectTimeout == other.tokenExchangeConnectTimeout
+            && tokenExchangeReadTimeout == other.tokenExchangeReadTimeout
+            && tokenExchangeMaxConcurrent == other.tokenExchangeMaxConcurrent
+            && tokenExchangeQueueTimeout == other.tokenExchangeQueueTimeout
+            && nonceValidationEnabled == other.nonceValidationEnabled
+            && nonceLifetime == other.nonceLifetime
+            && nonceStoreSize == other.nonceStoreSize
+            && rateLimitPerAddress == other.rateLimitPerAddress
+            && rateLimitPerUser == other.rateLimitPerUser
+            && rateLimitBurst == other.rateLimitBurst
+            && maxConcurrentLogins == other.maxConcurrentLogins
+            && replayCacheType == other.replayCacheType
+            && replayCacheSize == other.replayCacheSize
+            && equal(replayCacheFile, other.replayCacheFile)
+            && equal(replayCacheHost, other.replayCacheHost)
+            && replayCachePort == other.replayCachePort
+            && replayCacheTimeout == other.replayCacheTimeout;
+
+    }
+
+    @Override
+    public int hashCode() {
+        return clientID.hashCode() ^ validationMode.hashCode();
+    }
+
+}
@@ -22,6 +22,9 @@
 
 package org.glyptodon.guacamole.auth.oauth.conf;
 
+import org.apache.guacamole.properties.BooleanGuacamoleProperty;
+import org.apache.guacamole.properties.FileGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
 
 /**
@@ -38,6 +41,20 @@ public class OAuthGuacamoleProperties {
      */
     private OAuthGuacamoleProperties() {}
 
+    /**
+     * The URI of the OpenID discovery document of the OAuth service
+     * (".well-known/openid-configuration"). If specified, the authorization
+     * endpoint, JWKS endpoint, token endpoint, and issuer are taken from this
+     * document unless explicitly configured.
+     */
+    public static final StringGuacamoleProperty OAUTH_DISCOVERY_URI =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-discovery-uri"; }
+
+    };
+
     /**
      * The authorization endpoint (URI) of the OAuth service.
      */
@@ -61,6 +78,148 @@ public class OAuthGuacamoleProperties {
 
     };
 
+    /**
+     * The maximum amount of time, in seconds, that keys retrieved from the
+     * JWKS endpoint may continue to be used after they have expired while
+     * those keys are being refreshed.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_JWKS_MAX_STALE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-jwks-max-stale"; }
+
+    };
+
+    /**
+     * The file in which the last set of keys successfully retrieved from the
+     * JWKS endpoint should be saved, such that tokens can be validated
+     * immediately upon startup, even if the JWKS endpoint is unreachable.
+     */
+    public static final FileGuacamoleProperty OAUTH_JWKS_CACHE_FILE =
+            new FileGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-jwks-cache-file"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to be established when retrieving keys from the JWKS endpoint or
+     * metadata from the discovery endpoint.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_FETCH_CONNECT_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-fetch-connect-timeout"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for data to be
+     * received when retrieving keys from the JWKS endpoint or metadata from
+     * the discovery endpoint.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_FETCH_READ_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-fetch-read-timeout"; }
+
+    };
+
+    /**
+     * The number of consecutive failed requests to the JWKS or discovery
+     * endpoint after which further requests to that endpoint are rejected
+     * immediately.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_CIRCUIT_BREAKER_THRESHOLD =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-circuit-breaker-threshold"; }
+
+    };
+
+    /**
+     * The amount of time, in seconds, that requests to an unhealthy JWKS or
+     * discovery endpoint are rejected before a trial request is allowed.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_CIRCUIT_BREAKER_OPEN_TIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-circuit-breaker-open-time"; }
+
+    };
+
+    /**
+     * The maximum number of successfully-validated ID tokens to cache, such
+     * that repeated submissions of the same token need not be validated
+     * again. If zero, validated tokens are not cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-cache-size"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in seconds, that a successfully-validated
+     * ID token may be cached. Tokens are never cached beyond their own
+     * expiration time.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_CACHE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-cache-lifetime"; }
+
+    };
+
+    /**
+     * The maximum number of failures to cache, including ID tokens which
+     * failed validation and key IDs which could not be found within the JWKS,
+     * such that repeated attempts fail immediately. If zero, failures are
+     * not cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_NEGATIVE_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-negative-cache-size"; }
+
+    };
+
+    /**
+     * The amount of time, in seconds, that failures, including ID tokens
+     * which failed validation and key IDs which could not be found within the
+     * JWKS, should be cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_NEGATIVE_CACHE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-negative-cache-lifetime"; }
+
+    };
+
+    /**
+     * The interval, in seconds, at which a summary of login metrics should be
+     * logged. If zero, no summary is logged.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_METRICS_LOG_INTERVAL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-metrics-log-interval"; }
+
+    };
+
     /**
      * The issuer to expect for all received ID tokens.
      */
@@ -84,6 +243,218 @@ public class OAuthGuacamoleProperties {
 
     };
 
+    /**
+     * A comma-separated list of user attributes to derive from the claims of
+     * each token, each of the form "NAME=PATH", where PATH is the path of the
+     * claim containing the attribute value, such as "email=email" or
+     * "department=org.department". Quoted names, such as
+     * ["https://example.net/department"], may be used for claims whose names
+     * contain periods.
+     */
+    public static final StringGuacamoleProperty OAUTH_ATTRIBUTE_MAPPINGS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-attribute-mappings"; }
+
+    };
+
+    /**
+     * A comma-separated list of the paths of claims containing the names of
+     * the groups of which the user is a member, such as "groups" or
+     * "realm_access.roles". The "[*]" subscript may be used to select a
+     * value from each element of an array, such as "memberships[*].name".
+     */
+    public static final StringGuacamoleProperty OAUTH_GROUP_CLAIMS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-claims"; }
+
+    };
+
+    /**
+     * The endpoint (URI) from which the groups of a user are retrieved if
+     * the user's token indicates that the user is a member of more groups
+     * than could be included within the token (a "groups overage"), such as
+     * "https://graph.microsoft.com/v1.0/me/memberOf". The endpoint is
+     * requested using the user's access token, which is available only if
+     * the authorization code flow or introspection is used.
+     */
+    public static final StringGuacamoleProperty OAUTH_GROUP_LOOKUP_ENDPOINT =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-lookup-endpoint"; }
+
+    };
+
+    /**
+     * A comma-separated list of the paths of the members of the group lookup
+     * response which contain group names, such as "value[*].displayName".
+     * By default, group names are read from the "groups" member.
+     */
+    public static final StringGuacamoleProperty OAUTH_GROUP_LOOKUP_CLAIMS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-lookup-claims"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, that a login may wait for
+     * the groups of the user to be retrieved from the group lookup endpoint.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_GROUP_LOOKUP_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-lookup-timeout"; }
+
+    };
+
+    /**
+     * The maximum number of requests to the group lookup endpoint which may
+     * be in progress at any one time.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_GROUP_LOOKUP_THREADS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-lookup-threads"; }
+
+    };
+
+    /**
+     * The maximum number of users whose groups, as retrieved from the group
+     * lookup endpoint, should be cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_GROUP_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-cache-size"; }
+
+    };
+
+    /**
+     * The amount of time, in seconds, that the groups of a user, as retrieved
+     * from the group lookup endpoint, may be cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_GROUP_CACHE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-cache-lifetime"; }
+
+    };
+
+    /**
+     * A comma-separated list of the system permissions granted to the
+     * members of each group, each of the form "GROUP=PERMISSION", where
+     * PERMISSION is one or more of ADMINISTER, CREATE_USER,
+     * CREATE_CONNECTION, CREATE_CONNECTION_GROUP, or CREATE_SHARING_PROFILE,
+     * separated by "|". For example: "guac-admins=ADMINISTER".
+     */
+    public static final StringGuacamoleProperty OAUTH_GROUP_PERMISSIONS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-group-permissions"; }
+
+    };
+
+    /**
+     * When the UserInfo endpoint of the OpenID provider should be consulted
+     * for information about the user: "none" (never), "fallback" (only if
+     * the ID token lacks the username), or "always" (for every login, adding
+     * the attributes and groups it provides to those of the ID token). The
+     * endpoint is requested using the user's access token, which is
+     * available only if the authorization code flow is used. By default, the
+     * UserInfo endpoint is never consulted.
+     */
+    public static final StringGuacamoleProperty OAUTH_USERINFO =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo"; }
+
+    };
+
+    /**
+     * The UserInfo endpoint (URI) of the OpenID provider. If omitted, the
+     * endpoint is determined via discovery.
+     */
+    public static final StringGuacamoleProperty OAUTH_USERINFO_ENDPOINT =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-endpoint"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, that a login may wait for
+     * the UserInfo of the user to be retrieved.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_USERINFO_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-timeout"; }
+
+    };
+
+    /**
+     * The maximum number of requests to the UserInfo endpoint which may be in
+     * progress at any one time.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_USERINFO_THREADS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-threads"; }
+
+    };
+
+    /**
+     * The maximum number of users whose UserInfo should be cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_USERINFO_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-cache-size"; }
+
+    };
+
+    /**
+     * The amount of time, in seconds, that the UserInfo of a user may be
+     * cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_USERINFO_CACHE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-cache-lifetime"; }
+
+    };
+
+    /**
+     * Whether the UserInfo of the user should be requested as soon as the
+     * signature of the ID token has been verified, such that the request
+     * proceeds in parallel with the remaining checks of the login. By
+     * default, UserInfo is requested early.
+     */
+    public static final BooleanGuacamoleProperty OAUTH_USERINFO_PREFETCH =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-userinfo-prefetch"; }
+
+    };
+
     /**
      * OAuth client ID which should be submitted to the OAuth service when
      * necessary. This value is typically provided by the OAuth service when
@@ -97,6 +468,405 @@ public class OAuthGuacamoleProperties {
 
     };
 
+    /**
+     * The means by which received tokens should be validated: "jwt" (the
+     * default) for signed ID tokens, or "introspection" for opaque access
+     * tokens validated using RFC 7662 token introspection.
+     */
+    public static final StringGuacamoleProperty OAUTH_TOKEN_VALIDATION =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-validation"; }
+
+    };
+
+    /**
+     * The token introspection endpoint (URI) of the OAuth service. If
+     * discovery is enabled, this may be omitted.
+     */
+    public static final StringGuacamoleProperty OAUTH_INTROSPECTION_ENDPOINT =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-introspection-endpoint"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to the token introspection endpoint to be established.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_INTROSPECTION_CONNECT_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-introspection-connect-timeout"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for the token
+     * introspection endpoint to respond once connected.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_INTROSPECTION_READ_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-introspection-read-timeout"; }
+
+    };
+
+    /**
+     * The maximum number of introspection results to cache, such that
+     * repeated submissions of the same access token need not be introspected
+     * again. If zero, introspection results are not cached.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_INTROSPECTION_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-introspection-cache-size"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in seconds, that an introspection result
+     * may be cached. Results are never cached beyond the expiration time of
+     * the access token.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_INTROSPECTION_CACHE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-introspection-cache-lifetime"; }
+
+    };
+
+    /**
+     * The OAuth flow by which users are authenticated: "implicit" (the
+     * default), in which tokens are returned directly to the browser, or
+     * "code", in which an authorization code is returned to the browser and
+     * exchanged for tokens via the token endpoint.
+     */
+    public static final StringGuacamoleProperty OAUTH_FLOW =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-flow"; }
+
+    };
+
+    /**
+     * The token endpoint (URI) of the OAuth service, used to exchange
+     * authorization codes for tokens. If discovery is enabled, this may be
+     * omitted.
+     */
+    public static final StringGuacamoleProperty OAUTH_TOKEN_ENDPOINT =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-endpoint"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to the token endpoint to be established.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_EXCHANGE_CONNECT_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-exchange-connect-timeout"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for the token
+     * endpoint to respond once connected.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_EXCHANGE_READ_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-exchange-read-timeout"; }
+
+    };
+
+    /**
+     * The maximum number of authorization codes which may be exchanged
+     * concurrently. Idle connections beyond the limit imposed by the
+     * "http.maxConnections" system property are closed rather than reused,
+     * thus that system property should be at least this value.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_EXCHANGE_MAX_CONCURRENT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-exchange-max-concurrent"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, that a login may wait for
+     * its authorization code to be exchanged while the maximum number of
+     * concurrent exchanges are already in progress.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_TOKEN_EXCHANGE_QUEUE_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-token-exchange-queue-timeout"; }
+
+    };
+
+    /**
+     * Whether each login must return the nonce issued when the user was
+     * redirected to the OAuth service, such that tokens cannot be replayed,
+     * and must be completed by the browser which began it. Issued nonces are stored only in the memory of the server which issued
+     * them, so nonce validation may be enabled only if all logins are handled
+     * by a single server, or if a load balancer sends each browser to the
+     * same server throughout its login. Nonce validation is disabled by
+     * default.
+     */
+    public static final BooleanGuacamoleProperty OAUTH_NONCE_VALIDATION =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-nonce-validation"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in seconds, that the user may take to
+     * authenticate with the OAuth service before the nonce issued for their
+     * login expires.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_NONCE_LIFETIME =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-nonce-lifetime"; }
+
+    };
+
+    /**
+     * The maximum number of pending logins whose nonces may be stored at any
+     * one time. If further logins begin, the oldest pending logins are
+     * discarded to make room.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_NONCE_STORE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-nonce-store-size"; }
+
+    };
+
+    /**
+     * The maximum number of logins per minute which may be attempted from
+     * any one client address, including requests which are merely redirected
+     * to the OAuth service. By default, logins are not limited per address.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_RATE_LIMIT_PER_ADDRESS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-rate-limit-per-address"; }
+
+    };
+
+    /**
+     * The maximum number of logins per minute which may be completed by any
+     * one user. By default, logins are not limited per user.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_RATE_LIMIT_PER_USER =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-rate-limit-per-user"; }
+
+    };
+
+    /**
+     * The number of logins which any one client address or user may attempt
+     * in rapid succession before their rate limit applies. By default, 10
+     * logins are allowed in a burst.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_RATE_LIMIT_BURST =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-rate-limit-burst"; }
+
+    };
+
+    /**
+     * The maximum number of logins which may be validated at any one time.
+     * Further logins are refused immediately as the server being busy rather
+     * than waiting. If zero, the number of concurrent logins is not limited.
+     * By default, at most 64 logins may be in progress.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_MAX_CONCURRENT_LOGINS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-max-concurrent-logins"; }
+
+    };
+
+    /**
+     * The storage used to record ID tokens which have already been used to
+     * log in, such that they cannot be replayed: "none" (the default),
+     * "memory", "file" for a memory-mapped file shared by all servers on the
+     * same host (but not across hosts, even via a shared filesystem), or
+     * "network" for a key/value service speaking the Redis protocol shared
+     * by all servers. Recording used tokens also refuses
+     * legitimate resubmission of the same token, such as when the user
+     * reloads the page following the implicit flow, and thus must be enabled
+     * explicitly.
+     */
+    public static final StringGuacamoleProperty OAUTH_REPLAY_CACHE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-replay-cache"; }
+
+    };
+
+    /**
+     * The maximum number of used ID tokens to record. For file-backed replay
+     * caches, this is the number of slots allocated when the file is created.
+     * For network replay caches, this is the number of used tokens recorded
+     * locally, in addition to within the key/value service.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_REPLAY_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-replay-cache-size"; }
+
+    };
+
+    /**
+     * The memory-mapped file in which used ID tokens are recorded, if the
+     * "file" replay cache is used.
+     */
+    public static final FileGuacamoleProperty OAUTH_REPLAY_CACHE_FILE =
+            new FileGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-replay-cache-file"; }
+
+    };
+
+    /**
+     * The address of the key/value service in which used ID tokens are
+     * recorded, in "HOST:PORT" form, if the "network" replay cache is used.
+     * If the port is omitted, the standard Redis port (6379) is used.
+     */
+    public static final StringGuacamoleProperty OAUTH_REPLAY_CACHE_ADDRESS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-replay-cache-address"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, to wait for a connection
+     * to or reply from the key/value service used by the "network" replay
+     * cache.
+     */
+    public static final IntegerGuacamoleProperty OAUTH_REPLAY_CACHE_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-replay-cache-timeout"; }
+
+    };
+
+    /**
+     * Comma-separated list of the names of additional tenants whose ID tokens
+     * should be accepted. Each tenant is configured with its own set of
+     * "oauth-tenant-NAME-*" properties, as defined by getTenantProperty().
+     */
+    public static final StringGuacamoleProperty OAUTH_TENANTS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-tenants"; }
+
+    };
+
+    /**
+     * The name of the tenant property containing the issuer to expect for all
+     * ID tokens issued by the tenant. This property is required.
+     */
+    public static final String TENANT_ISSUER = "issuer";
+
+    /**
+     * The name of the tenant property containing the endpoint (URI) of the
+     * JWKS service of the tenant. This property is required.
+     */
+    public static final String TENANT_JWKS_ENDPOINT = "jwks-endpoint";
+
+    /**
+     * The name of the tenant property containing the client ID which the
+     * tenant includes as the audience of its ID tokens. If omitted, the value
+     * of "oauth-client-id" is used.
+     */
+    public static final String TENANT_CLIENT_ID = "client-id";
+
+    /**
+     * The name of the tenant property containing the claim type which
+     * contains the username within ID tokens issued by the tenant. If omitted,
+     * the value of "oauth-username-claim-type" is used.
+     */
+    public static final String TENANT_USERNAME_CLAIM_TYPE = "username-claim-type";
+
+    /**
+     * Returns the property having the given name within the configuration of
+     * the given tenant. The full name of the returned property is
+     * "oauth-tenant-TENANT-NAME".
+     *
+     * @param tenant
+     *     The name of the tenant, as listed within "oauth-tenants".
+     *
+     * @param name
+     *     The name of the tenant property, such as TENANT_ISSUER.
+     *
+     * @return
+     *     The property having the given name within the configuration of the
+     *     given tenant.
+     */
+    public static StringGuacamoleProperty getTenantProperty(String tenant,
+            String name) {
+
+        final String propertyName = "oauth-tenant-" + tenant + "-" + name;
+        return new StringGuacamoleProperty() {
+
+            @Override
+            public String getName() { return propertyName; }
+
+        };
+
+    }
+
+    /**
+     * OAuth client secret which should be submitted to the OAuth service when
+     * the client must authenticate itself, such as when introspecting tokens
+     * or exchanging authorization codes.
+     */
+    public static final StringGuacamoleProperty OAUTH_CLIENT_SECRET =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "oauth-client-secret"; }
+
+    };
+
     /**
      * The URI that the OAuth service should redirect to after the
      * authentication process is complete. This must be the full URL that a
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+/**
+ * The kinds of storage which may be used to record the tokens which have
+ * already been used to log in.
+ *
+ * @author Michael Jumper
+ */
+public enum ReplayCacheType {
+
+    /**
+     * Used tokens are not recorded, and may be submitted any number of times
+     * until they expire.
+     */
+    NONE("none"),
+
+    /**
+     * Used tokens are recorded within the memory of this Guacamole server
+     * only.
+     */
+    MEMORY("memory"),
+
+    /**
+     * Used tokens are recorded within a memory-mapped file shared by all
+     * Guacamole servers on the same host. The file must not be placed on a
+     * shared or network filesystem.
+     */
+    FILE("file"),
+
+    /**
+     * Used tokens are recorded within a network key/value service shared by
+     * all Guacamole servers, accessed using the Redis protocol.
+     */
+    NETWORK("network");
+
+    /**
+     * The value of the "oauth-replay-cache" property which selects this type
+     * of storage.
+     */
+    private final String value;
+
+    /**
+     * Creates a new ReplayCacheType selected by the given property value.
+     *
+     * @param value
+     *     The value of the "oauth-replay-cache" property which selects this
+     *     type of storage.
+     */
+    private ReplayCacheType(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the ReplayCacheType selected by the given value of the
+     * "oauth-replay-cache" property.
+     *
+     * @param value
+     *     The value of the "oauth-replay-cache" property.
+     *
+     * @return
+     *     The ReplayCacheType selected by the given value, or null if no type
+     *     has that value.
+     */
+    public static ReplayCacheType fromValue(String value) {
+
+        for (ReplayCacheType type : values()) {
+            if (type.value.equals(value))
+                return type;
+        }
+
+        return null;
+
+    }
+
+}
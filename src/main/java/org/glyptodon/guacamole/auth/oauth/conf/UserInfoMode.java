@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+/**
+ * The circumstances under which the UserInfo endpoint of the OpenID provider
+ * is consulted for information about the user.
+ *
+ * @author Michael Jumper
+ */
+public enum UserInfoMode {
+
+    /**
+     * The UserInfo endpoint is never consulted. All information about the
+     * user is taken from the ID token.
+     */
+    NONE("none"),
+
+    /**
+     * The UserInfo endpoint is consulted only if the ID token lacks the
+     * user's username.
+     */
+    FALLBACK("fallback"),
+
+    /**
+     * The UserInfo endpoint is consulted for every login, with any
+     * attributes and groups it provides added to those of the ID token.
+     */
+    ALWAYS("always");
+
+    /**
+     * The value of the "oauth-userinfo" property which selects this mode.
+     */
+    private final String value;
+
+    /**
+     * Creates a new UserInfoMode selected by the given property value.
+     *
+     * @param value
+     *     The value of the "oauth-userinfo" property which selects this mode.
+     */
+    private UserInfoMode(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the UserInfoMode selected by the given value of the
+     * "oauth-userinfo" property.
+     *
+     * @param value
+     *     The value of the "oauth-userinfo" property.
+     *
+     * @return
+     *     The UserInfoMode selected by the given value, or null if no mode
+     *     has that value.
+     */
+    public static UserInfoMode fromValue(String value) {
+
+        for (UserInfoMode mode : values()) {
+            if (mode.value.equals(value))
+                return mode;
+        }
+
+        return null;
+
+    }
+
+}
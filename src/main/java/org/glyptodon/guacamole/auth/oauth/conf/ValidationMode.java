@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.conf;
+
+/**
+ * The ways in which tokens received from the OAuth service may be validated.
+ *
+ * @author Michael Jumper
+ */
+public enum ValidationMode {
+
+    /**
+     * The OAuth service provides signed JWT ID tokens, which are verified
+     * locally using the keys within the JWKS of the OAuth service.
+     */
+    JWT("jwt", "id_token"),
+
+    /**
+     * The OAuth service provides opaque access tokens, which are validated
+     * by submitting them to the token introspection endpoint of the OAuth
+     * service, as defined by RFC 7662.
+     */
+    INTROSPECTION("introspection", "token");
+
+    /**
+     * The value of the "oauth-token-validation" property which selects this
+     * mode.
+     */
+    private final String value;
+
+    /**
+     * The OAuth response type which should be requested from the
+     * authorization endpoint when using this mode.
+     */
+    private final String responseType;
+
+    /**
+     * Creates a new ValidationMode selected by the given property value.
+     *
+     * @param value
+     *     The value of the "oauth-token-validation" property which selects
+     *     this mode.
+     *
+     * @param responseType
+     *     The OAuth response type which should be requested from the
+     *     authorization endpoint when using this mode.
+     */
+    private ValidationMode(String value, String responseType) {
+        this.value = value;
+        this.responseType = responseType;
+    }
+
+    /**
+     * Returns the OAuth response type which should be requested from the
+     * authorization endpoint when using this mode.
+     *
+     * @return
+     *     The OAuth response type to request, such as "id_token".
+     */
+    public String getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * Returns the ValidationMode selected by the given value of the
+     * "oauth-token-validation" property.
+     *
+     * @param value
+     *     The value of the "oauth-token-validation" property.
+     *
+     * @return
+     *     The ValidationMode selected by the given value, or null if no mode
+     *     has that value.
+     */
+    public static ValidationMode fromValue(String value) {
+
+        for (ValidationMode mode : values()) {
+            if (mode.value.equals(value))
+                return mode;
+        }
+
+        return null;
+
+    }
+
+}
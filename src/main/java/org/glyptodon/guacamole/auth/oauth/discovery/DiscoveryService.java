@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.discovery;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.http.CacheHeaders;
+import org.glyptodon.guacamole.auth.oauth.http.FetchService;
+import org.jose4j.http.SimpleResponse;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.lang.JoseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which retrieves and caches the metadata of the OpenID provider
+ * from its discovery document. The
+ * discovery document is retrieved once, when first needed, and thereafter
+ * only refreshed in the background.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class DiscoveryService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(DiscoveryService.class);
+
+    /**
+     * The amount of time to cache retrieved metadata if the discovery
+     * endpoint does not specify a cache lifetime via the Cache-Control or
+     * Expires headers, in milliseconds.
+     */
+    private static final long DEFAULT_CACHE_LIFETIME = 3600000;
+
+    /**
+     * The minimum amount of time to cache retrieved metadata, regardless of
+     * the cache lifetime specified by the discovery endpoint, in
+     * milliseconds.
+     */
+    private static final long MINIMUM_CACHE_LIFETIME = 60000;
+
+    /**
+     * The amount of time to wait before attempting to refresh metadata again
+     * after a failed refresh, in milliseconds.
+     */
+    private static final long RETRY_INTERVAL = 60000;
+
+    /**
+     * Executor which schedules background refreshes of metadata.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * Service providing the objects used to retrieve the discovery document
+     * via HTTP, as well as the executor which performs background refreshes.
+     */
+    @Inject
+    private FetchService fetchService;
+
+    /**
+     * The most recently retrieved metadata, or null if the discovery document
+     * has not yet been retrieved.
+     */
+    private volatile ProviderMetadata metadata;
+
+    /**
+     * The scheduled background refresh of the current metadata, or null if
+     * no refresh is scheduled. This must only be accessed while holding the
+     * lock of this DiscoveryService.
+     */
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * Retrieves and parses the discovery document at the given URI.
+     *
+     * @param uri
+     *     The URI of the discovery document.
+     *
+     * @return
+     *     The metadata contained within the discovery document.
+     *
+     * @throws GuacamoleException
+     *     If the discovery document cannot be retrieved or parsed.
+     */
+    private ProviderMetadata fetch(String uri) throws GuacamoleException {
+
+        try {
+
+            long retrieved = System.currentTimeMillis();
+
+            SimpleResponse response = fetchService.getHttpGet(uri).get(uri);
+            long lifetime = Math.max(MINIMUM_CACHE_LIFETIME,
+                    CacheHeaders.getCacheLifetime(response, DEFAULT_CACHE_LIFETIME));
+
+            logger.debug("Retrieved OpenID provider metadata from \"{}\". "
+                    + "Metadata will be cached for {} ms.", uri, lifetime);
+
+            return new ProviderMetadata(uri, JsonUtil.parseJson(response.getBody()),
+                    retrieved + lifetime);
+
+        }
+        catch (JoseException e) {
+            throw new GuacamoleServerException("Unable to parse OpenID "
+                    + "discovery document \"" + uri + "\".", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to retrieve OpenID "
+                    + "discovery document \"" + uri + "\".", e);
+        }
+
+    }
+
+    /**
+     * Schedules a background refresh of the metadata after the given delay,
+     * replacing any previously-scheduled refresh. The refresh itself is
+     * performed by the refresh executor of the FetchService, such that the
+     * scheduler is not blocked while the discovery document is retrieved.
+     * This function must only be invoked while holding the lock of this
+     * DiscoveryService.
+     *
+     * @param uri
+     *     The URI of the discovery document to retrieve.
+     *
+     * @param delay
+     *     The number of milliseconds to wait before refreshing.
+     */
+    private void scheduleRefresh(final String uri, long delay) {
+
+        // Cancel any previously-scheduled refresh
+        if (scheduledRefresh != null)
+            scheduledRefresh.cancel(false);
+
+        final Runnable refresh = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    refresh(uri);
+                }
+                catch (GuacamoleException e) {
+                    logger.warn("Unable to refresh OpenID provider metadata: {}", e.getMessage());
+                    logger.debug("Unable to refresh OpenID provider metadata.", e);
+                    synchronized (DiscoveryService.this) {
+                        scheduleRefresh(uri, RETRY_INTERVAL);
+                    }
+                }
+            }
+
+        };
+
+        scheduledRefresh = executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                fetchService.getRefreshExecutor().execute(refresh);
+            }
+
+        }, delay, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Retrieves the discovery document at the given URI, replacing the
+     * current metadata and scheduling the next background refresh. If
+     * retrieval fails, the current metadata is left untouched.
+     *
+     * @param uri
+     *     The URI of the discovery document to retrieve.
+     *
+     * @return
+     *     The newly-retrieved metadata.
+     *
+     * @throws GuacamoleException
+     *     If the discovery document cannot be retrieved or parsed.
+     */
+    private synchronized ProviderMetadata refresh(String uri)
+            throws GuacamoleException {
+
+        ProviderMetadata updated = fetch(uri);
+        metadata = updated;
+
+        // Refresh again shortly before expiration
+        long lifetime = updated.getExpires() - System.currentTimeMillis();
+        scheduleRefresh(uri, lifetime * 9 / 10);
+
+        return updated;
+
+    }
+
+    /**
+     * Returns the metadata of the OpenID provider whose discovery document is
+     * at the given URI. The discovery document is retrieved only if it has
+     * never been retrieved successfully from that URI; otherwise, the cached
+     * metadata is returned, and is refreshed only in the background.
+     *
+     * @param uri
+     *     The URI of the discovery document.
+     *
+     * @return
+     *     The metadata of the OpenID provider.
+     *
+     * @throws GuacamoleException
+     *     If the discovery document has not yet been retrieved from the given
+     *     URI and cannot be retrieved or parsed.
+     */
+    public ProviderMetadata getMetadata(String uri) throws GuacamoleException {
+
+        // Use cached metadata if available
+        ProviderMetadata current = metadata;
+        if (current != null && current.getURI().equals(uri))
+            return current;
+
+        // Otherwise, retrieve metadata now
+        synchronized (this) {
+
+            current = metadata;
+            if (current != null && current.getURI().equals(uri))
+                return current;
+
+            return refresh(uri);
+
+        }
+
+    }
+
+}
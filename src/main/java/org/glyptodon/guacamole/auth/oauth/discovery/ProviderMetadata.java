@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.discovery;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable OpenID provider metadata, as retrieved from the discovery
+ * document of an OpenID provider (".well-known/openid-configuration").
+ *
+ * @author Michael Jumper
+ */
+public class ProviderMetadata {
+
+    /**
+     * The name of the metadata value containing the issuer identifier of the
+     * OpenID provider.
+     */
+    public static final String ISSUER = "issuer";
+
+    /**
+     * The name of the metadata value containing the authorization endpoint
+     * of the OpenID provider.
+     */
+    public static final String AUTHORIZATION_ENDPOINT = "authorization_endpoint";
+
+    /**
+     * The name of the metadata value containing the JWKS endpoint of the
+     * OpenID provider.
+     */
+    public static final String JWKS_URI = "jwks_uri";
+
+    /**
+     * The name of the metadata value containing the token introspection
+     * endpoint of the OpenID provider.
+     */
+    public static final String INTROSPECTION_ENDPOINT = "introspection_endpoint";
+
+    /**
+     * The name of the metadata value containing the token endpoint of the
+     * OpenID provider.
+     */
+    public static final String TOKEN_ENDPOINT = "token_endpoint";
+
+    /**
+     * The name of the metadata value containing the UserInfo endpoint of the
+     * OpenID provider.
+     */
+    public static final String USERINFO_ENDPOINT = "userinfo_endpoint";
+
+    /**
+     * The URI of the discovery document from which this metadata was
+     * retrieved.
+     */
+    private final String uri;
+
+    /**
+     * All values within the discovery document, keyed by name.
+     */
+    private final Map<String, Object> values;
+
+    /**
+     * The time after which this metadata should be considered expired, in
+     * milliseconds since midnight of January 1, 1970 UTC.
+     */
+    private final long expires;
+
+    /**
+     * Creates a new ProviderMetadata containing the given values.
+     *
+     * @param uri
+     *     The URI of the discovery document from which the metadata was
+     *     retrieved.
+     *
+     * @param values
+     *     All values within the discovery document, keyed by name.
+     *
+     * @param expires
+     *     The time after which this metadata should be considered expired, in
+     *     milliseconds since midnight of January 1, 1970 UTC.
+     */
+    public ProviderMetadata(String uri, Map<String, Object> values,
+            long expires) {
+        this.uri = uri;
+        this.values = Collections.unmodifiableMap(values);
+        this.expires = expires;
+    }
+
+    /**
+     * Returns the URI of the discovery document from which this metadata was
+     * retrieved.
+     *
+     * @return
+     *     The URI of the discovery document from which this metadata was
+     *     retrieved.
+     */
+    public String getURI() {
+        return uri;
+    }
+
+    /**
+     * Returns the string value having the given name, if any.
+     *
+     * @param name
+     *     The name of the value to return.
+     *
+     * @return
+     *     The string value having the given name, or null if there is no such
+     *     value or the value is not a string.
+     */
+    public String getString(String name) {
+
+        Object value = values.get(name);
+        if (value instanceof String)
+            return (String) value;
+
+        return null;
+
+    }
+
+    /**
+     * Returns the time after which this metadata should be considered
+     * expired.
+     *
+     * @return
+     *     The time after which this metadata should be considered expired, in
+     *     milliseconds since midnight of January 1, 1970 UTC.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+}
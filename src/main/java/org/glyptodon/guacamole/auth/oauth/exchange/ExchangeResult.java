@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.exchange;
+
+/**
+ * The tokens obtained in exchange for an authorization code.
+ *
+ * @author Michael Jumper
+ */
+public class ExchangeResult {
+
+    /**
+     * The token which should be validated to authenticate the user.
+     */
+    private final String token;
+
+    /**
+     * The access token issued to the user, or null if no access token was
+     * issued.
+     */
+    private final String accessToken;
+
+    /**
+     * Creates a new ExchangeResult containing the given tokens.
+     *
+     * @param token
+     *     The token which should be validated to authenticate the user.
+     *
+     * @param accessToken
+     *     The access token issued to the user, or null if no access token was
+     *     issued.
+     */
+    public ExchangeResult(String token, String accessToken) {
+        this.token = token;
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * Returns the token which should be validated to authenticate the user.
+     * If tokens are validated via introspection, this is the access token.
+     * Otherwise, this is the ID token.
+     *
+     * @return
+     *     The token which should be validated to authenticate the user.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the access token issued to the user, which may be used to
+     * retrieve further information about the user from the OAuth service.
+     *
+     * @return
+     *     The access token issued to the user, or null if no access token was
+     *     issued.
+     */
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.exchange;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.ValidationMode;
+import org.glyptodon.guacamole.auth.oauth.http.HttpStatusException;
+import org.glyptodon.guacamole.auth.oauth.http.OAuthEndpointClient;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Service which exchanges the authorization codes received via the
+ * authorization code flow for tokens, using the token endpoint of the OAuth
+ * service. Connections to the token endpoint are kept alive and shared by all
+ * logins, and the number of concurrent exchanges is bounded such that a slow
+ * token endpoint cannot occupy every request thread.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class TokenExchangeService {
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Metrics recording the latency of code exchange.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * The client and concurrency limit built from a particular snapshot of
+     * the OAuth configuration. Each ExchangeState is immutable, and is
+     * replaced as a whole when the configuration changes.
+     */
+    private static class ExchangeState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The client which submits authorization codes to the token endpoint.
+         */
+        private final OAuthEndpointClient client;
+
+        /**
+         * The permits which must be acquired prior to each exchange, one
+         * permit for each exchange which may be in progress concurrently.
+         */
+        private final Semaphore permits;
+
+        /**
+         * Creates a new ExchangeState which exchanges codes using the given
+         * client, with at most the given number of concurrent exchanges.
+         *
+         * @param configuration
+         *     The configuration from which the client was built.
+         *
+         * @param client
+         *     The client which submits authorization codes to the token
+         *     endpoint.
+         *
+         * @param maxConcurrent
+         *     The maximum number of exchanges which may be in progress
+         *     concurrently.
+         */
+        public ExchangeState(OAuthConfiguration configuration,
+                OAuthEndpointClient client, int maxConcurrent) {
+            this.configuration = configuration;
+            this.client = client;
+            this.permits = new Semaphore(maxConcurrent, true);
+        }
+
+    }
+
+    /**
+     * The client and concurrency limit built from the current configuration,
+     * or null if they have not yet been built.
+     */
+    private volatile ExchangeState state;
+
+    /**
+     * Returns the client and concurrency limit which should be used to
+     * exchange received authorization codes, building both if they have not
+     * yet been built or if the configuration has changed since they were
+     * built.
+     *
+     * @return
+     *     The client and concurrency limit which should be used to exchange
+     *     received authorization codes.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, if a required property is
+     *     missing, or if the token endpoint is not a valid URL.
+     */
+    private ExchangeState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        ExchangeState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            try {
+                current = new ExchangeState(configuration,
+                    new OAuthEndpointClient(
+                        configuration.getTokenEndpoint(),
+                        configuration.getClientID(),
+                        configuration.getClientSecret(),
+                        configuration.getTokenExchangeConnectTimeout(),
+                        configuration.getTokenExchangeReadTimeout()
+                    ),
+                    configuration.getTokenExchangeMaxConcurrent()
+                );
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Invalid token endpoint: "
+                        + e.getMessage(), e);
+            }
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Submits the given authorization code to the token endpoint, returning
+     * the token response. Only a limited number of exchanges may be in
+     * progress at any one time. If the limit has been reached, this function
+     * waits for up to the configured queue timeout for another exchange to
+     * complete.
+     *
+     * @param current
+     *     The client and concurrency limit to use for the exchange.
+     *
+     * @param code
+     *     The authorization code to exchange.
+     *
+     * @return
+     *     The members of the token response.
+     *
+     * @throws GuacamoleException
+     *     If the limit on concurrent exchanges was not lifted in time, if the
+     *     code is rejected by the token endpoint, or if the request fails.
+     */
+    private Map<String, Object> post(ExchangeState current, String code)
+            throws GuacamoleException {
+
+        OAuthConfiguration configuration = current.configuration;
+
+        // Wait for any excess exchanges to complete
+        try {
+            if (!current.permits.tryAcquire(configuration.getTokenExchangeQueueTimeout(),
+                    TimeUnit.MILLISECONDS))
+                throw new GuacamoleServerBusyException("Too many logins are "
+                        + "in progress. Please try again later.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while waiting to "
+                    + "exchange authorization code.", e);
+        }
+
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("grant_type", "authorization_code");
+        parameters.put("code", code);
+        parameters.put("redirect_uri", configuration.getRedirectURI());
+
+        try {
+            return current.client.post(parameters);
+        }
+
+        // Invalid, expired, or already-used codes are rejected with
+        // 400 (Bad Request), as dictated by RFC 6749, section 5.2
+        catch (HttpStatusException e) {
+            if (e.getStatus() == 400)
+                throw new InvalidTokenException("Authorization code was "
+                        + "rejected by the token endpoint.", e,
+                        FailureCause.INVALID_TOKEN);
+            throw new GuacamoleServerException("Unable to exchange "
+                    + "authorization code: " + e.getMessage(), e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to exchange "
+                    + "authorization code: " + e.getMessage(), e);
+        }
+        catch (JoseException e) {
+            throw new GuacamoleServerException("Invalid response from token "
+                    + "endpoint: " + e.getMessage(), e);
+        }
+
+        finally {
+            current.permits.release();
+        }
+
+    }
+
+    /**
+     * Exchanges the given authorization code for the token which should be
+     * validated to authenticate the user, along with any access token issued
+     * to the user. If tokens are validated via introspection, the token
+     * validated is the access token. Otherwise, this is the ID token.
+     *
+     * @param code
+     *     The authorization code received from the OAuth service.
+     *
+     * @return
+     *     The tokens obtained in exchange for the given authorization code.
+     *
+     * @throws GuacamoleException
+     *     If too many exchanges are already in progress, if the code is
+     *     rejected by the token endpoint, if the exchange fails or does not
+     *     produce the required token, or if guacamole.properties could not be
+     *     parsed.
+     */
+    public ExchangeResult exchange(String code) throws GuacamoleException {
+
+        ExchangeState current = getState();
+
+        Map<String, Object> response;
+        long start = System.nanoTime();
+        try {
+            response = post(current, code);
+        }
+        finally {
+            metrics.recordLatency(Stage.TOKEN_EXCHANGE, System.nanoTime() - start);
+        }
+
+        // Pull the token required by the validation mode from the response
+        String name = current.configuration.getValidationMode() == ValidationMode.INTROSPECTION
+                ? "access_token" : "id_token";
+
+        Object token = response.get(name);
+        if (!(token instanceof String))
+            throw new GuacamoleServerException("Token endpoint response "
+                    + "lacks \"" + name + "\".");
+
+        Object accessToken = response.get("access_token");
+        return new ExchangeResult((String) token,
+                accessToken instanceof String ? (String) accessToken : null);
+
+    }
+
+}
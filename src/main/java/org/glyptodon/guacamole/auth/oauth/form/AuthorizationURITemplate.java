@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.form;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Precomputed form of the authorization URI of an OAuth service, containing
+ * everything except the per-request nonce. The client ID and redirect URI are
+ * URL-encoded only once, when the template is created.
+ *
+ * @author Michael Jumper
+ */
+public class AuthorizationURITemplate {
+
+    /**
+     * The portion of the authorization URI which separates the nonce from the
+     * state parameter value.
+     */
+    private static final String STATE = "&state=";
+
+    /**
+     * The full authorization URI, up to and including the name of the nonce
+     * parameter and its trailing "=".
+     */
+    private final String prefix;
+
+    /**
+     * Creates a new AuthorizationURITemplate for the given OAuth service and
+     * client.
+     *
+     * @param authorizationEndpoint
+     *     The full URL of the endpoint accepting OAuth authentication
+     *     requests.
+     *
+     * @param clientID
+     *     The ID of the OAuth client.
+     *
+     * @param redirectURI
+     *     The URI that the OAuth service should redirect to upon successful
+     *     authentication.
+     */
+    public AuthorizationURITemplate(String authorizationEndpoint,
+            String clientID, String redirectURI) {
+        this(authorizationEndpoint, clientID, redirectURI, "id_token");
+    }
+
+    /**
+     * Creates a new AuthorizationURITemplate for the given OAuth service and
+     * client, requesting the given type of response.
+     *
+     * @param authorizationEndpoint
+     *     The full URL of the endpoint accepting OAuth authentication
+     *     requests.
+     *
+     * @param clientID
+     *     The ID of the OAuth client.
+     *
+     * @param redirectURI
+     *     The URI that the OAuth service should redirect to upon successful
+     *     authentication.
+     *
+     * @param responseType
+     *     The OAuth response type to request, such as "id_token" or "token".
+     */
+    public AuthorizationURITemplate(String authorizationEndpoint,
+            String clientID, String redirectURI, String responseType) {
+
+        // Build static portion of authorization URI from given values
+        try {
+            this.prefix = authorizationEndpoint
+                    + "?scope=openid"
+                    + "&response_type=" + URLEncoder.encode(responseType, "UTF-8")
+                    + "&client_id=" + URLEncoder.encode(clientID, "UTF-8")
+                    + "&redirect_uri=" + URLEncoder.encode(redirectURI, "UTF-8")
+                    + "&nonce=";
+        }
+
+        // Java is required to provide UTF-8 support
+        catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
+        }
+
+    }
+
+    /**
+     * Returns the full authorization URI containing the given nonce. The
+     * nonce is also used as the OAuth "state" parameter, such that it is
+     * returned to Guacamole regardless of the type of response requested.
+     *
+     * @param nonce
+     *     The nonce to include within the URI. The nonce must already be
+     *     URL-safe.
+     *
+     * @return
+     *     The full authorization URI containing the given nonce.
+     */
+    public String build(String nonce) {
+        return new StringBuilder(prefix.length() + nonce.length() * 2 + STATE.length())
+                .append(prefix).append(nonce).append(STATE).append(nonce)
+                .toString();
+    }
+
+}
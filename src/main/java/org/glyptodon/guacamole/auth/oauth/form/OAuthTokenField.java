@@ -22,9 +22,6 @@
 
 package org.glyptodon.guacamole.auth.oauth.form;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.net.URLEncoder;
 import java.security.SecureRandom;
 import org.apache.guacamole.form.Field;
 
@@ -43,26 +40,95 @@ public class OAuthTokenField extends Field {
      */
     public static final String PARAMETER_NAME = "id_token";
 
+    /**
+     * The standard HTTP parameter which will be included within the URL by
+     * OAuth services upon successful authentication and redirect, if an
+     * access token (rather than an ID token) was requested.
+     */
+    public static final String ACCESS_TOKEN_PARAMETER_NAME = "access_token";
+
+    /**
+     * The standard HTTP parameter which will be included within the URL by
+     * OAuth services upon successful authentication and redirect, if the
+     * authorization code flow is used.
+     */
+    public static final String CODE_PARAMETER_NAME = "code";
+
+    /**
+     * The standard HTTP parameter which will be included within the URL by
+     * OAuth services upon successful authentication and redirect, containing
+     * the state value provided within the authorization URI.
+     */
+    public static final String STATE_PARAMETER_NAME = "state";
+
+    /**
+     * The name of the cookie in which the browser records the state value of
+     * the login it is beginning, such that the login can be verified to have
+     * been completed by the same browser.
+     */
+    public static final String STATE_COOKIE_NAME = "GUAC_OAUTH_STATE";
+
     /**
      * The full URI which the field should link to.
      */
     private final String authorizationURI;
 
+    /**
+     * The state value included within the authorization URI.
+     */
+    private final String state;
+
+    /**
+     * The number of random bytes within each generated nonce.
+     */
+    private static final int NONCE_BYTES = 17;
+
+    /**
+     * The characters of the URL-safe base64 alphabet, in order of value.
+     */
+    private static final char[] BASE64URL_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
     /**
      * Cryptographically-secure random number generator for generating the
-     * required nonce.
+     * required nonce. SecureRandom is thread-safe, so a single generator is
+     * shared by all logins.
      */
     private static final SecureRandom random = new SecureRandom();
 
     /**
      * Generates a cryptographically-secure nonce value. The nonce is intended
-     * to be used to prevent replay attacks.
+     * to be used to prevent replay attacks, and consists only of characters
+     * which are safe for use within URLs.
      *
      * @return
      *     A cryptographically-secure nonce value.
      */
-    private static String generateNonce() {
-        return new BigInteger(130, random).toString(32);
+    public static String generateNonce() {
+
+        byte[] bytes = new byte[NONCE_BYTES];
+        random.nextBytes(bytes);
+
+        // Encode as URL-safe base64 (without padding), six bits at a time
+        char[] nonce = new char[(NONCE_BYTES * 8 + 5) / 6];
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (byte b : bytes) {
+            bits = (bits << 8) | (b & 0xFF);
+            bitCount += 8;
+            while (bitCount >= 6) {
+                bitCount -= 6;
+                nonce[length++] = BASE64URL_DIGITS[(bits >> bitCount) & 0x3F];
+            }
+        }
+
+        // Encode any remaining bits
+        if (bitCount > 0)
+            nonce[length++] = BASE64URL_DIGITS[(bits << (6 - bitCount)) & 0x3F];
+
+        return new String(nonce, 0, length);
+
     }
 
     /**
@@ -88,24 +154,44 @@ public class OAuthTokenField extends Field {
      */
     public OAuthTokenField(String authorizationEndpoint, String clientID,
             String redirectURI) {
+        this(new AuthorizationURITemplate(authorizationEndpoint, clientID,
+                redirectURI));
+    }
+
+    /**
+     * Creates a new OAuth "id_token" field which links to the OAuth service
+     * described by the given precomputed authorization URI template. Only a
+     * new nonce is generated; the remainder of the authorization URI is taken
+     * from the template as-is.
+     *
+     * @param template
+     *     The precomputed authorization URI of the OAuth service.
+     */
+    public OAuthTokenField(AuthorizationURITemplate template) {
+        this(template, generateNonce());
+    }
+
+    /**
+     * Creates a new OAuth "id_token" field which links to the OAuth service
+     * described by the given precomputed authorization URI template, using
+     * the given nonce. The remainder of the authorization URI is taken from
+     * the template as-is.
+     *
+     * @param template
+     *     The precomputed authorization URI of the OAuth service.
+     *
+     * @param nonce
+     *     The nonce to include within the authorization URI. The nonce must
+     *     already be URL-safe.
+     */
+    public OAuthTokenField(AuthorizationURITemplate template, String nonce) {
 
         // Init base field properties
         super(PARAMETER_NAME, "GUAC_OAUTH_TOKEN");
 
-        // Build authorization URI from given values
-        try {
-            this.authorizationURI = authorizationEndpoint
-                    + "?scope=openid"
-                    + "&response_type=id_token"
-                    + "&client_id=" + URLEncoder.encode(clientID, "UTF-8")
-                    + "&redirect_uri=" + URLEncoder.encode(redirectURI, "UTF-8")
-                    + "&nonce=" + generateNonce();
-        }
-
-        // Java is required to provide UTF-8 support
-        catch (UnsupportedEncodingException e) {
-            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
-        }
+        // Build authorization URI from template
+        this.authorizationURI = template.build(nonce);
+        this.state = nonce;
 
     }
 
@@ -120,4 +206,16 @@ public class OAuthTokenField extends Field {
         return authorizationURI;
     }
 
+    /**
+     * Returns the state value included within the authorization URI. The
+     * browser must record this value within the cookie named by
+     * STATE_COOKIE_NAME before following the authorization URI.
+     *
+     * @return
+     *     The state value included within the authorization URI.
+     */
+    public String getState() {
+        return state;
+    }
+
 }
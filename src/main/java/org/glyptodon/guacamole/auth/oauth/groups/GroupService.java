@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.groups;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimPath;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.http.BearerEndpointClient;
+import org.glyptodon.guacamole.auth.oauth.http.LookupCache;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.jose4j.lang.JoseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which resolves the complete group memberships of users whose
+ * tokens omitted some of their groups (a "groups overage"), and which
+ * determines the permissions granted by those groups. Omitted groups are
+ * retrieved from the configured group lookup endpoint by a bounded pool of
+ * threads, with the result cached per user and concurrent lookups for the
+ * same user shared, such that users in many groups do not slow the logins
+ * of other users.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class GroupService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(GroupService.class);
+
+    /**
+     * The maximum number of lookups which may wait for a free thread.
+     * Logins requiring lookups beyond this limit are rejected as the server
+     * being busy.
+     */
+    private static final int MAX_QUEUED_LOOKUPS = 64;
+
+    /**
+     * The maximum number of pages of a paginated group lookup response which
+     * will be retrieved for any one user.
+     */
+    private static final int MAX_PAGES = 20;
+
+    /**
+     * The name of the member of a paginated group lookup response which
+     * contains the URL of the next page, as used by Microsoft Graph.
+     */
+    private static final String NEXT_LINK = "@odata.nextLink";
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Metrics recording the latency of group lookups.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * The client, cache, and pool of threads built from a particular
+     * snapshot of the OAuth configuration. Each GroupState is immutable, and
+     * is replaced as a whole when the configuration changes.
+     */
+    private static class GroupState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The client for the group lookup endpoint, or null if no such
+         * endpoint is configured.
+         */
+        private final BearerEndpointClient client;
+
+        /**
+         * Cache of the groups retrieved for each user.
+         */
+        private final LookupCache<Set<String>> cache;
+
+        /**
+         * The pool of threads which performs all lookups, or null if no group
+         * lookup endpoint is configured.
+         */
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * Creates a new GroupState which retrieves groups using the given
+         * client and pool of threads, caching the results using the given
+         * cache.
+         *
+         * @param configuration
+         *     The configuration from which the client, cache, and pool were
+         *     built.
+         *
+         * @param client
+         *     The client for the group lookup endpoint, or null if no such
+         *     endpoint is configured.
+         *
+         * @param cache
+         *     Cache of the groups retrieved for each user.
+         *
+         * @param executor
+         *     The pool of threads which performs all lookups, or null if no
+         *     group lookup endpoint is configured.
+         */
+        public GroupState(OAuthConfiguration configuration,
+                BearerEndpointClient client, LookupCache<Set<String>> cache,
+                ThreadPoolExecutor executor) {
+            this.configuration = configuration;
+            this.client = client;
+            this.cache = cache;
+            this.executor = executor;
+        }
+
+    }
+
+    /**
+     * The client, cache, and pool of threads built from the current
+     * configuration, or null if none have yet been built.
+     */
+    private volatile GroupState state;
+
+    /**
+     * Creates a new pool of daemon threads for performing group lookups.
+     * Idle threads are stopped, and lookups beyond the capacity of the pool
+     * and its queue are rejected.
+     *
+     * @param threads
+     *     The maximum number of lookups which may be in progress at any one
+     *     time.
+     *
+     * @return
+     *     A new pool of threads for performing group lookups.
+     */
+    private static ThreadPoolExecutor createExecutor(int threads) {
+
+        threads = Math.max(1, threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_LOOKUPS),
+                new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "guacamole-auth-openid-groups");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+
+    }
+
+    /**
+     * Returns the client, cache, and pool of threads which should be used to
+     * retrieve groups, building all three if they have not yet been built or
+     * if the configuration has changed since they were built. Lookups already
+     * in progress under any previous configuration are allowed to complete.
+     *
+     * @return
+     *     The client, cache, and pool of threads which should be used to
+     *     retrieve groups.
+     *
+     * @throws GuacamoleException
+     *     If the configuration has not yet been read and guacamole.properties
+     *     cannot be parsed, or if the group lookup endpoint is invalid.
+     */
+    private GroupState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        GroupState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            BearerEndpointClient client = null;
+            ThreadPoolExecutor executor = null;
+            String endpoint = configuration.getGroupLookupEndpoint();
+            if (endpoint != null) {
+
+                try {
+                    client = new BearerEndpointClient(endpoint,
+                            configuration.getGroupLookupTimeout(),
+                            configuration.getGroupLookupTimeout());
+                }
+                catch (IOException e) {
+                    throw new GuacamoleServerException("Invalid group lookup "
+                            + "endpoint: " + e.getMessage(), e);
+                }
+
+                executor = createExecutor(configuration.getGroupLookupThreads());
+
+            }
+
+            // Allow lookups under the previous configuration to complete
+            if (current != null && current.executor != null)
+                current.executor.shutdown();
+
+            current = new GroupState(configuration, client,
+                new LookupCache<Set<String>>(configuration.getGroupCacheSize(),
+                        configuration.getGroupCacheLifetime() * 1000L),
+                executor
+            );
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Retrieves the groups of the user associated with the given access
+     * token from the group lookup endpoint, following links to any further
+     * pages of the response.
+     *
+     * @param current
+     *     The client and configuration to use for the lookup.
+     *
+     * @param accessToken
+     *     The access token of the user whose groups should be retrieved.
+     *
+     * @return
+     *     The names of all groups of which the user is a member.
+     *
+     * @throws IOException
+     *     If a request to the group lookup endpoint fails.
+     *
+     * @throws JoseException
+     *     If a response from the group lookup endpoint is not valid JSON.
+     */
+    private Set<String> lookup(GroupState current, String accessToken)
+            throws IOException, JoseException {
+
+        Set<String> groups = new LinkedHashSet<String>();
+        Map<String, Object> response = current.client.get(accessToken);
+
+        for (int page = 1; ; page++) {
+
+            for (ClaimPath path : current.configuration.getGroupLookupClaims())
+                path.collect(response, groups);
+
+            // Stop once all pages have been retrieved
+            Object next = response.get(NEXT_LINK);
+            if (!(next instanceof String))
+                break;
+
+            if (page == MAX_PAGES) {
+                logger.warn("Groups retrieved from \"{}\" have been truncated "
+                        + "to the first {} pages.", current.client.getEndpoint(),
+                        MAX_PAGES);
+                break;
+            }
+
+            response = current.client.get(new URL((String) next), accessToken);
+
+        }
+
+        return Collections.unmodifiableSet(groups);
+
+    }
+
+    /**
+     * Returns the complete identity of the given user, retrieving any groups
+     * which were omitted from the user's token. If no groups were omitted,
+     * the given identity is returned as-is. Retrieved groups are cached for
+     * the configured lifetime, and the lookup performed for a user is shared
+     * by all concurrent logins of that user. If no group lookup endpoint is
+     * configured, or the user's access token is not available, the omitted
+     * groups cannot be retrieved, and the given identity is returned as-is.
+     *
+     * @param identity
+     *     The identity of the user, as derived from the user's token.
+     *
+     * @param accessToken
+     *     The access token of the user, or null if the access token is not
+     *     available.
+     *
+     * @return
+     *     The complete identity of the user.
+     *
+     * @throws GuacamoleException
+     *     If too many lookups are already in progress, if the groups of the
+     *     user could not be retrieved in time, if the lookup fails, or if
+     *     guacamole.properties could not be parsed.
+     */
+    public UserIdentity resolve(UserIdentity identity, final String accessToken)
+            throws GuacamoleException {
+
+        // Nothing to resolve if the token contains all groups
+        if (!identity.isGroupOverage())
+            return identity;
+
+        final GroupState current = getState();
+        if (current.client == null || accessToken == null) {
+            logger.warn("User \"{}\" is a member of more groups than could be "
+                    + "included within their token, but those groups cannot "
+                    + "be retrieved. Group lookups require "
+                    + "\"oauth-group-lookup-endpoint\" and an access token, "
+                    + "which is available only via the authorization code "
+                    + "flow or introspection.", identity.getUsername());
+            return identity;
+        }
+
+        long start = System.nanoTime();
+        try {
+
+            Future<Set<String>> groups = current.cache.get(identity.getUsername(),
+                    new Callable<Set<String>>() {
+
+                @Override
+                public Set<String> call() throws IOException, JoseException {
+                    return lookup(current, accessToken);
+                }
+
+            }, current.executor);
+
+            return identity.withGroups(groups.get(
+                    current.configuration.getGroupLookupTimeout(),
+                    TimeUnit.MILLISECONDS));
+
+        }
+
+        catch (RejectedExecutionException e) {
+            throw new GuacamoleServerBusyException("Too many logins are in "
+                    + "progress. Please try again later.");
+        }
+
+        // The lookup continues, and its result will be cached, such that a
+        // subsequent attempt may succeed
+        catch (TimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Timed out retrieving "
+                    + "the groups of user \"" + identity.getUsername() + "\".", e);
+        }
+
+        catch (ExecutionException e) {
+            throw new GuacamoleServerException("Unable to retrieve the groups "
+                    + "of user \"" + identity.getUsername() + "\": "
+                    + e.getCause().getMessage(), e.getCause());
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while retrieving "
+                    + "the groups of user \"" + identity.getUsername() + "\".", e);
+        }
+
+        finally {
+            metrics.recordLatency(Stage.GROUP_LOOKUP, System.nanoTime() - start);
+        }
+
+    }
+
+    /**
+     * Returns the system permissions granted to the members of the given
+     * groups, as configured with guacamole.properties.
+     *
+     * @param groups
+     *     The names of the groups of which the user is a member.
+     *
+     * @return
+     *     The system permissions granted by the given groups, or null if no
+     *     permissions are granted to any group.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Set<SystemPermission> getSystemPermissions(Set<String> groups)
+            throws GuacamoleException {
+
+        Map<String, Set<SystemPermission.Type>> groupPermissions =
+                confService.getConfiguration().getGroupPermissions();
+        if (groupPermissions.isEmpty())
+            return null;
+
+        Set<SystemPermission> permissions = new HashSet<SystemPermission>();
+        for (String group : groups) {
+
+            Set<SystemPermission.Type> granted = groupPermissions.get(group);
+            if (granted == null)
+                continue;
+
+            for (SystemPermission.Type type : granted)
+                permissions.add(new SystemPermission(type));
+
+        }
+
+        return permissions;
+
+    }
+
+}
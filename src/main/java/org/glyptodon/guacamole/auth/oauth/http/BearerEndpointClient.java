@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Client for an endpoint which accepts GET requests on behalf of a user,
+ * authenticated using that user's access token as a bearer token (RFC 6750),
+ * and responds with JSON, such as the UserInfo endpoint or a group
+ * membership API. As with OAuthEndpointClient, underlying connections are
+ * kept alive and reused between requests to the same endpoint.
+ *
+ * @author Michael Jumper
+ */
+public class BearerEndpointClient {
+
+    /**
+     * The endpoint.
+     */
+    private final URL endpoint;
+
+    /**
+     * The maximum amount of time to wait for a connection, in milliseconds.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The maximum amount of time to wait for a response, in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * Creates a new BearerEndpointClient which submits requests to the given
+     * endpoint.
+     *
+     * @param endpoint
+     *     The endpoint (URI).
+     *
+     * @param connectTimeout
+     *     The maximum amount of time to wait for a connection, in
+     *     milliseconds.
+     *
+     * @param readTimeout
+     *     The maximum amount of time to wait for a response, in milliseconds.
+     *
+     * @throws IOException
+     *     If the given endpoint is not a valid URL.
+     */
+    public BearerEndpointClient(String endpoint, int connectTimeout,
+            int readTimeout) throws IOException {
+        this.endpoint = new URL(endpoint);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the URL of the endpoint.
+     *
+     * @return
+     *     The URL of the endpoint.
+     */
+    public URL getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Submits a GET request to the endpoint, returning the parsed JSON
+     * response.
+     *
+     * @param accessToken
+     *     The access token of the user on whose behalf the request is made.
+     *
+     * @return
+     *     The members of the JSON object returned by the endpoint.
+     *
+     * @throws HttpStatusException
+     *     If the endpoint responds with an HTTP status other than 200.
+     *
+     * @throws IOException
+     *     If the request fails or times out.
+     *
+     * @throws JoseException
+     *     If the response is not valid JSON.
+     */
+    public Map<String, Object> get(String accessToken)
+            throws IOException, JoseException {
+        return get(endpoint, accessToken);
+    }
+
+    /**
+     * Submits a GET request to the given URL, which must be on the same host
+     * as the endpoint, returning the parsed JSON response. This is intended
+     * for following links to subsequent pages of a response.
+     *
+     * @param url
+     *     The URL to request.
+     *
+     * @param accessToken
+     *     The access token of the user on whose behalf the request is made.
+     *
+     * @return
+     *     The members of the JSON object returned at the given URL.
+     *
+     * @throws HttpStatusException
+     *     If the URL responds with an HTTP status other than 200.
+     *
+     * @throws IOException
+     *     If the given URL is not on the same host as the endpoint, or if the
+     *     request fails or times out.
+     *
+     * @throws JoseException
+     *     If the response is not valid JSON.
+     */
+    public Map<String, Object> get(URL url, String accessToken)
+            throws IOException, JoseException {
+
+        // Never disclose the access token to any other host
+        if (!url.getProtocol().equals(endpoint.getProtocol())
+                || !url.getAuthority().equals(endpoint.getAuthority()))
+            throw new IOException("Refusing to follow link from \"" + endpoint
+                    + "\" to \"" + url + "\", as it refers to a different host.");
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+        connection.setRequestProperty("Accept", "application/json");
+
+        // Drain any error response such that the connection may be reused
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            OAuthEndpointClient.readFully(connection.getErrorStream());
+            throw new HttpStatusException("Endpoint \"" + url
+                    + "\" responded with HTTP status " + status + ".", status);
+        }
+
+        return JsonUtil.parseJson(new String(
+                OAuthEndpointClient.readFully(connection.getInputStream()), "UTF-8"));
+
+    }
+
+}
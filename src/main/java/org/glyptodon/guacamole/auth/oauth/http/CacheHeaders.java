@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.jose4j.http.SimpleResponse;
+
+/**
+ * Utility class for interpreting the caching-related headers of HTTP
+ * responses.
+ *
+ * @author Michael Jumper
+ */
+public class CacheHeaders {
+
+    /**
+     * The format of the dates used by HTTP headers like Expires, as defined
+     * by RFC 7231.
+     */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * This class should not be instantiated.
+     */
+    private CacheHeaders() {}
+
+    /**
+     * Returns the values of all headers within the given response which have
+     * the given name. Header names are compared case-insensitively.
+     *
+     * @param response
+     *     The response to retrieve header values from.
+     *
+     * @param name
+     *     The name of the header whose values should be returned.
+     *
+     * @return
+     *     A list of the values of all headers having the given name, or an
+     *     empty list if there are no such headers.
+     */
+    private static List<String> getHeaderValues(SimpleResponse response,
+            String name) {
+
+        for (String header : response.getHeaderNames()) {
+            if (name.equalsIgnoreCase(header))
+                return response.getHeaderValues(header);
+        }
+
+        return Collections.<String>emptyList();
+
+    }
+
+    /**
+     * Returns the amount of time that the content of the given response may
+     * be cached, as dictated by its Cache-Control and Expires headers. If
+     * neither header is present, or neither can be parsed, the given default
+     * lifetime is returned.
+     *
+     * @param response
+     *     The response whose cache lifetime should be determined.
+     *
+     * @param defaultLifetime
+     *     The lifetime to return if the response does not specify its own
+     *     cache lifetime, in milliseconds.
+     *
+     * @return
+     *     The amount of time that the content of the given response may be
+     *     cached, in milliseconds.
+     */
+    public static long getCacheLifetime(SimpleResponse response, long defaultLifetime) {
+
+        // Cache-Control takes precedence over Expires
+        for (String value : getHeaderValues(response, "Cache-Control")) {
+            for (String directive : value.split(",")) {
+
+                directive = directive.trim().toLowerCase(Locale.US);
+
+                // Content may not be cached at all
+                if (directive.equals("no-cache") || directive.equals("no-store"))
+                    return 0;
+
+                // Content may be cached for the given number of seconds
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring(8)) * 1000;
+                    }
+                    catch (NumberFormatException e) {
+                        // Ignore invalid max-age
+                    }
+                }
+
+            }
+        }
+
+        // Fall back to Expires header, if present
+        for (String value : getHeaderValues(response, "Expires")) {
+
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+            try {
+                long expires = format.parse(value).getTime();
+                return Math.max(0, expires - System.currentTimeMillis());
+            }
+            catch (ParseException e) {
+                // Ignore invalid dates
+            }
+
+        }
+
+        // Use default if no cache lifetime is specified
+        return defaultLifetime;
+
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker which tracks the health of a single endpoint. Once a
+ * configurable number of consecutive requests to the endpoint have failed,
+ * the breaker opens, and further requests are rejected immediately rather
+ * than waiting on an endpoint which is likely still unhealthy. After a
+ * configurable amount of time, a single trial request is allowed; if that
+ * request succeeds the breaker closes, and if it fails the breaker opens
+ * again. All state transitions are logged.
+ *
+ * @author Michael Jumper
+ */
+public class CircuitBreaker implements CircuitBreakerMBean {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * All possible states of a circuit breaker.
+     */
+    public enum State {
+
+        /**
+         * Requests are made normally.
+         */
+        CLOSED,
+
+        /**
+         * Requests are rejected without contacting the endpoint.
+         */
+        OPEN,
+
+        /**
+         * A single trial request is in progress, and all other requests are
+         * rejected until its outcome is known.
+         */
+        HALF_OPEN
+
+    }
+
+    /**
+     * The endpoint (URI) guarded by this circuit breaker.
+     */
+    private final String endpoint;
+
+    /**
+     * The number of consecutive failed requests which cause this circuit
+     * breaker to open.
+     */
+    private final int failureThreshold;
+
+    /**
+     * The amount of time that this circuit breaker remains open before
+     * allowing a trial request, in milliseconds.
+     */
+    private final long openDuration;
+
+    /**
+     * The number of times this circuit breaker has opened.
+     */
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * The number of requests rejected because this circuit breaker was open.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * The current state of this circuit breaker. This must only be accessed
+     * while holding the lock of this CircuitBreaker.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * The number of requests which have failed since the last successful
+     * request. This must only be accessed while holding the lock of this
+     * CircuitBreaker.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * The time at which a trial request may be made, in milliseconds since
+     * the epoch. This is only meaningful while this circuit breaker is open,
+     * and must only be accessed while holding the lock of this
+     * CircuitBreaker.
+     */
+    private long openUntil;
+
+    /**
+     * Creates a new, closed CircuitBreaker guarding the given endpoint.
+     *
+     * @param endpoint
+     *     The endpoint (URI) guarded by this circuit breaker.
+     *
+     * @param failureThreshold
+     *     The number of consecutive failed requests which cause this circuit
+     *     breaker to open.
+     *
+     * @param openDuration
+     *     The amount of time that this circuit breaker remains open before
+     *     allowing a trial request, in milliseconds.
+     */
+    public CircuitBreaker(String endpoint, int failureThreshold,
+            long openDuration) {
+        this.endpoint = endpoint;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns whether a request to the guarded endpoint may be made now. If
+     * this function returns true, the outcome of the request must be
+     * reported via recordSuccess() or recordFailure().
+     *
+     * @return
+     *     true if the request may be made, false if the request must be
+     *     rejected without contacting the endpoint.
+     */
+    public synchronized boolean allowRequest() {
+
+        if (state == State.CLOSED)
+            return true;
+
+        // Allow a single trial request once the open period has elapsed
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            logger.info("Circuit breaker for \"{}\" is half-open. Attempting "
+                    + "a trial request.", endpoint);
+            return true;
+        }
+
+        rejected.incrementAndGet();
+        return false;
+
+    }
+
+    /**
+     * Records that a request to the guarded endpoint has succeeded, closing
+     * this circuit breaker if it is not already closed.
+     */
+    public synchronized void recordSuccess() {
+
+        consecutiveFailures = 0;
+
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            logger.info("Circuit breaker for \"{}\" is closed. The endpoint "
+                    + "has recovered.", endpoint);
+        }
+
+    }
+
+    /**
+     * Records that a request to the guarded endpoint has failed, opening
+     * this circuit breaker if the failure threshold has been reached or if
+     * the failed request was a trial request.
+     */
+    public synchronized void recordFailure() {
+
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openDuration;
+            timesOpened.incrementAndGet();
+
+            logger.warn("Circuit breaker for \"{}\" is open after {} "
+                    + "consecutive failed request(s). Requests will be "
+                    + "rejected for the next {} ms.", endpoint,
+                    consecutiveFailures, openDuration);
+
+        }
+
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    @Override
+    public long getTimesOpened() {
+        return timesOpened.get();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+}
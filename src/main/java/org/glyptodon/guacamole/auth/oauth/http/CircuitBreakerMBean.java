@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+/**
+ * JMX interface exposing the state of the circuit breaker guarding requests
+ * to a single endpoint.
+ *
+ * @author Michael Jumper
+ */
+public interface CircuitBreakerMBean {
+
+    /**
+     * Returns the endpoint (URI) guarded by the circuit breaker.
+     *
+     * @return
+     *     The endpoint guarded by the circuit breaker.
+     */
+    String getEndpoint();
+
+    /**
+     * Returns the name of the current state of the circuit breaker: "CLOSED"
+     * if requests are being made normally, "OPEN" if requests are being
+     * rejected without contacting the endpoint, or "HALF_OPEN" if a single
+     * trial request is in progress.
+     *
+     * @return
+     *     The name of the current state of the circuit breaker.
+     */
+    String getState();
+
+    /**
+     * Returns the number of requests which have failed since the last
+     * successful request.
+     *
+     * @return
+     *     The number of consecutive failed requests.
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * Returns the number of times the circuit breaker has opened.
+     *
+     * @return
+     *     The number of times the circuit breaker has opened.
+     */
+    long getTimesOpened();
+
+    /**
+     * Returns the number of requests which were rejected without contacting
+     * the endpoint because the circuit breaker was open.
+     *
+     * @return
+     *     The number of rejected requests.
+     */
+    long getRejectedRequests();
+
+}
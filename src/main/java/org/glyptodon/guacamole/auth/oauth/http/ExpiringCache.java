@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache in which each entry expires at a time given when that entry
+ * is stored. Reads never block. If the cache is full, expired entries are
+ * removed, and if the cache is still full, the oldest entries are evicted
+ * to make room, such that a full cache never refuses new entries and never
+ * becomes stuck holding only old ones. A full cache is searched for expired
+ * entries no more often than entries can actually expire, such that a
+ * flood of new entries cannot force a search of the entire cache for each
+ * entry. The cache may be safely used by multiple threads.
+ *
+ * @author Michael Jumper
+ *
+ * @param <V>
+ *     The type of value stored within the cache.
+ */
+public class ExpiringCache<V> {
+
+    /**
+     * A single cached value and the time that its cache entry expires.
+     *
+     * @param <V>
+     *     The type of the cached value.
+     */
+    private static class Entry<V> {
+
+        /**
+         * The key associated with the cached value.
+         */
+        private final String key;
+
+        /**
+         * The cached value.
+         */
+        private final V value;
+
+        /**
+         * The time that this entry expires, in milliseconds since midnight of
+         * January 1, 1970 UTC.
+         */
+        private final long expires;
+
+        /**
+         * Creates a new Entry which caches the given value until the given
+         * time.
+         *
+         * @param key
+         *     The key associated with the cached value.
+         *
+         * @param value
+         *     The value to cache.
+         *
+         * @param expires
+         *     The time that this entry expires, in milliseconds since
+         *     midnight of January 1, 1970 UTC.
+         */
+        public Entry(String key, V value, long expires) {
+            this.key = key;
+            this.value = value;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * The maximum number of entries which may be cached at any one time.
+     */
+    private final int maxSize;
+
+    /**
+     * All cached entries, keyed by the key associated with each entry.
+     */
+    private final ConcurrentMap<String, Entry<V>> entries =
+            new ConcurrentHashMap<String, Entry<V>>();
+
+    /**
+     * All entries in the order they were stored, including entries which
+     * have since been replaced or removed from the cache. Such stale entries
+     * are skipped when evicting the oldest entries, and are discarded
+     * whenever the cache is searched for expired entries.
+     */
+    private final ConcurrentLinkedQueue<Entry<V>> order =
+            new ConcurrentLinkedQueue<Entry<V>>();
+
+    /**
+     * The approximate number of entries within the order queue, including
+     * stale entries. This is maintained separately from the queue, as the
+     * size of a ConcurrentLinkedQueue is expensive to determine, and is
+     * recounted whenever the cache is searched for expired entries.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The earliest time that any entry remaining after the last removal of
+     * expired entries will expire, in milliseconds since midnight of January
+     * 1, 1970 UTC. Until this time, a full cache cannot be made any smaller
+     * by removing expired entries, and there is no need to search it.
+     */
+    private volatile long nextExpiration = 0;
+
+    /**
+     * Creates a new ExpiringCache which stores up to the given number of
+     * entries.
+     *
+     * @param maxSize
+     *     The maximum number of entries which may be cached at any one time.
+     *     If zero, nothing will be cached.
+     */
+    public ExpiringCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the value cached for the given key, if any. Expired entries are
+     * never returned.
+     *
+     * @param key
+     *     The key associated with the value.
+     *
+     * @return
+     *     The value cached for the given key, or null if no such value is
+     *     cached.
+     */
+    public V get(String key) {
+
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        // Remove expired entries upon access
+        if (System.currentTimeMillis() >= entry.expires) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.value;
+
+    }
+
+    /**
+     * Caches the given value for the given key until the given time,
+     * replacing any value already cached for that key.
+     *
+     * @param key
+     *     The key to associate with the value.
+     *
+     * @param value
+     *     The value to cache.
+     *
+     * @param expires
+     *     The time that the cache entry expires, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     */
+    public void put(String key, V value, long expires) {
+
+        if (maxSize <= 0)
+            return;
+
+        Entry<V> entry = new Entry<V>(key, value, expires);
+        entries.put(key, entry);
+        added(entry);
+
+    }
+
+    /**
+     * Caches the given value for the given key until the given time, unless
+     * an unexpired value is already cached for that key.
+     *
+     * @param key
+     *     The key to associate with the value.
+     *
+     * @param value
+     *     The value to cache.
+     *
+     * @param expires
+     *     The time that the cache entry expires, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     *
+     * @return
+     *     The unexpired value already cached for the given key, or null if
+     *     the given value was cached (or could not be cached as the maximum
+     *     size of this cache is zero).
+     */
+    public V putIfAbsent(String key, V value, long expires) {
+
+        if (maxSize <= 0)
+            return null;
+
+        Entry<V> entry = new Entry<V>(key, value, expires);
+        for (;;) {
+
+            Entry<V> existing = entries.putIfAbsent(key, entry);
+            if (existing == null)
+                break;
+
+            // Replace existing entry only if expired and not concurrently
+            // replaced or removed
+            if (System.currentTimeMillis() < existing.expires)
+                return existing.value;
+
+            if (entries.replace(key, existing, entry))
+                break;
+
+        }
+
+        added(entry);
+        return null;
+
+    }
+
+    /**
+     * Changes the expiration time of the given value, if that value is still
+     * cached for the given key.
+     *
+     * @param key
+     *     The key associated with the value.
+     *
+     * @param value
+     *     The cached value.
+     *
+     * @param expires
+     *     The new time that the cache entry expires, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     */
+    public void replace(String key, V value, long expires) {
+
+        Entry<V> existing = entries.get(key);
+        if (existing == null || existing.value != value)
+            return;
+
+        Entry<V> entry = new Entry<V>(key, value, expires);
+        if (entries.replace(key, existing, entry))
+            added(entry);
+
+    }
+
+    /**
+     * Removes the given value from this cache, if that value is still cached
+     * for the given key.
+     *
+     * @param key
+     *     The key associated with the value.
+     *
+     * @param value
+     *     The cached value.
+     */
+    public void remove(String key, V value) {
+        Entry<V> existing = entries.get(key);
+        if (existing != null && existing.value == value)
+            entries.remove(key, existing);
+    }
+
+    /**
+     * Records that the given entry has been stored, making room for that
+     * entry by removing expired entries and then the oldest entries if the
+     * cache is now full.
+     *
+     * @param entry
+     *     The entry which has been stored.
+     */
+    private void added(Entry<V> entry) {
+
+        order.add(entry);
+
+        // Discard stale records of replaced or removed entries once they
+        // could outnumber the entries actually cached
+        if (queued.incrementAndGet() > maxSize * 2)
+            evictExpired();
+
+        if (entries.size() <= maxSize)
+            return;
+
+        // Remove expired entries, but only if any may have expired since
+        // last searched
+        if (System.currentTimeMillis() >= nextExpiration)
+            evictExpired();
+
+        // Evict oldest entries if still full
+        while (entries.size() > maxSize && evictOldest()) {
+            // Continue until there is room
+        }
+
+    }
+
+    /**
+     * Removes the oldest entry which is still cached, if any.
+     *
+     * @return
+     *     true if an entry was removed, false if no entries are cached.
+     */
+    private boolean evictOldest() {
+
+        Entry<V> entry;
+        while ((entry = order.poll()) != null) {
+            queued.decrementAndGet();
+            if (entries.remove(entry.key, entry))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Removes all expired entries from this cache, along with any stale
+     * records of entries which have been replaced or removed.
+     */
+    public void evictExpired() {
+
+        long now = System.currentTimeMillis();
+        long earliest = Long.MAX_VALUE;
+        int remaining = 0;
+
+        Iterator<Entry<V>> iterator = order.iterator();
+        while (iterator.hasNext()) {
+
+            Entry<V> entry = iterator.next();
+
+            // Discard records of expired, replaced, or removed entries
+            if (now >= entry.expires || entries.get(entry.key) != entry) {
+                iterator.remove();
+                entries.remove(entry.key, entry);
+                continue;
+            }
+
+            if (entry.expires < earliest)
+                earliest = entry.expires;
+
+            remaining++;
+
+        }
+
+        // Recount rather than tracking each removal, as records removed here
+        // may also be concurrently removed by evictOldest()
+        queued.set(remaining);
+        nextExpiration = earliest;
+
+    }
+
+}
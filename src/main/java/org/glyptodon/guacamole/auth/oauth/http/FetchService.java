@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import org.glyptodon.guacamole.auth.oauth.conf.FetchConfiguration;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.jose4j.http.SimpleGet;
+import org.jose4j.http.SimpleResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which provides the objects used to retrieve keys and provider
+ * metadata via HTTP. All such requests are performed by a small, dedicated
+ * pool of threads with strict timeouts, and each endpoint is guarded by its
+ * own circuit breaker, such that an unresponsive OAuth service cannot tie up
+ * the threads handling logins (or any other requests). The state of each
+ * circuit breaker is published via JMX.
+ *
+ * <p>Background refreshes, which block until their requests complete, are
+ * likewise run by a separate pool of threads provided by this service, such
+ * that the shared scheduler need only perform short, non-blocking tasks.
+ *
+ * <p>As discovery is performed while reading the configuration itself, the
+ * timeouts and circuit breaker settings are provided by ConfigurationService
+ * via configure(), rather than read from the configuration snapshot on
+ * demand. Each change to those settings replaces all circuit breakers, and
+ * takes effect for all subsequent requests.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class FetchService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(FetchService.class);
+
+    /**
+     * The number of threads which may perform requests concurrently.
+     * Concurrent retrievals of the same JWKS are coalesced, so few threads
+     * are needed.
+     */
+    private static final int FETCH_THREADS = 4;
+
+    /**
+     * The maximum number of requests which may wait for a free thread.
+     * Requests beyond this limit fail immediately.
+     */
+    private static final int MAX_QUEUED_FETCHES = 16;
+
+    /**
+     * The number of threads which may perform background refreshes
+     * concurrently. Each refresh waits for its requests to be performed by
+     * the pool of fetch threads, and background refreshes of the same
+     * resource are never queued more than once, so few threads are needed.
+     */
+    private static final int REFRESH_THREADS = 2;
+
+    /**
+     * The current HTTP settings, along with the circuit breakers created
+     * using those settings.
+     */
+    private static class FetchState {
+
+        /**
+         * The HTTP settings in effect.
+         */
+        private final FetchConfiguration config;
+
+        /**
+         * All circuit breakers created thus far using the above settings,
+         * keyed by the endpoint that they guard.
+         */
+        private final ConcurrentMap<String, CircuitBreaker> breakers =
+                new ConcurrentHashMap<String, CircuitBreaker>();
+
+        /**
+         * Creates a new FetchState which has not yet created any circuit
+         * breakers.
+         *
+         * @param config
+         *     The HTTP settings in effect.
+         */
+        public FetchState(FetchConfiguration config) {
+            this.config = config;
+        }
+
+    }
+
+    /**
+     * The current HTTP settings and associated circuit breakers, or null if
+     * configure() has not yet been invoked.
+     */
+    private volatile FetchState state;
+
+    /**
+     * Executor which performs all requests. The threads of this executor are
+     * daemon threads, and are stopped when idle.
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            FETCH_THREADS, FETCH_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_FETCHES),
+            new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-auth-openid-fetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Executor which performs background refreshes. The threads of this
+     * executor are daemon threads, and are stopped when idle.
+     */
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(
+            REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-auth-openid-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Creates a new FetchService whose pools of threads have not yet been
+     * started.
+     */
+    public FetchService() {
+        executor.allowCoreThreadTimeOut(true);
+        refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor which should run background refreshes, or any
+     * other background task which may block while retrieving documents or
+     * accessing files. Tasks scheduled via the shared
+     * ScheduledExecutorService should hand off such work to this executor
+     * rather than performing it directly.
+     *
+     * @return
+     *     The executor which should run blocking background tasks.
+     */
+    public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Applies the given HTTP settings to all subsequent requests. If the
+     * settings differ from those currently in effect, all existing circuit
+     * breakers are discarded and replaced as needed with new circuit breakers
+     * using the new settings. If the settings are unchanged, this function
+     * has no effect.
+     *
+     * @param config
+     *     The HTTP settings to apply.
+     */
+    public synchronized void configure(FetchConfiguration config) {
+
+        FetchState current = state;
+        if (current != null && current.config.equals(config))
+            return;
+
+        state = new FetchState(config);
+
+    }
+
+    /**
+     * Returns the circuit breaker guarding the given endpoint, creating and
+     * publishing a new circuit breaker if none yet exists for the given
+     * settings.
+     *
+     * @param current
+     *     The HTTP settings and associated circuit breakers in effect.
+     *
+     * @param endpoint
+     *     The endpoint (URI) guarded by the circuit breaker.
+     *
+     * @return
+     *     The circuit breaker guarding the given endpoint.
+     */
+    private CircuitBreaker getCircuitBreaker(FetchState current,
+            String endpoint) {
+
+        // Reuse existing circuit breaker if possible
+        CircuitBreaker breaker = current.breakers.get(endpoint);
+        if (breaker != null)
+            return breaker;
+
+        // Otherwise create a new circuit breaker, deferring to any circuit
+        // breaker which may have been concurrently created
+        breaker = new CircuitBreaker(endpoint,
+                current.config.getCircuitBreakerThreshold(),
+                current.config.getCircuitBreakerOpenTime() * 1000L);
+        CircuitBreaker existing = current.breakers.putIfAbsent(endpoint, breaker);
+        if (existing != null)
+            return existing;
+
+        // Publish state of new circuit breaker via JMX, replacing any
+        // circuit breaker created using previous settings
+        try {
+            LoginMetrics.register(ManagementFactory.getPlatformMBeanServer(),
+                    breaker, LoginMetrics.DOMAIN + ":type=CircuitBreaker,name="
+                    + ObjectName.quote(endpoint));
+        }
+        catch (JMException e) {
+            logger.warn("Unable to publish circuit breaker for \"{}\" via JMX: {}", endpoint, e.getMessage());
+            logger.debug("Unable to publish circuit breaker via JMX.", e);
+        }
+
+        return breaker;
+
+    }
+
+    /**
+     * Returns a SimpleGet which retrieves documents from the given endpoint
+     * using the dedicated pool of threads, waiting no longer than the
+     * configured timeouts, and rejecting requests immediately while the
+     * endpoint is unhealthy. Requests rejected in this way fail with a
+     * CircuitOpenException. The timeouts and circuit breaker in effect are
+     * determined at the time of each request, such that the returned
+     * SimpleGet may be retained across configuration changes.
+     *
+     * @param endpoint
+     *     The endpoint (URI) from which documents will be retrieved.
+     *
+     * @return
+     *     A SimpleGet which retrieves documents from the given endpoint.
+     */
+    public SimpleGet getHttpGet(final String endpoint) {
+        return new SimpleGet() {
+
+            @Override
+            public SimpleResponse get(String uri) throws IOException {
+
+                FetchState current = state;
+                if (current == null)
+                    throw new IOException("Not requesting \"" + uri + "\", "
+                            + "as the OAuth configuration has not yet been "
+                            + "read.");
+
+                return new GuardedGet(executor,
+                        getCircuitBreaker(current, endpoint),
+                        current.config.getConnectTimeout(),
+                        current.config.getReadTimeout()).get(uri);
+
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jose4j.http.Get;
+import org.jose4j.http.SimpleGet;
+import org.jose4j.http.SimpleResponse;
+
+/**
+ * SimpleGet implementation which performs each request on a dedicated
+ * executor, waiting no longer than the configured connect and read timeouts
+ * combined, and which consults a circuit breaker before each request. The
+ * calling thread is thus never blocked for longer than those timeouts, and
+ * is not blocked at all while the endpoint is known to be unhealthy.
+ *
+ * @author Michael Jumper
+ */
+public class GuardedGet implements SimpleGet {
+
+    /**
+     * The executor which performs each request.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The circuit breaker which tracks the health of the endpoint.
+     */
+    private final CircuitBreaker breaker;
+
+    /**
+     * The maximum amount of time to wait for a connection to be
+     * established, in milliseconds.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The maximum amount of time to wait for data to be received once
+     * connected, in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * Creates a new GuardedGet which performs requests using the given
+     * executor, guarded by the given circuit breaker.
+     *
+     * @param executor
+     *     The executor which should perform each request.
+     *
+     * @param breaker
+     *     The circuit breaker which tracks the health of the endpoint.
+     *
+     * @param connectTimeout
+     *     The maximum amount of time to wait for a connection to be
+     *     established, in milliseconds.
+     *
+     * @param readTimeout
+     *     The maximum amount of time to wait for data to be received once
+     *     connected, in milliseconds.
+     */
+    public GuardedGet(ExecutorService executor, CircuitBreaker breaker,
+            int connectTimeout, int readTimeout) {
+        this.executor = executor;
+        this.breaker = breaker;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Waits for the given request to complete, returning its response. If
+     * the request does not complete within the connect and read timeouts
+     * combined, or the current thread is interrupted, the request is
+     * cancelled.
+     *
+     * @param request
+     *     The request to wait for.
+     *
+     * @param uri
+     *     The URI being requested.
+     *
+     * @return
+     *     The response to the request.
+     *
+     * @throws IOException
+     *     If the request fails, does not complete in time, or the current
+     *     thread is interrupted while waiting.
+     */
+    private SimpleResponse await(Future<SimpleResponse> request, String uri)
+            throws IOException {
+
+        long timeout = (long) connectTimeout + readTimeout;
+        try {
+            return request.get(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        // Abandon requests which take too long
+        catch (TimeoutException e) {
+            request.cancel(true);
+            throw new SocketTimeoutException("No response received from \""
+                    + uri + "\" within " + timeout + " ms.");
+        }
+
+        // Rethrow original cause of failure
+        catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new IOException("Unexpected failure requesting \"" + uri + "\".", cause);
+
+        }
+
+        // Abort wait if interrupted
+        catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting \"" + uri + "\".");
+        }
+
+    }
+
+    @Override
+    public SimpleResponse get(final String uri) throws IOException {
+
+        // Fail fast while the endpoint is known to be unhealthy
+        if (!breaker.allowRequest())
+            throw new CircuitOpenException("Not requesting \"" + uri + "\", as "
+                    + "recent requests to that endpoint have failed.");
+
+        boolean succeeded = false;
+        try {
+
+            Future<SimpleResponse> request;
+            try {
+                request = executor.submit(new Callable<SimpleResponse>() {
+
+                    @Override
+                    public SimpleResponse call() throws IOException {
+
+                        // Retries are left to the caller, such that the
+                        // overall time spent is bounded by the timeouts
+                        Get get = new Get();
+                        get.setConnectTimeout(connectTimeout);
+                        get.setReadTimeout(readTimeout);
+                        get.setRetries(0);
+
+                        return get.get(uri);
+
+                    }
+
+                });
+            }
+            catch (RejectedExecutionException e) {
+                throw new IOException("Not requesting \"" + uri + "\", as too "
+                        + "many requests are already in progress.", e);
+            }
+
+            // Server errors indicate an unhealthy endpoint
+            SimpleResponse response = await(request, uri);
+            int status = response.getStatusCode();
+            if (status >= 500)
+                throw new HttpStatusException("Endpoint \"" + uri + "\" "
+                        + "responded with HTTP status " + status + ".", status);
+
+            succeeded = true;
+            return response;
+
+        }
+        finally {
+            if (succeeded)
+                breaker.recordSuccess();
+            else
+                breaker.recordFailure();
+        }
+
+    }
+
+}
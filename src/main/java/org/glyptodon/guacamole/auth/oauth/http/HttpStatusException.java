@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when an OAuth endpoint responds with an HTTP status other
+ * than 200 (OK).
+ *
+ * @author Michael Jumper
+ */
+public class HttpStatusException extends IOException {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The HTTP status returned by the endpoint.
+     */
+    private final int status;
+
+    /**
+     * Creates a new HttpStatusException with the given message, describing
+     * a response having the given HTTP status.
+     *
+     * @param message
+     *     A human-readable description of the failed request.
+     *
+     * @param status
+     *     The HTTP status returned by the endpoint.
+     */
+    public HttpStatusException(String message, int status) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Returns the HTTP status returned by the endpoint.
+     *
+     * @return
+     *     The HTTP status returned by the endpoint, such as 400.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded cache of the results of lookups performed against a remote
+ * endpoint, such as the groups or UserInfo of each user. When full, the
+ * oldest entries are evicted. Each successful lookup is cached for the
+ * configured lifetime, while failed lookups are not cached at all.
+ * Concurrent requests for the same key share a single lookup.
+ *
+ * @author Michael Jumper
+ *
+ * @param <V>
+ *     The type of the result of each lookup.
+ */
+public class LookupCache<V> {
+
+    /**
+     * A lookup of the value associated with a single key, which may still be
+     * in progress. Lookups in progress are cached indefinitely, such that
+     * concurrent requests share the lookup, and are cached for the
+     * configured lifetime once complete.
+     */
+    private class Lookup extends FutureTask<V> {
+
+        /**
+         * The key whose value is being looked up.
+         */
+        private final String key;
+
+        /**
+         * Creates a new Lookup which, when run, looks up the value associated
+         * with the given key using the given callable.
+         *
+         * @param key
+         *     The key whose value is being looked up.
+         *
+         * @param callable
+         *     The callable which performs the lookup.
+         */
+        public Lookup(String key, Callable<V> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        protected void set(V value) {
+
+            // Cache successful lookups for the configured lifetime
+            lookups.replace(key, this, System.currentTimeMillis() + lifetime);
+            super.set(value);
+
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+
+            // Never cache failures
+            lookups.remove(key, this);
+            super.setException(t);
+
+        }
+
+    }
+
+    /**
+     * The amount of time that the result of a successful lookup may be
+     * cached, in milliseconds.
+     */
+    private final long lifetime;
+
+    /**
+     * All cached lookups, including lookups which are still in progress.
+     */
+    private final ExpiringCache<Lookup> lookups;
+
+    /**
+     * Creates a new LookupCache which holds the results of lookups for at
+     * most the given number of keys for the given amount of time.
+     *
+     * @param maxSize
+     *     The maximum number of keys whose results should be cached. If zero,
+     *     results are not cached, though concurrent lookups for the same key
+     *     are still shared.
+     *
+     * @param lifetime
+     *     The amount of time that the result of a successful lookup may be
+     *     cached, in milliseconds.
+     */
+    public LookupCache(int maxSize, long lifetime) {
+
+        // Results which may not be cached expire immediately, though lookups
+        // in progress are still tracked
+        this.lifetime = maxSize > 0 ? lifetime : 0;
+        this.lookups = new ExpiringCache<Lookup>(Math.max(maxSize, 1));
+
+    }
+
+    /**
+     * Returns the value associated with the given key. If the value of that
+     * key is cached, or is already being looked up, the existing result or
+     * lookup is returned. Otherwise, a new lookup is submitted to the given
+     * executor.
+     *
+     * @param key
+     *     The key whose value should be returned.
+     *
+     * @param callable
+     *     The callable which should perform the lookup, if a lookup is
+     *     necessary.
+     *
+     * @param executor
+     *     The executor which should perform the lookup, if a lookup is
+     *     necessary.
+     *
+     * @return
+     *     A Future which will provide the value associated with the given
+     *     key.
+     *
+     * @throws RejectedExecutionException
+     *     If a lookup is necessary, but the executor cannot accept any
+     *     further lookups.
+     */
+    public Future<V> get(String key, Callable<V> callable, Executor executor)
+            throws RejectedExecutionException {
+
+        // Use any pending lookup or unexpired result
+        Lookup existing = lookups.get(key);
+        if (existing != null)
+            return existing;
+
+        Lookup lookup = new Lookup(key, callable);
+        existing = lookups.putIfAbsent(key, lookup, Long.MAX_VALUE);
+        if (existing != null)
+            return existing;
+
+        try {
+            executor.execute(lookup);
+        }
+
+        // Do not retain lookups which will never run
+        catch (RejectedExecutionException e) {
+            lookups.remove(key, lookup);
+            throw e;
+        }
+
+        return lookup;
+
+    }
+
+}
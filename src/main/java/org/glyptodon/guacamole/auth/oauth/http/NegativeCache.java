@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.http;
+
+/**
+ * Bounded, short-lived cache of failures, such as tokens which failed
+ * verification or keys which could not be found, allowing repeated attempts
+ * to be rejected immediately rather than repeating the work which led to the
+ * original failure. Each entry expires after a fixed lifetime. If the cache
+ * is full, the oldest failures are evicted. The cache may be safely used by
+ * multiple threads.
+ *
+ * @author Michael Jumper
+ *
+ * @param <V>
+ *     The type of value recorded for each failure.
+ */
+public class NegativeCache<V> extends ExpiringCache<V> {
+
+    /**
+     * The amount of time that each failure is cached, in milliseconds.
+     */
+    private final long lifetime;
+
+    /**
+     * Creates a new NegativeCache which stores up to the given number of
+     * failures for the given amount of time.
+     *
+     * @param maxSize
+     *     The maximum number of failures which may be cached at any one time.
+     *     If zero, no failures will be cached.
+     *
+     * @param lifetime
+     *     The amount of time that each failure is cached, in milliseconds.
+     */
+    public NegativeCache(int maxSize, long lifetime) {
+        super(maxSize);
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Caches the given value for the failure having the given key, replacing
+     * any value already cached for that key and evicting the oldest failures
+     * if the cache is full.
+     *
+     * @param key
+     *     The key identifying whatever failed.
+     *
+     * @param value
+     *     The value to record for the failure.
+     */
+    public void put(String key, V value) {
+        put(key, value, System.currentTimeMillis() + lifetime);
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+import org.jose4j.base64url.Base64;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Client for an endpoint of an OAuth service which accepts form-encoded POST
+ * requests from an authenticated client and responds with JSON, such as the
+ * token endpoint or the token introspection endpoint. Requests are made using
+ * HttpURLConnection, whose underlying connections (and TLS sessions) are kept
+ * alive and reused between requests to the same endpoint, provided each
+ * response is read in full. The number of idle connections retained per
+ * endpoint is governed by the standard "http.maxConnections" system property.
+ *
+ * @author Michael Jumper
+ */
+public class OAuthEndpointClient {
+
+    /**
+     * The size of the buffer used when reading responses, in bytes.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The endpoint.
+     */
+    private final URL endpoint;
+
+    /**
+     * The value of the Authorization header sent with each request,
+     * authenticating this client using HTTP Basic authentication.
+     */
+    private final String authorization;
+
+    /**
+     * The maximum amount of time to wait for a connection, in milliseconds.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The maximum amount of time to wait for a response, in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * Creates a new OAuthEndpointClient which submits requests to the given
+     * endpoint, authenticating using the given client credentials.
+     *
+     * @param endpoint
+     *     The endpoint (URI).
+     *
+     * @param clientID
+     *     The OAuth client ID.
+     *
+     * @param clientSecret
+     *     The OAuth client secret.
+     *
+     * @param connectTimeout
+     *     The maximum amount of time to wait for a connection, in
+     *     milliseconds.
+     *
+     * @param readTimeout
+     *     The maximum amount of time to wait for a response, in milliseconds.
+     *
+     * @throws IOException
+     *     If the given endpoint is not a valid URL.
+     */
+    public OAuthEndpointClient(String endpoint, String clientID,
+            String clientSecret, int connectTimeout, int readTimeout)
+            throws IOException {
+
+        this.endpoint = new URL(endpoint);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+
+        // Credentials are form-encoded prior to Base64 (RFC 6749, 2.3.1)
+        this.authorization = "Basic " + Base64.encode(
+                (encode(clientID) + ":" + encode(clientSecret)).getBytes("UTF-8"));
+
+    }
+
+    /**
+     * Encodes the given string using the application/x-www-form-urlencoded
+     * format.
+     *
+     * @param value
+     *     The string to encode.
+     *
+     * @return
+     *     The encoded string.
+     */
+    public static String encode(String value) {
+
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+
+        // Java is required to provide UTF-8 support
+        catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
+        }
+
+    }
+
+    /**
+     * Reads the given stream in its entirety, closing the stream afterwards.
+     * Reading the entire response allows the underlying connection to be
+     * reused.
+     *
+     * @param input
+     *     The stream to read, which may be null.
+     *
+     * @return
+     *     The contents of the stream, or an empty array if the stream is null.
+     *
+     * @throws IOException
+     *     If the stream cannot be read.
+     */
+    static byte[] readFully(InputStream input) throws IOException {
+
+        if (input == null)
+            return new byte[0];
+
+        try {
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            int length;
+            while ((length = input.read(buffer)) != -1)
+                output.write(buffer, 0, length);
+
+            return output.toByteArray();
+
+        }
+        finally {
+            input.close();
+        }
+
+    }
+
+    /**
+     * Submits the given parameters to the endpoint as a form-encoded POST
+     * request, returning the parsed JSON response.
+     *
+     * @param parameters
+     *     The request parameters, keyed by parameter name. Parameters are
+     *     submitted in iteration order.
+     *
+     * @return
+     *     The members of the JSON object returned by the endpoint.
+     *
+     * @throws HttpStatusException
+     *     If the endpoint responds with an HTTP status other than 200.
+     *
+     * @throws IOException
+     *     If the request fails or times out.
+     *
+     * @throws JoseException
+     *     If the response is not valid JSON.
+     */
+    public Map<String, Object> post(Map<String, String> parameters)
+            throws IOException, JoseException {
+
+        // Build form-encoded request body
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (body.length() > 0)
+                body.append('&');
+            body.append(encode(parameter.getKey()))
+                .append('=')
+                .append(encode(parameter.getValue()));
+        }
+
+        byte[] request = body.toString().getBytes("UTF-8");
+
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setFixedLengthStreamingMode(request.length);
+
+        OutputStream output = connection.getOutputStream();
+        try {
+            output.write(request);
+        }
+        finally {
+            output.close();
+        }
+
+        // Drain any error response such that the connection may be reused
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            readFully(connection.getErrorStream());
+            throw new HttpStatusException("Endpoint \"" + endpoint
+                    + "\" responded with HTTP status " + status + ".", status);
+        }
+
+        return JsonUtil.parseJson(new String(readFully(connection.getInputStream()), "UTF-8"));
+
+    }
+
+}
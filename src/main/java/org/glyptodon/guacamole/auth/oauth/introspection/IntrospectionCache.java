@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.introspection;
+
+import org.glyptodon.guacamole.auth.oauth.http.ExpiringCache;
+
+/**
+ * Bounded cache of introspection results, keyed by the digest of the access
+ * token. When full, the oldest results are evicted. Each result is cached no
+ * longer than the configured maximum lifetime, and never beyond the
+ * expiration time of its token.
+ *
+ * @author Michael Jumper
+ */
+public class IntrospectionCache extends ExpiringCache<IntrospectionResult> {
+
+    /**
+     * The maximum amount of time that a result may be cached, in
+     * milliseconds.
+     */
+    private final long maxLifetime;
+
+    /**
+     * Creates a new IntrospectionCache which holds at most the given number
+     * of results for at most the given amount of time.
+     *
+     * @param maxSize
+     *     The maximum number of results to cache. If zero, nothing is cached.
+     *
+     * @param maxLifetime
+     *     The maximum amount of time that a result may be cached, in
+     *     milliseconds.
+     */
+    public IntrospectionCache(int maxSize, long maxLifetime) {
+        super(maxSize);
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Caches the given result for the token having the given digest, evicting
+     * the oldest results if the cache is full.
+     *
+     * @param digest
+     *     The digest of the access token, as produced by TokenCache.digest().
+     *
+     * @param result
+     *     The result of introspecting the token.
+     */
+    public void put(String digest, IntrospectionResult result) {
+        put(digest, result, Math.min(result.getExpires(),
+                System.currentTimeMillis() + maxLifetime));
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.introspection;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.glyptodon.guacamole.auth.oauth.http.OAuthEndpointClient;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Client for the token introspection endpoint of an OAuth service, as defined
+ * by RFC 7662. Connections to the endpoint are kept alive and reused between
+ * requests, as described by OAuthEndpointClient.
+ *
+ * @author Michael Jumper
+ */
+public class IntrospectionClient {
+
+    /**
+     * The client for the introspection endpoint.
+     */
+    private final OAuthEndpointClient client;
+
+    /**
+     * Creates a new IntrospectionClient which submits tokens to the given
+     * endpoint, authenticating using the given client credentials.
+     *
+     * @param endpoint
+     *     The introspection endpoint.
+     *
+     * @param clientID
+     *     The OAuth client ID.
+     *
+     * @param clientSecret
+     *     The OAuth client secret.
+     *
+     * @param connectTimeout
+     *     The maximum amount of time to wait for a connection, in
+     *     milliseconds.
+     *
+     * @param readTimeout
+     *     The maximum amount of time to wait for a response, in milliseconds.
+     *
+     * @throws IOException
+     *     If the given endpoint is not a valid URL.
+     */
+    public IntrospectionClient(String endpoint, String clientID,
+            String clientSecret, int connectTimeout, int readTimeout)
+            throws IOException {
+        this.client = new OAuthEndpointClient(endpoint, clientID, clientSecret,
+                connectTimeout, readTimeout);
+    }
+
+    /**
+     * Submits the given token to the introspection endpoint, returning the
+     * parsed introspection response.
+     *
+     * @param token
+     *     The token to introspect.
+     *
+     * @return
+     *     The members of the introspection response, including the "active"
+     *     member and any other metadata describing the token.
+     *
+     * @throws IOException
+     *     If the request fails, times out, or the endpoint responds with an
+     *     HTTP status other than 200.
+     *
+     * @throws JoseException
+     *     If the response is not valid JSON.
+     */
+    public Map<String, Object> introspect(String token)
+            throws IOException, JoseException {
+
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("token", token);
+        parameters.put("token_type_hint", "access_token");
+
+        return client.post(parameters);
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.introspection;
+
+import java.util.Map;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+
+/**
+ * The result of successfully introspecting an active access token.
+ *
+ * @author Michael Jumper
+ */
+public class IntrospectionResult {
+
+    /**
+     * The identity of the user associated with the token.
+     */
+    private final UserIdentity identity;
+
+    /**
+     * All members of the introspection response.
+     */
+    private final Map<String, Object> claims;
+
+    /**
+     * The time at which the token expires, in milliseconds since the epoch,
+     * or Long.MAX_VALUE if the introspection response did not specify an
+     * expiration time.
+     */
+    private final long expires;
+
+    /**
+     * Creates a new IntrospectionResult describing an active access token.
+     *
+     * @param identity
+     *     The identity of the user associated with the token.
+     *
+     * @param claims
+     *     All members of the introspection response.
+     *
+     * @param expires
+     *     The time at which the token expires, in milliseconds since the
+     *     epoch, or Long.MAX_VALUE if the introspection response did not
+     *     specify an expiration time.
+     */
+    public IntrospectionResult(UserIdentity identity, Map<String, Object> claims,
+            long expires) {
+        this.identity = identity;
+        this.claims = claims;
+        this.expires = expires;
+    }
+
+    /**
+     * Returns the username of the user associated with the token.
+     *
+     * @return
+     *     The username of the user associated with the token.
+     */
+    public String getUsername() {
+        return identity.getUsername();
+    }
+
+    /**
+     * Returns the identity of the user associated with the token, including
+     * any attributes and groups mapped from the introspection response.
+     *
+     * @return
+     *     The identity of the user associated with the token.
+     */
+    public UserIdentity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Returns all members of the introspection response.
+     *
+     * @return
+     *     All members of the introspection response.
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * Returns the time at which the token expires.
+     *
+     * @return
+     *     The time at which the token expires, in milliseconds since the
+     *     epoch, or Long.MAX_VALUE if the introspection response did not
+     *     specify an expiration time.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+}
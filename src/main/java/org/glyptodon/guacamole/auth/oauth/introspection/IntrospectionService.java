@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.introspection;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.glyptodon.guacamole.auth.oauth.token.TokenCache;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Service for validating opaque access tokens using the token introspection
+ * endpoint of the OAuth service (RFC 7662). The results of introspecting
+ * active tokens are cached, such that repeated submissions of the same token
+ * need not be introspected again.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class IntrospectionService {
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Metrics recording the latency of token introspection.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * The client and cache built from a particular snapshot of the OAuth
+     * configuration. Each IntrospectionState is immutable, and is replaced as
+     * a whole when the configuration changes.
+     */
+    private static class IntrospectionState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The client which submits tokens to the introspection endpoint.
+         */
+        private final IntrospectionClient client;
+
+        /**
+         * Cache of the results of introspecting active tokens.
+         */
+        private final IntrospectionCache cache;
+
+        /**
+         * Creates a new IntrospectionState which introspects tokens using the
+         * given client and caches the results using the given cache.
+         *
+         * @param configuration
+         *     The configuration from which the client and cache were built.
+         *
+         * @param client
+         *     The client which submits tokens to the introspection endpoint.
+         *
+         * @param cache
+         *     Cache of the results of introspecting active tokens.
+         */
+        public IntrospectionState(OAuthConfiguration configuration,
+                IntrospectionClient client, IntrospectionCache cache) {
+            this.configuration = configuration;
+            this.client = client;
+            this.cache = cache;
+        }
+
+    }
+
+    /**
+     * The client and cache built from the current configuration, or null if
+     * they have not yet been built.
+     */
+    private volatile IntrospectionState state;
+
+    /**
+     * Returns the client and cache which should be used to introspect
+     * received tokens, building both if they have not yet been built or if
+     * the configuration has changed since they were built.
+     *
+     * @return
+     *     The client and cache which should be used to introspect received
+     *     tokens.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, if a required property is
+     *     missing, or if the introspection endpoint is not a valid URL.
+     */
+    private IntrospectionState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        IntrospectionState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            try {
+                current = new IntrospectionState(configuration,
+                    new IntrospectionClient(
+                        configuration.getIntrospectionEndpoint(),
+                        configuration.getClientID(),
+                        configuration.getClientSecret(),
+                        configuration.getIntrospectionConnectTimeout(),
+                        configuration.getIntrospectionReadTimeout()
+                    ),
+                    new IntrospectionCache(configuration.getIntrospectionCacheSize(),
+                            configuration.getIntrospectionCacheLifetime() * 1000L)
+                );
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Invalid introspection "
+                        + "endpoint: " + e.getMessage(), e);
+            }
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Submits the given token to the introspection endpoint, verifying that
+     * the token is active and extracting the username of the associated
+     * user.
+     *
+     * @param current
+     *     The client and configuration to use for introspection.
+     *
+     * @param token
+     *     The access token to introspect.
+     *
+     * @return
+     *     The result of introspecting the token.
+     *
+     * @throws GuacamoleException
+     *     If the token is not active, lacks a username, or was issued by an
+     *     issuer other than the one configured, or if the introspection
+     *     request fails.
+     */
+    private IntrospectionResult introspect(IntrospectionState current,
+            String token) throws GuacamoleException {
+
+        Map<String, Object> response;
+        long start = System.nanoTime();
+        try {
+            response = current.client.introspect(token);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to introspect access "
+                    + "token: " + e.getMessage(), e);
+        }
+        catch (JoseException e) {
+            throw new GuacamoleServerException("Invalid response from "
+                    + "introspection endpoint: " + e.getMessage(), e);
+        }
+        finally {
+            metrics.recordLatency(Stage.TOKEN_INTROSPECTION, System.nanoTime() - start);
+        }
+
+        OAuthConfiguration configuration = current.configuration;
+
+        // Token must be active
+        if (!Boolean.TRUE.equals(response.get("active")))
+            throw new InvalidTokenException("Access token is not active.",
+                    FailureCause.INVALID_TOKEN);
+
+        // Token must not be expired, even if considered active
+        long expires = Long.MAX_VALUE;
+        Object exp = response.get("exp");
+        if (exp instanceof Number) {
+            expires = ((Number) exp).longValue() * 1000;
+            if (System.currentTimeMillis() >= expires)
+                throw new InvalidTokenException("Access token has expired.",
+                        FailureCause.INVALID_TOKEN);
+        }
+
+        // Token must be from the configured issuer, if any
+        String issuer = configuration.getIssuer();
+        Object iss = response.get("iss");
+        if (issuer != null && iss != null && !issuer.equals(iss))
+            throw new InvalidTokenException("Access token is not from the "
+                    + "configured issuer.", FailureCause.INVALID_TOKEN);
+
+        // Pull username from introspection response
+        Object username = response.get(configuration.getUsernameClaimType());
+        if (!(username instanceof String))
+            throw new InvalidTokenException("Username missing from "
+                    + "introspection response.", FailureCause.MISSING_USERNAME);
+
+        return new IntrospectionResult(
+                configuration.getClaimMapping().map((String) username, response),
+                response, expires);
+
+    }
+
+    /**
+     * Validates the given opaque access token using the introspection
+     * endpoint, returning the identity of the associated user. Tokens which
+     * have already been found to be active are not introspected again until
+     * their cache entry expires, which will be no later than the expiration
+     * time of the token.
+     *
+     * @param token
+     *     The access token to validate.
+     *
+     * @return
+     *     The identity of the user associated with the given token.
+     *
+     * @throws GuacamoleException
+     *     If the token is not active, the username is missing, the
+     *     introspection request fails, or guacamole.properties could not be
+     *     parsed.
+     */
+    public UserIdentity processIdentity(String token)
+            throws GuacamoleException {
+
+        IntrospectionState current = getState();
+
+        // Skip introspection entirely if token is known to be active
+        String digest = TokenCache.digest(token);
+        IntrospectionResult result = current.cache.get(digest);
+        if (result != null) {
+            metrics.recordTokenCacheHit();
+            return result.getIdentity();
+        }
+
+        // Otherwise, introspect token, caching the result
+        result = introspect(current, token);
+        current.cache.put(digest, result);
+        return result.getIdentity();
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running statistics describing the retrievals performed by a JWKSCache,
+ * including the number of requests which were coalesced into an
+ * already-pending retrieval rather than contacting the JWKS endpoint
+ * themselves. All statistics may be safely updated and read concurrently.
+ *
+ * @author Michael Jumper
+ */
+public class FetchStatistics {
+
+    /**
+     * The total number of retrievals attempted.
+     */
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * The total number of retrievals which failed.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * The total number of requests for keys which waited on a retrieval
+     * already in progress rather than performing their own.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * The total time spent performing retrievals, in nanoseconds.
+     */
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /**
+     * The longest time spent performing any one retrieval, in nanoseconds.
+     */
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * Records the completion of a retrieval.
+     *
+     * @param duration
+     *     The time taken by the retrieval, in nanoseconds.
+     *
+     * @param success
+     *     Whether the retrieval succeeded.
+     */
+    public void recordFetch(long duration, boolean success) {
+
+        fetches.incrementAndGet();
+        if (!success)
+            failures.incrementAndGet();
+
+        totalTime.addAndGet(duration);
+
+        // Update maximum only if exceeded
+        long max;
+        do {
+            max = maxTime.get();
+        } while (duration > max && !maxTime.compareAndSet(max, duration));
+
+    }
+
+    /**
+     * Records that the given number of requests waited on a retrieval which
+     * was already in progress.
+     *
+     * @param waiters
+     *     The number of requests which waited on the retrieval.
+     */
+    public void recordCoalesced(int waiters) {
+        coalesced.addAndGet(waiters);
+    }
+
+    /**
+     * Returns the total number of retrievals attempted.
+     *
+     * @return
+     *     The total number of retrievals attempted.
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    /**
+     * Returns the total number of retrievals which failed.
+     *
+     * @return
+     *     The total number of retrievals which failed.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the total number of requests for keys which waited on a
+     * retrieval already in progress rather than performing their own.
+     *
+     * @return
+     *     The total number of coalesced requests.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the average time taken by a retrieval, in milliseconds. If no
+     * retrievals have been attempted, zero is returned.
+     *
+     * @return
+     *     The average time taken by a retrieval, in milliseconds.
+     */
+    public double getAverageFetchTime() {
+
+        long count = fetches.get();
+        if (count == 0)
+            return 0;
+
+        return (double) totalTime.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+
+    }
+
+    /**
+     * Returns the longest time taken by any one retrieval, in milliseconds.
+     *
+     * @return
+     *     The longest time taken by any one retrieval, in milliseconds.
+     */
+    public double getMaxFetchTime() {
+        return (double) maxTime.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.Key;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.glyptodon.guacamole.auth.oauth.http.CacheHeaders;
+import org.glyptodon.guacamole.auth.oauth.http.CircuitOpenException;
+import org.glyptodon.guacamole.auth.oauth.http.NegativeCache;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.jose4j.http.SimpleGet;
+import org.jose4j.http.SimpleResponse;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.VerificationJwkSelector;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.UnresolvableKeyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * VerificationKeyResolver which resolves keys using a cached copy of the JWKS
+ * available at a specific endpoint. The cached keys are refreshed in the
+ * background shortly before they expire, and expired keys continue to be
+ * used while a refresh is in progress, up to a configurable limit. If a
+ * token references a key which is not within the cached set, the set is
+ * retrieved again immediately, with concurrent retrievals being coalesced
+ * into a single request. While the JWKS endpoint is known to be unhealthy,
+ * the cached keys continue to be used regardless of how long ago they
+ * expired, and requests which cannot be satisfied by the cached keys fail
+ * immediately.
+ *
+ * @author Michael Jumper
+ */
+public class JWKSCache implements VerificationKeyResolver {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(JWKSCache.class);
+
+    /**
+     * The amount of time to cache retrieved keys if the JWKS endpoint does
+     * not specify a cache lifetime via the Cache-Control or Expires headers,
+     * in milliseconds.
+     */
+    private static final long DEFAULT_CACHE_LIFETIME = 3600000;
+
+    /**
+     * The minimum amount of time to cache retrieved keys, regardless of the
+     * cache lifetime specified by the JWKS endpoint, in milliseconds.
+     */
+    private static final long MINIMUM_CACHE_LIFETIME = 30000;
+
+    /**
+     * The fraction of the cache lifetime of a set of keys which should elapse
+     * before that set of keys is refreshed in the background.
+     */
+    private static final double REFRESH_THRESHOLD = 0.9;
+
+    /**
+     * The minimum age of the current set of keys, in milliseconds, before a
+     * token referencing an unknown key may cause the JWKS to be retrieved
+     * again. This applies regardless of the key ID referenced, such that
+     * tokens bearing random key IDs, or no key ID at all, cannot force the
+     * JWKS to be retrieved more often than this.
+     */
+    private static final long UNKNOWN_KEY_REFRESH_INTERVAL = 10000;
+
+    /**
+     * The endpoint (URI) of the JWKS service.
+     */
+    private final String endpoint;
+
+    /**
+     * The object to use when retrieving the JWKS via HTTP.
+     */
+    private final SimpleGet httpGet;
+
+    /**
+     * The executor to use when scheduling background refreshes. Tasks run by
+     * this executor must not block.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The executor to use when refreshing keys or saving snapshots in the
+     * background.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum amount of time that a set of keys may continue to be used
+     * after it has expired, in milliseconds.
+     */
+    private final long maxStale;
+
+    /**
+     * The file to which the most recently retrieved set of keys should be
+     * saved, or null if keys should not be saved.
+     */
+    private final SnapshotFile snapshotFile;
+
+    /**
+     * Cache of key IDs which were recently found to be missing from the JWKS
+     * even after the JWKS was retrieved again, along with the exception
+     * describing each failure.
+     */
+    private final NegativeCache<UnresolvableKeyException> unknownKeys;
+
+    /**
+     * Metrics recording the effectiveness of the cache of unknown key IDs.
+     */
+    private final LoginMetrics metrics;
+
+    /**
+     * Selector which selects the key applicable to a particular signature.
+     */
+    private final VerificationJwkSelector selector = new VerificationJwkSelector();
+
+    /**
+     * The retrieval currently in progress, or null if the JWKS is not
+     * currently being retrieved.
+     */
+    private final AtomicReference<Fetch> inFlight = new AtomicReference<Fetch>();
+
+    /**
+     * Statistics describing the retrievals performed by this cache.
+     */
+    private final FetchStatistics statistics = new FetchStatistics();
+
+    /**
+     * Whether a background refresh has been requested and has not yet
+     * completed.
+     */
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    /**
+     * The most recently retrieved set of keys, or null if the JWKS has not
+     * yet been retrieved.
+     */
+    private volatile KeySet keySet;
+
+    /**
+     * The scheduled background refresh of the current set of keys, or null if
+     * no refresh is scheduled. This must only be accessed while holding the
+     * lock of this JWKSCache.
+     */
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * Whether this cache has been stopped, and thus should no longer refresh
+     * its keys in the background.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * A single retrieval of the JWKS, the result of which replaces the
+     * current set of keys and is shared by all requests waiting on that
+     * retrieval.
+     */
+    private class Fetch extends FutureTask<KeySet> {
+
+        /**
+         * The number of requests, other than the request which started this
+         * retrieval, which are waiting on this retrieval.
+         */
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        /**
+         * Whether this retrieval has failed.
+         */
+        private volatile boolean failed = false;
+
+        /**
+         * Creates a new Fetch which, when run, retrieves the JWKS and replaces
+         * the current set of keys.
+         */
+        public Fetch() {
+            super(new Callable<KeySet>() {
+
+                @Override
+                public KeySet call() throws JoseException, IOException {
+                    KeySet updated = fetch();
+                    keySet = updated;
+                    scheduleRefresh(updated);
+                    saveSnapshot(updated);
+                    return updated;
+                }
+
+            });
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed = true;
+            super.setException(t);
+        }
+
+    }
+
+    /**
+     * Creates a new JWKSCache which caches the keys available at the given
+     * JWKS endpoint. No keys are retrieved until required, or until
+     * refreshInBackground() is invoked. Background refreshes continue until
+     * stop() is invoked.
+     *
+     * @param endpoint
+     *     The endpoint (URI) of the JWKS service.
+     *
+     * @param httpGet
+     *     The object to use when retrieving the JWKS via HTTP.
+     *
+     * @param scheduler
+     *     The executor to use when scheduling background refreshes.
+     *
+     * @param executor
+     *     The executor to use when refreshing keys or saving snapshots in the
+     *     background.
+     *
+     * @param maxStale
+     *     The maximum amount of time that a set of keys may continue to be
+     *     used after it has expired, in milliseconds.
+     *
+     * @param snapshotFile
+     *     The file to which the most recently retrieved set of keys should be
+     *     saved, and from which keys may be loaded by loadSnapshot(), or null
+     *     if keys should not be saved.
+     *
+     * @param unknownKeys
+     *     The cache in which key IDs found to be missing from the JWKS should
+     *     be recorded, such that tokens referencing those key IDs are
+     *     rejected without retrieving the JWKS again.
+     *
+     * @param metrics
+     *     Metrics recording the effectiveness of the cache of unknown key
+     *     IDs.
+     */
+    public JWKSCache(String endpoint, SimpleGet httpGet,
+            ScheduledExecutorService scheduler, Executor executor,
+            long maxStale,
+            SnapshotFile snapshotFile,
+            NegativeCache<UnresolvableKeyException> unknownKeys,
+            LoginMetrics metrics) {
+        this.endpoint = endpoint;
+        this.httpGet = httpGet;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.maxStale = maxStale;
+        this.snapshotFile = snapshotFile;
+        this.unknownKeys = unknownKeys;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Loads the set of keys saved within the snapshot file, if any, using
+     * those keys until a refresh succeeds. The loaded keys are considered
+     * expired, and will continue to be used only while being refreshed, up
+     * to the configured stale limit. This function must be invoked before
+     * the keys of this cache are first used or refreshed. Failures to load
+     * the snapshot file are logged, and do not affect the current set of
+     * keys.
+     */
+    public void loadSnapshot() {
+
+        // Nothing to load if no snapshot file is configured
+        if (snapshotFile == null)
+            return;
+
+        try {
+
+            KeySet loaded = snapshotFile.load(endpoint);
+            if (loaded == null)
+                return;
+
+            keySet = loaded;
+            logger.info("Loaded {} key(s) for \"{}\" from \"{}\".",
+                    loaded.getKeys().size(), endpoint, snapshotFile.getFile());
+
+        }
+        catch (JoseException e) {
+            logger.warn("Unable to parse JWKS snapshot \"{}\": {}", snapshotFile.getFile(), e.getMessage());
+            logger.debug("Unable to parse JWKS snapshot.", e);
+        }
+        catch (IOException e) {
+            logger.warn("Unable to read JWKS snapshot \"{}\": {}", snapshotFile.getFile(), e.getMessage());
+            logger.debug("Unable to read JWKS snapshot.", e);
+        }
+
+    }
+
+    /**
+     * Saves the given set of keys to the snapshot file in the background.
+     * If no snapshot file is configured, this function has no effect.
+     * Failures to save the snapshot file are logged.
+     *
+     * @param keys
+     *     The set of keys to save.
+     */
+    private void saveSnapshot(final KeySet keys) {
+
+        // Nothing to save if no snapshot file is configured
+        if (snapshotFile == null)
+            return;
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    snapshotFile.save(endpoint, keys);
+                }
+                catch (IOException e) {
+                    logger.warn("Unable to write JWKS snapshot \"{}\": {}", snapshotFile.getFile(), e.getMessage());
+                    logger.debug("Unable to write JWKS snapshot.", e);
+                }
+            }
+
+        });
+
+    }
+
+    /**
+     * Retrieves the JWKS from the JWKS endpoint, returning the resulting set
+     * of keys. The current set of keys is not modified.
+     *
+     * @return
+     *     The set of keys retrieved from the JWKS endpoint.
+     *
+     * @throws JoseException
+     *     If the JWKS retrieved from the endpoint cannot be parsed.
+     *
+     * @throws IOException
+     *     If an error occurs while retrieving the JWKS from the endpoint.
+     */
+    private KeySet fetch() throws JoseException, IOException {
+
+        long retrieved = System.currentTimeMillis();
+
+        // Retrieve and parse JWKS
+        SimpleResponse response = httpGet.get(endpoint);
+        JsonWebKeySet jwks = new JsonWebKeySet(response.getBody());
+
+        // Cache for the lifetime dictated by the JWKS endpoint
+        long lifetime = Math.max(MINIMUM_CACHE_LIFETIME,
+                CacheHeaders.getCacheLifetime(response, DEFAULT_CACHE_LIFETIME));
+
+        logger.debug("Retrieved {} key(s) from \"{}\". Keys will be cached "
+                + "for {} ms.", jwks.getJsonWebKeys().size(), endpoint, lifetime);
+
+        return new KeySet(jwks.getJsonWebKeys(), retrieved, retrieved + lifetime);
+
+    }
+
+    /**
+     * Schedules a background refresh of the given set of keys, replacing any
+     * previously-scheduled refresh. The refresh will occur once the refresh
+     * threshold of the cache lifetime of the given set of keys has elapsed.
+     *
+     * @param keys
+     *     The set of keys which should be refreshed.
+     */
+    private synchronized void scheduleRefresh(KeySet keys) {
+
+        // Cancel any previously-scheduled refresh
+        if (scheduledRefresh != null)
+            scheduledRefresh.cancel(false);
+
+        // Do not schedule further refreshes once stopped
+        if (stopped) {
+            scheduledRefresh = null;
+            return;
+        }
+
+        // Refresh prior to expiration
+        long delay = (long) ((keys.getExpires() - keys.getRetrieved()) * REFRESH_THRESHOLD);
+        scheduledRefresh = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                refreshInBackground();
+            }
+
+        }, delay, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Waits for the given retrieval to complete, returning its result.
+     *
+     * @param fetch
+     *     The retrieval to wait for.
+     *
+     * @return
+     *     The set of keys produced by the retrieval.
+     *
+     * @throws JoseException
+     *     If the JWKS retrieved from the endpoint cannot be parsed.
+     *
+     * @throws IOException
+     *     If an error occurs while retrieving the JWKS from the endpoint, or
+     *     if the current thread is interrupted while waiting.
+     */
+    private KeySet await(Fetch fetch) throws JoseException, IOException {
+
+        try {
+            return fetch.get();
+        }
+
+        // Rethrow original cause of failure
+        catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+            if (cause instanceof JoseException)
+                throw (JoseException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new IOException("Unexpected failure retrieving JWKS.", cause);
+
+        }
+
+        // Abort wait if interrupted
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for JWKS.");
+        }
+
+    }
+
+    /**
+     * Retrieves the JWKS from the JWKS endpoint, replacing the current set of
+     * keys, unless the current set of keys has already been replaced since
+     * the given set of keys was observed. Concurrent calls are coalesced such
+     * that only one retrieval occurs, with all callers receiving its result.
+     *
+     * @param observed
+     *     The set of keys observed by the caller prior to invoking this
+     *     function, or null if no keys were observed.
+     *
+     * @return
+     *     The current set of keys, which will have been retrieved after the
+     *     given set of keys.
+     *
+     * @throws JoseException
+     *     If the JWKS retrieved from the endpoint cannot be parsed.
+     *
+     * @throws IOException
+     *     If an error occurs while retrieving the JWKS from the endpoint.
+     */
+    private KeySet refresh(KeySet observed) throws JoseException, IOException {
+
+        for (;;) {
+
+            // Wait on any retrieval which is already in progress
+            Fetch pending = inFlight.get();
+            if (pending != null) {
+                pending.waiters.incrementAndGet();
+                return await(pending);
+            }
+
+            // Use keys retrieved by another thread if refreshed since observed
+            KeySet current = keySet;
+            if (current != observed)
+                return current;
+
+            // Otherwise, begin a new retrieval, unless another thread has
+            // just done so
+            Fetch fetch = new Fetch();
+            if (inFlight.compareAndSet(null, fetch)) {
+
+                long start = System.nanoTime();
+                try {
+                    fetch.run();
+                }
+                finally {
+                    inFlight.set(null);
+                }
+
+                // Record outcome of retrieval
+                long duration = System.nanoTime() - start;
+                int waiters = fetch.waiters.get();
+                statistics.recordFetch(duration, !fetch.failed);
+                statistics.recordCoalesced(waiters);
+
+                logger.debug("Retrieval of JWKS from \"{}\" took {} ms, with "
+                        + "{} concurrent request(s) coalesced.", endpoint,
+                        TimeUnit.NANOSECONDS.toMillis(duration), waiters);
+
+                return await(fetch);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Stops refreshing the keys of this cache in the background, cancelling
+     * any scheduled refresh. This function should be invoked once the cache
+     * is no longer in use. Keys may still be retrieved on demand, such that
+     * any verifications already using this cache can complete.
+     */
+    public synchronized void stop() {
+
+        stopped = true;
+
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+
+    }
+
+    /**
+     * Returns the statistics describing the retrievals performed by this
+     * cache.
+     *
+     * @return
+     *     The statistics describing the retrievals performed by this cache.
+     */
+    public FetchStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Requests that the JWKS be retrieved again in the background, replacing
+     * the current set of keys. If a background refresh is already pending,
+     * this function has no effect. Failures to retrieve the JWKS are logged,
+     * and do not affect the current set of keys.
+     */
+    public void refreshInBackground() {
+
+        // Do not request a refresh if stopped or if one is already pending
+        if (stopped || !refreshPending.compareAndSet(false, true))
+            return;
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    refresh(keySet);
+                }
+                catch (JoseException e) {
+                    logger.warn("Unable to parse JWKS from \"{}\": {}", endpoint, e.getMessage());
+                    logger.debug("Unable to parse JWKS.", e);
+                }
+                catch (CircuitOpenException e) {
+                    logger.debug("Not refreshing JWKS from \"{}\" while the endpoint is unhealthy.", endpoint, e);
+                }
+                catch (IOException e) {
+                    logger.warn("Unable to retrieve JWKS from \"{}\": {}", endpoint, e.getMessage());
+                    logger.debug("Unable to retrieve JWKS.", e);
+                }
+                finally {
+                    refreshPending.set(false);
+                }
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns a set of keys which may be used to verify received tokens. If
+     * the current set of keys has expired, but has not been expired for
+     * longer than the configured stale limit, the current set of keys is
+     * returned and a refresh is requested in the background. If there is no
+     * current set of keys, or the stale limit has been exceeded, the JWKS is
+     * retrieved immediately. If the JWKS endpoint is known to be unhealthy,
+     * the current set of keys is returned regardless of the stale limit.
+     *
+     * @return
+     *     A set of keys which may be used to verify received tokens.
+     *
+     * @throws JoseException
+     *     If the JWKS must be retrieved immediately, and the JWKS retrieved
+     *     from the endpoint cannot be parsed.
+     *
+     * @throws IOException
+     *     If the JWKS must be retrieved immediately, and an error occurs while
+     *     retrieving the JWKS from the endpoint.
+     */
+    public KeySet getKeySet() throws JoseException, IOException {
+
+        KeySet current = keySet;
+        long now = System.currentTimeMillis();
+
+        // Retrieve keys immediately if no usable keys are available
+        if (current == null || now >= current.getExpires() + maxStale) {
+            try {
+                return refresh(current);
+            }
+
+            // Continue using any keys available while the endpoint is down
+            catch (CircuitOpenException e) {
+                if (current == null)
+                    throw e;
+                logger.debug("Using keys from \"{}\" beyond the stale limit "
+                        + "while the endpoint is unhealthy.", endpoint);
+                return current;
+            }
+        }
+
+        // Continue using expired keys while refreshing in the background
+        if (now >= current.getExpires())
+            refreshInBackground();
+
+        return current;
+
+    }
+
+    @Override
+    public Key resolveKey(JsonWebSignature jws,
+            List<JsonWebStructure> nestingContext)
+            throws UnresolvableKeyException {
+
+        try {
+
+            KeySet current = getKeySet();
+
+            // Use the already-parsed key indexed under the key ID and
+            // algorithm of the token, unless the token additionally
+            // identifies its key by certificate thumbprint
+            String keyID = jws.getKeyIdHeaderValue();
+            String algorithm = jws.getAlgorithmHeaderValue();
+            if (keyID != null && algorithm != null
+                    && jws.getX509CertSha1ThumbprintHeaderValue() == null
+                    && jws.getX509CertSha256ThumbprintHeaderValue() == null) {
+                Key key = current.getKey(keyID, algorithm);
+                if (key != null)
+                    return key;
+            }
+
+            // Otherwise, search the current set of keys for a suitable key
+            JsonWebKey jwk = selector.select(jws, current.getKeys());
+
+            // If the key is unknown, the keys may have been rotated. Retrieve
+            // the keys again immediately, ignoring any retrieval which began
+            // before the key was found to be missing (and thus may predate
+            // the rotation), unless the current keys are themselves recent.
+            boolean refreshed = false;
+            if (jwk == null) {
+
+                // Do not retrieve the keys again for key IDs which were
+                // recently found to be missing even after doing so
+                UnresolvableKeyException failure = keyID != null ? unknownKeys.get(keyID) : null;
+                if (failure != null) {
+                    metrics.recordUnknownKeyCacheHit();
+                    throw failure;
+                }
+
+                metrics.recordUnknownKeyCacheMiss();
+
+                // Unverified tokens may reference any number of distinct key
+                // IDs, so limit retrieval regardless of key ID
+                long requested = System.currentTimeMillis();
+                if (requested - current.getRetrieved() < UNKNOWN_KEY_REFRESH_INTERVAL)
+                    logger.debug("No key matches JWS header {}. Not retrieving "
+                            + "JWKS from \"{}\" again, as it was retrieved "
+                            + "recently.", jws.getHeaders().getFullHeaderAsJsonString(),
+                            endpoint);
+
+                else {
+
+                    logger.debug("No key matches JWS header {}. Retrieving "
+                            + "JWKS from \"{}\" again.",
+                            jws.getHeaders().getFullHeaderAsJsonString(), endpoint);
+
+                    do {
+                        current = refresh(current);
+                        jwk = selector.select(jws, current.getKeys());
+                    } while (jwk == null && current.getRetrieved() < requested);
+
+                    refreshed = true;
+
+                }
+
+            }
+
+            // Fail if there is still no such key. If the keys were retrieved
+            // again, remember the failure such that other tokens referencing
+            // the same key ID need not cause the keys to be retrieved yet
+            // again.
+            if (jwk == null) {
+
+                UnresolvableKeyException failure = new UnresolvableKeyException(
+                        "Unable to find a suitable verification key for JWS "
+                        + "w/ header " + jws.getHeaders().getFullHeaderAsJsonString()
+                        + " within JWKS from \"" + endpoint + "\".");
+
+                if (refreshed && keyID != null)
+                    unknownKeys.put(keyID, failure);
+
+                throw failure;
+
+            }
+
+            return jwk.getKey();
+
+        }
+
+        // Rethrow any failure to find the key as-is
+        catch (UnresolvableKeyException e) {
+            throw e;
+        }
+
+        // Rethrow any failure to retrieve or parse the JWKS
+        catch (JoseException e) {
+            throw new UnresolvableKeyException("Unable to parse JWKS from \""
+                    + endpoint + "\".", e);
+        }
+        catch (IOException e) {
+            throw new UnresolvableKeyException("Unable to retrieve JWKS from \""
+                    + endpoint + "\".", e);
+        }
+
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import org.apache.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.IssuerConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.http.FetchService;
+import org.glyptodon.guacamole.auth.oauth.http.NegativeCache;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.jose4j.lang.UnresolvableKeyException;
+
+/**
+ * Service which maintains the sets of keys (JWKS) used to verify the
+ * signatures of received ID tokens. Each JWKS endpoint is associated with a
+ * single, long-lived cache of keys which is shared by all logins and which is
+ * refreshed in the background. Caches are retained across changes to the
+ * configuration only while their endpoint remains configured and the
+ * settings used to create them are unchanged. Caches which are not retained
+ * stop refreshing their keys.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class JWKSService {
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service providing the objects used to retrieve keys via HTTP.
+     */
+    @Inject
+    private FetchService fetchService;
+
+    /**
+     * Metrics recording how often unknown key IDs are rejected without
+     * retrieving the JWKS again.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * Executor which schedules background refreshes of cached keys.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * The configuration in effect, along with the caches created using the
+     * settings of that configuration.
+     */
+    private static class JWKSState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * All caches created thus far using the settings of the above
+         * configuration, keyed by the JWKS endpoint from which their keys are
+         * retrieved.
+         */
+        private final ConcurrentMap<String, JWKSCache> caches =
+                new ConcurrentHashMap<String, JWKSCache>();
+
+        /**
+         * Creates a new JWKSState which has not yet created any caches.
+         *
+         * @param configuration
+         *     The configuration from which this state is built.
+         */
+        public JWKSState(OAuthConfiguration configuration) {
+            this.configuration = configuration;
+        }
+
+        /**
+         * Returns whether the caches of this state were created using the
+         * same settings as would be used for the given configuration, and
+         * thus may continue to be used with that configuration.
+         *
+         * @param other
+         *     The configuration to compare against.
+         *
+         * @return
+         *     true if the caches of this state may continue to be used with
+         *     the given configuration, false otherwise.
+         */
+        public boolean hasSettingsOf(OAuthConfiguration other) {
+            File file = configuration.getJWKSCacheFile();
+            return configuration.getJWKSMaxStale() == other.getJWKSMaxStale()
+                && (file == null ? other.getJWKSCacheFile() == null
+                        : file.equals(other.getJWKSCacheFile()))
+                && configuration.getNegativeCacheSize() == other.getNegativeCacheSize()
+                && configuration.getNegativeCacheLifetime() == other.getNegativeCacheLifetime();
+        }
+
+    }
+
+    /**
+     * The configuration in effect and associated caches, or null if no
+     * caches have yet been requested.
+     */
+    private volatile JWKSState state;
+
+    /**
+     * Returns the caches which should be used under the current
+     * configuration, rebuilding them if the configuration has changed. When
+     * rebuilt, caches whose endpoint remains configured are retained if the
+     * settings used to create them are unchanged. All other caches are
+     * stopped.
+     *
+     * @return
+     *     The configuration in effect and associated caches.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private JWKSState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        JWKSState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            JWKSState updated = new JWKSState(configuration);
+            if (current != null) {
+
+                // Carry over the caches of endpoints which remain configured,
+                // if created with the same settings
+                if (current.hasSettingsOf(configuration)) {
+
+                    Set<String> endpoints = new HashSet<String>();
+                    for (IssuerConfiguration issuer : configuration.getIssuers())
+                        endpoints.add(issuer.getJWKSEndpoint());
+
+                    for (Map.Entry<String, JWKSCache> entry : current.caches.entrySet()) {
+                        if (endpoints.contains(entry.getKey()))
+                            updated.caches.put(entry.getKey(), entry.getValue());
+                    }
+
+                }
+
+                // Stop refreshing all other caches
+                for (JWKSCache cache : current.caches.values()) {
+                    if (!updated.caches.containsValue(cache))
+                        cache.stop();
+                }
+
+            }
+
+            state = updated;
+            return updated;
+
+        }
+
+    }
+
+    /**
+     * Returns the file to which keys retrieved from the given endpoint should
+     * be saved. Keys from the main JWKS endpoint are saved to the configured
+     * JWKS cache file as-is, while keys from the endpoints of any additional
+     * tenants are saved alongside that file, with a suffix derived from the
+     * endpoint.
+     *
+     * @param configuration
+     *     The configuration defining the JWKS cache file.
+     *
+     * @param endpoint
+     *     The endpoint (URI) of the JWKS service.
+     *
+     * @return
+     *     The file to which keys from the given endpoint should be saved, or
+     *     null if no JWKS cache file is configured.
+     */
+    private SnapshotFile getSnapshotFile(OAuthConfiguration configuration,
+            String endpoint) {
+
+        File file = configuration.getJWKSCacheFile();
+        if (file == null)
+            return null;
+
+        if (endpoint.equals(configuration.getJWKSEndpoint()))
+            return new SnapshotFile(file);
+
+        // Snapshots record their endpoint, so hash collisions are harmless
+        return new SnapshotFile(new File(file.getPath() + "."
+                + String.format("%08x", endpoint.hashCode())));
+
+    }
+
+    /**
+     * Returns a VerificationKeyResolver which resolves keys using the JWKS
+     * available at the given endpoint. The same resolver, and thus the same
+     * cache of keys, is returned for all calls which specify the same
+     * endpoint, until the endpoint is removed from the configuration or the
+     * settings used to create the cache change. The returned resolver is safe
+     * for concurrent use. If the resolver is newly created, any keys saved
+     * within the configured JWKS cache file are loaded, and retrieval of
+     * fresh keys begins immediately in the background.
+     *
+     * @param endpoint
+     *     The endpoint (URI) of the JWKS service.
+     *
+     * @return
+     *     A VerificationKeyResolver which resolves keys using the JWKS
+     *     available at the given endpoint.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public VerificationKeyResolver getVerificationKeyResolver(String endpoint)
+            throws GuacamoleException {
+
+        JWKSState current = getState();
+
+        // Reuse existing cache if possible
+        JWKSCache cache = current.caches.get(endpoint);
+        if (cache != null)
+            return cache;
+
+        // Otherwise create a new cache, using last known-good keys until
+        // fresh keys are retrieved in the background
+        OAuthConfiguration configuration = current.configuration;
+        cache = new JWKSCache(endpoint, fetchService.getHttpGet(endpoint),
+                executor, fetchService.getRefreshExecutor(),
+                configuration.getJWKSMaxStale() * 1000L,
+                getSnapshotFile(configuration, endpoint),
+                new NegativeCache<UnresolvableKeyException>(
+                        configuration.getNegativeCacheSize(),
+                        configuration.getNegativeCacheLifetime() * 1000L),
+                metrics);
+        cache.loadSnapshot();
+
+        synchronized (this) {
+
+            // Do not publish caches for a configuration which has since been
+            // replaced, as they would never be stopped
+            if (state != current) {
+                cache.stop();
+                return cache;
+            }
+
+            // Defer to any cache which may have been concurrently created for
+            // the same endpoint
+            JWKSCache existing = current.caches.putIfAbsent(endpoint, cache);
+            if (existing != null)
+                return existing;
+
+        }
+
+        cache.refreshInBackground();
+        return cache;
+
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import java.security.Key;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jose4j.jwk.EllipticCurveJsonWebKey;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.keys.EllipticCurves;
+
+/**
+ * An immutable set of keys retrieved from a JWKS endpoint, along with the
+ * times that the keys were retrieved and that they should be considered
+ * expired. Keys having a key ID are additionally indexed by that key ID and
+ * each signature algorithm they may be used with, such that the key
+ * referenced by a token can be found without searching the entire set.
+ *
+ * @author Michael Jumper
+ */
+public class KeySet {
+
+    /**
+     * The keys within this set.
+     */
+    private final List<JsonWebKey> keys;
+
+    /**
+     * The time that this set of keys was retrieved, in milliseconds since
+     * midnight of January 1, 1970 UTC.
+     */
+    private final long retrieved;
+
+    /**
+     * The time after which this set of keys should be considered expired, in
+     * milliseconds since midnight of January 1, 1970 UTC.
+     */
+    private final long expires;
+
+    /**
+     * The already-parsed public key of each key within this set which has a
+     * key ID and may be used to verify signatures, keyed by the value
+     * returned by getIndexKey() for that key ID and each signature algorithm
+     * the key may be used with. If multiple keys share the same key ID and
+     * algorithm, only the first such key is indexed. This map is never
+     * modified after the KeySet is created.
+     */
+    private final Map<String, Key> index;
+
+    /**
+     * The signature algorithms which may be used with RSA keys that do not
+     * specify an algorithm.
+     */
+    private static final String[] RSA_ALGORITHMS = {
+        AlgorithmIdentifiers.RSA_USING_SHA256,
+        AlgorithmIdentifiers.RSA_USING_SHA384,
+        AlgorithmIdentifiers.RSA_USING_SHA512,
+        AlgorithmIdentifiers.RSA_PSS_USING_SHA256,
+        AlgorithmIdentifiers.RSA_PSS_USING_SHA384,
+        AlgorithmIdentifiers.RSA_PSS_USING_SHA512
+    };
+
+    /**
+     * Creates a new KeySet containing the given keys.
+     *
+     * @param keys
+     *     The keys which should be contained within this set.
+     *
+     * @param retrieved
+     *     The time that the keys were retrieved, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     *
+     * @param expires
+     *     The time after which the keys should be considered expired, in
+     *     milliseconds since midnight of January 1, 1970 UTC.
+     */
+    public KeySet(List<JsonWebKey> keys, long retrieved, long expires) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.retrieved = retrieved;
+        this.expires = expires;
+        this.index = buildIndex(keys);
+    }
+
+    /**
+     * Returns the key under which the key having the given key ID should be
+     * indexed for use with the given signature algorithm.
+     *
+     * @param keyID
+     *     The key ID of the key.
+     *
+     * @param algorithm
+     *     The JWS signature algorithm, such as "RS256".
+     *
+     * @return
+     *     The key under which the key should be indexed.
+     */
+    private static String getIndexKey(String keyID, String algorithm) {
+        return algorithm + " " + keyID;
+    }
+
+    /**
+     * Returns the signature algorithms which the given key may be used to
+     * verify. If the key specifies its own algorithm, only that algorithm is
+     * returned. Otherwise, the algorithms are derived from the type of the
+     * key and, for elliptic curve keys, the curve of the key.
+     *
+     * @param jwk
+     *     The key to inspect.
+     *
+     * @return
+     *     The signature algorithms which the given key may be used to verify,
+     *     which may be empty.
+     */
+    private static String[] getAlgorithms(JsonWebKey jwk) {
+
+        // Respect any algorithm specified by the key itself
+        String algorithm = jwk.getAlgorithm();
+        if (algorithm != null)
+            return new String[] { algorithm };
+
+        if (jwk instanceof RsaJsonWebKey)
+            return RSA_ALGORITHMS;
+
+        // Elliptic curve keys may each be used with exactly one algorithm
+        if (jwk instanceof EllipticCurveJsonWebKey) {
+            String curve = ((EllipticCurveJsonWebKey) jwk).getCurveName();
+            if (EllipticCurves.P_256.equals(curve))
+                return new String[] { AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256 };
+            if (EllipticCurves.P_384.equals(curve))
+                return new String[] { AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384 };
+            if (EllipticCurves.P_521.equals(curve))
+                return new String[] { AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512 };
+        }
+
+        return new String[0];
+
+    }
+
+    /**
+     * Indexes the given keys by key ID and signature algorithm, as described
+     * for the index field. Keys lacking a key ID, and keys which are
+     * explicitly restricted to uses other than signature verification, are
+     * not indexed.
+     *
+     * @param keys
+     *     The keys to index.
+     *
+     * @return
+     *     A new map of each indexed key, keyed by the value returned by
+     *     getIndexKey().
+     */
+    private static Map<String, Key> buildIndex(List<JsonWebKey> keys) {
+
+        Map<String, Key> index = new HashMap<String, Key>();
+        for (JsonWebKey jwk : keys) {
+
+            String keyID = jwk.getKeyId();
+            if (keyID == null || jwk.getKey() == null)
+                continue;
+
+            // Skip keys which are not for verifying signatures
+            String use = jwk.getUse();
+            if (use != null && !use.equals("sig"))
+                continue;
+
+            List<String> operations = jwk.getKeyOps();
+            if (operations != null && !operations.contains("verify"))
+                continue;
+
+            for (String algorithm : getAlgorithms(jwk)) {
+                String indexKey = getIndexKey(keyID, algorithm);
+                if (!index.containsKey(indexKey))
+                    index.put(indexKey, jwk.getKey());
+            }
+
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Returns an unmodifiable list of all keys within this set.
+     *
+     * @return
+     *     An unmodifiable list of all keys within this set.
+     */
+    public List<JsonWebKey> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the already-parsed public key having the given key ID which may
+     * be used with the given signature algorithm, if such a key has been
+     * indexed. Keys which have not been indexed may still be found by
+     * searching the list returned by getKeys().
+     *
+     * @param keyID
+     *     The key ID of the desired key.
+     *
+     * @param algorithm
+     *     The JWS signature algorithm which the key will be used to verify,
+     *     such as "RS256".
+     *
+     * @return
+     *     The public key having the given key ID which may be used with the
+     *     given algorithm, or null if no such key has been indexed.
+     */
+    public Key getKey(String keyID, String algorithm) {
+        return index.get(getIndexKey(keyID, algorithm));
+    }
+
+    /**
+     * Returns the time that this set of keys was retrieved.
+     *
+     * @return
+     *     The time that this set of keys was retrieved, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     */
+    public long getRetrieved() {
+        return retrieved;
+    }
+
+    /**
+     * Returns the time after which this set of keys should be considered
+     * expired.
+     *
+     * @return
+     *     The time after which this set of keys should be considered expired,
+     *     in milliseconds since midnight of January 1, 1970 UTC.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+}
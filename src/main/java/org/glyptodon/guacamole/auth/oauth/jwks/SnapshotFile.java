@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.lang.JoseException;
+
+/**
+ * A local file containing the last set of keys successfully retrieved from a
+ * JWKS endpoint, allowing tokens to be verified immediately upon startup,
+ * even if the JWKS endpoint is temporarily unreachable. The file is a JWKS
+ * containing only public keys, with additional members noting the endpoint
+ * and time that the keys were retrieved.
+ *
+ * @author Michael Jumper
+ */
+public class SnapshotFile {
+
+    /**
+     * The name of the JSON member containing the endpoint (URI) of the JWKS
+     * service from which the keys were retrieved.
+     */
+    private static final String ENDPOINT_MEMBER_NAME = "endpoint";
+
+    /**
+     * The name of the JSON member containing the time that the keys were
+     * retrieved, in milliseconds since midnight of January 1, 1970 UTC.
+     */
+    private static final String RETRIEVED_MEMBER_NAME = "retrieved";
+
+    /**
+     * The file containing the snapshot.
+     */
+    private final File file;
+
+    /**
+     * Creates a new SnapshotFile which reads and writes snapshots using the
+     * given file.
+     *
+     * @param file
+     *     The file containing the snapshot.
+     */
+    public SnapshotFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file containing the snapshot.
+     *
+     * @return
+     *     The file containing the snapshot.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the entire contents of the snapshot file as a UTF-8 string.
+     *
+     * @return
+     *     The entire contents of the snapshot file.
+     *
+     * @throws IOException
+     *     If an error occurs while reading the snapshot file.
+     */
+    private String read() throws IOException {
+
+        InputStream input = new FileInputStream(file);
+        try {
+
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+
+            int length;
+            while ((length = input.read(buffer)) != -1)
+                contents.write(buffer, 0, length);
+
+            return contents.toString("UTF-8");
+
+        }
+        finally {
+            input.close();
+        }
+
+    }
+
+    /**
+     * Loads the set of keys stored within the snapshot file, if those keys
+     * were retrieved from the given endpoint. The loaded keys are considered
+     * expired as of the time they are loaded, and thus will be refreshed upon
+     * first use.
+     *
+     * @param endpoint
+     *     The endpoint (URI) of the JWKS service from which the keys must have
+     *     been retrieved.
+     *
+     * @return
+     *     The set of keys stored within the snapshot file, or null if the
+     *     snapshot file does not exist or contains keys from a different
+     *     endpoint.
+     *
+     * @throws JoseException
+     *     If the snapshot file cannot be parsed.
+     *
+     * @throws IOException
+     *     If an error occurs while reading the snapshot file.
+     */
+    public KeySet load(String endpoint) throws JoseException, IOException {
+
+        // There is nothing to load if no snapshot has been saved
+        if (!file.exists())
+            return null;
+
+        String json = read();
+
+        // Ignore snapshots of other endpoints
+        Map<String, Object> snapshot = JsonUtil.parseJson(json);
+        if (!endpoint.equals(snapshot.get(ENDPOINT_MEMBER_NAME)))
+            return null;
+
+        // Pull retrieval time from snapshot, if present
+        long retrieved = 0;
+        Object retrievedValue = snapshot.get(RETRIEVED_MEMBER_NAME);
+        if (retrievedValue instanceof Number)
+            retrieved = ((Number) retrievedValue).longValue();
+
+        JsonWebKeySet jwks = new JsonWebKeySet(json);
+        return new KeySet(jwks.getJsonWebKeys(), retrieved,
+                System.currentTimeMillis());
+
+    }
+
+    /**
+     * Replaces the contents of the snapshot file with the given set of keys.
+     * The snapshot is first written to a temporary file which then replaces
+     * the snapshot file, such that a partially-written snapshot is never
+     * read.
+     *
+     * @param endpoint
+     *     The endpoint (URI) of the JWKS service from which the keys were
+     *     retrieved.
+     *
+     * @param keys
+     *     The set of keys to store within the snapshot file.
+     *
+     * @throws IOException
+     *     If an error occurs while writing the snapshot file.
+     */
+    public void save(String endpoint, KeySet keys) throws IOException {
+
+        // Include only public portions of keys
+        List<Map<String, Object>> keyParams = new ArrayList<Map<String, Object>>();
+        for (JsonWebKey key : keys.getKeys())
+            keyParams.add(key.toParams(JsonWebKey.OutputControlLevel.PUBLIC_ONLY));
+
+        Map<String, Object> snapshot = new HashMap<String, Object>();
+        snapshot.put(ENDPOINT_MEMBER_NAME, endpoint);
+        snapshot.put(RETRIEVED_MEMBER_NAME, keys.getRetrieved());
+        snapshot.put(JsonWebKeySet.JWK_SET_MEMBER_NAME, keyParams);
+
+        // Write snapshot to temporary file
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(JsonUtil.toJson(snapshot).getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+
+        // Replace snapshot with temporary file
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file))
+                throw new IOException("Unable to replace \"" + file + "\".");
+        }
+
+    }
+
+}
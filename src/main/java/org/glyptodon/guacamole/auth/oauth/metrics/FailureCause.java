@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * The reasons that a login attempt using an ID token may fail.
+ *
+ * @author Michael Jumper
+ */
+public enum FailureCause {
+
+    /**
+     * The signature of the ID token did not verify against the key it
+     * referenced.
+     */
+    INVALID_SIGNATURE("invalid signature"),
+
+    /**
+     * The key referenced by the ID token could not be found within the JWKS,
+     * or the JWKS could not be retrieved.
+     */
+    UNAVAILABLE_KEY("unavailable key"),
+
+    /**
+     * The ID token was malformed, expired, or had the wrong issuer or
+     * audience.
+     */
+    INVALID_TOKEN("invalid token"),
+
+    /**
+     * The ID token was valid but lacked the username claim.
+     */
+    MISSING_USERNAME("missing username"),
+
+    /**
+     * The login could not be processed in time because too many other logins
+     * were already in progress.
+     */
+    OVERLOADED("overloaded"),
+
+    /**
+     * The login did not return a nonce issued for a pending login, such as
+     * when a token is replayed or was obtained for a different login.
+     */
+    REPLAYED("replayed"),
+
+    /**
+     * The login was refused because the client address or user had already
+     * attempted too many logins within a short period of time.
+     */
+    RATE_LIMITED("rate limited"),
+
+    /**
+     * Any other error, such as a problem with guacamole.properties.
+     */
+    ERROR("error");
+
+    /**
+     * The human-readable name of this cause, as used within log messages.
+     */
+    private final String description;
+
+    /**
+     * Creates a new FailureCause having the given human-readable name.
+     *
+     * @param description
+     *     The human-readable name of this cause, as used within log messages.
+     */
+    private FailureCause(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Returns the human-readable name of this cause, as used within log
+     * messages.
+     *
+     * @return
+     *     The human-readable name of this cause.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+}
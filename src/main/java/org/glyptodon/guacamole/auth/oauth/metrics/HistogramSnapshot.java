@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * Immutable copy of the contents of a LatencyHistogram at a particular point
+ * in time, or of the difference between two such copies. All latencies
+ * returned by a HistogramSnapshot are in milliseconds.
+ *
+ * @author Michael Jumper
+ */
+public class HistogramSnapshot {
+
+    /**
+     * A snapshot containing no latencies.
+     */
+    public static final HistogramSnapshot EMPTY =
+            new HistogramSnapshot(new long[LatencyHistogram.BUCKETS], 0);
+
+    /**
+     * The number of latencies within each bucket.
+     */
+    private final long[] counts;
+
+    /**
+     * The total number of latencies.
+     */
+    private final long count;
+
+    /**
+     * The sum of all latencies, in nanoseconds.
+     */
+    private final long sum;
+
+    /**
+     * Creates a new HistogramSnapshot containing the given bucket counts. The
+     * given array is used as-is and must not be modified.
+     *
+     * @param counts
+     *     The number of latencies within each bucket.
+     *
+     * @param sum
+     *     The sum of all latencies, in nanoseconds.
+     */
+    HistogramSnapshot(long[] counts, long sum) {
+
+        long total = 0;
+        for (long bucketCount : counts)
+            total += bucketCount;
+
+        this.counts = counts;
+        this.count = total;
+        this.sum = sum;
+
+    }
+
+    /**
+     * Returns a snapshot of only those latencies which were recorded after
+     * the given, earlier snapshot of the same histogram was taken.
+     *
+     * @param earlier
+     *     An earlier snapshot of the same histogram.
+     *
+     * @return
+     *     A snapshot of the latencies recorded since the given snapshot.
+     */
+    public HistogramSnapshot since(HistogramSnapshot earlier) {
+
+        long[] difference = new long[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            difference[i] = counts[i] - earlier.counts[i];
+
+        return new HistogramSnapshot(difference, sum - earlier.sum);
+
+    }
+
+    /**
+     * Returns the number of latencies within this snapshot.
+     *
+     * @return
+     *     The number of latencies within this snapshot.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean latency, in milliseconds.
+     *
+     * @return
+     *     The mean latency in milliseconds, or zero if this snapshot is empty.
+     */
+    public double getMean() {
+
+        if (count == 0)
+            return 0;
+
+        return sum / (count * 1000000.0);
+
+    }
+
+    /**
+     * Returns the latency at the given quantile, in milliseconds. The value
+     * returned is the midpoint of the bucket containing that latency.
+     *
+     * @param quantile
+     *     The quantile to return, between 0 and 1 inclusive. For example, the
+     *     99th percentile is the quantile 0.99.
+     *
+     * @return
+     *     The latency at the given quantile in milliseconds, or zero if this
+     *     snapshot is empty.
+     */
+    public double getQuantile(double quantile) {
+
+        if (count == 0)
+            return 0;
+
+        // Find the bucket containing the requested rank
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return (LatencyHistogram.getLowerBound(i)
+                        + LatencyHistogram.getWidth(i) / 2.0) / 1000.0;
+        }
+
+        // Unreachable unless counts changed
+        return 0;
+
+    }
+
+    /**
+     * Returns the largest latency within this snapshot, in milliseconds, to
+     * the precision of the histogram.
+     *
+     * @return
+     *     The largest latency in milliseconds, or zero if this snapshot is
+     *     empty.
+     */
+    public double getMax() {
+        return getQuantile(1.0);
+    }
+
+}
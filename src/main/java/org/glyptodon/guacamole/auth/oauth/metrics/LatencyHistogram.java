@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with logarithmically-spaced buckets.
+ * Latencies are tracked in microseconds. Each power of two is divided into
+ * eight linearly-spaced buckets, such that every recorded latency is
+ * represented with an error of no more than 12.5%. Recording a latency costs
+ * only two atomic additions, and is thus suitable for use on every login.
+ *
+ * @author Michael Jumper
+ */
+public class LatencyHistogram {
+
+    /**
+     * The base-2 logarithm of the number of buckets within each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets within each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The total number of buckets. Latencies of up to roughly 2^38
+     * microseconds (about three days) are represented exactly; anything
+     * larger is recorded in the last bucket.
+     */
+    static final int BUCKETS = 36 * SUB_BUCKETS;
+
+    /**
+     * The number of latencies recorded within each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The sum of all recorded latencies, in nanoseconds.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Returns the index of the bucket containing the given latency.
+     *
+     * @param micros
+     *     The latency, in microseconds.
+     *
+     * @return
+     *     The index of the bucket containing the given latency.
+     */
+    static int getBucket(long micros) {
+
+        // Small values are represented exactly
+        if (micros < SUB_BUCKETS)
+            return (int) Math.max(micros, 0);
+
+        // Larger values are grouped by power of two, then by the bits
+        // immediately following the most significant bit
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int bucket = (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+        return Math.min(bucket, BUCKETS - 1);
+
+    }
+
+    /**
+     * Returns the smallest latency, in microseconds, within the given bucket.
+     *
+     * @param bucket
+     *     The index of the bucket.
+     *
+     * @return
+     *     The smallest latency within the given bucket, in microseconds.
+     */
+    static long getLowerBound(int bucket) {
+
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+    }
+
+    /**
+     * Returns the width, in microseconds, of the given bucket.
+     *
+     * @param bucket
+     *     The index of the bucket.
+     *
+     * @return
+     *     The width of the given bucket, in microseconds.
+     */
+    static long getWidth(int bucket) {
+
+        if (bucket < SUB_BUCKETS)
+            return 1;
+
+        return 1L << (bucket / SUB_BUCKETS - 1);
+
+    }
+
+    /**
+     * Records the given latency.
+     *
+     * @param nanos
+     *     The latency to record, in nanoseconds.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(getBucket(nanos / 1000));
+        sum.addAndGet(nanos);
+    }
+
+    /**
+     * Returns a point-in-time copy of all latencies recorded thus far.
+     * Latencies recorded concurrently with the copy may or may not be
+     * included.
+     *
+     * @return
+     *     A snapshot of all latencies recorded thus far.
+     */
+    public HistogramSnapshot snapshot() {
+
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+
+        return new HistogramSnapshot(copy, sum.get());
+
+    }
+
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and latency histograms describing all login attempts. Once
+ * started, these metrics are published as JMX MBeans within the
+ * "org.glyptodon.guacamole.auth.oauth" domain and, if enabled within
+ * guacamole.properties, summarized periodically within the log.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class LoginMetrics implements LoginMetricsMBean {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(LoginMetrics.class);
+
+    /**
+     * The JMX domain of all MBeans published by this extension.
+     */
+    public static final String DOMAIN = "org.glyptodon.guacamole.auth.oauth";
+
+    /**
+     * The duration of each measurement window, in milliseconds. The
+     * percentiles published via JMX cover only the most recent completed
+     * window.
+     */
+    private static final long WINDOW_DURATION = 60000;
+
+    /**
+     * The amount of time to wait, in milliseconds, before checking again
+     * whether periodic summaries have been enabled.
+     */
+    private static final long LOG_CHECK_INTERVAL = 60000;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Executor which maintains measurement windows and logs summaries.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * The latencies of each stage of the login process.
+     */
+    private final Map<Stage, LatencyHistogram> histograms =
+            new EnumMap<Stage, LatencyHistogram>(Stage.class);
+
+    /**
+     * The latencies of each stage during the most recent completed
+     * measurement window. The map is replaced as a whole at the end of each
+     * window and is never modified.
+     */
+    private volatile Map<Stage, HistogramSnapshot> recent =
+            new EnumMap<Stage, HistogramSnapshot>(Stage.class);
+
+    /**
+     * The full contents of each histogram at the start of the current
+     * measurement window. Accessed only by the executor.
+     */
+    private Map<Stage, HistogramSnapshot> windowStart;
+
+    /**
+     * The full contents of each histogram when the last summary was logged.
+     * Accessed only by the executor.
+     */
+    private Map<Stage, HistogramSnapshot> lastSummary;
+
+    /**
+     * The number of successful logins.
+     */
+    private final AtomicLong successes = new AtomicLong();
+
+    /**
+     * The number of failed logins, by cause.
+     */
+    private final Map<FailureCause, AtomicLong> failures =
+            new EnumMap<FailureCause, AtomicLong>(FailureCause.class);
+
+    /**
+     * The number of failed logins, by cause, when the last summary was
+     * logged. Accessed only by the executor.
+     */
+    private final Map<FailureCause, Long> lastSummaryFailures =
+            new EnumMap<FailureCause, Long>(FailureCause.class);
+
+    /**
+     * The number of successful logins when the last summary was logged.
+     * Accessed only by the executor.
+     */
+    private long lastSummarySuccesses;
+
+    /**
+     * The number of requests redirected to the OAuth service due to lack of
+     * an ID token.
+     */
+    private final AtomicLong credentialsRequested = new AtomicLong();
+
+    /**
+     * The number of ID tokens whose validation result was served from the
+     * token cache.
+     */
+    private final AtomicLong tokenCacheHits = new AtomicLong();
+
+    /**
+     * The number of ID tokens rejected immediately because they had recently
+     * failed validation.
+     */
+    private final AtomicLong negativeCacheHits = new AtomicLong();
+
+    /**
+     * The number of ID tokens which had not recently failed validation, and
+     * thus were fully validated.
+     */
+    private final AtomicLong negativeCacheMisses = new AtomicLong();
+
+    /**
+     * The number of key lookups rejected immediately because the requested
+     * key ID had recently been found to be missing from the JWKS.
+     */
+    private final AtomicLong unknownKeyCacheHits = new AtomicLong();
+
+    /**
+     * The number of key lookups for key IDs absent from the JWKS which had
+     * not recently been found to be missing, and thus required the JWKS to be
+     * retrieved again.
+     */
+    private final AtomicLong unknownKeyCacheMisses = new AtomicLong();
+
+    /**
+     * Creates a new, empty set of login metrics.
+     */
+    public LoginMetrics() {
+
+        for (Stage stage : Stage.values())
+            histograms.put(stage, new LatencyHistogram());
+
+        for (FailureCause cause : FailureCause.values())
+            failures.put(cause, new AtomicLong());
+
+    }
+
+    /**
+     * Returns a snapshot of the full contents of every histogram.
+     *
+     * @return
+     *     A snapshot of the full contents of every histogram.
+     */
+    private Map<Stage, HistogramSnapshot> snapshot() {
+
+        Map<Stage, HistogramSnapshot> snapshots =
+                new EnumMap<Stage, HistogramSnapshot>(Stage.class);
+
+        for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet())
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+
+        return snapshots;
+
+    }
+
+    /**
+     * Returns the latencies recorded by each stage since the given snapshot
+     * was taken.
+     *
+     * @param earlier
+     *     An earlier snapshot of every histogram.
+     *
+     * @param current
+     *     A current snapshot of every histogram.
+     *
+     * @return
+     *     The latencies recorded by each stage between the two snapshots.
+     */
+    private static Map<Stage, HistogramSnapshot> since(
+            Map<Stage, HistogramSnapshot> earlier,
+            Map<Stage, HistogramSnapshot> current) {
+
+        Map<Stage, HistogramSnapshot> difference =
+                new EnumMap<Stage, HistogramSnapshot>(Stage.class);
+
+        for (Map.Entry<Stage, HistogramSnapshot> entry : current.entrySet())
+            difference.put(entry.getKey(), entry.getValue().since(earlier.get(entry.getKey())));
+
+        return difference;
+
+    }
+
+    /**
+     * Publishes the given MBean under the given name, replacing any MBean
+     * previously published under that name (such as by an earlier instance
+     * of this extension which was not cleanly unloaded).
+     *
+     * @param server
+     *     The MBean server to publish the MBean within.
+     *
+     * @param mbean
+     *     The MBean to publish.
+     *
+     * @param name
+     *     The name to publish the MBean under.
+     *
+     * @throws JMException
+     *     If the MBean cannot be published.
+     */
+    public static void register(MBeanServer server, Object mbean,
+            String name) throws JMException {
+
+        ObjectName objectName = new ObjectName(name);
+        try {
+            server.registerMBean(mbean, objectName);
+        }
+        catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+        }
+
+    }
+
+    /**
+     * Publishes all metrics via JMX and begins maintaining measurement
+     * windows and logging periodic summaries. This function should be
+     * invoked only once.
+     */
+    public void start() {
+
+        // Publish metrics via JMX
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, this, DOMAIN + ":type=LoginMetrics");
+            for (Stage stage : Stage.values())
+                register(server, new StageLatency(this, stage),
+                        DOMAIN + ":type=StageLatency,name=" + stage.getObjectName());
+        }
+        catch (JMException e) {
+            logger.warn("Unable to publish login metrics via JMX: {}", e.getMessage());
+            logger.debug("Unable to publish login metrics via JMX.", e);
+        }
+
+        windowStart = snapshot();
+        lastSummary = windowStart;
+        for (FailureCause cause : FailureCause.values())
+            lastSummaryFailures.put(cause, 0L);
+
+        // Close each measurement window at regular intervals
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                Map<Stage, HistogramSnapshot> current = snapshot();
+                recent = since(windowStart, current);
+                windowStart = current;
+            }
+
+        }, WINDOW_DURATION, WINDOW_DURATION, TimeUnit.MILLISECONDS);
+
+        scheduleSummary(LOG_CHECK_INTERVAL);
+
+    }
+
+    /**
+     * Schedules the next periodic summary, logging the summary only if
+     * summaries are enabled at that time. The interval is read from the
+     * configuration again after each summary, such that changes to
+     * guacamole.properties take effect without restarting.
+     *
+     * @param delay
+     *     The number of milliseconds to wait before logging the summary.
+     */
+    private void scheduleSummary(long delay) {
+
+        executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+
+                int interval = 0;
+                try {
+                    interval = confService.getMetricsLogInterval();
+                    if (interval > 0)
+                        logSummary();
+                }
+                catch (GuacamoleException e) {
+                    logger.debug("Unable to read interval for login metric summaries.", e);
+                }
+                finally {
+                    scheduleSummary(interval > 0 ? interval * 1000L : LOG_CHECK_INTERVAL);
+                }
+
+            }
+
+        }, delay, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Logs a summary of all logins since the last summary was logged. If
+     * there have been no logins since the last summary, nothing is logged.
+     */
+    private void logSummary() {
+
+        Map<Stage, HistogramSnapshot> current = snapshot();
+        Map<Stage, HistogramSnapshot> interval = since(lastSummary, current);
+        lastSummary = current;
+
+        // Count outcomes since last summary
+        long succeeded = successes.get();
+        StringBuilder failureSummary = new StringBuilder();
+        long failed = 0;
+        for (FailureCause cause : FailureCause.values()) {
+
+            long total = failures.get(cause).get();
+            long count = total - lastSummaryFailures.put(cause, total);
+            failed += count;
+
+            if (count > 0) {
+                failureSummary.append(failureSummary.length() == 0 ? " (" : ", ");
+                failureSummary.append(cause.getDescription()).append(": ").append(count);
+            }
+
+        }
+
+        // Do not log summaries for idle intervals
+        long succeededSinceLast = succeeded - lastSummarySuccesses;
+        lastSummarySuccesses = succeeded;
+        if (succeededSinceLast == 0 && failed == 0)
+            return;
+
+        if (failureSummary.length() > 0)
+            failureSummary.append(')');
+
+        // Summarize latency of each stage
+        StringBuilder latencySummary = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            HistogramSnapshot latency = interval.get(stage);
+            if (latency.getCount() > 0)
+                latencySummary.append(String.format("; %s p50=%.1fms p99=%.1fms max=%.1fms",
+                        stage.getDescription(), latency.getQuantile(0.5),
+                        latency.getQuantile(0.99), latency.getMax()));
+        }
+
+        logger.info("OAuth logins: {} succeeded, {} failed{}{}",
+                succeededSinceLast, failed, failureSummary, latencySummary);
+
+    }
+
+    /**
+     * Records the latency of a single occurrence of the given stage.
+     *
+     * @param stage
+     *     The stage whose latency is being recorded.
+     *
+     * @param nanos
+     *     The latency of the stage, in nanoseconds.
+     */
+    public void recordLatency(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /**
+     * Records a successful login.
+     */
+    public void recordSuccess() {
+        successes.incrementAndGet();
+    }
+
+    /**
+     * Records a failed login.
+     *
+     * @param cause
+     *     The reason the login failed.
+     */
+    public void recordFailure(FailureCause cause) {
+        failures.get(cause).incrementAndGet();
+    }
+
+    /**
+     * Records that a request lacked an ID token and was thus redirected to
+     * the OAuth service.
+     */
+    public void recordCredentialsRequested() {
+        credentialsRequested.incrementAndGet();
+    }
+
+    /**
+     * Records that the validation result of an ID token was served from the
+     * token cache.
+     */
+    public void recordTokenCacheHit() {
+        tokenCacheHits.incrementAndGet();
+    }
+
+    /**
+     * Records that an ID token was rejected immediately because it had
+     * recently failed validation.
+     */
+    public void recordNegativeCacheHit() {
+        negativeCacheHits.incrementAndGet();
+    }
+
+    /**
+     * Records that an ID token had not recently failed validation, and thus
+     * was fully validated.
+     */
+    public void recordNegativeCacheMiss() {
+        negativeCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Records that a key lookup was rejected immediately because the
+     * requested key ID had recently been found to be missing from the JWKS.
+     */
+    public void recordUnknownKeyCacheHit() {
+        unknownKeyCacheHits.incrementAndGet();
+    }
+
+    /**
+     * Records that a key lookup requested a key ID which is absent from the
+     * JWKS but had not recently been found to be missing, and thus required
+     * the JWKS to be retrieved again.
+     */
+    public void recordUnknownKeyCacheMiss() {
+        unknownKeyCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Returns all latencies recorded for the given stage since the extension
+     * was loaded.
+     *
+     * @param stage
+     *     The stage whose latencies should be returned.
+     *
+     * @return
+     *     All latencies recorded for the given stage.
+     */
+    public HistogramSnapshot getTotal(Stage stage) {
+        return histograms.get(stage).snapshot();
+    }
+
+    /**
+     * Returns the latencies recorded for the given stage during the most
+     * recent completed measurement window.
+     *
+     * @param stage
+     *     The stage whose latencies should be returned.
+     *
+     * @return
+     *     The latencies recorded for the given stage during the most recent
+     *     completed measurement window.
+     */
+    public HistogramSnapshot getRecent(Stage stage) {
+        HistogramSnapshot snapshot = recent.get(stage);
+        return snapshot != null ? snapshot : HistogramSnapshot.EMPTY;
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    @Override
+    public long getFailures() {
+
+        long total = 0;
+        for (AtomicLong count : failures.values())
+            total += count.get();
+
+        return total;
+
+    }
+
+    @Override
+    public long getInvalidSignatureFailures() {
+        return failures.get(FailureCause.INVALID_SIGNATURE).get();
+    }
+
+    @Override
+    public long getUnavailableKeyFailures() {
+        return failures.get(FailureCause.UNAVAILABLE_KEY).get();
+    }
+
+    @Override
+    public long getInvalidTokenFailures() {
+        return failures.get(FailureCause.INVALID_TOKEN).get();
+    }
+
+    @Override
+    public long getMissingUsernameFailures() {
+        return failures.get(FailureCause.MISSING_USERNAME).get();
+    }
+
+    @Override
+    public long getOverloadedFailures() {
+        return failures.get(FailureCause.OVERLOADED).get();
+    }
+
+    @Override
+    public long getReplayedFailures() {
+        return failures.get(FailureCause.REPLAYED).get();
+    }
+
+    @Override
+    public long getRateLimitedFailures() {
+        return failures.get(FailureCause.RATE_LIMITED).get();
+    }
+
+    @Override
+    public long getErrorFailures() {
+        return failures.get(FailureCause.ERROR).get();
+    }
+
+    @Override
+    public long getCredentialsRequested() {
+        return credentialsRequested.get();
+    }
+
+    @Override
+    public long getTokenCacheHits() {
+        return tokenCacheHits.get();
+    }
+
+    @Override
+    public long getNegativeCacheHits() {
+        return negativeCacheHits.get();
+    }
+
+    @Override
+    public long getNegativeCacheMisses() {
+        return negativeCacheMisses.get();
+    }
+
+    @Override
+    public long getUnknownKeyCacheHits() {
+        return unknownKeyCacheHits.get();
+    }
+
+    @Override
+    public long getUnknownKeyCacheMisses() {
+        return unknownKeyCacheMisses.get();
+    }
+
+}
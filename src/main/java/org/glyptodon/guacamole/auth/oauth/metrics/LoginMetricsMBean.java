@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * JMX view of the outcomes of all login attempts since the extension was
+ * loaded.
+ *
+ * @author Michael Jumper
+ */
+public interface LoginMetricsMBean {
+
+    /**
+     * Returns the number of successful logins.
+     *
+     * @return
+     *     The number of successful logins.
+     */
+    long getSuccesses();
+
+    /**
+     * Returns the number of failed logins, regardless of cause.
+     *
+     * @return
+     *     The number of failed logins.
+     */
+    long getFailures();
+
+    /**
+     * Returns the number of logins which failed because the signature of the
+     * ID token was invalid.
+     *
+     * @return
+     *     The number of logins which failed due to an invalid signature.
+     */
+    long getInvalidSignatureFailures();
+
+    /**
+     * Returns the number of logins which failed because the key referenced
+     * by the ID token could not be obtained.
+     *
+     * @return
+     *     The number of logins which failed due to an unavailable key.
+     */
+    long getUnavailableKeyFailures();
+
+    /**
+     * Returns the number of logins which failed because the ID token was
+     * malformed, expired, or had the wrong issuer or audience.
+     *
+     * @return
+     *     The number of logins which failed due to an invalid token.
+     */
+    long getInvalidTokenFailures();
+
+    /**
+     * Returns the number of logins which failed because the ID token lacked
+     * the username claim.
+     *
+     * @return
+     *     The number of logins which failed due to a missing username.
+     */
+    long getMissingUsernameFailures();
+
+    /**
+     * Returns the number of logins which were rejected because too many other
+     * logins were already in progress.
+     *
+     * @return
+     *     The number of logins rejected due to load.
+     */
+    long getOverloadedFailures();
+
+    /**
+     * Returns the number of logins which were rejected because they did not
+     * return the nonce of a pending login, such as replayed tokens.
+     *
+     * @return
+     *     The number of logins rejected as replays.
+     */
+    long getReplayedFailures();
+
+    /**
+     * Returns the number of logins which were refused because the client
+     * address or user exceeded their rate limit.
+     *
+     * @return
+     *     The number of logins refused due to rate limiting.
+     */
+    long getRateLimitedFailures();
+
+    /**
+     * Returns the number of logins which failed due to any other error.
+     *
+     * @return
+     *     The number of logins which failed due to any other error.
+     */
+    long getErrorFailures();
+
+    /**
+     * Returns the number of requests which lacked an ID token and were thus
+     * redirected to the OAuth service.
+     *
+     * @return
+     *     The number of requests redirected to the OAuth service.
+     */
+    long getCredentialsRequested();
+
+    /**
+     * Returns the number of ID tokens whose validation result was served from
+     * the token cache.
+     *
+     * @return
+     *     The number of token cache hits.
+     */
+    long getTokenCacheHits();
+
+    /**
+     * Returns the number of ID tokens rejected immediately because they had
+     * recently failed validation.
+     *
+     * @return
+     *     The number of negative cache hits.
+     */
+    long getNegativeCacheHits();
+
+    /**
+     * Returns the number of ID tokens which had not recently failed
+     * validation, and thus were fully validated.
+     *
+     * @return
+     *     The number of negative cache misses.
+     */
+    long getNegativeCacheMisses();
+
+    /**
+     * Returns the number of key lookups rejected immediately because the
+     * requested key ID had recently been found to be missing from the JWKS.
+     *
+     * @return
+     *     The number of unknown key cache hits.
+     */
+    long getUnknownKeyCacheHits();
+
+    /**
+     * Returns the number of key lookups for key IDs absent from the JWKS
+     * which had not recently been found to be missing, and thus required the
+     * JWKS to be retrieved again.
+     *
+     * @return
+     *     The number of unknown key cache misses.
+     */
+    long getUnknownKeyCacheMisses();
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * The stages of the login process whose latency is measured. Each stage
+ * includes the time spent within any stages nested within it.
+ *
+ * @author Michael Jumper
+ */
+public enum Stage {
+
+    /**
+     * The entire login attempt, from receipt of the ID token through to
+     * creation of the authenticated user.
+     */
+    LOGIN("login", "Login"),
+
+    /**
+     * Validation of the ID token, including retrieval of the result from the
+     * token cache.
+     */
+    TOKEN_VALIDATION("validation", "TokenValidation"),
+
+    /**
+     * Full verification of an ID token which was not found within the token
+     * cache, including signature and claim checks.
+     */
+    TOKEN_VERIFICATION("verification", "TokenVerification"),
+
+    /**
+     * Introspection of an access token which was not found within the
+     * introspection cache, including the request to the introspection
+     * endpoint.
+     */
+    TOKEN_INTROSPECTION("introspection", "TokenIntrospection"),
+
+    /**
+     * Exchange of an authorization code for tokens via the token endpoint,
+     * including any time spent waiting for other exchanges to complete.
+     */
+    TOKEN_EXCHANGE("code exchange", "TokenExchange"),
+
+    /**
+     * Recording of a validated ID token within the replay cache, including
+     * any request to storage shared with other servers.
+     */
+    REPLAY_CHECK("replay check", "ReplayCheck"),
+
+    /**
+     * Retrieval of the groups of a user whose token omitted those groups,
+     * including any time spent waiting for the lookups of other users.
+     */
+    GROUP_LOOKUP("group lookup", "GroupLookup"),
+
+    /**
+     * The time spent by a login waiting for the UserInfo of the user,
+     * excluding any part of the request which proceeded in parallel with
+     * other checks.
+     */
+    USERINFO("UserInfo", "UserInfo"),
+
+    /**
+     * Resolution of the key used to verify the signature of an ID token,
+     * including any retrieval of the JWKS.
+     */
+    KEY_RESOLUTION("key resolution", "KeyResolution");
+
+    /**
+     * The human-readable name of this stage, as used within log messages.
+     */
+    private final String description;
+
+    /**
+     * The name of this stage as used within JMX object names.
+     */
+    private final String objectName;
+
+    /**
+     * Creates a new Stage having the given names.
+     *
+     * @param description
+     *     The human-readable name of this stage, as used within log messages.
+     *
+     * @param objectName
+     *     The name of this stage as used within JMX object names.
+     */
+    private Stage(String description, String objectName) {
+        this.description = description;
+        this.objectName = objectName;
+    }
+
+    /**
+     * Returns the human-readable name of this stage, as used within log
+     * messages.
+     *
+     * @return
+     *     The human-readable name of this stage.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the name of this stage as used within JMX object names.
+     *
+     * @return
+     *     The name of this stage as used within JMX object names.
+     */
+    public String getObjectName() {
+        return objectName;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * JMX view of the latency of a single stage of the login process, as
+ * recorded by LoginMetrics.
+ *
+ * @author Michael Jumper
+ */
+public class StageLatency implements StageLatencyMBean {
+
+    /**
+     * The metrics containing the latencies of the stage.
+     */
+    private final LoginMetrics metrics;
+
+    /**
+     * The stage whose latency is exposed.
+     */
+    private final Stage stage;
+
+    /**
+     * Creates a new StageLatency which exposes the latency of the given
+     * stage, as recorded by the given LoginMetrics.
+     *
+     * @param metrics
+     *     The metrics containing the latencies of the stage.
+     *
+     * @param stage
+     *     The stage whose latency should be exposed.
+     */
+    public StageLatency(LoginMetrics metrics, Stage stage) {
+        this.metrics = metrics;
+        this.stage = stage;
+    }
+
+    @Override
+    public long getTotalCount() {
+        return metrics.getTotal(stage).getCount();
+    }
+
+    @Override
+    public long getCount() {
+        return metrics.getRecent(stage).getCount();
+    }
+
+    @Override
+    public double getMean() {
+        return metrics.getRecent(stage).getMean();
+    }
+
+    @Override
+    public double get50thPercentile() {
+        return metrics.getRecent(stage).getQuantile(0.5);
+    }
+
+    @Override
+    public double get90thPercentile() {
+        return metrics.getRecent(stage).getQuantile(0.9);
+    }
+
+    @Override
+    public double get99thPercentile() {
+        return metrics.getRecent(stage).getQuantile(0.99);
+    }
+
+    @Override
+    public double get999thPercentile() {
+        return metrics.getRecent(stage).getQuantile(0.999);
+    }
+
+    @Override
+    public double getMax() {
+        return metrics.getRecent(stage).getMax();
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+/**
+ * JMX view of the latency of a single stage of the login process. Apart from
+ * the total count, all values cover only the most recent completed
+ * measurement window, and are in milliseconds.
+ *
+ * @author Michael Jumper
+ */
+public interface StageLatencyMBean {
+
+    /**
+     * Returns the total number of latencies recorded for this stage since the
+     * extension was loaded.
+     *
+     * @return
+     *     The total number of latencies recorded for this stage.
+     */
+    long getTotalCount();
+
+    /**
+     * Returns the number of latencies recorded during the most recent
+     * measurement window.
+     *
+     * @return
+     *     The number of latencies recorded during the most recent window.
+     */
+    long getCount();
+
+    /**
+     * Returns the mean latency during the most recent measurement window.
+     *
+     * @return
+     *     The mean latency, in milliseconds.
+     */
+    double getMean();
+
+    /**
+     * Returns the median latency during the most recent measurement window.
+     *
+     * @return
+     *     The median latency, in milliseconds.
+     */
+    double get50thPercentile();
+
+    /**
+     * Returns the 90th percentile latency during the most recent measurement
+     * window.
+     *
+     * @return
+     *     The 90th percentile latency, in milliseconds.
+     */
+    double get90thPercentile();
+
+    /**
+     * Returns the 99th percentile latency during the most recent measurement
+     * window.
+     *
+     * @return
+     *     The 99th percentile latency, in milliseconds.
+     */
+    double get99thPercentile();
+
+    /**
+     * Returns the 99.9th percentile latency during the most recent
+     * measurement window.
+     *
+     * @return
+     *     The 99.9th percentile latency, in milliseconds.
+     */
+    double get999thPercentile();
+
+    /**
+     * Returns the largest latency during the most recent measurement window.
+     *
+     * @return
+     *     The largest latency, in milliseconds.
+     */
+    double getMax();
+
+}
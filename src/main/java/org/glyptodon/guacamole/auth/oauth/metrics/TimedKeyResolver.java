@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.metrics;
+
+import java.security.Key;
+import java.util.List;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.jose4j.lang.UnresolvableKeyException;
+
+/**
+ * VerificationKeyResolver which records the latency of each key resolution
+ * performed by another VerificationKeyResolver.
+ *
+ * @author Michael Jumper
+ */
+public class TimedKeyResolver implements VerificationKeyResolver {
+
+    /**
+     * The resolver which actually resolves keys.
+     */
+    private final VerificationKeyResolver resolver;
+
+    /**
+     * The metrics to record key resolution latency within.
+     */
+    private final LoginMetrics metrics;
+
+    /**
+     * Creates a new TimedKeyResolver which records the latency of the given
+     * resolver within the given metrics.
+     *
+     * @param resolver
+     *     The resolver which should actually resolve keys.
+     *
+     * @param metrics
+     *     The metrics to record key resolution latency within.
+     */
+    public TimedKeyResolver(VerificationKeyResolver resolver,
+            LoginMetrics metrics) {
+        this.resolver = resolver;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Key resolveKey(JsonWebSignature jws,
+            List<JsonWebStructure> nestingContext)
+            throws UnresolvableKeyException {
+
+        long start = System.nanoTime();
+        try {
+            return resolver.resolveKey(jws, nestingContext);
+        }
+        finally {
+            metrics.recordLatency(Stage.KEY_RESOLUTION, System.nanoTime() - start);
+        }
+
+    }
+
+}
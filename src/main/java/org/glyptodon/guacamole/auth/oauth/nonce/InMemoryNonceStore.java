@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.nonce;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.GuacamoleException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NonceStore implementation which stores nonces within memory, local to this
+ * Guacamole server. Storing or consuming a nonce is a single operation on a
+ * concurrent hash map, and the number of stored nonces is bounded by the
+ * "oauth-nonce-store-size" property. If the store is full, the oldest pending
+ * nonces are discarded to make room, such that a flood of abandoned logins
+ * can delay legitimate logins only by pushing them out of the store, and can
+ * never cause new logins to be refused.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class InMemoryNonceStore implements NonceStore {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(InMemoryNonceStore.class);
+
+    /**
+     * The initial capacity of the underlying map, sized such that typical
+     * numbers of pending logins do not require the map to be resized.
+     */
+    private static final int INITIAL_CAPACITY = 16384;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * A nonce along with the expiration time with which it was stored.
+     */
+    private static class Entry {
+
+        /**
+         * The stored nonce.
+         */
+        private final String nonce;
+
+        /**
+         * The expiration time of the nonce, in milliseconds since midnight
+         * of January 1, 1970 UTC.
+         */
+        private final Long expires;
+
+        /**
+         * Creates a new Entry representing the given nonce and expiration
+         * time.
+         *
+         * @param nonce
+         *     The stored nonce.
+         *
+         * @param expires
+         *     The expiration time of the nonce, in milliseconds since
+         *     midnight of January 1, 1970 UTC.
+         */
+        public Entry(String nonce, Long expires) {
+            this.nonce = nonce;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * The expiration time of each stored nonce, in milliseconds since
+     * midnight of January 1, 1970 UTC, keyed by the nonce.
+     */
+    private final ConcurrentMap<String, Long> nonces =
+            new ConcurrentHashMap<String, Long>(INITIAL_CAPACITY);
+
+    /**
+     * All stored nonces, in the order they were stored. Nonces which have
+     * since been consumed may remain within this queue until the next sweep,
+     * and are skipped when discarding the oldest nonces.
+     */
+    private final ConcurrentLinkedQueue<Entry> order =
+            new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * The number of nonces currently stored. This is maintained separately
+     * from the map, as the size of a ConcurrentHashMap is not necessarily
+     * cheap to determine.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The number of unexpired nonces discarded to make room for new nonces
+     * since the last sweep.
+     */
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Removes the oldest nonce which is still stored, if any.
+     *
+     * @return
+     *     true if a nonce was removed, false if no nonces are stored.
+     */
+    private boolean removeOldest() {
+
+        Entry entry;
+        while ((entry = order.poll()) != null) {
+            if (nonces.remove(entry.nonce, entry.expires)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    @Override
+    public boolean put(String nonce, long expires) {
+
+        int maxSize;
+        try {
+            maxSize = confService.getNonceStoreSize();
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read maximum number of pending logins: {}", e.getMessage());
+            logger.debug("Unable to read \"oauth-nonce-store-size\".", e);
+            return false;
+        }
+
+        // Nonces are random, but do not count a duplicate nonce twice
+        Long value = expires;
+        if (nonces.put(nonce, value) == null)
+            size.incrementAndGet();
+        order.add(new Entry(nonce, value));
+
+        // Discard the oldest pending logins if the store is now full, rather
+        // than refusing new logins
+        while (size.get() > maxSize && removeOldest())
+            discarded.incrementAndGet();
+
+        return true;
+
+    }
+
+    @Override
+    public boolean consume(String nonce) {
+
+        Long expires = nonces.remove(nonce);
+        if (expires == null)
+            return false;
+
+        size.decrementAndGet();
+        return System.currentTimeMillis() < expires;
+
+    }
+
+    @Override
+    public void sweep() {
+
+        long now = System.currentTimeMillis();
+
+        // Remove expired nonces, along with queue entries for nonces which
+        // have already been consumed, removing only nonces which have not
+        // been concurrently consumed
+        Iterator<Entry> entries = order.iterator();
+        while (entries.hasNext()) {
+
+            Entry entry = entries.next();
+            if (entry.expires <= now) {
+                entries.remove();
+                if (nonces.remove(entry.nonce, entry.expires))
+                    size.decrementAndGet();
+            }
+
+            else if (!entry.expires.equals(nonces.get(entry.nonce)))
+                entries.remove();
+
+        }
+
+        long count = discarded.getAndSet(0);
+        if (count > 0)
+            logger.warn("{} pending login(s) were discarded before expiring, "
+                    + "as the maximum number of pending logins was reached. "
+                    + "Consider increasing \"oauth-nonce-store-size\" or "
+                    + "enabling per-address rate limiting.", count);
+
+    }
+
+
+}
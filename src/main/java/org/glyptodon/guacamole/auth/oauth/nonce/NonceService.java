@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.nonce;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.form.OAuthTokenField;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which issues a nonce for each login and verifies that each nonce
+ * returned by the OAuth service was issued by this service and has not
+ * already been used. Nonces are tracked using the bound NonceStore, such
+ * that pending logins may be shared by multiple Guacamole servers.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class NonceService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(NonceService.class);
+
+    /**
+     * The interval at which expired nonces are removed from the store, in
+     * milliseconds.
+     */
+    private static final long SWEEP_INTERVAL = 30000;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Storage for the nonces of all pending logins.
+     */
+    @Inject
+    private NonceStore store;
+
+    /**
+     * Executor which periodically removes expired nonces.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * Begins periodically removing expired nonces from the store. This
+     * function should be invoked only once.
+     */
+    public void start() {
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+
+                // Do not allow failures to cancel future sweeps
+                try {
+                    store.sweep();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Unable to remove expired nonces: {}", e.getMessage());
+                    logger.debug("Removal of expired nonces failed.", e);
+                }
+
+            }
+
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Generates a new nonce for a login which is about to be redirected to
+     * the OAuth service. If nonce validation is enabled, the nonce is stored
+     * such that it will be accepted once, and only once, before it expires.
+     *
+     * @return
+     *     A new, cryptographically-secure nonce.
+     *
+     * @throws GuacamoleException
+     *     If the nonce cannot be stored, or if guacamole.properties cannot be
+     *     parsed.
+     */
+    public String generate() throws GuacamoleException {
+
+        String nonce = OAuthTokenField.generateNonce();
+        if (!confService.isNonceValidationEnabled())
+            return nonce;
+
+        long expires = System.currentTimeMillis()
+                + confService.getNonceLifetime() * 1000L;
+
+        if (!store.put(nonce, expires))
+            throw new GuacamoleServerException("Unable to record pending "
+                    + "login.");
+
+        return nonce;
+
+    }
+
+    /**
+     * Consumes the given nonce, verifying that it was generated by this
+     * service, has not expired, and has not already been consumed. If nonce
+     * validation is disabled, any nonce is accepted.
+     *
+     * @param nonce
+     *     The nonce returned by the OAuth service, or null if no nonce was
+     *     returned.
+     *
+     * @throws GuacamoleException
+     *     If nonce validation is enabled and the nonce is missing, unknown,
+     *     expired, or has already been consumed, or if guacamole.properties
+     *     cannot be parsed.
+     */
+    public void consume(String nonce) throws GuacamoleException {
+
+        if (!confService.isNonceValidationEnabled())
+            return;
+
+        if (nonce == null || !store.consume(nonce))
+            throw new InvalidTokenException("Login is not pending or has "
+                    + "already been completed.", FailureCause.REPLAYED);
+
+    }
+
+    /**
+     * Consumes the given nonce as described by consume(String), additionally
+     * verifying that the login was begun by the browser which submitted the
+     * given request. Each browser records the nonce of the login it begins
+     * within a cookie, which must match the nonce returned by the OAuth
+     * service, such that a login begun elsewhere cannot be completed by
+     * tricking the user into visiting the OAuth service's redirect. If nonce
+     * validation is disabled, any nonce is accepted.
+     *
+     * @param request
+     *     The HTTP request which returned the given nonce.
+     *
+     * @param nonce
+     *     The nonce returned by the OAuth service, or null if no nonce was
+     *     returned.
+     *
+     * @throws GuacamoleException
+     *     If nonce validation is enabled and the nonce was not recorded by
+     *     the browser which submitted the given request, or is missing,
+     *     unknown, expired, or has already been consumed, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    public void consume(HttpServletRequest request, String nonce)
+            throws GuacamoleException {
+
+        if (!confService.isNonceValidationEnabled())
+            return;
+
+        // Refuse logins which were not begun by this browser
+        if (nonce == null || !nonce.equals(getCookie(request,
+                OAuthTokenField.STATE_COOKIE_NAME)))
+            throw new InvalidTokenException("Login was not begun by this "
+                    + "browser.", FailureCause.REPLAYED);
+
+        consume(nonce);
+
+    }
+
+    /**
+     * Returns the value of the cookie having the given name within the given
+     * request, if any.
+     *
+     * @param request
+     *     The HTTP request to retrieve the cookie from, or null if no request
+     *     is available.
+     *
+     * @param name
+     *     The name of the cookie to retrieve.
+     *
+     * @return
+     *     The value of the cookie having the given name, or null if no such
+     *     cookie was sent with the given request.
+     */
+    private static String getCookie(HttpServletRequest request, String name) {
+
+        if (request == null)
+            return null;
+
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null)
+            return null;
+
+        for (Cookie cookie : cookies) {
+            if (name.equals(cookie.getName()))
+                return cookie.getValue();
+        }
+
+        return null;
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.nonce;
+
+/**
+ * Storage for the nonces of pending logins. Each nonce is stored when the
+ * user is redirected to the OAuth service, and is consumed when the user
+ * returns, such that each nonce is accepted at most once. Implementations
+ * must be safe for concurrent use, and may be backed by storage shared by
+ * multiple Guacamole servers.
+ *
+ * @author Michael Jumper
+ */
+public interface NonceStore {
+
+    /**
+     * Stores the given nonce, which will remain valid until the given
+     * expiration time or until consumed. If the store is full, the oldest
+     * stored nonces are discarded to make room, such that new logins are
+     * never refused merely because many logins are pending.
+     *
+     * @param nonce
+     *     The nonce to store.
+     *
+     * @param expires
+     *     The time after which the nonce is no longer valid, in milliseconds
+     *     since midnight of January 1, 1970 UTC.
+     *
+     * @return
+     *     true if the nonce was stored, false if the nonce could not be
+     *     stored due to an error.
+     */
+    boolean put(String nonce, long expires);
+
+    /**
+     * Atomically removes the given nonce from the store, returning whether
+     * the nonce was present and not yet expired. If multiple threads (or
+     * servers) consume the same nonce concurrently, at most one of them
+     * succeeds.
+     *
+     * @param nonce
+     *     The nonce to consume.
+     *
+     * @return
+     *     true if the nonce was present and had not expired, false otherwise.
+     */
+    boolean consume(String nonce);
+
+    /**
+     * Removes all expired nonces from the store. This function is invoked
+     * periodically in the background, and may do nothing if the underlying
+     * storage expires entries automatically.
+     */
+    void sweep();
+
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.ratelimit;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleClientTooManyException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which protects the login path from being monopolized by any one
+ * client. Logins are limited per client address and per user using token
+ * buckets, and the number of logins validated at any one time is capped,
+ * with excess logins refused immediately rather than queued.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class RateLimitService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(RateLimitService.class);
+
+    /**
+     * The number of milliseconds between each removal of idle buckets.
+     */
+    private static final long EVICTION_INTERVAL = 60000;
+
+    /**
+     * The maximum number of client addresses or users whose rate limits may
+     * be tracked at any one time.
+     */
+    private static final int MAX_BUCKETS = 100000;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Executor for background tasks, used to remove idle buckets.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * A permit to validate a single login, which must be released once the
+     * login has been processed.
+     */
+    public static class Permit {
+
+        /**
+         * The semaphore from which this permit was acquired, or null if the
+         * number of concurrent logins is not limited.
+         */
+        private final Semaphore semaphore;
+
+        /**
+         * Creates a new Permit acquired from the given semaphore.
+         *
+         * @param semaphore
+         *     The semaphore from which this permit was acquired, or null if
+         *     the number of concurrent logins is not limited.
+         */
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /**
+         * Releases this permit, allowing another login to be validated.
+         */
+        public void release() {
+            if (semaphore != null)
+                semaphore.release();
+        }
+
+    }
+
+    /**
+     * The limiters associated with a particular snapshot of the OAuth
+     * configuration. Each LimitState is immutable, and is replaced as a whole
+     * when the configuration changes, retaining any limiters whose settings
+     * are unchanged.
+     */
+    private static class LimitState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The rate limiter for each client address, or null if logins are not
+         * limited per address.
+         */
+        private final RateLimiter addressLimiter;
+
+        /**
+         * The rate limiter for each user, or null if logins are not limited
+         * per user.
+         */
+        private final RateLimiter userLimiter;
+
+        /**
+         * The permits which must be acquired prior to validating each login,
+         * or null if the number of concurrent logins is not limited.
+         */
+        private final Semaphore permits;
+
+        /**
+         * Creates a new LimitState which limits logins as described by the
+         * given configuration. Limiters are retained from the given previous
+         * state wherever their settings are unchanged, such that the buckets
+         * of each client address and user, as well as the permits held by
+         * logins in progress, carry over to the new state.
+         *
+         * @param configuration
+         *     The configuration describing all limits.
+         *
+         * @param previous
+         *     The state built from the previous configuration, or null if no
+         *     state has yet been built.
+         */
+        public LimitState(OAuthConfiguration configuration,
+                LimitState previous) {
+
+            this.configuration = configuration;
+
+            int burst = configuration.getRateLimitBurst();
+            OAuthConfiguration old = previous != null ? previous.configuration : null;
+
+            // Retain per-address buckets unless their limits have changed
+            if (old != null
+                    && old.getRateLimitPerAddress() == configuration.getRateLimitPerAddress()
+                    && old.getRateLimitBurst() == burst)
+                this.addressLimiter = previous.addressLimiter;
+            else
+                this.addressLimiter = configuration.getRateLimitPerAddress() > 0
+                        ? new RateLimiter(configuration.getRateLimitPerAddress(), burst, MAX_BUCKETS)
+                        : null;
+
+            // Retain per-user buckets unless their limits have changed
+            if (old != null
+                    && old.getRateLimitPerUser() == configuration.getRateLimitPerUser()
+                    && old.getRateLimitBurst() == burst)
+                this.userLimiter = previous.userLimiter;
+            else
+                this.userLimiter = configuration.getRateLimitPerUser() > 0
+                        ? new RateLimiter(configuration.getRateLimitPerUser(), burst, MAX_BUCKETS)
+                        : null;
+
+            // Retain the semaphore unless the concurrency limit has changed,
+            // such that logins in progress continue to count against it
+            if (old != null
+                    && old.getMaxConcurrentLogins() == configuration.getMaxConcurrentLogins())
+                this.permits = previous.permits;
+            else
+                this.permits = configuration.getMaxConcurrentLogins() > 0
+                        ? new Semaphore(configuration.getMaxConcurrentLogins())
+                        : null;
+
+        }
+
+    }
+
+    /**
+     * The limiters built from the current configuration, or null if none
+     * have yet been built.
+     */
+    private volatile LimitState state;
+
+    /**
+     * Returns the limiters which should be applied to logins, building them
+     * if they have not yet been built or if the configuration has changed
+     * since they were built. Only limiters whose settings have changed are
+     * rebuilt. Logins already in progress when the concurrency limit changes
+     * continue to hold their permits from the previous limit.
+     *
+     * @return
+     *     The limiters which should be applied to logins.
+     *
+     * @throws GuacamoleException
+     *     If the configuration has not yet been read and guacamole.properties
+     *     cannot be parsed.
+     */
+    private LimitState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        LimitState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            current = new LimitState(configuration, current);
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Begins periodically removing the buckets of client addresses and users
+     * which have not recently attempted to log in. This function should be
+     * invoked only once.
+     */
+    public void start() {
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+
+                LimitState current = state;
+                if (current == null)
+                    return;
+
+                // Do not allow failures to cancel future evictions
+                try {
+                    if (current.addressLimiter != null)
+                        current.addressLimiter.evictIdle();
+                    if (current.userLimiter != null)
+                        current.userLimiter.evictIdle();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Unable to remove idle rate limits: {}", e.getMessage());
+                    logger.debug("Removal of idle rate limits failed.", e);
+                }
+
+            }
+
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Verifies that the client having the given address has not exceeded its
+     * rate limit, counting the current request against that limit.
+     *
+     * @param address
+     *     The address of the client, or null if the address is unknown.
+     *
+     * @throws GuacamoleException
+     *     If the client has exceeded its rate limit, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    public void checkAddress(String address) throws GuacamoleException {
+
+        RateLimiter limiter = getState().addressLimiter;
+        if (limiter == null || address == null)
+            return;
+
+        if (!limiter.tryAcquire(address)) {
+            logger.debug("Login from \"{}\" refused due to rate limit.", address);
+            throw new GuacamoleClientTooManyException("Too many login "
+                    + "attempts. Please try again later.");
+        }
+
+    }
+
+    /**
+     * Verifies that the given user has not exceeded their rate limit,
+     * counting the current login against that limit. As the user must have
+     * already been authenticated, the rate limit of a user cannot be consumed
+     * by anyone else.
+     *
+     * @param username
+     *     The username of the authenticated user.
+     *
+     * @throws GuacamoleException
+     *     If the user has exceeded their rate limit, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    public void checkUser(String username) throws GuacamoleException {
+
+        RateLimiter limiter = getState().userLimiter;
+        if (limiter == null)
+            return;
+
+        if (!limiter.tryAcquire(username)) {
+            logger.debug("Login of user \"{}\" refused due to rate limit.", username);
+            throw new GuacamoleClientTooManyException("Too many login "
+                    + "attempts. Please try again later.");
+        }
+
+    }
+
+    /**
+     * Acquires a permit to validate a login, failing immediately if the
+     * maximum number of logins are already being validated. The returned
+     * permit must be released once the login has been processed.
+     *
+     * @return
+     *     A permit to validate a login.
+     *
+     * @throws GuacamoleException
+     *     If the maximum number of logins are already being validated, or if
+     *     guacamole.properties cannot be parsed.
+     */
+    public Permit acquire() throws GuacamoleException {
+
+        Semaphore permits = getState().permits;
+        if (permits != null && !permits.tryAcquire())
+            throw new GuacamoleServerBusyException("Too many logins are in "
+                    + "progress. Please try again later.");
+
+        return new Permit(permits);
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limiter tracking a separate bucket for each key, such as
+ * each client address or user. Each bucket is represented by a single
+ * AtomicLong holding the time at which the bucket will next be full (the
+ * "theoretical arrival time" of the generic cell rate algorithm, which is
+ * equivalent to a token bucket), and is updated without locking. Buckets are
+ * held within a ConcurrentHashMap, whose lock striping allows buckets for
+ * different keys to be created concurrently. Buckets which have refilled
+ * completely carry no state, and are removed by evictIdle(). Keys beyond the
+ * maximum number of buckets share a single overflow bucket until space is
+ * freed, such that flooding the limiter with distinct keys cannot lift the
+ * limit.
+ *
+ * @author Michael Jumper
+ */
+public class RateLimiter {
+
+    /**
+     * The amount of time required for a single token to be added to a
+     * bucket, in nanoseconds.
+     */
+    private final long interval;
+
+    /**
+     * The amount of time required for an empty bucket to refill completely,
+     * in nanoseconds.
+     */
+    private final long capacity;
+
+    /**
+     * The maximum number of buckets which may be tracked. Keys beyond this
+     * limit share the overflow bucket until idle buckets are evicted.
+     */
+    private final int maxBuckets;
+
+    /**
+     * The bucket shared by all keys which could not be given their own
+     * bucket, as the maximum number of buckets are already tracked.
+     */
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+
+    /**
+     * The time at which each bucket will next be full, as a value of
+     * System.nanoTime(), keyed by the key of the bucket.
+     */
+    private final ConcurrentHashMap<String, AtomicLong> buckets =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The number of buckets currently tracked. This is maintained separately
+     * from the map, as determining the size of a ConcurrentHashMap may
+     * require locking every stripe.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates a new RateLimiter which allows the given number of requests per
+     * minute for each key, after an initial burst of the given size.
+     *
+     * @param perMinute
+     *     The number of requests allowed per minute for each key.
+     *
+     * @param burst
+     *     The number of requests which may be made in rapid succession for
+     *     any key whose bucket is full.
+     *
+     * @param maxBuckets
+     *     The maximum number of keys which may be tracked at any one time.
+     *     Requests for further keys are limited as if made by a single key.
+     */
+    public RateLimiter(int perMinute, int burst, int maxBuckets) {
+        this.interval = 60000000000L / Math.max(1, perMinute);
+        this.capacity = interval * Math.max(1, burst);
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Attempts to take a single token from the bucket of the given key,
+     * returning whether the request associated with that key is allowed.
+     *
+     * @param key
+     *     The key whose bucket should be used.
+     *
+     * @return
+     *     true if the request is allowed, false if the bucket of the given key
+     *     is empty.
+     */
+    public boolean tryAcquire(String key) {
+
+        long now = System.nanoTime();
+
+        // Buckets begin full
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+
+            // Refuse to track more keys than allowed, limiting all other
+            // keys as a whole
+            if (size.get() >= maxBuckets)
+                return take(overflow, now);
+
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                size.incrementAndGet();
+                bucket = created;
+            }
+
+        }
+
+        return take(bucket, now);
+
+    }
+
+    /**
+     * Attempts to take a single token from the given bucket, returning
+     * whether a token was available.
+     *
+     * @param bucket
+     *     The time at which the bucket will next be full, as a value of
+     *     System.nanoTime().
+     *
+     * @param now
+     *     The current time, as a value of System.nanoTime().
+     *
+     * @return
+     *     true if a token was taken, false if the bucket is empty.
+     */
+    private boolean take(AtomicLong bucket, long now) {
+
+        // Take a token, unless doing so would empty the bucket beyond its
+        // capacity
+        for (;;) {
+
+            long full = bucket.get();
+            long next = (full - now > 0 ? full : now) + interval;
+            if (next - now > capacity)
+                return false;
+
+            if (bucket.compareAndSet(full, next))
+                return true;
+
+        }
+
+    }
+
+    /**
+     * Removes all buckets which have refilled completely, and which thus
+     * carry no state. A request racing with the removal of its bucket may
+     * take its token from the removed bucket, in which case that token is
+     * not counted against the key; as the bucket was full, this can allow
+     * at most one additional request.
+     */
+    public void evictIdle() {
+
+        long now = System.nanoTime();
+
+        Iterator<Map.Entry<String, AtomicLong>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+
+            Map.Entry<String, AtomicLong> entry = entries.next();
+            if (entry.getValue().get() - now <= 0
+                    && buckets.remove(entry.getKey(), entry.getValue()))
+                size.decrementAndGet();
+
+        }
+
+    }
+
+    /**
+     * Returns the number of buckets currently tracked.
+     *
+     * @return
+     *     The number of buckets currently tracked.
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplayCache implementation which stores identifiers within memory, local
+ * to this Guacamole server. Adding an identifier is a single operation on a
+ * concurrent hash map. As identifiers are not shared with other servers,
+ * this implementation protects against replay only if each user is always
+ * routed to the same server.
+ *
+ * @author Michael Jumper
+ */
+public class InProcessReplayCache implements ReplayCache {
+
+    /**
+     * The maximum number of identifiers which may be stored.
+     */
+    private final int maxSize;
+
+    /**
+     * The expiration time of each stored identifier, in milliseconds since
+     * midnight of January 1, 1970 UTC, keyed by the identifier.
+     */
+    private final ConcurrentMap<String, Long> entries =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The number of identifiers currently stored. This is maintained
+     * separately from the map, as the size of a ConcurrentHashMap is not
+     * necessarily cheap to determine.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates a new InProcessReplayCache which stores up to the given number
+     * of identifiers.
+     *
+     * @param maxSize
+     *     The maximum number of identifiers which may be stored.
+     */
+    public InProcessReplayCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Reserves space for one additional identifier, first removing any
+     * expired identifiers if the cache is full.
+     *
+     * @throws IOException
+     *     If the cache is full of identifiers which have not yet expired.
+     */
+    private void reserve() throws IOException {
+
+        if (size.incrementAndGet() <= maxSize)
+            return;
+
+        size.decrementAndGet();
+        sweep();
+
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            throw new IOException("Replay cache is full.");
+        }
+
+    }
+
+    @Override
+    public boolean add(String id, long expires) throws IOException {
+
+        long now = System.currentTimeMillis();
+
+        // Retry until the identifier is found to be in use, or is added
+        // without interference from concurrent additions or sweeps
+        for (;;) {
+
+            // Expired entries which have not yet been swept may be reused
+            Long existing = entries.get(id);
+            if (existing != null) {
+                if (existing > now)
+                    return false;
+                if (entries.replace(id, existing, expires))
+                    return true;
+                continue;
+            }
+
+            reserve();
+            if (entries.putIfAbsent(id, expires) == null)
+                return true;
+
+            // Release reserved space if another thread added the identifier
+            size.decrementAndGet();
+
+        }
+
+    }
+
+    /**
+     * Removes the given identifier from the cache, regardless of whether it
+     * has expired.
+     *
+     * @param id
+     *     The identifier to remove.
+     */
+    void remove(String id) {
+        if (entries.remove(id) != null)
+            size.decrementAndGet();
+    }
+
+    @Override
+    public void sweep() {
+
+        long now = System.currentTimeMillis();
+
+        // Remove only entries which have not been concurrently replaced
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            Long expires = entry.getValue();
+            if (expires <= now && entries.remove(entry.getKey(), expires))
+                size.decrementAndGet();
+        }
+
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+}
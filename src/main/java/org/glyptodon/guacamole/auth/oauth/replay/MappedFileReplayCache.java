@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReplayCache implementation which stores identifiers within a hash table
+ * in a memory-mapped file, shared by all Guacamole servers on the same host
+ * which are configured with the same file. Each identifier is stored as a
+ * 64-bit hash alongside its expiration time, using open addressing with
+ * linear probing. Expired entries are reused in place rather than removed.
+ * Updates are serialized between servers using a lock on the file.
+ *
+ * <p>The file can be shared only by servers on a single host. Memory-mapped
+ * files and file locks are not coherent across hosts, so the file must not be
+ * placed on a shared or network filesystem. Servers on different hosts must
+ * use the network replay cache instead.
+ *
+ * <p>If every slot which may hold an identifier is in use and unexpired, the
+ * entry closest to expiring is overwritten and a warning is logged. Replays
+ * of the overwritten token are then no longer detected. Logins continue to
+ * be accepted rather than refused while the table is overloaded.
+ *
+ * @author Michael Jumper
+ */
+public class MappedFileReplayCache implements ReplayCache {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileReplayCache.class);
+
+    /**
+     * Value identifying a file as a replay cache, stored at the start of the
+     * file ("GRC1").
+     */
+    private static final int MAGIC = 0x47524331;
+
+    /**
+     * The size of the header at the start of the file, in bytes. The header
+     * contains the magic value and the number of slots in the table.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of each slot in the table, in bytes. Each slot contains the
+     * 64-bit hash of an identifier followed by its 64-bit expiration time.
+     */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * The maximum number of slots examined when looking up or adding an
+     * identifier.
+     */
+    private static final int MAX_PROBES = 128;
+
+    /**
+     * Lock serializing access to the file by threads within this JVM. File
+     * locks are held on behalf of the entire JVM, and cannot be used to
+     * exclude other threads of the same JVM.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The file containing the table.
+     */
+    private final File path;
+
+    /**
+     * The open file containing the table.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The channel of the open file, used for locking.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The memory-mapped contents of the file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The number of slots in the table.
+     */
+    private final int slots;
+
+    /**
+     * Whether an unexpired entry has been overwritten since the table was
+     * last found to have room. This must only be accessed while holding
+     * LOCK.
+     */
+    private boolean overloaded = false;
+
+    /**
+     * Creates a new MappedFileReplayCache backed by the given file. If the
+     * file does not yet exist or is empty, it is initialized with a table
+     * containing the given number of slots. If the file already contains a
+     * table, its existing size is used.
+     *
+     * @param path
+     *     The file containing the table.
+     *
+     * @param slots
+     *     The number of slots to allocate if the file must be initialized.
+     *
+     * @throws IOException
+     *     If the file cannot be opened, mapped, or initialized, or if the
+     *     file exists but is not a replay cache.
+     */
+    public MappedFileReplayCache(File path, int slots) throws IOException {
+
+        this.path = path;
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+
+        try {
+            synchronized (LOCK) {
+                FileLock lock = channel.lock();
+                try {
+
+                    // Initialize new files
+                    if (channel.size() == 0) {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                        header.putInt(4, slots);
+                        header.putInt(0, MAGIC);
+                    }
+
+                    // Use the existing table of any other server
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                    if (header.getInt(0) != MAGIC)
+                        throw new IOException("\"" + path + "\" is not a replay cache.");
+
+                    int existingSlots = header.getInt(4);
+                    if (existingSlots != slots)
+                        logger.info("Replay cache \"{}\" already exists with {} slots. "
+                                + "Using existing size.", path, existingSlots);
+
+                    this.slots = existingSlots;
+                    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                            HEADER_SIZE + (long) existingSlots * SLOT_SIZE);
+
+                }
+                finally {
+                    lock.release();
+                }
+            }
+        }
+        catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+    }
+
+    /**
+     * Returns the 64-bit hash of the given identifier, derived from its
+     * SHA-256 digest. The hash is never zero, as zero denotes an empty slot.
+     *
+     * @param id
+     *     The identifier to hash.
+     *
+     * @return
+     *     The non-zero 64-bit hash of the given identifier.
+     */
+    private static long hash(String id) {
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(id.getBytes("UTF-8"));
+        }
+
+        // Java is required to provide SHA-256 and UTF-8 support
+        catch (NoSuchAlgorithmException e) {
+            throw new UnsupportedOperationException("Unexpected lack of SHA-256 support.", e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
+        }
+
+        long hash = 0;
+        for (int i = 0; i < 8; i++)
+            hash = (hash << 8) | (digest[i] & 0xFF);
+
+        return hash != 0 ? hash : 1;
+
+    }
+
+    @Override
+    public boolean add(String id, long expires) throws IOException {
+
+        long hash = hash(id);
+        long now = System.currentTimeMillis();
+        int home = (int) ((hash & Long.MAX_VALUE) % slots);
+
+        synchronized (LOCK) {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+
+                // Search for the identifier up to the first never-used slot,
+                // noting the first slot which may be (re)used and the slot
+                // whose entry will expire soonest
+                int free = -1;
+                int oldest = -1;
+                long oldestExpires = Long.MAX_VALUE;
+                for (int i = 0; i < MAX_PROBES && i < slots; i++) {
+
+                    int offset = HEADER_SIZE + ((home + i) % slots) * SLOT_SIZE;
+                    long slotHash = buffer.getLong(offset);
+                    long slotExpires = buffer.getLong(offset + 8);
+
+                    // Identifier already used and not yet expired
+                    if (slotHash == hash && slotExpires > now)
+                        return false;
+
+                    if (slotHash == 0 || slotExpires <= now) {
+                        if (free == -1)
+                            free = offset;
+                        if (slotHash == 0)
+                            break;
+                    }
+
+                    else if (slotExpires < oldestExpires) {
+                        oldest = offset;
+                        oldestExpires = slotExpires;
+                    }
+
+                }
+
+                // Sacrifice the entry closest to expiring if there is no room,
+                // rather than refusing all further logins
+                if (free == -1) {
+
+                    if (!overloaded)
+                        logger.warn("Replay cache \"{}\" is full. Replays of "
+                                + "some tokens will not be detected. Consider "
+                                + "increasing its size.", path);
+
+                    overloaded = true;
+                    free = oldest;
+
+                }
+                else
+                    overloaded = false;
+
+                buffer.putLong(free + 8, expires);
+                buffer.putLong(free, hash);
+                return true;
+
+            }
+            finally {
+                lock.release();
+            }
+        }
+
+    }
+
+    @Override
+    public void sweep() {
+        // Expired slots are reused in place; removing them would break the
+        // probe sequences of other entries
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close replay cache \"{}\".", path, e);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.IOException;
+
+/**
+ * ReplayCache implementation which fronts a shared (and thus comparatively
+ * slow) ReplayCache with a local, in-process record of the identifiers known
+ * to have been used. Tokens replayed against this server are rejected
+ * locally, without consulting the shared cache, while tokens not known
+ * locally are always checked against the shared cache, such that tokens
+ * used with other servers are still rejected.
+ *
+ * @author Michael Jumper
+ */
+public class NearCachedReplayCache implements ReplayCache {
+
+    /**
+     * The shared cache.
+     */
+    private final ReplayCache delegate;
+
+    /**
+     * The local record of identifiers known to have been used.
+     */
+    private final InProcessReplayCache near;
+
+    /**
+     * Creates a new NearCachedReplayCache which fronts the given shared
+     * cache with a local record of up to the given number of identifiers.
+     *
+     * @param delegate
+     *     The shared cache.
+     *
+     * @param maxSize
+     *     The maximum number of identifiers to record locally.
+     */
+    public NearCachedReplayCache(ReplayCache delegate, int maxSize) {
+        this.delegate = delegate;
+        this.near = new InProcessReplayCache(maxSize);
+    }
+
+    @Override
+    public boolean add(String id, long expires) throws IOException {
+
+        // Reject immediately if already used with this server
+        try {
+            if (!near.add(id, expires))
+                return false;
+        }
+
+        // Simply skip the local record if full
+        catch (IOException e) {
+            return delegate.add(id, expires);
+        }
+
+        // Otherwise, check and update the shared cache, forgetting the local
+        // record if the shared cache cannot be updated, such that the token
+        // may be submitted again once the failure is resolved
+        try {
+            return delegate.add(id, expires);
+        }
+        catch (IOException e) {
+            near.remove(id);
+            throw e;
+        }
+
+    }
+
+    @Override
+    public void sweep() {
+        near.sweep();
+        delegate.sweep();
+    }
+
+    @Override
+    public void close() {
+        near.close();
+        delegate.close();
+    }
+
+}
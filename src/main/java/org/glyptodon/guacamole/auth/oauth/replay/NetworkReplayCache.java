@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReplayCache implementation which stores identifiers within a network
+ * key/value service speaking the Redis protocol (RESP), shared by all
+ * Guacamole servers configured with the same service. Each identifier is
+ * added with a single "SET key 1 NX PX ttl" command, which atomically
+ * succeeds only if the key is not already present.
+ *
+ * A single connection is shared by all threads. Requests made while another
+ * request is in progress are queued and then sent together in one write,
+ * with their replies read back in order, such that concurrent logins share
+ * round trips rather than waiting for each other's.
+ *
+ * @author Michael Jumper
+ */
+public class NetworkReplayCache implements ReplayCache {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(NetworkReplayCache.class);
+
+    /**
+     * The prefix prepended to each identifier to form the key stored within
+     * the key/value service.
+     */
+    private static final String KEY_PREFIX = "guacamole-auth-openid:replay:";
+
+    /**
+     * A request to add an identifier, queued until sent by whichever thread
+     * next holds the connection.
+     */
+    private static class Request {
+
+        /**
+         * The key to add.
+         */
+        private final String key;
+
+        /**
+         * The number of milliseconds that the key should be retained.
+         */
+        private final long ttl;
+
+        /**
+         * Whether this request has been sent and its reply received (or the
+         * request has failed). Guarded by the connection lock.
+         */
+        private boolean completed;
+
+        /**
+         * Whether the key was added, valid only if the request completed
+         * without failure.
+         */
+        private boolean added;
+
+        /**
+         * The reason the request failed, or null if the request has not
+         * failed.
+         */
+        private IOException failure;
+
+        /**
+         * Creates a new Request which adds the given key, to be retained for
+         * the given number of milliseconds.
+         *
+         * @param key
+         *     The key to add.
+         *
+         * @param ttl
+         *     The number of milliseconds that the key should be retained.
+         */
+        public Request(String key, long ttl) {
+            this.key = key;
+            this.ttl = ttl;
+        }
+
+    }
+
+    /**
+     * The address of the key/value service.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The maximum amount of time to wait for a connection or reply, in
+     * milliseconds.
+     */
+    private final int timeout;
+
+    /**
+     * All requests which have not yet been sent.
+     */
+    private final Queue<Request> pending = new ConcurrentLinkedQueue<Request>();
+
+    /**
+     * Lock which must be held while using the connection.
+     */
+    private final Object connectionLock = new Object();
+
+    /**
+     * The connection to the key/value service, or null if not connected.
+     * Guarded by connectionLock.
+     */
+    private Socket socket;
+
+    /**
+     * Stream of replies from the key/value service. Guarded by
+     * connectionLock.
+     */
+    private InputStream input;
+
+    /**
+     * Stream of commands to the key/value service. Guarded by
+     * connectionLock.
+     */
+    private OutputStream output;
+
+    /**
+     * Creates a new NetworkReplayCache which stores identifiers within the
+     * key/value service at the given host and port. No connection is made
+     * until the first identifier is added.
+     *
+     * @param host
+     *     The hostname or address of the key/value service.
+     *
+     * @param port
+     *     The port of the key/value service.
+     *
+     * @param timeout
+     *     The maximum amount of time to wait for a connection or reply, in
+     *     milliseconds.
+     */
+    public NetworkReplayCache(String host, int port, int timeout) {
+        this.address = new InetSocketAddress(host, port);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Appends the given string to the given buffer as a RESP bulk string.
+     *
+     * @param buffer
+     *     The buffer to append to.
+     *
+     * @param value
+     *     The string to append.
+     */
+    private static void writeBulkString(ByteArrayOutputStream buffer,
+            String value) {
+
+        try {
+            byte[] bytes = value.getBytes("UTF-8");
+            byte[] header = ("$" + bytes.length + "\r\n").getBytes("UTF-8");
+            buffer.write(header, 0, header.length);
+            buffer.write(bytes, 0, bytes.length);
+            buffer.write('\r');
+            buffer.write('\n');
+        }
+
+        // Java is required to provide UTF-8 support
+        catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
+        }
+
+    }
+
+    /**
+     * Appends the command which adds the key of the given request to the
+     * given buffer.
+     *
+     * @param buffer
+     *     The buffer to append to.
+     *
+     * @param request
+     *     The request whose command should be appended.
+     */
+    private static void writeCommand(ByteArrayOutputStream buffer,
+            Request request) {
+
+        buffer.write('*');
+        buffer.write('6');
+        buffer.write('\r');
+        buffer.write('\n');
+
+        writeBulkString(buffer, "SET");
+        writeBulkString(buffer, request.key);
+        writeBulkString(buffer, "1");
+        writeBulkString(buffer, "NX");
+        writeBulkString(buffer, "PX");
+        writeBulkString(buffer, Long.toString(request.ttl));
+
+    }
+
+    /**
+     * Reads a single line of a reply, excluding the trailing CRLF.
+     *
+     * @return
+     *     The line read.
+     *
+     * @throws IOException
+     *     If the line cannot be read.
+     */
+    private String readLine() throws IOException {
+
+        StringBuilder line = new StringBuilder();
+        for (;;) {
+
+            int c = input.read();
+            if (c == -1)
+                throw new EOFException("Connection to replay cache closed.");
+
+            if (c == '\n')
+                break;
+
+            if (c != '\r')
+                line.append((char) c);
+
+        }
+
+        return line.toString();
+
+    }
+
+    /**
+     * Connects to the key/value service if not already connected. The
+     * connection lock must be held.
+     *
+     * @throws IOException
+     *     If the connection cannot be established.
+     */
+    private void connect() throws IOException {
+
+        if (socket != null)
+            return;
+
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(timeout);
+            newSocket.connect(address, timeout);
+            input = new BufferedInputStream(newSocket.getInputStream());
+            output = newSocket.getOutputStream();
+        }
+        catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+
+        socket = newSocket;
+
+    }
+
+    /**
+     * Closes the connection to the key/value service, if connected. The
+     * connection lock must be held.
+     */
+    private void disconnect() {
+
+        if (socket == null)
+            return;
+
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close connection to replay cache.", e);
+        }
+
+        socket = null;
+        input = null;
+        output = null;
+
+    }
+
+    /**
+     * Sends all pending requests in a single write, completing each request
+     * as its reply is read. If the connection fails, all requests which have
+     * not yet completed fail, and the connection is closed such that it will
+     * be reestablished by the next request. The connection lock must be held.
+     */
+    private void sendPending() {
+
+        List<Request> batch = new ArrayList<Request>();
+        Request next;
+        while ((next = pending.poll()) != null)
+            batch.add(next);
+
+        if (batch.isEmpty())
+            return;
+
+        try {
+
+            connect();
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Request request : batch)
+                writeCommand(buffer, request);
+
+            buffer.writeTo(output);
+            output.flush();
+
+            // Replies arrive in the order that commands were sent
+            for (Request request : batch) {
+
+                String reply = readLine();
+
+                // Key added
+                if (reply.equals("+OK"))
+                    request.added = true;
+
+                // Key already present (RESP2 or RESP3 null)
+                else if (reply.equals("$-1") || reply.equals("_"))
+                    request.added = false;
+
+                // Command rejected by the key/value service
+                else if (reply.startsWith("-"))
+                    request.failure = new IOException("Replay cache "
+                            + "rejected request: " + reply.substring(1));
+
+                // Anything else means the connection is out of sync
+                else
+                    throw new IOException("Unexpected reply from replay "
+                            + "cache: " + reply);
+
+                request.completed = true;
+
+            }
+
+        }
+        catch (IOException e) {
+
+            disconnect();
+
+            for (Request request : batch) {
+                if (!request.completed) {
+                    request.failure = e;
+                    request.completed = true;
+                }
+            }
+
+        }
+
+    }
+
+    @Override
+    public boolean add(String id, long expires) throws IOException {
+
+        // Nothing need be retained for tokens which are no longer accepted
+        long ttl = expires - System.currentTimeMillis();
+        if (ttl <= 0)
+            return true;
+
+        Request request = new Request(KEY_PREFIX + id, ttl);
+        pending.add(request);
+
+        // Whichever thread holds the connection sends all pending requests,
+        // including those of threads still waiting for the connection
+        synchronized (connectionLock) {
+
+            if (!request.completed)
+                sendPending();
+
+            if (request.failure != null)
+                throw new IOException(request.failure.getMessage(), request.failure);
+
+            return request.added;
+
+        }
+
+    }
+
+    @Override
+    public void sweep() {
+        // Keys are expired automatically by the key/value service
+    }
+
+    @Override
+    public void close() {
+        synchronized (connectionLock) {
+            disconnect();
+        }
+    }
+
+}
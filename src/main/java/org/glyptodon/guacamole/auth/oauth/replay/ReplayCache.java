@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.IOException;
+
+/**
+ * Record of the tokens which have already been used to log in, such that
+ * each token is accepted only once. Implementations must be safe for
+ * concurrent use, and may be backed by storage shared by multiple Guacamole
+ * servers, such that a token used with one server cannot be replayed against
+ * another.
+ *
+ * @author Michael Jumper
+ */
+public interface ReplayCache {
+
+    /**
+     * Atomically records that the token having the given identifier has
+     * been used, returning whether the token had not already been used. If
+     * multiple threads (or servers) add the same identifier concurrently, at
+     * most one of them succeeds.
+     *
+     * @param id
+     *     An identifier unique to the token, such as its "jti" claim or a
+     *     digest of the token itself.
+     *
+     * @param expires
+     *     The time after which the token will no longer be accepted, in
+     *     milliseconds since midnight of January 1, 1970 UTC, including any
+     *     clock skew tolerated beyond the expiration time of the token. The
+     *     identifier must be retained until this time, and need not be
+     *     retained beyond it.
+     *
+     * @return
+     *     true if the token had not already been used, false otherwise.
+     *
+     * @throws IOException
+     *     If the underlying storage cannot be read or updated, or has no
+     *     room for the identifier.
+     */
+    boolean add(String id, long expires) throws IOException;
+
+    /**
+     * Removes all expired identifiers from the cache. This function is
+     * invoked periodically in the background, and may do nothing if the
+     * underlying storage expires or reuses entries automatically.
+     */
+    void sweep();
+
+    /**
+     * Releases any resources held by this cache, such as files or network
+     * connections. The cache must not be used after it has been closed.
+     */
+    void close();
+
+}
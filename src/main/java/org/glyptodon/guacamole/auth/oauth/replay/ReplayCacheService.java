@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.glyptodon.guacamole.auth.oauth.token.TokenValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which records each validated ID token within the configured
+ * ReplayCache, rejecting tokens which have already been used to log in.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class ReplayCacheService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(ReplayCacheService.class);
+
+    /**
+     * The interval at which expired identifiers are removed from the cache,
+     * in milliseconds.
+     */
+    private static final long SWEEP_INTERVAL = 30000;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Metrics recording the latency of replay checks.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * Executor which periodically removes expired identifiers.
+     */
+    @Inject
+    private ScheduledExecutorService executor;
+
+    /**
+     * The replay cache built from a particular snapshot of the OAuth
+     * configuration. Each ReplayState is immutable, and is replaced as a
+     * whole when the configuration changes.
+     */
+    private static class ReplayState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The replay cache, or null if used tokens are not recorded.
+         */
+        private final ReplayCache cache;
+
+        /**
+         * Creates a new ReplayState which records used tokens within the
+         * given cache.
+         *
+         * @param configuration
+         *     The configuration from which the cache was built.
+         *
+         * @param cache
+         *     The replay cache, or null if used tokens are not recorded.
+         */
+        public ReplayState(OAuthConfiguration configuration, ReplayCache cache) {
+            this.configuration = configuration;
+            this.cache = cache;
+        }
+
+    }
+
+    /**
+     * The replay cache built from the current configuration, or null if it
+     * has not yet been built.
+     */
+    private volatile ReplayState state;
+
+    /**
+     * Returns whether the given configurations describe the same replay
+     * cache, such that a cache built from one may continue to be used with
+     * the other.
+     *
+     * @param a
+     *     The first configuration to compare.
+     *
+     * @param b
+     *     The second configuration to compare.
+     *
+     * @return
+     *     true if both configurations describe the same replay cache, false
+     *     otherwise.
+     */
+    private static boolean isSameCache(OAuthConfiguration a, OAuthConfiguration b) {
+        return a.getReplayCacheType() == b.getReplayCacheType()
+            && a.getReplayCacheSize() == b.getReplayCacheSize()
+            && (a.getReplayCacheFile() == null ? b.getReplayCacheFile() == null
+                    : a.getReplayCacheFile().equals(b.getReplayCacheFile()))
+            && (a.getReplayCacheHost() == null ? b.getReplayCacheHost() == null
+                    : a.getReplayCacheHost().equals(b.getReplayCacheHost()))
+            && a.getReplayCachePort() == b.getReplayCachePort()
+            && a.getReplayCacheTimeout() == b.getReplayCacheTimeout();
+    }
+
+    /**
+     * Creates a new replay cache as described by the given configuration.
+     * Caches which are shared with other servers are fronted with a local
+     * record of used tokens.
+     *
+     * @param configuration
+     *     The configuration describing the replay cache.
+     *
+     * @return
+     *     A new replay cache, or null if used tokens should not be recorded.
+     *
+     * @throws GuacamoleException
+     *     If the replay cache cannot be created.
+     */
+    private static ReplayCache createCache(OAuthConfiguration configuration)
+            throws GuacamoleException {
+
+        int size = configuration.getReplayCacheSize();
+        switch (configuration.getReplayCacheType()) {
+
+            case MEMORY:
+                return new InProcessReplayCache(size);
+
+            case FILE:
+                try {
+                    return new NearCachedReplayCache(new MappedFileReplayCache(
+                            configuration.getReplayCacheFile(), size), size);
+                }
+                catch (IOException e) {
+                    throw new GuacamoleServerException("Unable to open replay "
+                            + "cache file: " + e.getMessage(), e);
+                }
+
+            case NETWORK:
+                return new NearCachedReplayCache(new NetworkReplayCache(
+                        configuration.getReplayCacheHost(),
+                        configuration.getReplayCachePort(),
+                        configuration.getReplayCacheTimeout()), size);
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the replay cache which should be used to record used tokens,
+     * building the cache if it has not yet been built or if its
+     * configuration has changed since it was built. Changes to unrelated
+     * properties do not affect the cache.
+     *
+     * @return
+     *     The replay cache which should be used to record used tokens.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, if a required property is
+     *     missing, or if the replay cache cannot be created.
+     */
+    private ReplayState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        ReplayState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            // Retain the existing cache (and thus its record of used tokens)
+            // unless the cache itself has been reconfigured
+            ReplayState previous = current;
+            if (previous != null && isSameCache(previous.configuration, configuration))
+                current = new ReplayState(configuration, previous.cache);
+            else {
+                current = new ReplayState(configuration, createCache(configuration));
+                if (previous != null && previous.cache != null)
+                    previous.cache.close();
+            }
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Begins periodically removing expired identifiers from the replay
+     * cache. This function should be invoked only once.
+     */
+    public void start() {
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+
+                ReplayState current = state;
+                if (current == null || current.cache == null)
+                    return;
+
+                // Do not allow failures to cancel future sweeps
+                try {
+                    current.cache.sweep();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Unable to remove expired tokens from replay cache: {}", e.getMessage());
+                    logger.debug("Removal of expired tokens from replay cache failed.", e);
+                }
+
+            }
+
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Records that the ID token having the given identifier has been used,
+     * verifying that it has not already been used, whether with this server
+     * or with any other server sharing the same replay cache. If used tokens
+     * are not recorded, this function has no effect.
+     *
+     * @param id
+     *     An identifier unique to the ID token.
+     *
+     * @param expires
+     *     The time that the ID token expires, in milliseconds since midnight
+     *     of January 1, 1970 UTC. The identifier is retained until the token
+     *     would no longer be accepted, including the clock skew tolerated by
+     *     TokenValidator beyond this time.
+     *
+     * @throws GuacamoleException
+     *     If the ID token has already been used, if the replay cache cannot
+     *     be read or updated, or if guacamole.properties cannot be parsed.
+     */
+    public void verify(String id, long expires) throws GuacamoleException {
+
+        ReplayCache cache = getState().cache;
+        if (cache == null)
+            return;
+
+        long start = System.nanoTime();
+        try {
+            // Tokens are accepted for a short while after they expire, and
+            // must be remembered for at least as long
+            if (!cache.add(id, expires + TokenValidator.ALLOWED_CLOCK_SKEW * 1000L))
+                throw new InvalidTokenException("ID token has already been "
+                        + "used.", FailureCause.REPLAYED);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to verify that ID "
+                    + "token has not already been used: " + e.getMessage(), e);
+        }
+        finally {
+            metrics.recordLatency(Stage.REPLAY_CHECK, System.nanoTime() - start);
+        }
+
+    }
+
+}
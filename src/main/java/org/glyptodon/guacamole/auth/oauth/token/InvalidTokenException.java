@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import org.apache.guacamole.GuacamoleSecurityException;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+
+/**
+ * A security exception thrown when a received ID token is rejected, noting
+ * the reason that the token was rejected.
+ *
+ * @author Michael Jumper
+ */
+public class InvalidTokenException extends GuacamoleSecurityException {
+
+    /**
+     * The version of this class for the sake of serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The reason that the ID token was rejected.
+     */
+    private final FailureCause failureCause;
+
+    /**
+     * Creates a new InvalidTokenException with the given message, cause, and
+     * reason for rejection.
+     *
+     * @param message
+     *     A human readable description of the exception that occurred.
+     *
+     * @param cause
+     *     The cause of this exception.
+     *
+     * @param failureCause
+     *     The reason that the ID token was rejected.
+     */
+    public InvalidTokenException(String message, Throwable cause,
+            FailureCause failureCause) {
+        super(message, cause);
+        this.failureCause = failureCause;
+    }
+
+    /**
+     * Creates a new InvalidTokenException with the given message and reason
+     * for rejection.
+     *
+     * @param message
+     *     A human readable description of the exception that occurred.
+     *
+     * @param failureCause
+     *     The reason that the ID token was rejected.
+     */
+    public InvalidTokenException(String message, FailureCause failureCause) {
+        super(message);
+        this.failureCause = failureCause;
+    }
+
+    /**
+     * Returns the reason that the ID token was rejected.
+     *
+     * @return
+     *     The reason that the ID token was rejected.
+     */
+    public FailureCause getFailureCause() {
+        return failureCause;
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashMap;
+import java.util.Map;
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.EcdsaUsingShaAlgorithm;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.HeaderParameterNames;
+import org.jose4j.lang.InvalidKeyException;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.StringUtil;
+
+/**
+ * Verifies the signatures of JWS objects using Signature instances which are
+ * reused by each thread, rather than looking up a new Signature from the
+ * available security providers for every token. RSA (RS256, RS384, RS512) and
+ * ECDSA (ES256, ES384, ES512) signatures are verified directly. Signatures
+ * using any other algorithm are verified by jose4j as usual.
+ *
+ * @author Michael Jumper
+ */
+public class SignatureVerifier {
+
+    /**
+     * The minimum size of any RSA key, in bits, matching the minimum
+     * enforced by jose4j.
+     */
+    private static final int MIN_RSA_KEY_SIZE = 2048;
+
+    /**
+     * The name of the Java signature algorithm corresponding to each
+     * supported JWS signature algorithm.
+     */
+    private static final Map<String, String> JAVA_ALGORITHMS;
+
+    /**
+     * The field size, in bits, of the elliptic curve required by each
+     * supported ECDSA signature algorithm.
+     */
+    private static final Map<String, Integer> CURVE_SIZES;
+
+    static {
+
+        Map<String, String> javaAlgorithms = new HashMap<String, String>();
+        javaAlgorithms.put(AlgorithmIdentifiers.RSA_USING_SHA256, "SHA256withRSA");
+        javaAlgorithms.put(AlgorithmIdentifiers.RSA_USING_SHA384, "SHA384withRSA");
+        javaAlgorithms.put(AlgorithmIdentifiers.RSA_USING_SHA512, "SHA512withRSA");
+        javaAlgorithms.put(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256, "SHA256withECDSA");
+        javaAlgorithms.put(AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384, "SHA384withECDSA");
+        javaAlgorithms.put(AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512, "SHA512withECDSA");
+        JAVA_ALGORITHMS = javaAlgorithms;
+
+        Map<String, Integer> curveSizes = new HashMap<String, Integer>();
+        curveSizes.put(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256, 256);
+        curveSizes.put(AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384, 384);
+        curveSizes.put(AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512, 521);
+        CURVE_SIZES = curveSizes;
+
+    }
+
+    /**
+     * The Signature instances created thus far by each thread, keyed by JWS
+     * signature algorithm.
+     */
+    private static final ThreadLocal<Map<String, Signature>> signatures =
+            new ThreadLocal<Map<String, Signature>>() {
+
+        @Override
+        protected Map<String, Signature> initialValue() {
+            return new HashMap<String, Signature>();
+        }
+
+    };
+
+    /**
+     * This class should not be instantiated.
+     */
+    private SignatureVerifier() {}
+
+    /**
+     * Returns the Signature instance which the current thread should use to
+     * verify signatures produced with the given JWS signature algorithm,
+     * creating that instance if it does not yet exist.
+     *
+     * @param algorithm
+     *     The JWS signature algorithm, such as "RS256".
+     *
+     * @param javaAlgorithm
+     *     The name of the corresponding Java signature algorithm, such as
+     *     "SHA256withRSA".
+     *
+     * @return
+     *     The Signature instance which the current thread should use.
+     *
+     * @throws JoseException
+     *     If the Java signature algorithm is not supported.
+     */
+    private static Signature getSignature(String algorithm, String javaAlgorithm)
+            throws JoseException {
+
+        Map<String, Signature> threadSignatures = signatures.get();
+        Signature signature = threadSignatures.get(algorithm);
+        if (signature == null) {
+
+            try {
+                signature = Signature.getInstance(javaAlgorithm);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new JoseException("Unable to verify signatures using \""
+                        + algorithm + "\".", e);
+            }
+
+            threadSignatures.put(algorithm, signature);
+
+        }
+
+        return signature;
+
+    }
+
+    /**
+     * Verifies that the given key is acceptable for verifying signatures
+     * produced with the given JWS signature algorithm, applying the same
+     * restrictions as jose4j.
+     *
+     * @param algorithm
+     *     The JWS signature algorithm, such as "RS256".
+     *
+     * @param key
+     *     The key to check.
+     *
+     * @throws InvalidKeyException
+     *     If the key is of the wrong type, is too small, or uses the wrong
+     *     elliptic curve for the given algorithm.
+     */
+    private static void checkKey(String algorithm, Key key)
+            throws InvalidKeyException {
+
+        Integer curveSize = CURVE_SIZES.get(algorithm);
+
+        // RSA keys must be sufficiently large
+        if (curveSize == null) {
+            if (!(key instanceof RSAPublicKey))
+                throw new InvalidKeyException("An RSA public key is required "
+                        + "for \"" + algorithm + "\".");
+            if (((RSAPublicKey) key).getModulus().bitLength() < MIN_RSA_KEY_SIZE)
+                throw new InvalidKeyException("RSA keys must be at least "
+                        + MIN_RSA_KEY_SIZE + " bits.");
+        }
+
+        // Elliptic curve keys must use the curve dictated by the algorithm
+        else {
+            if (!(key instanceof ECPublicKey))
+                throw new InvalidKeyException("An elliptic curve public key "
+                        + "is required for \"" + algorithm + "\".");
+            if (((ECPublicKey) key).getParams().getCurve().getField().getFieldSize() != curveSize)
+                throw new InvalidKeyException("The elliptic curve of the key "
+                        + "does not match \"" + algorithm + "\".");
+        }
+
+    }
+
+    /**
+     * Verifies the signature of the given JWS using the given key. The
+     * algorithm used is dictated by the "alg" header of the JWS, and must
+     * already have been checked against any algorithm constraints.
+     *
+     * @param jws
+     *     The JWS whose signature should be verified.
+     *
+     * @param key
+     *     The public key to use to verify the signature.
+     *
+     * @return
+     *     true if the signature is valid, false otherwise.
+     *
+     * @throws JoseException
+     *     If the key is not acceptable for the algorithm of the JWS, if the
+     *     algorithm is not supported, or if the signature is malformed.
+     */
+    public static boolean verify(JsonWebSignature jws, Key key)
+            throws JoseException {
+
+        // Defer to jose4j for algorithms not verified directly
+        String algorithm = jws.getAlgorithmHeaderValue();
+        String javaAlgorithm = JAVA_ALGORITHMS.get(algorithm);
+        if (javaAlgorithm == null) {
+            jws.setKey(key);
+            return jws.verifySignature();
+        }
+
+        // As with jose4j, no critical header parameters are understood
+        if (jws.getHeaders().getObjectHeaderValue(HeaderParameterNames.CRITICAL) != null)
+            throw new JoseException("Unrecognized critical header parameter(s): "
+                    + jws.getHeaders().getObjectHeaderValue(HeaderParameterNames.CRITICAL));
+
+        checkKey(algorithm, key);
+
+        byte[] input = StringUtil.getBytesAscii(jws.getHeaders().getEncodedHeader()
+                + "." + jws.getEncodedPayload());
+        byte[] signatureBytes = Base64Url.decode(jws.getEncodedSignature());
+
+        try {
+
+            // ECDSA signatures within a JWS are the concatenation of R and S,
+            // each exactly as long as the field size, while Java expects DER
+            Integer curveSize = CURVE_SIZES.get(algorithm);
+            if (curveSize != null) {
+                if (signatureBytes.length != (curveSize + 7) / 8 * 2)
+                    return false;
+                signatureBytes = EcdsaUsingShaAlgorithm.convertConcatenatedToDer(signatureBytes);
+            }
+
+            Signature signature = getSignature(algorithm, javaAlgorithm);
+            signature.initVerify((PublicKey) key);
+            signature.update(input);
+            return signature.verify(signatureBytes);
+
+        }
+        catch (IOException e) {
+            throw new JoseException("Malformed ECDSA signature.", e);
+        }
+
+        // Conversion of some malformed ECDSA signatures (such as all zero
+        // values) fails with an unchecked exception
+        catch (IndexOutOfBoundsException e) {
+            throw new JoseException("Malformed ECDSA signature.", e);
+        }
+        catch (GeneralSecurityException e) {
+            throw new JoseException("Unable to verify signature.", e);
+        }
+
+    }
+
+}
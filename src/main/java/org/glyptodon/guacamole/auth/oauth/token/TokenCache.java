@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.glyptodon.guacamole.auth.oauth.http.ExpiringCache;
+
+/**
+ * Bounded cache of tokens which have already been successfully validated,
+ * keyed by the SHA-256 digest of each token. Each entry expires after a
+ * configurable amount of time, but never later than the expiration time of
+ * the token itself. If the cache is full, the oldest tokens are evicted. The
+ * cache may be safely used by multiple threads.
+ *
+ * @author Michael Jumper
+ */
+public class TokenCache extends ExpiringCache<ValidatedToken> {
+
+    /**
+     * The maximum amount of time that any token may be cached, in
+     * milliseconds.
+     */
+    private final long maxLifetime;
+
+    /**
+     * Per-thread instances of the SHA-256 MessageDigest, avoiding repeated
+     * provider lookups.
+     */
+    private static final ThreadLocal<MessageDigest> sha256 =
+            new ThreadLocal<MessageDigest>() {
+
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+
+            // Java is required to provide SHA-256 support
+            catch (NoSuchAlgorithmException e) {
+                throw new UnsupportedOperationException("Unexpected lack of SHA-256 support.", e);
+            }
+        }
+
+    };
+
+    /**
+     * Hexadecimal digits, in order of value.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Creates a new TokenCache which stores up to the given number of tokens
+     * for no longer than the given amount of time.
+     *
+     * @param maxSize
+     *     The maximum number of tokens which may be cached at any one time.
+     *     If zero, no tokens will be cached.
+     *
+     * @param maxLifetime
+     *     The maximum amount of time that any token may be cached, in
+     *     milliseconds.
+     */
+    public TokenCache(int maxSize, long maxLifetime) {
+        super(maxSize);
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the given token.
+     *
+     * @param token
+     *     The token to digest.
+     *
+     * @return
+     *     The hexadecimal SHA-256 digest of the given token.
+     */
+    public static String digest(String token) {
+
+        byte[] hash;
+        try {
+            hash = sha256.get().digest(token.getBytes("UTF-8"));
+        }
+
+        // Java is required to provide UTF-8 support
+        catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException("Unexpected lack of UTF-8 support.", e);
+        }
+
+        // Convert to hexadecimal
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2]     = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+
+        return new String(hex);
+
+    }
+
+    /**
+     * Caches the given result of validating the token having the given
+     * digest, evicting the oldest tokens if the cache is full.
+     *
+     * @param digest
+     *     The digest of the token, as returned by digest().
+     *
+     * @param token
+     *     The result of validating the token.
+     */
+    public void put(String digest, ValidatedToken token) {
+
+        // Cache for configured lifetime, but never beyond token expiration
+        put(digest, token, Math.min(token.getExpires(),
+                System.currentTimeMillis() + maxLifetime));
+
+    }
+
+}
@@ -23,17 +23,29 @@
 package org.glyptodon.guacamole.auth.oauth.token;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
-import org.apache.guacamole.GuacamoleSecurityException;
-import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimExtractor;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
 import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
-import org.jose4j.jwk.HttpsJwks;
-import org.jose4j.jwt.JwtClaims;
-import org.jose4j.jwt.MalformedClaimException;
-import org.jose4j.jwt.consumer.InvalidJwtException;
-import org.jose4j.jwt.consumer.JwtConsumer;
-import org.jose4j.jwt.consumer.JwtConsumerBuilder;
-import org.jose4j.keys.resolvers.HttpsJwksVerificationKeyResolver;
+import org.glyptodon.guacamole.auth.oauth.conf.IssuerConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.UserInfoMode;
+import org.glyptodon.guacamole.auth.oauth.conf.ValidationMode;
+import org.glyptodon.guacamole.auth.oauth.http.NegativeCache;
+import org.glyptodon.guacamole.auth.oauth.introspection.IntrospectionService;
+import org.glyptodon.guacamole.auth.oauth.jwks.JWKSService;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.metrics.TimedKeyResolver;
+import org.glyptodon.guacamole.auth.oauth.replay.ReplayCacheService;
+import org.glyptodon.guacamole.auth.oauth.userinfo.UserInfoRequest;
+import org.glyptodon.guacamole.auth.oauth.userinfo.UserInfoService;
 
 /**
  * Service for validating ID tokens forwarded to us by the client, verifying
@@ -41,6 +53,7 @@ import org.jose4j.keys.resolvers.HttpsJwksVerificationKeyResolver;
  *
  * @author Michael Jumper
  */
+@Singleton
 public class TokenValidationService {
 
     /**
@@ -49,11 +62,285 @@ public class TokenValidationService {
     @Inject
     private ConfigurationService confService;
 
+    /**
+     * Service for retrieving the keys used to verify received ID tokens.
+     */
+    @Inject
+    private JWKSService jwksService;
+
+    /**
+     * Service for validating opaque access tokens via introspection.
+     */
+    @Inject
+    private IntrospectionService introspectionService;
+
+    /**
+     * Service for rejecting ID tokens which have already been used.
+     */
+    @Inject
+    private ReplayCacheService replayService;
+
+    /**
+     * Service for retrieving information about users from the UserInfo
+     * endpoint.
+     */
+    @Inject
+    private UserInfoService userInfoService;
+
+    /**
+     * Metrics recording the latency of token validation.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * The validators and token caches built from a particular snapshot of the
+     * OAuth configuration. Each ValidatorState is immutable, and is replaced
+     * as a whole when the configuration changes.
+     */
+    private static class ValidatorState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The validator for each configured issuer, keyed by the expected
+         * value of the "iss" claim. This map is never modified after the
+         * ValidatorState is created.
+         */
+        private final Map<String, TokenValidator> validators;
+
+        /**
+         * Extractor for all claims read by any of the validators. As the
+         * issuer, and thus the validator, is known only after the claims of
+         * a token have been decoded, the claims read by every validator are
+         * extracted.
+         */
+        private final ClaimExtractor extractor;
+
+        /**
+         * Cache of tokens which have already been validated by any of the
+         * validators.
+         */
+        private final TokenCache tokenCache;
+
+        /**
+         * Cache of tokens which recently failed validation, keyed by the
+         * digest of each token, along with the exception describing each
+         * failure.
+         */
+        private final NegativeCache<InvalidTokenException> failureCache;
+
+        /**
+         * Creates a new ValidatorState which validates tokens using the given
+         * validators and caches the results of validation using the given
+         * caches.
+         *
+         * @param configuration
+         *     The configuration from which the validators and cache were
+         *     built.
+         *
+         * @param validators
+         *     The validator for each configured issuer, keyed by the expected
+         *     value of the "iss" claim. This map must not be modified after
+         *     the ValidatorState is created.
+         *
+         * @param tokenCache
+         *     Cache of tokens which have already been validated by any of the
+         *     validators.
+         *
+         * @param failureCache
+         *     Cache of tokens which recently failed validation.
+         */
+        public ValidatorState(OAuthConfiguration configuration,
+                Map<String, TokenValidator> validators, TokenCache tokenCache,
+                NegativeCache<InvalidTokenException> failureCache) {
+            this.configuration = configuration;
+            this.validators = validators;
+            this.tokenCache = tokenCache;
+            this.failureCache = failureCache;
+
+            // Extract only the claims read by some validator
+            Set<String> claimNames = new HashSet<String>();
+            for (TokenValidator validator : validators.values())
+                claimNames.addAll(validator.getClaimNames());
+            this.extractor = new ClaimExtractor(claimNames);
+
+        }
+
+        /**
+         * Validates the given token using the validator chosen by the
+         * unverified "iss" claim of the token. The header and the claims
+         * read by any validator are decoded only once, and are first used to
+         * reject tokens which could never pass validation, such that
+         * malformed, expired, or misdirected tokens cost neither key
+         * resolution nor signature verification. The chosen validator then
+         * verifies the signature and every claim, reusing the claims already
+         * decoded.
+         *
+         * @param token
+         *     The ID token to be validated.
+         *
+         * @return
+         *     The username and claims contained within the given ID token.
+         *
+         * @throws GuacamoleException
+         *     If the token is malformed, is not from any configured issuer, or
+         *     is otherwise invalid.
+         */
+        public ValidatedToken validate(String token)
+                throws GuacamoleException {
+
+            UnverifiedToken unverified = UnverifiedToken.parse(token, extractor);
+
+            String issuer = unverified.getIssuer();
+            TokenValidator validator = issuer != null ? validators.get(issuer) : null;
+            if (validator == null)
+                throw new InvalidTokenException("ID token is not from a "
+                        + "configured issuer.", FailureCause.INVALID_TOKEN);
+
+            validator.prefilter(unverified);
+            return validator.validate(unverified);
+
+        }
+
+    }
+
+    /**
+     * The validators and token caches built from the current configuration, or
+     * null if no validators have yet been built.
+     */
+    private volatile ValidatorState state;
+
+    /**
+     * Returns the validators and token caches which should be used to validate
+     * received ID tokens, building all if they have not yet been built or if
+     * the configuration has changed since they were built. Tokens validated
+     * (or rejected) under any previous configuration must be validated again.
+     *
+     * @return
+     *     The validators and token caches which should be used to validate
+     *     received ID tokens.
+     *
+     * @throws GuacamoleException
+     *     If the configuration has not yet been read and guacamole.properties
+     *     cannot be parsed, or if a required property is missing.
+     */
+    private ValidatorState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        ValidatorState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            // Build a validator, with its own key cache, for each issuer
+            Map<String, TokenValidator> validators = new HashMap<String, TokenValidator>();
+            for (IssuerConfiguration issuer : configuration.getIssuers()) {
+                validators.put(issuer.getIssuer(), new TokenValidator(
+                    issuer.getIssuer(),
+                    issuer.getClientID(),
+                    issuer.getUsernameClaimType(),
+                    configuration.getUserInfoMode() == UserInfoMode.NONE,
+                    configuration.getClaimMapping(),
+                    new TimedKeyResolver(
+                        jwksService.getVerificationKeyResolver(issuer.getJWKSEndpoint()),
+                        metrics
+                    )
+                ));
+            }
+
+            current = new ValidatorState(configuration, validators,
+                new TokenCache(configuration.getTokenCacheSize(),
+                        configuration.getTokenCacheLifetime() * 1000L),
+                new NegativeCache<InvalidTokenException>(configuration.getNegativeCacheSize(),
+                        configuration.getNegativeCacheLifetime() * 1000L)
+            );
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Returns the identifier which should be used to record the given ID
+     * token within the replay cache. If the token has a "jti" claim, the
+     * identifier is derived from that claim and the issuer. Otherwise, the
+     * digest of the token is used.
+     *
+     * @param validated
+     *     The validated ID token.
+     *
+     * @param digest
+     *     The digest of the ID token, as produced by TokenCache.digest().
+     *
+     * @return
+     *     The identifier which should be used to record the given ID token.
+     */
+    private static String getReplayID(ValidatedToken validated, String digest) {
+
+        Object jti = validated.getClaims().get("jti");
+        if (!(jti instanceof String))
+            return digest;
+
+        return "jti:" + validated.getClaims().get("iss") + ":" + jti;
+
+    }
+
+    /**
+     * Returns whether a token which failed validation for the given reason
+     * would fail in the same way if submitted again, and thus may be rejected
+     * immediately if resubmitted. Failures caused by the keys of the OAuth
+     * service being unavailable are assumed to be transient.
+     *
+     * @param cause
+     *     The reason that the token failed validation.
+     *
+     * @return
+     *     true if resubmitting the same token would fail in the same way,
+     *     false otherwise.
+     */
+    private static boolean isPermanent(FailureCause cause) {
+        return cause == FailureCause.INVALID_SIGNATURE
+            || cause == FailureCause.INVALID_TOKEN
+            || cause == FailureCause.MISSING_USERNAME;
+    }
+
+    /**
+     * Builds the validators used by this service from the current
+     * configuration, if they have not already been built. The validators will
+     * automatically be rebuilt if the configuration changes.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if a required property
+     *     is missing.
+     */
+    public void init() throws GuacamoleException {
+        getState();
+    }
+
     /**
      * Validates and parses the given ID token, returning the username contained
      * therein, as defined by the username claim type given in
      * guacamole.properties. If the username claim type is missing or the ID
-     * token is invalid, an exception is thrown instead.
+     * token is invalid, an exception is thrown instead. Tokens which have
+     * already been validated are not validated again until their cache entry
+     * expires, which will be no later than the expiration time of the token.
+     * Likewise, tokens which recently failed validation for reasons that
+     * cannot change are rejected again immediately, with the same exception.
+     * If configured to validate opaque access tokens via introspection, the
+     * given token is instead validated by IntrospectionService.
      *
      * @param token
      *     The ID token to validate and parse.
@@ -66,43 +353,167 @@ public class TokenValidationService {
      *     guacamole.properties could not be parsed.
      */
     public String processUsername(String token) throws GuacamoleException {
+        return processUsername(token, null);
+    }
 
-        // Validating the token requires a JWKS key resolver
-        HttpsJwks jwks = new HttpsJwks(confService.getJWKSEndpoint());
-        HttpsJwksVerificationKeyResolver resolver = new HttpsJwksVerificationKeyResolver(jwks);
-
-        // Create JWT consumer for validating received token
-        JwtConsumer jwtConsumer = new JwtConsumerBuilder()
-                .setRequireExpirationTime()
-                .setMaxFutureValidityInMinutes(300)
-                .setAllowedClockSkewInSeconds(30)
-                .setRequireSubject()
-                .setExpectedIssuer(confService.getIssuer())
-                .setExpectedAudience(confService.getClientID())
-                .setVerificationKeyResolver(resolver)
-                .build();
+    /**
+     * Validates and parses the given ID token, as described by
+     * processUsername(String), additionally verifying that the "nonce" claim
+     * of the ID token matches the given nonce. The nonce is verified even if
+     * the token was already validated, such that a token obtained for one
+     * login cannot be reused by another. Opaque access tokens carry no
+     * nonce, and thus the nonce is ignored if tokens are validated via
+     * introspection.
+     *
+     * @param token
+     *     The ID token to validate and parse.
+     *
+     * @param nonce
+     *     The nonce issued for the login which produced the given ID token,
+     *     or null if the nonce should not be verified.
+     *
+     * @return
+     *     The username contained within the given ID token.
+     *
+     * @throws GuacamoleException
+     *     If the ID token is not valid or was not issued with the given
+     *     nonce, the username claim type is missing, or guacamole.properties
+     *     could not be parsed.
+     */
+    public String processUsername(String token, String nonce)
+            throws GuacamoleException {
+        return processIdentity(token, nonce).getUsername();
+    }
 
+    /**
+     * Validates and parses the given ID token, as described by
+     * processUsername(String, String), returning the full identity of the
+     * user, including any attributes and groups mapped from the claims of
+     * the token. The identity is derived only once for each token, and is
+     * cached along with the result of validation.
+     *
+     * @param token
+     *     The ID token to validate and parse.
+     *
+     * @param nonce
+     *     The nonce issued for the login which produced the given ID token,
+     *     or null if the nonce should not be verified.
+     *
+     * @return
+     *     The identity of the user, as derived from the given ID token.
+     *
+     * @throws GuacamoleException
+     *     If the ID token is not valid or was not issued with the given
+     *     nonce, the username claim type is missing, or guacamole.properties
+     *     could not be parsed.
+     */
+    public UserIdentity processIdentity(String token, String nonce)
+            throws GuacamoleException {
+        return processIdentity(token, nonce, null);
+    }
+
+    /**
+     * Validates and parses the given ID token, as described by
+     * processIdentity(String, String), additionally consulting the UserInfo
+     * endpoint using the given access token if so configured. UserInfo may
+     * be requested as soon as the signature of the ID token has been
+     * verified, in parallel with the remaining checks.
+     *
+     * @param token
+     *     The ID token to validate and parse.
+     *
+     * @param nonce
+     *     The nonce issued for the login which produced the given ID token,
+     *     or null if the nonce should not be verified.
+     *
+     * @param accessToken
+     *     The access token issued alongside the given ID token, or null if no
+     *     access token is available.
+     *
+     * @return
+     *     The identity of the user, as derived from the given ID token and
+     *     any UserInfo.
+     *
+     * @throws GuacamoleException
+     *     If the ID token is not valid or was not issued with the given
+     *     nonce, if the username is missing from both the ID token and
+     *     UserInfo, if UserInfo could not be retrieved, or if
+     *     guacamole.properties could not be parsed.
+     */
+    public UserIdentity processIdentity(String token, String nonce,
+            String accessToken) throws GuacamoleException {
+
+        long start = System.nanoTime();
         try {
 
-            // Validate JWT
-            JwtClaims claims = jwtConsumer.processToClaims(token);
+            ValidatorState current = getState();
 
-            // Pull username from claims
-            String username = claims.getStringClaimValue(confService.getUsernameClaimType());
-            if (username == null)
-                throw new GuacamoleSecurityException("Username missing from token");
+            // Opaque access tokens are validated via introspection instead
+            if (current.configuration.getValidationMode() == ValidationMode.INTROSPECTION)
+                return introspectionService.processIdentity(token);
 
-            // Username successfully retrieved from the JWT
-            return username;
+            // Reject oversized tokens before spending any time hashing them
+            UnverifiedToken.checkLength(token);
 
-        }
+            // Skip validation entirely if token was already validated
+            String digest = TokenCache.digest(token);
+            ValidatedToken validated = current.tokenCache.get(digest);
+            if (validated != null)
+                metrics.recordTokenCacheHit();
+
+            // Otherwise, fully validate token, caching the result
+            else {
+
+                // Reject tokens which recently failed validation without
+                // repeating that validation
+                InvalidTokenException failure = current.failureCache.get(digest);
+                if (failure != null) {
+                    metrics.recordNegativeCacheHit();
+                    throw failure;
+                }
+
+                metrics.recordNegativeCacheMiss();
+
+                long verificationStart = System.nanoTime();
+                try {
+                    validated = current.validate(token);
+                }
+                catch (InvalidTokenException e) {
+                    if (isPermanent(e.getFailureCause()))
+                        current.failureCache.put(digest, e);
+                    throw e;
+                }
+                finally {
+                    metrics.recordLatency(Stage.TOKEN_VERIFICATION,
+                            System.nanoTime() - verificationStart);
+                }
+
+                current.tokenCache.put(digest, validated);
+
+            }
+
+            // Begin retrieving any required UserInfo, which may proceed in
+            // parallel with the remaining checks
+            UserInfoRequest userInfo = userInfoService.prepare(
+                    validated.getIdentity(), validated.getClaims(), accessToken);
+
+            // Token must have been issued for the login in progress
+            if (nonce != null && !nonce.equals(validated.getClaims().get("nonce")))
+                throw new InvalidTokenException("ID token was not issued for "
+                        + "this login.", FailureCause.REPLAYED);
+
+            // Token must not have already been used, including with any
+            // other server sharing the same replay cache
+            replayService.verify(getReplayID(validated, digest), validated.getExpires());
+
+            if (userInfo != null)
+                return userInfoService.complete(userInfo);
+
+            return validated.getIdentity();
 
-        // Rethrow any failures to validate/parse the JWT
-        catch (InvalidJwtException e) {
-            throw new GuacamoleSecurityException("Invalid ID token.", e);
         }
-        catch (MalformedClaimException e) {
-            throw new GuacamoleServerException("Unable to parse JWT claims.", e);
+        finally {
+            metrics.recordLatency(Stage.TOKEN_VALIDATION, System.nanoTime() - start);
         }
 
     }
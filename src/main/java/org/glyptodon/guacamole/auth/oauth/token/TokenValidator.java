@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimMapping;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.resolvers.VerificationKeyResolver;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.UnresolvableKeyException;
+
+/**
+ * Immutable validator for ID tokens issued by a single OAuth service, shared
+ * by all threads validating tokens. Signatures are verified directly against
+ * the resolved key, and registered claims are checked against the claims
+ * extracted prior to verification, such that the claims of each token are
+ * decoded only once. The header and signature are parsed separately, from
+ * the compact serialization, when the signature is verified.
+ *
+ * @author Michael Jumper
+ */
+public class TokenValidator {
+
+    /**
+     * The signature algorithms which may be used by ID tokens. Only
+     * asymmetric algorithms are accepted, as keys are retrieved from the
+     * public JWKS of each issuer.
+     */
+    private static final Set<String> ALLOWED_ALGORITHMS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList(
+                AlgorithmIdentifiers.RSA_USING_SHA256,
+                AlgorithmIdentifiers.RSA_USING_SHA384,
+                AlgorithmIdentifiers.RSA_USING_SHA512,
+                AlgorithmIdentifiers.RSA_PSS_USING_SHA256,
+                AlgorithmIdentifiers.RSA_PSS_USING_SHA384,
+                AlgorithmIdentifiers.RSA_PSS_USING_SHA512,
+                AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256,
+                AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384,
+                AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512
+            )));
+
+    /**
+     * The amount of clock skew to tolerate when checking the expiration time
+     * of tokens, in seconds. Tokens are accepted for up to this long after
+     * they expire.
+     */
+    public static final int ALLOWED_CLOCK_SKEW = 30;
+
+    /**
+     * The maximum amount of time that a token may remain valid, in minutes.
+     */
+    private static final int MAX_FUTURE_VALIDITY = 300;
+
+    /**
+     * The names of the registered claims read during validation or by
+     * whatever subsequently handles validated tokens, regardless of
+     * configuration.
+     */
+    private static final List<String> REGISTERED_CLAIMS = Collections.unmodifiableList(
+            Arrays.asList("iss", "sub", "aud", "exp", "nbf", "nonce", "jti"));
+
+    /**
+     * The OAuth client ID, which is the audience expected for all received ID
+     * tokens.
+     */
+    private final String clientID;
+
+    /**
+     * The issuer expected for all received ID tokens.
+     */
+    private final String issuer;
+
+    /**
+     * The resolver which provides the key required to verify the signature
+     * of each received ID token.
+     */
+    private final VerificationKeyResolver resolver;
+
+    /**
+     * The claim type which contains the authenticated user's username within
+     * any valid JWT.
+     */
+    private final String usernameClaimType;
+
+    /**
+     * Whether tokens lacking the username claim should be rejected. If
+     * false, such tokens are accepted, and the username must be determined
+     * separately.
+     */
+    private final boolean usernameRequired;
+
+    /**
+     * The plan for deriving user attributes and groups from the claims of
+     * each validated token.
+     */
+    private final ClaimMapping claimMapping;
+
+    /**
+     * Creates a new TokenValidator which validates ID tokens against the given
+     * issuer, client ID, and keys.
+     *
+     * @param issuer
+     *     The issuer to expect for all received ID tokens.
+     *
+     * @param clientID
+     *     The OAuth client ID, which is the audience expected for all received
+     *     ID tokens.
+     *
+     * @param usernameClaimType
+     *     The claim type which contains the authenticated user's username
+     *     within any valid JWT.
+     *
+     * @param usernameRequired
+     *     Whether tokens lacking the username claim should be rejected. If
+     *     false, such tokens are accepted, and the username must be
+     *     determined separately, such as via the UserInfo endpoint.
+     *
+     * @param claimMapping
+     *     The plan for deriving user attributes and groups from the claims of
+     *     each validated token.
+     *
+     * @param resolver
+     *     The VerificationKeyResolver which should be used to resolve the keys
+     *     required to verify the signatures of received ID tokens.
+     */
+    public TokenValidator(String issuer, String clientID,
+            String usernameClaimType, boolean usernameRequired,
+            ClaimMapping claimMapping, VerificationKeyResolver resolver) {
+
+        this.issuer = issuer;
+        this.clientID = clientID;
+        this.usernameClaimType = usernameClaimType;
+        this.usernameRequired = usernameRequired;
+        this.claimMapping = claimMapping;
+        this.resolver = resolver;
+
+    }
+
+    /**
+     * Returns the names of all top-level claims which this validator reads
+     * from the claims of each token, including the registered claims which
+     * are checked during validation, the username claim, and any claims
+     * read by the claim mapping. All other claims are ignored, and need not
+     * be decoded.
+     *
+     * @return
+     *     A new set containing the names of all top-level claims read by this
+     *     validator.
+     */
+    public Set<String> getClaimNames() {
+        Set<String> claimNames = new LinkedHashSet<String>(REGISTERED_CLAIMS);
+        claimNames.add(usernameClaimType);
+        claimNames.addAll(claimMapping.getClaimNames());
+        return claimNames;
+    }
+
+    /**
+     * Rejects the given token if its unverified header and claims show that
+     * it could never pass validation, due to an unacceptable signature
+     * algorithm, the wrong audience, or having expired. These checks are
+     * repeated during validation, but performing them first avoids resolving
+     * keys, which may require retrieving the JWKS, and verifying signatures
+     * for tokens which will be rejected regardless. The issuer of the token
+     * must have already been checked.
+     *
+     * @param token
+     *     The unverified header and claims of the token.
+     *
+     * @throws InvalidTokenException
+     *     If the token could never pass validation.
+     */
+    public void prefilter(UnverifiedToken token) throws InvalidTokenException {
+
+        String algorithm = token.getAlgorithm();
+        if (algorithm == null || !ALLOWED_ALGORITHMS.contains(algorithm))
+            throw new InvalidTokenException("ID token is not signed with an "
+                    + "accepted algorithm.", FailureCause.INVALID_TOKEN);
+
+        if (!token.hasAudience(clientID))
+            throw new InvalidTokenException("ID token was not issued for "
+                    + "this client.", FailureCause.INVALID_TOKEN);
+
+        Long expires = token.getExpirationTime();
+        long now = System.currentTimeMillis() / 1000;
+        if (expires == null || expires + ALLOWED_CLOCK_SKEW <= now
+                || expires - ALLOWED_CLOCK_SKEW > now + MAX_FUTURE_VALIDITY * 60L)
+            throw new InvalidTokenException("ID token has expired or has an "
+                    + "invalid expiration time.", FailureCause.INVALID_TOKEN);
+
+    }
+
+    /**
+     * Returns the value of the given claim as a NumericDate, in seconds since
+     * the epoch.
+     *
+     * @param claims
+     *     The claims of the token.
+     *
+     * @param name
+     *     The name of the claim.
+     *
+     * @return
+     *     The value of the given claim, in seconds since the epoch, or null if
+     *     the token has no such claim.
+     *
+     * @throws InvalidTokenException
+     *     If the given claim is present but is not a number.
+     */
+    private static Long getNumericDate(Map<String, Object> claims, String name)
+            throws InvalidTokenException {
+
+        Object value = claims.get(name);
+        if (value == null)
+            return null;
+
+        if (!(value instanceof Number))
+            throw new InvalidTokenException("The \"" + name + "\" claim of "
+                    + "the ID token is not a number.", FailureCause.INVALID_TOKEN);
+
+        return ((Number) value).longValue();
+
+    }
+
+    /**
+     * Returns whether the given value of the "aud" claim contains the OAuth
+     * client ID. The "aud" claim may be either a single string or an array
+     * of strings.
+     *
+     * @param audience
+     *     The value of the "aud" claim.
+     *
+     * @return
+     *     true if the given value of the "aud" claim contains the OAuth
+     *     client ID, false otherwise.
+     *
+     * @throws InvalidTokenException
+     *     If the "aud" claim is an array containing anything other than
+     *     strings.
+     */
+    private boolean hasAudience(Object audience) throws InvalidTokenException {
+
+        if (!(audience instanceof List))
+            return clientID.equals(audience);
+
+        boolean found = false;
+        for (Object element : (List<?>) audience) {
+            if (!(element instanceof String))
+                throw new InvalidTokenException("The \"aud\" claim of the ID "
+                        + "token is not an array of strings.",
+                        FailureCause.INVALID_TOKEN);
+            found |= clientID.equals(element);
+        }
+
+        return found;
+
+    }
+
+    /**
+     * Validates the registered claims of the given token, applying the same
+     * rules as jose4j's JwtConsumer: the token must have an expiration time
+     * which has not passed and is not unreasonably far in the future, must
+     * not be used before any "nbf" time, and must have the expected issuer,
+     * the expected audience, and a subject.
+     *
+     * @param claims
+     *     The verified claims of the token.
+     *
+     * @return
+     *     The expiration time of the token, in seconds since the epoch.
+     *
+     * @throws InvalidTokenException
+     *     If any registered claim is missing, malformed, or invalid.
+     */
+    private long validateClaims(Map<String, Object> claims)
+            throws InvalidTokenException {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        Long expires = getNumericDate(claims, "exp");
+        if (expires == null)
+            throw new InvalidTokenException("ID token has no expiration "
+                    + "time.", FailureCause.INVALID_TOKEN);
+
+        if (now - ALLOWED_CLOCK_SKEW >= expires)
+            throw new InvalidTokenException("ID token has expired.",
+                    FailureCause.INVALID_TOKEN);
+
+        if (expires - ALLOWED_CLOCK_SKEW > now + MAX_FUTURE_VALIDITY * 60L)
+            throw new InvalidTokenException("ID token expires too far in the "
+                    + "future.", FailureCause.INVALID_TOKEN);
+
+        Long notBefore = getNumericDate(claims, "nbf");
+        if (notBefore != null && now + ALLOWED_CLOCK_SKEW < notBefore)
+            throw new InvalidTokenException("ID token is not yet valid.",
+                    FailureCause.INVALID_TOKEN);
+
+        if (!issuer.equals(claims.get("iss")))
+            throw new InvalidTokenException("ID token is not from the "
+                    + "expected issuer.", FailureCause.INVALID_TOKEN);
+
+        if (!hasAudience(claims.get("aud")))
+            throw new InvalidTokenException("ID token was not issued for "
+                    + "this client.", FailureCause.INVALID_TOKEN);
+
+        if (!(claims.get("sub") instanceof String))
+            throw new InvalidTokenException("ID token has no subject.",
+                    FailureCause.INVALID_TOKEN);
+
+        return expires;
+
+    }
+
+    /**
+     * Validates the given ID token, returning the username and claims
+     * contained therein. If the ID token is invalid, or the username claim is
+     * missing and required, an exception is thrown instead. The signature of
+     * the token is verified by SignatureVerifier using the JWS already
+     * decoded from the token, after which the claims already decoded from the
+     * token are validated directly, without parsing the token or its header
+     * again, or decoding any claims which are not read by this validator.
+     *
+     * @param token
+     *     The ID token to validate, along with its header and claims as
+     *     decoded using a ClaimExtractor which requests at least the claims
+     *     returned by getClaimNames().
+     *
+     * @return
+     *     The username and claims contained within the given ID token.
+     *
+     * @throws GuacamoleException
+     *     If the ID token is not valid or the username claim is missing.
+     */
+    public ValidatedToken validate(UnverifiedToken token)
+            throws GuacamoleException {
+
+        try {
+
+            // Reuse the JWS whose header was decoded with the claims
+            JsonWebSignature jws = token.getSignature();
+            if (!ALLOWED_ALGORITHMS.contains(token.getAlgorithm()))
+                throw new InvalidTokenException("ID token is not signed with "
+                        + "an accepted algorithm.", FailureCause.INVALID_TOKEN);
+
+            // Verify signature using the already-parsed key referenced by the
+            // token and a Signature reused by the current thread
+            Key key = resolver.resolveKey(jws, Collections.<JsonWebStructure>emptyList());
+            if (!SignatureVerifier.verify(jws, key))
+                throw new InvalidTokenException("Invalid ID token.",
+                        FailureCause.INVALID_SIGNATURE);
+
+        }
+
+        // Rethrow any failures to parse or verify the JWT
+        catch (UnresolvableKeyException e) {
+            throw new InvalidTokenException("Invalid ID token.", e,
+                    FailureCause.UNAVAILABLE_KEY);
+        }
+        catch (JoseException e) {
+            throw new InvalidTokenException("Invalid ID token.", e,
+                    FailureCause.INVALID_TOKEN);
+        }
+
+        // The claims decoded prior to verification are now verified
+        Map<String, Object> claims = token.getClaims();
+        long expires = validateClaims(claims);
+
+        // Pull username from claims
+        Object username = claims.get(usernameClaimType);
+        if (username != null && !(username instanceof String))
+            throw new GuacamoleServerException("Unable to parse JWT claims: "
+                    + "The value of the \"" + usernameClaimType + "\" claim "
+                    + "is not a string.");
+
+        if (username == null && usernameRequired)
+            throw new InvalidTokenException("Username missing from token",
+                    FailureCause.MISSING_USERNAME);
+
+        // Derive remaining identity from the already-decoded claims
+        return new ValidatedToken(claimMapping.map((String) username, claims),
+                claims, expires * 1000);
+
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.util.List;
+import java.util.Map;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimExtractor;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.HeaderParameterNames;
+import org.jose4j.lang.JoseException;
+
+/**
+ * The header and claims of a JWT which has not yet been verified. Values
+ * read this way MUST NOT be trusted, and are suitable only for deciding how
+ * the token should subsequently be verified, or for cheaply rejecting tokens
+ * which could never pass verification before any keys are resolved or
+ * signatures checked. Only the claims requested via a ClaimExtractor are
+ * decoded. The header is decoded only once, into a JsonWebSignature whose
+ * signature may later be verified without parsing the token again. Once the
+ * signature of the token has been verified, the decoded claims may be used
+ * as verified claims without decoding them again.
+ *
+ * @author Michael Jumper
+ */
+public class UnverifiedToken {
+
+    /**
+     * The maximum length of any token, in characters. Longer tokens are
+     * rejected without being decoded.
+     */
+    public static final int MAX_LENGTH = 16384;
+
+    /**
+     * The token itself, in compact serialization.
+     */
+    private final String token;
+
+    /**
+     * The token as a JWS, with its header decoded but its signature not yet
+     * verified.
+     */
+    private final JsonWebSignature jws;
+
+    /**
+     * The value of the "alg" header parameter, or null if the header has no
+     * such string parameter.
+     */
+    private final String algorithm;
+
+    /**
+     * The requested claims of the token, decoded but unverified.
+     */
+    private final Map<String, Object> claims;
+
+    /**
+     * Creates a new UnverifiedToken having the given header and claims.
+     *
+     * @param token
+     *     The token itself, in compact serialization.
+     *
+     * @param jws
+     *     The token as a JWS, with its header decoded but its signature not
+     *     yet verified.
+     *
+     * @param algorithm
+     *     The value of the "alg" header parameter, or null if the header has
+     *     no such string parameter.
+     *
+     * @param claims
+     *     The requested claims of the token, decoded but unverified.
+     */
+    private UnverifiedToken(String token, JsonWebSignature jws,
+            String algorithm, Map<String, Object> claims) {
+        this.token = token;
+        this.jws = jws;
+        this.algorithm = algorithm;
+        this.claims = claims;
+    }
+
+    /**
+     * Returns whether the given range of the given string consists only of
+     * characters of the base64url alphabet, and is not empty.
+     *
+     * @param value
+     *     The string to check.
+     *
+     * @param start
+     *     The index of the first character of the range.
+     *
+     * @param end
+     *     The index immediately after the last character of the range.
+     *
+     * @return
+     *     true if the given range is a non-empty base64url string, false
+     *     otherwise.
+     */
+    private static boolean isBase64Url(String value, int start, int end) {
+
+        if (start >= end)
+            return false;
+
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9') || c == '-' || c == '_'))
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Rejects the given token if it is longer than any legitimate token, such
+     * that the token can be rejected before any time is spent hashing or
+     * decoding it.
+     *
+     * @param token
+     *     The token to check.
+     *
+     * @throws InvalidTokenException
+     *     If the token is longer than MAX_LENGTH.
+     */
+    public static void checkLength(String token) throws InvalidTokenException {
+        if (token.length() > MAX_LENGTH)
+            throw new InvalidTokenException("ID token is too long.",
+                    FailureCause.INVALID_TOKEN);
+    }
+
+    /**
+     * Decodes the header and requested claims of the given JWT without
+     * verifying the token in any way. The token is rejected, without
+     * decoding, if it is too long or is not a signed JWT in compact
+     * serialization.
+     *
+     * @param token
+     *     The JWT, in compact serialization.
+     *
+     * @param extractor
+     *     The ClaimExtractor which should be used to decode the claims of
+     *     the token. Claims not requested by this extractor are not decoded.
+     *
+     * @return
+     *     The decoded header and unverified claims of the given JWT.
+     *
+     * @throws InvalidTokenException
+     *     If the token is too long, is not a signed JWT in compact
+     *     serialization, or does not contain a valid header and claims.
+     */
+    public static UnverifiedToken parse(String token,
+            ClaimExtractor extractor) throws InvalidTokenException {
+
+        checkLength(token);
+
+        // Signed JWTs consist of exactly three base64url segments
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd == -1 ? -1 : token.indexOf('.', headerEnd + 1);
+        if (payloadEnd == -1 || token.indexOf('.', payloadEnd + 1) != -1
+                || !isBase64Url(token, 0, headerEnd)
+                || !isBase64Url(token, headerEnd + 1, payloadEnd)
+                || !isBase64Url(token, payloadEnd + 1, token.length()))
+            throw new InvalidTokenException("ID token is not a signed JWT.",
+                    FailureCause.INVALID_TOKEN);
+
+        // Decode the header only once, retaining the resulting JWS for
+        // verification of its signature
+        JsonWebSignature jws = new JsonWebSignature();
+        Object algorithm;
+        Map<String, Object> claims;
+        try {
+            jws.setCompactSerialization(token);
+            algorithm = jws.getHeaders().getObjectHeaderValue(HeaderParameterNames.ALGORITHM);
+            claims = extractor.extract(jws.getUnverifiedPayload());
+        }
+        catch (JoseException e) {
+            throw new InvalidTokenException("ID token is malformed.", e,
+                    FailureCause.INVALID_TOKEN);
+        }
+        catch (RuntimeException e) {
+            throw new InvalidTokenException("ID token is malformed.", e,
+                    FailureCause.INVALID_TOKEN);
+        }
+
+        return new UnverifiedToken(token, jws,
+                algorithm instanceof String ? (String) algorithm : null,
+                claims);
+
+    }
+
+    /**
+     * Returns the token itself, in compact serialization.
+     *
+     * @return
+     *     The token itself, in compact serialization.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the token as a JWS, with its header already decoded. The
+     * signature of the returned JWS has not been verified.
+     *
+     * @return
+     *     The token as a JWS whose signature has not been verified.
+     */
+    public JsonWebSignature getSignature() {
+        return jws;
+    }
+
+    /**
+     * Returns the requested claims of the token. These claims MUST NOT be
+     * trusted unless the signature of the token has been verified.
+     *
+     * @return
+     *     The requested claims of the token, decoded but unverified.
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * Returns the value of the "alg" header parameter.
+     *
+     * @return
+     *     The unverified value of the "alg" header parameter, or null if the
+     *     header has no such string parameter.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the value of the "iss" claim.
+     *
+     * @return
+     *     The unverified value of the "iss" claim, or null if the token has
+     *     no such string claim.
+     */
+    public String getIssuer() {
+        Object issuer = claims.get("iss");
+        return issuer instanceof String ? (String) issuer : null;
+    }
+
+    /**
+     * Returns whether the "aud" claim contains the given audience. The "aud"
+     * claim may be either a single string or an array of strings.
+     *
+     * @param audience
+     *     The audience to search for.
+     *
+     * @return
+     *     true if the "aud" claim contains the given audience, false
+     *     otherwise.
+     */
+    public boolean hasAudience(String audience) {
+
+        Object value = claims.get("aud");
+        if (value instanceof List)
+            return ((List<?>) value).contains(audience);
+
+        return audience.equals(value);
+
+    }
+
+    /**
+     * Returns the value of the "exp" claim.
+     *
+     * @return
+     *     The unverified value of the "exp" claim, in seconds since the
+     *     epoch, or null if the token has no such numeric claim.
+     */
+    public Long getExpirationTime() {
+        Object expires = claims.get("exp");
+        return expires instanceof Number ? ((Number) expires).longValue() : null;
+    }
+
+}
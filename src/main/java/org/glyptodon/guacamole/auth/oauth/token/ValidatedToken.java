@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.util.Map;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+
+/**
+ * The result of successfully validating an ID token, consisting of the
+ * identity of the user and the claims extracted from that token.
+ *
+ * @author Michael Jumper
+ */
+public class ValidatedToken {
+
+    /**
+     * The identity of the user, as derived from the claims of the token.
+     */
+    private final UserIdentity identity;
+
+    /**
+     * The claims extracted from the token, limited to those read by the
+     * validator. These claims must not be modified.
+     */
+    private final Map<String, Object> claims;
+
+    /**
+     * The time that the token expires, in milliseconds since midnight of
+     * January 1, 1970 UTC.
+     */
+    private final long expires;
+
+    /**
+     * Creates a new ValidatedToken having the given identity, claims, and
+     * expiration time.
+     *
+     * @param identity
+     *     The identity of the user, as derived from the claims of the token.
+     *
+     * @param claims
+     *     The claims extracted from the token, limited to those read by the
+     *     validator.
+     *
+     * @param expires
+     *     The time that the token expires, in milliseconds since midnight of
+     *     January 1, 1970 UTC.
+     */
+    public ValidatedToken(UserIdentity identity, Map<String, Object> claims,
+            long expires) {
+        this.identity = identity;
+        this.claims = claims;
+        this.expires = expires;
+    }
+
+    /**
+     * Returns the username contained within the token.
+     *
+     * @return
+     *     The username contained within the token.
+     */
+    public String getUsername() {
+        return identity.getUsername();
+    }
+
+    /**
+     * Returns the identity of the user, including any attributes and groups
+     * mapped from the claims of the token.
+     *
+     * @return
+     *     The identity of the user.
+     */
+    public UserIdentity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Returns the claims extracted from the token. Only claims read by the
+     * validator are present. The returned claims are shared by all users of
+     * this ValidatedToken and must not be modified.
+     *
+     * @return
+     *     The claims extracted from the token.
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * Returns the time that the token expires.
+     *
+     * @return
+     *     The time that the token expires, in milliseconds since midnight of
+     *     January 1, 1970 UTC.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+}
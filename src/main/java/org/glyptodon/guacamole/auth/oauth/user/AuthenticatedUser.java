@@ -23,13 +23,17 @@
 package org.glyptodon.guacamole.auth.oauth.user;
 
 import com.google.inject.Inject;
+import java.util.Map;
+import java.util.Set;
 import org.apache.guacamole.net.auth.AbstractAuthenticatedUser;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
 import org.apache.guacamole.net.auth.Credentials;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
 
 /**
  * An OAuth-specific implementation of AuthenticatedUser, associating a
- * username and particular set of credentials with the OAuth authentication
+ * username, the attributes and groups mapped from the claims of the user's
+ * token, and particular set of credentials with the OAuth authentication
  * provider.
  *
  * @author Michael Jumper
@@ -49,18 +53,49 @@ public class AuthenticatedUser extends AbstractAuthenticatedUser {
     private Credentials credentials;
 
     /**
-     * Initializes this AuthenticatedUser using the given username and
+     * The identity of this user, as derived from the claims of the user's
+     * token.
+     */
+    private UserIdentity identity;
+
+    /**
+     * Initializes this AuthenticatedUser using the given identity and
      * credentials.
      *
-     * @param username
-     *     The username of the user that was authenticated.
+     * @param identity
+     *     The identity of the user that was authenticated.
      *
      * @param credentials
      *     The credentials provided when this user was authenticated.
      */
-    public void init(String username, Credentials credentials) {
+    public void init(UserIdentity identity, Credentials credentials) {
         this.credentials = credentials;
-        setIdentifier(username);
+        this.identity = identity;
+        setIdentifier(identity.getUsername());
+    }
+
+    /**
+     * Returns all attributes of this user which were mapped from the claims
+     * of the user's token.
+     *
+     * @return
+     *     An unmodifiable map of all attributes of this user, keyed by
+     *     attribute name.
+     */
+    public Map<String, String> getAttributes() {
+        return identity.getAttributes();
+    }
+
+    /**
+     * Returns the names of all groups of which this user is a member, as
+     * mapped from the claims of the user's token.
+     *
+     * @return
+     *     An unmodifiable set of the names of all groups of which this user
+     *     is a member.
+     */
+    public Set<String> getEffectiveUserGroups() {
+        return identity.getGroups();
     }
 
     @Override
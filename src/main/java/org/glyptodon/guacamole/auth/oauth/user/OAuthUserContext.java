@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.user;
+
+import java.util.Collections;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.apache.guacamole.net.auth.permission.SystemPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleSystemPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleUser;
+import org.apache.guacamole.net.auth.simple.SimpleUserContext;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+
+/**
+ * UserContext which grants an OAuth user the system permissions associated
+ * with that user's groups. No connections are exposed.
+ *
+ * @author Michael Jumper
+ */
+public class OAuthUserContext extends SimpleUserContext {
+
+    /**
+     * The user to whom this context belongs.
+     */
+    private final User self;
+
+    /**
+     * Creates a new OAuthUserContext for the given user, granting that user
+     * the given system permissions.
+     *
+     * @param authProvider
+     *     The AuthenticationProvider creating this context.
+     *
+     * @param username
+     *     The username of the user to whom this context belongs.
+     *
+     * @param permissions
+     *     The system permissions granted to the user.
+     */
+    public OAuthUserContext(AuthenticationProvider authProvider,
+            String username, final Set<SystemPermission> permissions) {
+
+        super(authProvider, username,
+                Collections.<String, GuacamoleConfiguration>emptyMap());
+
+        this.self = new SimpleUser(username) {
+
+            @Override
+            public SystemPermissionSet getSystemPermissions()
+                    throws GuacamoleException {
+                return new SimpleSystemPermissionSet(permissions);
+            }
+
+        };
+
+    }
+
+    @Override
+    public User self() {
+        return self;
+    }
+
+}
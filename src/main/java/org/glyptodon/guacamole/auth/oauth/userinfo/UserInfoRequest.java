@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.userinfo;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+
+/**
+ * A request for the UserInfo of a single user, which may not yet have been
+ * submitted to the UserInfo endpoint.
+ *
+ * @author Michael Jumper
+ */
+public class UserInfoRequest {
+
+    /**
+     * The identity of the user, as derived from the user's ID token.
+     */
+    private final UserIdentity identity;
+
+    /**
+     * The issuer and subject of the user's ID token, identifying the user
+     * across all logins.
+     */
+    private final String key;
+
+    /**
+     * The subject of the user's ID token, which must match the subject of the
+     * UserInfo response.
+     */
+    private final String subject;
+
+    /**
+     * The claim type which contains the user's username.
+     */
+    private final String usernameClaimType;
+
+    /**
+     * The access token of the user.
+     */
+    private final String accessToken;
+
+    /**
+     * The pending or completed retrieval of the user's UserInfo, or null if
+     * the UserInfo has not yet been requested.
+     */
+    private Future<Map<String, Object>> response;
+
+    /**
+     * Creates a new UserInfoRequest for the user having the given identity
+     * and access token.
+     *
+     * @param identity
+     *     The identity of the user, as derived from the user's ID token.
+     *
+     * @param key
+     *     The issuer and subject of the user's ID token, identifying the user
+     *     across all logins.
+     *
+     * @param subject
+     *     The subject of the user's ID token.
+     *
+     * @param usernameClaimType
+     *     The claim type which contains the user's username.
+     *
+     * @param accessToken
+     *     The access token of the user.
+     */
+    public UserInfoRequest(UserIdentity identity, String key, String subject,
+            String usernameClaimType, String accessToken) {
+        this.identity = identity;
+        this.key = key;
+        this.subject = subject;
+        this.usernameClaimType = usernameClaimType;
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * Returns the identity of the user, as derived from the user's ID token.
+     *
+     * @return
+     *     The identity of the user, as derived from the user's ID token.
+     */
+    public UserIdentity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Returns the issuer and subject of the user's ID token, which together
+     * identify the user across all logins.
+     *
+     * @return
+     *     The issuer and subject of the user's ID token.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the subject of the user's ID token.
+     *
+     * @return
+     *     The subject of the user's ID token.
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Returns the claim type which contains the user's username.
+     *
+     * @return
+     *     The claim type which contains the user's username.
+     */
+    public String getUsernameClaimType() {
+        return usernameClaimType;
+    }
+
+    /**
+     * Returns the access token of the user.
+     *
+     * @return
+     *     The access token of the user.
+     */
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * Returns the pending or completed retrieval of the user's UserInfo.
+     *
+     * @return
+     *     The pending or completed retrieval of the user's UserInfo, or null
+     *     if the UserInfo has not yet been requested.
+     */
+    public Future<Map<String, Object>> getResponse() {
+        return response;
+    }
+
+    /**
+     * Sets the pending retrieval of the user's UserInfo.
+     *
+     * @param response
+     *     The pending retrieval of the user's UserInfo.
+     */
+    public void setResponse(Future<Map<String, Object>> response) {
+        this.response = response;
+    }
+
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.glyptodon.guacamole.auth.oauth.userinfo;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.glyptodon.guacamole.auth.oauth.conf.IssuerConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.OAuthConfiguration;
+import org.glyptodon.guacamole.auth.oauth.conf.UserInfoMode;
+import org.glyptodon.guacamole.auth.oauth.http.BearerEndpointClient;
+import org.glyptodon.guacamole.auth.oauth.http.LookupCache;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.glyptodon.guacamole.auth.oauth.metrics.Stage;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which retrieves information about users from the UserInfo endpoint
+ * of the OpenID provider, either to determine the username of users whose ID
+ * tokens lack a username or to add further attributes and groups to every
+ * login. UserInfo is cached per user, with concurrent requests for the same
+ * user shared, and may be requested as soon as the signature of the ID token
+ * has been verified such that the request proceeds in parallel with the
+ * remaining checks of the login.
+ *
+ * @author Michael Jumper
+ */
+@Singleton
+public class UserInfoService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(UserInfoService.class);
+
+    /**
+     * The maximum number of UserInfo requests which may wait for a free
+     * thread. Logins requiring requests beyond this limit are rejected as the
+     * server being busy.
+     */
+    private static final int MAX_QUEUED_REQUESTS = 64;
+
+    /**
+     * Service for retrieving OAuth configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Metrics recording the time spent waiting for UserInfo.
+     */
+    @Inject
+    private LoginMetrics metrics;
+
+    /**
+     * The client, cache, and pool of threads built from a particular
+     * snapshot of the OAuth configuration. Each UserInfoState is immutable,
+     * and is replaced as a whole when the configuration changes.
+     */
+    private static class UserInfoState {
+
+        /**
+         * The configuration from which this state was built.
+         */
+        private final OAuthConfiguration configuration;
+
+        /**
+         * The client for the UserInfo endpoint, or null if the UserInfo
+         * endpoint is never consulted.
+         */
+        private final BearerEndpointClient client;
+
+        /**
+         * Cache of the UserInfo retrieved for each user, keyed by the issuer
+         * and subject of the user's ID token.
+         */
+        private final LookupCache<Map<String, Object>> cache;
+
+        /**
+         * The pool of threads which performs all UserInfo requests, or null
+         * if the UserInfo endpoint is never consulted.
+         */
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * Creates a new UserInfoState which retrieves UserInfo using the
+         * given client and pool of threads, caching the results using the
+         * given cache.
+         *
+         * @param configuration
+         *     The configuration from which the client, cache, and pool were
+         *     built.
+         *
+         * @param client
+         *     The client for the UserInfo endpoint, or null if the UserInfo
+         *     endpoint is never consulted.
+         *
+         * @param cache
+         *     Cache of the UserInfo retrieved for each user.
+         *
+         * @param executor
+         *     The pool of threads which performs all UserInfo requests, or
+         *     null if the UserInfo endpoint is never consulted.
+         */
+        public UserInfoState(OAuthConfiguration configuration,
+                BearerEndpointClient client,
+                LookupCache<Map<String, Object>> cache,
+                ThreadPoolExecutor executor) {
+            this.configuration = configuration;
+            this.client = client;
+            this.cache = cache;
+            this.executor = executor;
+        }
+
+    }
+
+    /**
+     * The client, cache, and pool of threads built from the current
+     * configuration, or null if none have yet been built.
+     */
+    private volatile UserInfoState state;
+
+    /**
+     * Creates a new pool of daemon threads for performing UserInfo requests.
+     * Idle threads are stopped, and requests beyond the capacity of the pool
+     * and its queue are rejected.
+     *
+     * @param threads
+     *     The maximum number of UserInfo requests which may be in progress at
+     *     any one time.
+     *
+     * @return
+     *     A new pool of threads for performing UserInfo requests.
+     */
+    private static ThreadPoolExecutor createExecutor(int threads) {
+
+        threads = Math.max(1, threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS),
+                new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "guacamole-auth-openid-userinfo");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+
+    }
+
+    /**
+     * Returns the client, cache, and pool of threads which should be used to
+     * retrieve UserInfo, building all three if they have not yet been built
+     * or if the configuration has changed since they were built. Requests
+     * already in progress under any previous configuration are allowed to
+     * complete.
+     *
+     * @return
+     *     The client, cache, and pool of threads which should be used to
+     *     retrieve UserInfo.
+     *
+     * @throws GuacamoleException
+     *     If the configuration has not yet been read and guacamole.properties
+     *     cannot be parsed, or if the UserInfo endpoint is invalid.
+     */
+    private UserInfoState getState() throws GuacamoleException {
+
+        // Use existing state if built from the current configuration
+        OAuthConfiguration configuration = confService.getConfiguration();
+        UserInfoState current = state;
+        if (current != null && current.configuration == configuration)
+            return current;
+
+        // Otherwise, rebuild state from the current configuration
+        synchronized (this) {
+
+            current = state;
+            if (current != null && current.configuration == configuration)
+                return current;
+
+            BearerEndpointClient client = null;
+            ThreadPoolExecutor executor = null;
+            if (configuration.getUserInfoMode() != UserInfoMode.NONE) {
+
+                try {
+                    client = new BearerEndpointClient(
+                            configuration.getUserInfoEndpoint(),
+                            configuration.getUserInfoTimeout(),
+                            configuration.getUserInfoTimeout());
+                }
+                catch (IOException e) {
+                    throw new GuacamoleServerException("Invalid UserInfo "
+                            + "endpoint: " + e.getMessage(), e);
+                }
+
+                executor = createExecutor(configuration.getUserInfoThreads());
+
+            }
+
+            // Allow requests under the previous configuration to complete
+            if (current != null && current.executor != null)
+                current.executor.shutdown();
+
+            current = new UserInfoState(configuration, client,
+                new LookupCache<Map<String, Object>>(configuration.getUserInfoCacheSize(),
+                        configuration.getUserInfoCacheLifetime() * 1000L),
+                executor
+            );
+
+            state = current;
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Returns the claim type which contains the username of users
+     * authenticated by the given issuer.
+     *
+     * @param configuration
+     *     The configuration defining all accepted issuers.
+     *
+     * @param issuer
+     *     The issuer of the user's ID token.
+     *
+     * @return
+     *     The claim type which contains the username of users authenticated
+     *     by the given issuer.
+     */
+    private static String getUsernameClaimType(OAuthConfiguration configuration,
+            Object issuer) {
+
+        for (IssuerConfiguration config : configuration.getIssuers()) {
+            if (config.getIssuer().equals(issuer))
+                return config.getUsernameClaimType();
+        }
+
+        return configuration.getUsernameClaimType();
+
+    }
+
+    /**
+     * Submits the given request to the UserInfo endpoint, unless the
+     * UserInfo of the same user is already cached or being requested.
+     *
+     * @param current
+     *     The client, cache, and pool of threads to use for the request.
+     *
+     * @param request
+     *     The request to submit.
+     *
+     * @throws GuacamoleException
+     *     If too many UserInfo requests are already in progress.
+     */
+    private void submit(final UserInfoState current, final UserInfoRequest request)
+            throws GuacamoleException {
+
+        try {
+            request.setResponse(current.cache.get(request.getKey(),
+                    new Callable<Map<String, Object>>() {
+
+                @Override
+                public Map<String, Object> call() throws Exception {
+
+                    // UserInfo must describe the user of the ID token
+                    Map<String, Object> response = current.client.get(request.getAccessToken());
+                    if (!request.getSubject().equals(response.get("sub")))
+                        throw new GuacamoleServerException("UserInfo "
+                                + "response is not for the subject of the "
+                                + "ID token.");
+
+                    return response;
+
+                }
+
+            }, current.executor));
+        }
+
+        catch (RejectedExecutionException e) {
+            throw new GuacamoleServerBusyException("Too many logins are in "
+                    + "progress. Please try again later.");
+        }
+
+    }
+
+    /**
+     * Prepares a request for the UserInfo of the user having the given
+     * validated ID token, if the configuration requires UserInfo for that
+     * user. If UserInfo should be requested as soon as possible, the request
+     * is also submitted to the UserInfo endpoint, and proceeds in parallel
+     * with any further checks until complete() is invoked.
+     *
+     * @param identity
+     *     The identity of the user, as derived from the user's ID token.
+     *
+     * @param claims
+     *     The claims of the user's ID token, which must have already been
+     *     validated.
+     *
+     * @param accessToken
+     *     The access token issued alongside the ID token, or null if no
+     *     access token is available.
+     *
+     * @return
+     *     A request for the UserInfo of the user, which must be passed to
+     *     complete(), or null if no UserInfo is required.
+     *
+     * @throws GuacamoleException
+     *     If the ID token lacks the username and the username cannot be
+     *     retrieved from the UserInfo endpoint, if too many UserInfo requests
+     *     are already in progress, or if guacamole.properties could not be
+     *     parsed.
+     */
+    public UserInfoRequest prepare(UserIdentity identity, Map<String, Object> claims,
+            String accessToken) throws GuacamoleException {
+
+        UserInfoState current = getState();
+        UserInfoMode mode = current.configuration.getUserInfoMode();
+
+        // UserInfo is needed only if enabled for all logins, or if the
+        // username must otherwise be determined
+        if (mode == UserInfoMode.NONE
+                || (mode == UserInfoMode.FALLBACK && identity.getUsername() != null))
+            return null;
+
+        // UserInfo can only be requested using the user's access token
+        if (accessToken == null) {
+
+            if (identity.getUsername() == null)
+                throw new InvalidTokenException("Username missing from token, "
+                        + "and no access token is available to retrieve the "
+                        + "username from the UserInfo endpoint.",
+                        FailureCause.MISSING_USERNAME);
+
+            logger.warn("UserInfo of user \"{}\" cannot be retrieved, as no "
+                    + "access token is available. Access tokens are "
+                    + "available only via the authorization code flow.",
+                    identity.getUsername());
+            return null;
+
+        }
+
+        Object issuer = claims.get("iss");
+        Object subject = claims.get("sub");
+        UserInfoRequest request = new UserInfoRequest(identity,
+                issuer + " " + subject, (String) subject,
+                getUsernameClaimType(current.configuration, issuer),
+                accessToken);
+
+        // Begin retrieving UserInfo immediately, if allowed
+        if (current.configuration.isUserInfoPrefetchEnabled())
+            submit(current, request);
+
+        return request;
+
+    }
+
+    /**
+     * Completes the given UserInfo request, submitting the request to the
+     * UserInfo endpoint if not already submitted, and returns the identity
+     * of the user combined with the username, attributes, and groups
+     * provided by UserInfo. Information from the ID token takes priority
+     * over that from UserInfo.
+     *
+     * @param request
+     *     The request returned by prepare().
+     *
+     * @return
+     *     The identity of the user, combining the information from the
+     *     user's ID token and UserInfo.
+     *
+     * @throws GuacamoleException
+     *     If too many UserInfo requests are already in progress, if the
+     *     UserInfo of the user could not be retrieved in time, if the request
+     *     fails, if neither the ID token nor the UserInfo contain the
+     *     username, or if guacamole.properties could not be parsed.
+     */
+    public UserIdentity complete(UserInfoRequest request)
+            throws GuacamoleException {
+
+        UserInfoState current = getState();
+        UserIdentity identity = request.getIdentity();
+
+        long start = System.nanoTime();
+        try {
+
+            if (request.getResponse() == null)
+                submit(current, request);
+
+            Map<String, Object> response = request.getResponse().get(
+                    current.configuration.getUserInfoTimeout(),
+                    TimeUnit.MILLISECONDS);
+
+            // Derive identity from UserInfo as from any ID token
+            Object username = response.get(request.getUsernameClaimType());
+            identity = identity.merge(current.configuration.getClaimMapping().map(
+                    username instanceof String ? (String) username : null,
+                    response));
+
+        }
+
+        // The request continues, and its result will be cached, such that a
+        // subsequent attempt may succeed
+        catch (TimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Timed out retrieving "
+                    + "the UserInfo of subject \"" + request.getSubject() + "\".", e);
+        }
+
+        catch (ExecutionException e) {
+            throw new GuacamoleServerException("Unable to retrieve the "
+                    + "UserInfo of subject \"" + request.getSubject() + "\": "
+                    + e.getCause().getMessage(), e.getCause());
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while retrieving "
+                    + "the UserInfo of subject \"" + request.getSubject() + "\".", e);
+        }
+
+        finally {
+            metrics.recordLatency(Stage.USERINFO, System.nanoTime() - start);
+        }
+
+        if (identity.getUsername() == null)
+            throw new InvalidTokenException("Username missing from token and "
+                    + "UserInfo", FailureCause.MISSING_USERNAME);
+
+        return identity;
+
+    }
+
+}
@@ -37,21 +37,51 @@ angular.module('guacOAuth').config(['formServiceProvider',
 
 /**
  * Config block which augments the existing routing, providing special handling
- * for the "id_token=" fragments provided by OpenID Connect.
+ * for the "id_token=" and "access_token=" fragments provided by OpenID
+ * Connect and OAuth.
  */
 angular.module('index').config(['$routeProvider',
         function indexRouteConfig($routeProvider) {
 
-    // Transform "/#/id_token=..." to "/#/?id_token=..."
-    $routeProvider.when('/id_token=:response', {
-
+    // Route which moves the parameters of the current path into the query
+    var reroute = {
         template   : '',
         controller : ['$location', function reroute($location) {
             var params = $location.path().substring(1);
             $location.url('/');
             $location.search(params);
         }]
+    };
 
-    });
+    // Transform "/#/id_token=..." to "/#/?id_token=..."
+    $routeProvider.when('/id_token=:response', reroute);
+
+    // Transform "/#/access_token=..." to "/#/?access_token=..."
+    $routeProvider.when('/access_token=:response', reroute);
+
+}]);
+
+/**
+ * Run block which moves the "code" parameter provided by the OAuth
+ * authorization code flow, along with any other parameters, from the query
+ * string of the page into the query string of the current route, such that
+ * it is submitted along with the login request.
+ */
+angular.module('index').run(['$location', '$window',
+        function moveAuthorizationCode($location, $window) {
+
+    // Ignore page loads which are not redirects from the OAuth service
+    var search = $window.location.search;
+    if (!/[?&]code=/.test(search))
+        return;
+
+    // Remove the code from the page URL, such that it is not submitted again
+    // if the page is reloaded
+    $window.history.replaceState(null, '',
+            $window.location.pathname + $window.location.hash);
+
+    // Transform "/?code=...#/" to "/#/?code=..."
+    $location.url('/');
+    $location.search(search.substring(1));
 
 }]);
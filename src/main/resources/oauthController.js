@@ -27,6 +27,13 @@
 angular.module('guacOAuth').controller('guacOAuthController', ['$scope',
     function guacOAuthController($scope) {
 
+    // Record the state of this login, such that it can only be completed by
+    // this browser (the state is URL-safe and need not be escaped)
+    var path = window.location.pathname.replace(/[^\/]*$/, '');
+    document.cookie = 'GUAC_OAUTH_STATE=' + $scope.field.state
+            + '; path=' + path + '; SameSite=Lax'
+            + (window.location.protocol === 'https:' ? '; Secure' : '');
+
     // Redirect to authorization URI
     window.location = $scope.field.authorizationURI;
 
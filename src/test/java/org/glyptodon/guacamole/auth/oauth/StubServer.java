@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP server, listening on the loopback interface, which serves
+ * canned responses on behalf of the endpoints of an OpenID provider. The
+ * response of each path, including any artificial delay, may be changed at
+ * any time, and the number of requests received for each path, along with
+ * the body and Authorization header of the most recent request, are
+ * recorded for later inspection.
+ *
+ * @author Michael Jumper
+ */
+public class StubServer {
+
+    /**
+     * The canned response served for a single path.
+     */
+    private static class Response {
+
+        /**
+         * The HTTP status code of the response.
+         */
+        private final int status;
+
+        /**
+         * The body of the response.
+         */
+        private final String body;
+
+        /**
+         * The number of milliseconds to wait before responding.
+         */
+        private final long delay;
+
+        /**
+         * Creates a new Response having the given status, body, and delay.
+         *
+         * @param status
+         *     The HTTP status code of the response.
+         *
+         * @param body
+         *     The body of the response.
+         *
+         * @param delay
+         *     The number of milliseconds to wait before responding.
+         */
+        public Response(int status, String body, long delay) {
+            this.status = status;
+            this.body = body;
+            this.delay = delay;
+        }
+
+    }
+
+    /**
+     * The response served for each path. Paths without a response receive
+     * 404 (Not Found).
+     */
+    private final ConcurrentMap<String, Response> responses =
+            new ConcurrentHashMap<String, Response>();
+
+    /**
+     * The number of requests received for each path.
+     */
+    private final ConcurrentMap<String, AtomicInteger> requests =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The body of the most recent request received for each path.
+     */
+    private final ConcurrentMap<String, String> requestBodies =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * The Authorization header of the most recent request received for each
+     * path which included that header.
+     */
+    private final ConcurrentMap<String, String> authorizations =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * The threads handling received requests, such that delayed responses
+     * do not block other requests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "stub-server");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * The underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Creates and starts a new StubServer on an arbitrary free port of the
+     * loopback interface. Initially, no paths have responses.
+     *
+     * @throws IOException
+     *     If the HTTP server cannot be started.
+     */
+    public StubServer() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+
+        });
+
+        server.setExecutor(executor);
+        server.start();
+
+    }
+
+    /**
+     * Records the given request and sends the response of its path.
+     *
+     * @param exchange
+     *     The request/response exchange being handled.
+     *
+     * @throws IOException
+     *     If an error occurs while reading the request or sending the
+     *     response.
+     */
+    private void respond(HttpExchange exchange) throws IOException {
+
+        String path = exchange.getRequestURI().getPath();
+
+        // Record request
+        requestBodies.put(path, read(exchange.getRequestBody()));
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null)
+            authorizations.put(path, authorization);
+
+        AtomicInteger count = requests.get(path);
+        if (count == null) {
+            requests.putIfAbsent(path, new AtomicInteger());
+            count = requests.get(path);
+        }
+        count.incrementAndGet();
+
+        Response response = responses.get(path);
+        if (response == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        // Simulate a slow endpoint
+        if (response.delay > 0) {
+            try {
+                Thread.sleep(response.delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        byte[] body = response.body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status, body.length);
+
+        OutputStream output = exchange.getResponseBody();
+        try {
+            output.write(body);
+        }
+        finally {
+            output.close();
+        }
+
+    }
+
+    /**
+     * Reads the given stream in its entirety as UTF-8 text.
+     *
+     * @param input
+     *     The stream to read.
+     *
+     * @return
+     *     The contents of the stream.
+     *
+     * @throws IOException
+     *     If an error occurs while reading the stream.
+     */
+    private static String read(InputStream input) throws IOException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        int length;
+        while ((length = input.read(buffer)) != -1)
+            output.write(buffer, 0, length);
+
+        return new String(output.toByteArray(), "UTF-8");
+
+    }
+
+    /**
+     * Serves the given status and body for all subsequent requests of the
+     * given path, responding immediately.
+     *
+     * @param path
+     *     The path of the requests to respond to, such as "/jwks".
+     *
+     * @param status
+     *     The HTTP status code of the response.
+     *
+     * @param body
+     *     The body of the response.
+     */
+    public void respond(String path, int status, String body) {
+        respond(path, status, body, 0);
+    }
+
+    /**
+     * Serves the given status and body for all subsequent requests of the
+     * given path, responding only after the given delay.
+     *
+     * @param path
+     *     The path of the requests to respond to, such as "/jwks".
+     *
+     * @param status
+     *     The HTTP status code of the response.
+     *
+     * @param body
+     *     The body of the response.
+     *
+     * @param delay
+     *     The number of milliseconds to wait before responding.
+     */
+    public void respond(String path, int status, String body, long delay) {
+        responses.put(path, new Response(status, body, delay));
+    }
+
+    /**
+     * Returns the absolute URI of the given path on this server.
+     *
+     * @param path
+     *     The path to produce a URI for, such as "/jwks".
+     *
+     * @return
+     *     The absolute URI of the given path.
+     */
+    public String getURI(String path) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":"
+                + address.getPort() + path;
+    }
+
+    /**
+     * Returns the number of requests received for the given path.
+     *
+     * @param path
+     *     The path to count requests of.
+     *
+     * @return
+     *     The number of requests received for the given path.
+     */
+    public int getRequests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns the body of the most recent request received for the given
+     * path.
+     *
+     * @param path
+     *     The path of the request.
+     *
+     * @return
+     *     The body of the most recent request for the given path, or null if
+     *     no such request has been received.
+     */
+    public String getRequestBody(String path) {
+        return requestBodies.get(path);
+    }
+
+    /**
+     * Returns the Authorization header of the most recent request received
+     * for the given path which included that header.
+     *
+     * @param path
+     *     The path of the request.
+     *
+     * @return
+     *     The value of the Authorization header, or null if no request for
+     *     the given path has included that header.
+     */
+    public String getAuthorization(String path) {
+        return authorizations.get(path);
+    }
+
+    /**
+     * Stops the HTTP server, abandoning any delayed responses.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
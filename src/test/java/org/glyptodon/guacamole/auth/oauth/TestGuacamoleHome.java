@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * Temporary GUACAMOLE_HOME containing a guacamole.properties with the given
+ * properties, from which the extension can be configured as within a real
+ * Guacamole deployment.
+ *
+ * @author Michael Jumper
+ */
+public class TestGuacamoleHome {
+
+    /**
+     * The temporary GUACAMOLE_HOME directory.
+     */
+    private final File directory;
+
+    /**
+     * The guacamole.properties file within the temporary GUACAMOLE_HOME.
+     */
+    private final File file;
+
+    /**
+     * Creates a new temporary GUACAMOLE_HOME whose guacamole.properties
+     * contains the given properties, and points the "guacamole.home" system
+     * property at that directory.
+     *
+     * @param properties
+     *     The properties to write to guacamole.properties.
+     *
+     * @throws IOException
+     *     If the temporary GUACAMOLE_HOME cannot be created.
+     */
+    public TestGuacamoleHome(Properties properties) throws IOException {
+
+        directory = File.createTempFile("guacamole-home", "");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Unable to create temporary GUACAMOLE_HOME.");
+
+        file = new File(directory, "guacamole.properties");
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, null);
+        }
+        finally {
+            output.close();
+        }
+
+        System.setProperty("guacamole.home", directory.getAbsolutePath());
+
+    }
+
+    /**
+     * Creates a new injector for the extension, configured from this
+     * GUACAMOLE_HOME. As with the OAuthAuthenticationProvider, the services
+     * of the new injector read guacamole.properties only once first used.
+     *
+     * @return
+     *     A new injector for the extension.
+     *
+     * @throws GuacamoleException
+     *     If the extension cannot be configured.
+     */
+    public Injector createInjector() throws GuacamoleException {
+        OAuthAuthenticationProvider authProvider = new OAuthAuthenticationProvider();
+        return Guice.createInjector(new OAuthAuthenticationProviderModule(authProvider));
+    }
+
+    /**
+     * Removes this GUACAMOLE_HOME and the guacamole.properties within.
+     */
+    public void delete() {
+        file.delete();
+        directory.delete();
+    }
+
+}
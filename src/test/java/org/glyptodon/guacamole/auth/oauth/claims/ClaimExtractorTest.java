@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.claims;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.jose4j.lang.JoseException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the extraction of claims by ClaimExtractor, including the decoding of
+ * strings and numbers, limits on nesting, and rejection of malformed JSON.
+ *
+ * @author Michael Jumper
+ */
+public class ClaimExtractorTest {
+
+    /**
+     * The maximum depth of nesting accepted within a claim value, excluding
+     * the top-level object containing the claims.
+     */
+    private static final int MAX_NESTED = 63;
+
+    /**
+     * Extractor which extracts only the "sub" and "groups" claims.
+     */
+    private final ClaimExtractor extractor =
+            new ClaimExtractor(Arrays.asList("sub", "groups"));
+
+    /**
+     * Verifies that the given JSON is rejected by the given extractor.
+     *
+     * @param extractor
+     *     The extractor which should reject the JSON.
+     *
+     * @param json
+     *     The JSON which should be rejected.
+     */
+    private static void assertRejected(ClaimExtractor extractor, String json) {
+        try {
+            extractor.extract(json);
+            fail("Accepted malformed JSON: " + json);
+        }
+        catch (JoseException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Returns the JSON representation of the given number of nested arrays.
+     *
+     * @param depth
+     *     The number of nested arrays.
+     *
+     * @return
+     *     The JSON representation of the given number of nested arrays.
+     */
+    private static String nestedArrays(int depth) {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            json.append('[');
+        for (int i = 0; i < depth; i++)
+            json.append(']');
+        return json.toString();
+    }
+
+    /**
+     * Extracts the value of the "sub" claim from the given JSON.
+     *
+     * @param json
+     *     The JSON claims of a token.
+     *
+     * @return
+     *     The value of the "sub" claim.
+     *
+     * @throws JoseException
+     *     If the JSON is malformed.
+     */
+    private Object sub(String json) throws JoseException {
+        return extractor.extract(json).get("sub");
+    }
+
+    /**
+     * Verifies that only requested claims are extracted, with the same types
+     * as produced by jose4j.
+     *
+     * @throws JoseException
+     *     If the JSON is rejected.
+     */
+    @Test
+    public void testRequestedClaimsExtracted() throws JoseException {
+
+        Map<String, Object> claims = extractor.extract("{\"iss\":\"issuer\","
+                + "\"sub\":\"user\",\"exp\":1,\"groups\":[\"a\",{\"b\":true},null]}");
+
+        assertEquals(2, claims.size());
+        assertEquals("user", claims.get("sub"));
+
+        List<?> groups = (List<?>) claims.get("groups");
+        assertEquals(3, groups.size());
+        assertEquals("a", groups.get(0));
+        assertEquals(Collections.singletonMap("b", Boolean.TRUE), groups.get(1));
+        assertNull(groups.get(2));
+
+        assertTrue(extractor.extract(" { } ").isEmpty());
+
+    }
+
+    /**
+     * Verifies that escape sequences are decoded within both claim names and
+     * values.
+     *
+     * @throws JoseException
+     *     If the JSON is rejected.
+     */
+    @Test
+    public void testEscapes() throws JoseException {
+
+        assertEquals("\"\\/\b\f\n\r\t", sub("{\"sub\":\"\\\"\\\\\\/\\b\\f\\n\\r\\t\"}"));
+        assertEquals("caf\u00e9", sub("{\"sub\":\"caf\\u00E9\"}"));
+        assertEquals("user", sub("{\"s\\u0075b\":\"user\"}"));
+
+        // Escaped names which merely resemble requested names do not match
+        assertFalse(extractor.extract("{\"s\\u0075bx\":\"user\"}").containsKey("sub"));
+
+    }
+
+    /**
+     * Verifies that characters outside the Basic Multilingual Plane are
+     * preserved, whether escaped as a surrogate pair or included directly.
+     *
+     * @throws JoseException
+     *     If the JSON is rejected.
+     */
+    @Test
+    public void testSurrogatePairs() throws JoseException {
+
+        String emoji = new String(Character.toChars(0x1F600));
+        assertEquals(emoji, sub("{\"sub\":\"\\ud83d\\ude00\"}"));
+        assertEquals(emoji, sub("{\"sub\":\"" + emoji + "\"}"));
+        assertEquals("a" + emoji + "b", sub("{\"sub\":\"a\\uD83D\\uDE00b\"}"));
+
+    }
+
+    /**
+     * Verifies that nesting is accepted up to the maximum depth, within both
+     * extracted and skipped claims, and rejected beyond it.
+     *
+     * @throws JoseException
+     *     If JSON within the nesting limit is rejected.
+     */
+    @Test
+    public void testMaxDepth() throws JoseException {
+
+        Object value = sub("{\"sub\":" + nestedArrays(MAX_NESTED) + "}");
+        for (int i = 1; i < MAX_NESTED; i++)
+            value = ((List<?>) value).get(0);
+        assertTrue(((List<?>) value).isEmpty());
+
+        extractor.extract("{\"other\":" + nestedArrays(MAX_NESTED) + "}");
+
+        assertRejected(extractor, "{\"sub\":" + nestedArrays(MAX_NESTED + 1) + "}");
+        assertRejected(extractor, "{\"other\":" + nestedArrays(MAX_NESTED + 1) + "}");
+        assertRejected(extractor, "{\"other\":" + nestedArrays(100000) + "}");
+
+    }
+
+    /**
+     * Verifies that a requested claim appearing more than once is rejected,
+     * along with duplicate members within the value of a requested claim,
+     * while duplicate names requested of the extractor are ignored.
+     *
+     * @throws JoseException
+     *     If JSON without duplicate requested claims is rejected.
+     */
+    @Test
+    public void testDuplicateClaims() throws JoseException {
+
+        assertRejected(extractor, "{\"sub\":\"a\",\"sub\":\"b\"}");
+        assertRejected(extractor, "{\"sub\":\"a\",\"s\\u0075b\":\"a\"}");
+        assertRejected(extractor, "{\"sub\":{\"x\":1,\"x\":2}}");
+
+        // Duplicates within claims which are not extracted are not examined
+        extractor.extract("{\"other\":1,\"other\":2,\"sub\":\"a\"}");
+
+        ClaimExtractor duplicated = new ClaimExtractor(Arrays.asList("sub", "sub"));
+        assertEquals(Collections.singletonMap("sub", "a"),
+                duplicated.extract("{\"sub\":\"a\"}"));
+
+    }
+
+    /**
+     * Verifies that integers are extracted as Long, numbers with fractional
+     * parts or exponents as Double, and integers which cannot be represented
+     * as a Long are rejected.
+     *
+     * @throws JoseException
+     *     If JSON containing valid numbers is rejected.
+     */
+    @Test
+    public void testNumbers() throws JoseException {
+
+        assertEquals(0L, sub("{\"sub\":0}"));
+        assertEquals(0L, sub("{\"sub\":-0}"));
+        assertEquals(Long.MAX_VALUE, sub("{\"sub\":9223372036854775807}"));
+        assertEquals(Long.MIN_VALUE, sub("{\"sub\":-9223372036854775808}"));
+        assertEquals(1000.0, sub("{\"sub\":1e3}"));
+        assertEquals(100.0, sub("{\"sub\":1E+2}"));
+        assertEquals(-0.05, sub("{\"sub\":-0.5e-1}"));
+        assertEquals(1.5, sub("{\"sub\":1.5}"));
+
+        assertRejected(extractor, "{\"sub\":9223372036854775808}");
+        assertRejected(extractor, "{\"sub\":-9223372036854775809}");
+
+        // Skipped numbers are checked only for syntax
+        extractor.extract("{\"other\":9223372036854775808}");
+
+        for (String number : Arrays.asList("-", "01", "1.", ".5", "+1",
+                "1e", "1e+", "0x1", "1.e3", "--1"))
+            assertRejected(extractor, "{\"sub\":" + number + "}");
+
+    }
+
+    /**
+     * Verifies that truncated JSON is rejected at every point of truncation,
+     * whether within an extracted or a skipped claim.
+     */
+    @Test
+    public void testTruncated() {
+
+        String[] documents = {
+            "{\"sub\":\"a\\u00e9\\n\",\"groups\":[1,2.5,true,false,null,{\"a\":[]}]}",
+            "{\"other\":\"a\\u00e9\\n\",\"more\":[1,2.5,true,false,null,{\"a\":[]}]}"
+        };
+
+        for (String json : documents) {
+            for (int length = 0; length < json.length(); length++)
+                assertRejected(extractor, json.substring(0, length));
+        }
+
+    }
+
+    /**
+     * Verifies that JSON which is not a single, well-formed object is
+     * rejected.
+     */
+    @Test
+    public void testGarbage() {
+
+        String[] garbage = {
+            "", " ", "not json", "null", "[]", "\"sub\"", "{}}", "{} {}",
+            "{\"sub\":\"a\"} x", "{sub:\"a\"}", "{'sub':'a'}", "{\"sub\" \"a\"}",
+            "{\"sub\":\"a\",}", "{,}", "{\"sub\":}", "{\"sub\":tru}",
+            "{\"sub\":nul}", "{\"sub\":[1,]}", "{\"sub\":[1 2]}",
+            "{\"sub\":\"\\x\"}", "{\"sub\":\"\\u12G4\"}", "{\"sub\":\"a\u0001\"}",
+            "{\"other\":\"\\x\"}", "{\"other\":{\"a\" 1}}"
+        };
+
+        for (String json : garbage)
+            assertRejected(extractor, json);
+
+    }
+
+}
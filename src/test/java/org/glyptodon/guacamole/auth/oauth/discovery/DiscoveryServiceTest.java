@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.discovery;
+
+import com.google.inject.Injector;
+import java.util.Properties;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.glyptodon.guacamole.auth.oauth.conf.ConfigurationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the retrieval and caching of OpenID provider metadata by
+ * DiscoveryService, using a discovery document served by a local
+ * StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class DiscoveryServiceTest {
+
+    /**
+     * The path of the discovery document served by the stub server.
+     */
+    private static final String DISCOVERY_PATH = "/.well-known/openid-configuration";
+
+    /**
+     * The connect and read timeouts of each retrieval, in milliseconds.
+     */
+    private static final int TIMEOUT = 200;
+
+    /**
+     * The server serving the discovery document and JWKS.
+     */
+    private StubServer server;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The service providing the configuration of the extension.
+     */
+    private ConfigurationService confService;
+
+    /**
+     * The service under test.
+     */
+    private DiscoveryService discoveryService;
+
+    /**
+     * Starts the stub server and configures the extension to discover the
+     * endpoints of the stub server.
+     *
+     * @throws Exception
+     *     If the stub server cannot be started or the extension cannot be
+     *     configured.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new StubServer();
+        server.respond(DISCOVERY_PATH, 200, "{"
+                + "\"issuer\":\"https://idp.example.net/\","
+                + "\"authorization_endpoint\":\"" + server.getURI("/authorize") + "\","
+                + "\"jwks_uri\":\"" + server.getURI("/jwks") + "\""
+                + "}");
+        server.respond("/jwks", 200, "{\"keys\":[]}");
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-discovery-uri", server.getURI(DISCOVERY_PATH));
+        properties.setProperty("oauth-client-id", "guacamole");
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-fetch-connect-timeout", Integer.toString(TIMEOUT));
+        properties.setProperty("oauth-fetch-read-timeout", Integer.toString(TIMEOUT));
+        home = new TestGuacamoleHome(properties);
+
+        Injector injector = home.createInjector();
+        confService = injector.getInstance(ConfigurationService.class);
+        discoveryService = injector.getInstance(DiscoveryService.class);
+
+    }
+
+    /**
+     * Stops the stub server and removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        home.delete();
+    }
+
+    /**
+     * Verifies that endpoints missing from guacamole.properties are read
+     * from the discovery document, which is retrieved only once.
+     *
+     * @throws Exception
+     *     If the configuration cannot be read.
+     */
+    @Test
+    public void testMetadataCached() throws Exception {
+
+        assertEquals(server.getURI("/authorize"), confService.getAuthorizationEndpoint());
+        assertEquals(server.getURI("/jwks"), confService.getJWKSEndpoint());
+        assertEquals("https://idp.example.net/", confService.getIssuer());
+
+        int requests = server.getRequests(DISCOVERY_PATH);
+        for (int i = 0; i < 100; i++) {
+            confService.getAuthorizationEndpoint();
+            discoveryService.getMetadata(server.getURI(DISCOVERY_PATH));
+        }
+
+        assertEquals(requests, server.getRequests(DISCOVERY_PATH));
+
+    }
+
+    /**
+     * Verifies that a discovery document which cannot be retrieved results
+     * in an error.
+     *
+     * @throws Exception
+     *     If the configuration cannot be read.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testServerError() throws Exception {
+        confService.getConfiguration();
+        server.respond("/unavailable", 503, "{}");
+        discoveryService.getMetadata(server.getURI("/unavailable"));
+    }
+
+    /**
+     * Verifies that a discovery document which cannot be parsed results in
+     * an error.
+     *
+     * @throws Exception
+     *     If the configuration cannot be read.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testInvalidDocument() throws Exception {
+        confService.getConfiguration();
+        server.respond("/invalid", 200, "not a discovery document");
+        discoveryService.getMetadata(server.getURI("/invalid"));
+    }
+
+    /**
+     * Verifies that a discovery document which is not received in time
+     * results in an error once the configured timeouts have elapsed.
+     *
+     * @throws Exception
+     *     If the configuration cannot be read.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        confService.getConfiguration();
+        server.respond("/slow", 200, "{}", 2000);
+
+        long start = System.currentTimeMillis();
+        try {
+            discoveryService.getMetadata(server.getURI("/slow"));
+            fail("Metadata was retrieved from an unresponsive endpoint.");
+        }
+        catch (GuacamoleServerException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+    }
+
+}
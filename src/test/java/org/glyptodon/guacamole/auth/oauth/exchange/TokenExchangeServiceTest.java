@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.exchange;
+
+import java.net.URLEncoder;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.jose4j.base64url.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the exchange of authorization codes for tokens by
+ * TokenExchangeService, using a token endpoint served by a local
+ * StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class TokenExchangeServiceTest {
+
+    /**
+     * The path of the token endpoint served by the stub server.
+     */
+    private static final String TOKEN_PATH = "/token";
+
+    /**
+     * The client ID of the extension.
+     */
+    private static final String CLIENT_ID = "guacamole";
+
+    /**
+     * The client secret of the extension.
+     */
+    private static final String CLIENT_SECRET = "s3cret";
+
+    /**
+     * The redirect URI of the extension.
+     */
+    private static final String REDIRECT_URI = "https://guacamole.example.net/guacamole/";
+
+    /**
+     * The connect and read timeouts of each exchange, in milliseconds.
+     */
+    private static final int TIMEOUT = 300;
+
+    /**
+     * The number of milliseconds to wait for an exchange to be allowed to
+     * begin when the maximum number of exchanges are in progress.
+     */
+    private static final int QUEUE_TIMEOUT = 100;
+
+    /**
+     * The server serving the token endpoint and JWKS.
+     */
+    private StubServer server;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The service under test.
+     */
+    private TokenExchangeService exchangeService;
+
+    /**
+     * Starts the stub server and configures the extension to use the
+     * authorization code flow with the token endpoint of the stub server,
+     * allowing only one exchange at a time.
+     *
+     * @throws Exception
+     *     If the stub server cannot be started or the extension cannot be
+     *     configured.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new StubServer();
+        server.respond("/jwks", 200, "{\"keys\":[]}");
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", server.getURI("/authorize"));
+        properties.setProperty("oauth-jwks-endpoint", server.getURI("/jwks"));
+        properties.setProperty("oauth-issuer", "https://idp.example.net/");
+        properties.setProperty("oauth-client-id", CLIENT_ID);
+        properties.setProperty("oauth-client-secret", CLIENT_SECRET);
+        properties.setProperty("oauth-redirect-uri", REDIRECT_URI);
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-flow", "code");
+        properties.setProperty("oauth-token-endpoint", server.getURI(TOKEN_PATH));
+        properties.setProperty("oauth-token-exchange-connect-timeout", Integer.toString(TIMEOUT));
+        properties.setProperty("oauth-token-exchange-read-timeout", Integer.toString(TIMEOUT));
+        properties.setProperty("oauth-token-exchange-max-concurrent", "1");
+        properties.setProperty("oauth-token-exchange-queue-timeout", Integer.toString(QUEUE_TIMEOUT));
+        home = new TestGuacamoleHome(properties);
+
+        exchangeService = home.createInjector().getInstance(TokenExchangeService.class);
+
+    }
+
+    /**
+     * Stops the stub server and removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        home.delete();
+    }
+
+    /**
+     * Verifies that an authorization code is exchanged using the client
+     * credentials, producing the ID token and access token returned by the
+     * token endpoint.
+     *
+     * @throws Exception
+     *     If the exchange fails.
+     */
+    @Test
+    public void testExchange() throws Exception {
+
+        server.respond(TOKEN_PATH, 200, "{\"id_token\":\"the-id-token\","
+                + "\"access_token\":\"the-access-token\",\"token_type\":\"Bearer\"}");
+
+        ExchangeResult result = exchangeService.exchange("the-code");
+        assertEquals("the-id-token", result.getToken());
+        assertEquals("the-access-token", result.getAccessToken());
+
+        assertEquals("grant_type=authorization_code&code=the-code&redirect_uri="
+                + URLEncoder.encode(REDIRECT_URI, "UTF-8"),
+                server.getRequestBody(TOKEN_PATH));
+        assertEquals("Basic " + Base64.encode((CLIENT_ID + ":" + CLIENT_SECRET).getBytes("UTF-8")),
+                server.getAuthorization(TOKEN_PATH));
+
+    }
+
+    /**
+     * Verifies that an exchange succeeds even if no access token is
+     * returned.
+     *
+     * @throws Exception
+     *     If the exchange fails.
+     */
+    @Test
+    public void testExchangeWithoutAccessToken() throws Exception {
+        server.respond(TOKEN_PATH, 200, "{\"id_token\":\"the-id-token\"}");
+        ExchangeResult result = exchangeService.exchange("the-code");
+        assertEquals("the-id-token", result.getToken());
+        assertNull(result.getAccessToken());
+    }
+
+    /**
+     * Verifies that a code rejected by the token endpoint is treated as an
+     * invalid token rather than an error of the extension.
+     *
+     * @throws Exception
+     *     If the exchange fails unexpectedly.
+     */
+    @Test(expected = InvalidTokenException.class)
+    public void testRejectedCode() throws Exception {
+        server.respond(TOKEN_PATH, 400, "{\"error\":\"invalid_grant\"}");
+        exchangeService.exchange("expired-code");
+    }
+
+    /**
+     * Verifies that a failing token endpoint results in an error.
+     *
+     * @throws Exception
+     *     If the exchange fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testServerError() throws Exception {
+        server.respond(TOKEN_PATH, 503, "{}");
+        exchangeService.exchange("the-code");
+    }
+
+    /**
+     * Verifies that a response lacking an ID token results in an error.
+     *
+     * @throws Exception
+     *     If the exchange fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testMissingToken() throws Exception {
+        server.respond(TOKEN_PATH, 200, "{\"access_token\":\"the-access-token\"}");
+        exchangeService.exchange("the-code");
+    }
+
+    /**
+     * Verifies that a response which cannot be parsed results in an error.
+     *
+     * @throws Exception
+     *     If the exchange fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testInvalidResponse() throws Exception {
+        server.respond(TOKEN_PATH, 200, "not a token response");
+        exchangeService.exchange("the-code");
+    }
+
+    /**
+     * Verifies that an exchange which is not answered in time fails once
+     * the configured timeouts have elapsed.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        server.respond(TOKEN_PATH, 200, "{\"id_token\":\"the-id-token\"}", 2000);
+
+        long start = System.currentTimeMillis();
+        try {
+            exchangeService.exchange("the-code");
+            fail("Code was exchanged with an unresponsive endpoint.");
+        }
+        catch (GuacamoleServerException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+    }
+
+    /**
+     * Verifies that exchanges beyond the configured maximum are refused once
+     * the queue timeout elapses, rather than waiting indefinitely.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+
+        server.respond(TOKEN_PATH, 200, "{\"id_token\":\"the-id-token\"}", 2000);
+
+        // Occupy the only permit with an exchange that will time out
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+
+            Future<ExchangeResult> first = executor.submit(new Callable<ExchangeResult>() {
+
+                @Override
+                public ExchangeResult call() throws GuacamoleException {
+                    return exchangeService.exchange("first-code");
+                }
+
+            });
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getRequests(TOKEN_PATH) == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            try {
+                exchangeService.exchange("second-code");
+                fail("Exchange was allowed beyond the configured maximum.");
+            }
+            catch (GuacamoleServerBusyException e) {
+                // Expected
+            }
+
+            assertEquals(1, server.getRequests(TOKEN_PATH));
+
+            try {
+                first.get();
+                fail("Code was exchanged with an unresponsive endpoint.");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof GuacamoleServerException);
+            }
+
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.groups;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the retrieval of the groups of users whose tokens could not list
+ * all their groups by GroupService, using a paged group lookup endpoint
+ * served by a local StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class GroupServiceTest {
+
+    /**
+     * The path of the first page of the group lookup endpoint served by the
+     * stub server.
+     */
+    private static final String GROUPS_PATH = "/groups";
+
+    /**
+     * The path of the second page of the group lookup endpoint served by
+     * the stub server.
+     */
+    private static final String NEXT_PAGE_PATH = "/groups/page-2";
+
+    /**
+     * The number of milliseconds to wait for groups to be retrieved.
+     */
+    private static final int TIMEOUT = 300;
+
+    /**
+     * The server serving the group lookup endpoint and JWKS.
+     */
+    private StubServer server;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The service under test.
+     */
+    private GroupService groupService;
+
+    /**
+     * Returns an identity for the given user which is a member of the
+     * "from-token" group, noting whether the token omitted some groups.
+     *
+     * @param username
+     *     The username of the identity.
+     *
+     * @param groupOverage
+     *     Whether the token omitted some of the groups of the user.
+     *
+     * @return
+     *     An identity for the given user.
+     */
+    private static UserIdentity identity(String username, boolean groupOverage) {
+        return new UserIdentity(username, Collections.<String, String>emptyMap(),
+                Collections.singleton("from-token"), groupOverage);
+    }
+
+    /**
+     * Returns the JSON representation of a page of groups, in the format
+     * of Microsoft Graph.
+     *
+     * @param nextLink
+     *     The URI of the next page, or null if this is the last page.
+     *
+     * @param groups
+     *     The names of the groups within the page.
+     *
+     * @return
+     *     The JSON representation of the page.
+     */
+    private static String page(String nextLink, String... groups) {
+
+        StringBuilder json = new StringBuilder("{\"value\":[");
+        for (int i = 0; i < groups.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"displayName\":\"").append(groups[i]).append("\"}");
+        }
+        json.append(']');
+
+        if (nextLink != null)
+            json.append(",\"@odata.nextLink\":\"").append(nextLink).append('"');
+
+        return json.append('}').toString();
+
+    }
+
+    /**
+     * Starts the stub server and configures the extension to retrieve the
+     * groups of users from the stub server.
+     *
+     * @throws Exception
+     *     If the stub server cannot be started or the extension cannot be
+     *     configured.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new StubServer();
+        server.respond("/jwks", 200, "{\"keys\":[]}");
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", server.getURI("/authorize"));
+        properties.setProperty("oauth-jwks-endpoint", server.getURI("/jwks"));
+        properties.setProperty("oauth-issuer", "https://idp.example.net/");
+        properties.setProperty("oauth-client-id", "guacamole");
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-group-lookup-endpoint", server.getURI(GROUPS_PATH));
+        properties.setProperty("oauth-group-lookup-claims", "value[*].displayName");
+        properties.setProperty("oauth-group-lookup-timeout", Integer.toString(TIMEOUT));
+        home = new TestGuacamoleHome(properties);
+
+        groupService = home.createInjector().getInstance(GroupService.class);
+
+    }
+
+    /**
+     * Stops the stub server and removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        home.delete();
+    }
+
+    /**
+     * Verifies that all pages of groups are retrieved using the access
+     * token and added to the groups from the token, and that the groups of
+     * the same user are retrieved only once for repeated logins.
+     *
+     * @throws Exception
+     *     If the groups cannot be retrieved.
+     */
+    @Test
+    public void testPagedLookup() throws Exception {
+
+        server.respond(GROUPS_PATH, 200, page(server.getURI(NEXT_PAGE_PATH), "admins", "engineering"));
+        server.respond(NEXT_PAGE_PATH, 200, page(null, "on-call"));
+
+        UserIdentity identity = groupService.resolve(identity("alice@example.net", true), "access-token");
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("from-token",
+                "admins", "engineering", "on-call")), identity.getGroups());
+        assertFalse(identity.isGroupOverage());
+        assertEquals("Bearer access-token", server.getAuthorization(NEXT_PAGE_PATH));
+
+        for (int i = 0; i < 10; i++)
+            groupService.resolve(identity("alice@example.net", true), "access-token");
+
+        assertEquals(1, server.getRequests(GROUPS_PATH));
+        assertEquals(1, server.getRequests(NEXT_PAGE_PATH));
+
+    }
+
+    /**
+     * Verifies that groups are not retrieved for users whose tokens list all
+     * their groups.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testNoOverage() throws Exception {
+        UserIdentity identity = identity("alice@example.net", false);
+        assertSame(identity, groupService.resolve(identity, "access-token"));
+        assertEquals(0, server.getRequests(GROUPS_PATH));
+    }
+
+    /**
+     * Verifies that links to the next page are not followed to other hosts,
+     * such that the access token is not disclosed.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testForeignLinkRefused() throws Exception {
+        server.respond(GROUPS_PATH, 200, page("https://attacker.example.net/groups", "admins"));
+        groupService.resolve(identity("alice@example.net", true), "access-token");
+    }
+
+    /**
+     * Verifies that a failing group lookup endpoint results in an error.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testServerError() throws Exception {
+        server.respond(GROUPS_PATH, 500, "{}");
+        groupService.resolve(identity("alice@example.net", true), "access-token");
+    }
+
+    /**
+     * Verifies that a failure of any page fails the lookup, rather than
+     * producing a partial set of groups.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testPageError() throws Exception {
+        server.respond(GROUPS_PATH, 200, page(server.getURI(NEXT_PAGE_PATH), "admins"));
+        server.respond(NEXT_PAGE_PATH, 503, "{}");
+        groupService.resolve(identity("alice@example.net", true), "access-token");
+    }
+
+    /**
+     * Verifies that a login waits no longer than the configured timeout for
+     * groups to be retrieved.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        server.respond(GROUPS_PATH, 200, page(null, "admins"), 2000);
+
+        // Either the wait or the request itself may time out first
+        long start = System.currentTimeMillis();
+        try {
+            groupService.resolve(identity("alice@example.net", true), "access-token");
+            fail("Groups were retrieved from an unresponsive endpoint.");
+        }
+        catch (GuacamoleException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+    }
+
+    /**
+     * Verifies that the groups from the token are used as-is if no access
+     * token is available to retrieve the remaining groups.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testMissingAccessToken() throws Exception {
+
+        UserIdentity identity = identity("alice@example.net", true);
+        Set<String> groups = groupService.resolve(identity, null).getGroups();
+
+        assertEquals(Collections.singleton("from-token"), groups);
+        assertEquals(0, server.getRequests(GROUPS_PATH));
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the expiration, replacement, and eviction of entries by
+ * ExpiringCache.
+ *
+ * @author Michael Jumper
+ */
+public class ExpiringCacheTest {
+
+    /**
+     * Returns an expiration time the given number of milliseconds from now.
+     *
+     * @param delay
+     *     The number of milliseconds from now. This may be negative to
+     *     produce a time which has already passed.
+     *
+     * @return
+     *     An expiration time the given number of milliseconds from now.
+     */
+    private static long in(long delay) {
+        return System.currentTimeMillis() + delay;
+    }
+
+    /**
+     * Verifies that values are returned until they expire.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for a value to expire.
+     */
+    @Test
+    public void testExpiry() throws InterruptedException {
+
+        ExpiringCache<String> cache = new ExpiringCache<String>(10);
+        cache.put("a", "1", in(60000));
+        cache.put("b", "2", in(50));
+        cache.put("c", "3", in(-1));
+
+        assertEquals("1", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertNull(cache.get("c"));
+        assertNull(cache.get("missing"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+
+    }
+
+    /**
+     * Verifies that put() replaces existing values, while putIfAbsent()
+     * replaces only expired values.
+     */
+    @Test
+    public void testReplacement() {
+
+        ExpiringCache<String> cache = new ExpiringCache<String>(10);
+
+        cache.put("a", "1", in(60000));
+        cache.put("a", "2", in(60000));
+        assertEquals("2", cache.get("a"));
+
+        assertEquals("2", cache.putIfAbsent("a", "3", in(60000)));
+        assertEquals("2", cache.get("a"));
+
+        cache.put("b", "1", in(-1));
+        assertNull(cache.putIfAbsent("b", "2", in(60000)));
+        assertEquals("2", cache.get("b"));
+
+        assertNull(cache.putIfAbsent("c", "1", in(60000)));
+        assertEquals("1", cache.get("c"));
+
+    }
+
+    /**
+     * Verifies that replace() and remove() affect only the given value, and
+     * not any value which has since replaced it.
+     */
+    @Test
+    public void testReplaceAndRemoveSameValueOnly() {
+
+        ExpiringCache<String> cache = new ExpiringCache<String>(10);
+        String original = new String("1");
+        String other = new String("1");
+
+        cache.put("a", original, in(60000));
+        cache.replace("a", other, in(-1));
+        assertEquals("1", cache.get("a"));
+
+        cache.replace("a", original, in(-1));
+        assertNull(cache.get("a"));
+
+        cache.put("b", original, in(60000));
+        cache.remove("b", other);
+        assertEquals("1", cache.get("b"));
+
+        cache.remove("b", original);
+        assertNull(cache.get("b"));
+
+    }
+
+    /**
+     * Verifies that a full cache removes expired entries before evicting
+     * the oldest unexpired entries, and never refuses new entries.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for entries to expire.
+     */
+    @Test
+    public void testEviction() throws InterruptedException {
+
+        ExpiringCache<String> cache = new ExpiringCache<String>(3);
+        cache.put("old", "1", in(60000));
+        cache.put("short", "2", in(50));
+        cache.put("new", "3", in(60000));
+
+        // Expired entries make room first
+        Thread.sleep(100);
+        cache.put("newer", "4", in(60000));
+        assertEquals("1", cache.get("old"));
+        assertEquals("3", cache.get("new"));
+        assertEquals("4", cache.get("newer"));
+
+        // Otherwise, the oldest entries are evicted
+        cache.put("newest", "5", in(60000));
+        assertNull(cache.get("old"));
+        assertEquals("3", cache.get("new"));
+        assertEquals("4", cache.get("newer"));
+        assertEquals("5", cache.get("newest"));
+
+        // Repeated replacement of one key does not evict others
+        for (int i = 0; i < 100; i++)
+            cache.put("new", Integer.toString(i), in(60000));
+        assertEquals("99", cache.get("new"));
+        assertEquals("4", cache.get("newer"));
+        assertEquals("5", cache.get("newest"));
+
+    }
+
+    /**
+     * Verifies that a cache with a maximum size of zero caches nothing.
+     */
+    @Test
+    public void testZeroSize() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(0);
+        cache.put("a", "1", in(60000));
+        assertNull(cache.putIfAbsent("b", "2", in(60000)));
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.http;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the timeouts and circuit breaker applied by GuardedGet to requests
+ * made to a local StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class GuardedGetTest {
+
+    /**
+     * The path of the endpoint served by the stub server.
+     */
+    private static final String PATH = "/endpoint";
+
+    /**
+     * The connect and read timeouts of each request, in milliseconds.
+     */
+    private static final int TIMEOUT = 100;
+
+    /**
+     * The number of consecutive failed requests which open the circuit
+     * breaker.
+     */
+    private static final int FAILURE_THRESHOLD = 2;
+
+    /**
+     * The number of milliseconds that the circuit breaker remains open.
+     */
+    private static final long OPEN_TIME = 200;
+
+    /**
+     * The server serving the endpoint.
+     */
+    private StubServer server;
+
+    /**
+     * Executor performing all requests.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The circuit breaker guarding the endpoint.
+     */
+    private CircuitBreaker breaker;
+
+    /**
+     * The GuardedGet under test.
+     */
+    private GuardedGet get;
+
+    /**
+     * Starts the stub server and creates the GuardedGet under test.
+     *
+     * @throws IOException
+     *     If the stub server cannot be started.
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        executor = Executors.newCachedThreadPool();
+        breaker = new CircuitBreaker(server.getURI(PATH), FAILURE_THRESHOLD, OPEN_TIME);
+        get = new GuardedGet(executor, breaker, TIMEOUT, TIMEOUT);
+    }
+
+    /**
+     * Stops the stub server and executor.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Fails the endpoint until the circuit breaker opens.
+     */
+    private void openBreaker() {
+
+        server.respond(PATH, 500, "{}");
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            try {
+                get.get(server.getURI(PATH));
+                fail("Request to failing endpoint succeeded.");
+            }
+            catch (IOException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN.name(), breaker.getState());
+
+    }
+
+    /**
+     * Verifies that a successful request returns the response and resets
+     * any previous failures.
+     *
+     * @throws Exception
+     *     If the request fails.
+     */
+    @Test
+    public void testSuccess() throws Exception {
+
+        server.respond(PATH, 500, "{}");
+        try {
+            get.get(server.getURI(PATH));
+            fail("Request to failing endpoint succeeded.");
+        }
+        catch (IOException e) {
+            assertEquals(1, breaker.getConsecutiveFailures());
+        }
+
+        server.respond(PATH, 200, "{\"ok\":true}");
+        assertEquals("{\"ok\":true}", get.get(server.getURI(PATH)).getBody());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertEquals(CircuitBreaker.State.CLOSED.name(), breaker.getState());
+
+    }
+
+    /**
+     * Verifies that a request which is not answered in time is abandoned
+     * once the timeouts have elapsed, and counted as a failure.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        server.respond(PATH, 200, "{}", 2000);
+
+        long start = System.currentTimeMillis();
+        try {
+            get.get(server.getURI(PATH));
+            fail("Request to unresponsive endpoint succeeded.");
+        }
+        catch (SocketTimeoutException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, breaker.getConsecutiveFailures());
+
+    }
+
+    /**
+     * Verifies that requests are rejected without contacting the endpoint
+     * while the circuit breaker is open.
+     */
+    @Test
+    public void testOpenBreakerRejects() {
+
+        openBreaker();
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                get.get(server.getURI(PATH));
+                fail("Request was made while the circuit breaker is open.");
+            }
+            catch (CircuitOpenException e) {
+                // Expected
+            }
+            catch (IOException e) {
+                fail("Request was made while the circuit breaker is open.");
+            }
+        }
+
+        assertEquals(FAILURE_THRESHOLD, server.getRequests(PATH));
+        assertEquals(5, breaker.getRejectedRequests());
+
+    }
+
+    /**
+     * Verifies that a single trial request is allowed once the circuit
+     * breaker has been open for its configured duration, closing the
+     * breaker if that request succeeds.
+     *
+     * @throws Exception
+     *     If the trial request fails.
+     */
+    @Test
+    public void testRecovery() throws Exception {
+
+        openBreaker();
+        Thread.sleep(OPEN_TIME + 50);
+
+        server.respond(PATH, 200, "{}");
+        get.get(server.getURI(PATH));
+
+        assertEquals(CircuitBreaker.State.CLOSED.name(), breaker.getState());
+        assertEquals(FAILURE_THRESHOLD + 1, server.getRequests(PATH));
+
+    }
+
+    /**
+     * Verifies that the circuit breaker opens again immediately if the
+     * trial request fails.
+     *
+     * @throws Exception
+     *     If the test is interrupted.
+     */
+    @Test
+    public void testFailedTrialReopens() throws Exception {
+
+        openBreaker();
+        Thread.sleep(OPEN_TIME + 50);
+
+        try {
+            get.get(server.getURI(PATH));
+            fail("Trial request to failing endpoint succeeded.");
+        }
+        catch (CircuitOpenException e) {
+            fail("Trial request was not allowed.");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN.name(), breaker.getState());
+        assertEquals(2, breaker.getTimesOpened());
+
+    }
+
+}
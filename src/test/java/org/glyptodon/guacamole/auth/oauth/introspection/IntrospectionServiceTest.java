@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.introspection;
+
+import java.util.Properties;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.jose4j.base64url.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the validation of opaque access tokens by IntrospectionService,
+ * using an introspection endpoint served by a local StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class IntrospectionServiceTest {
+
+    /**
+     * The path of the introspection endpoint served by the stub server.
+     */
+    private static final String INTROSPECTION_PATH = "/introspect";
+
+    /**
+     * The issuer of all access tokens.
+     */
+    private static final String ISSUER = "https://idp.example.net/";
+
+    /**
+     * The client ID of the extension.
+     */
+    private static final String CLIENT_ID = "guacamole";
+
+    /**
+     * The client secret of the extension.
+     */
+    private static final String CLIENT_SECRET = "s3cret";
+
+    /**
+     * The connect and read timeouts of each introspection request, in
+     * milliseconds.
+     */
+    private static final int TIMEOUT = 300;
+
+    /**
+     * The server serving the introspection endpoint.
+     */
+    private StubServer server;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The service under test.
+     */
+    private IntrospectionService introspectionService;
+
+    /**
+     * Returns the JSON representation of an introspection response
+     * describing an active token for the given user, expiring after the
+     * given number of seconds.
+     *
+     * @param username
+     *     The username of the user to whom the token was issued.
+     *
+     * @param lifetime
+     *     The number of seconds from now that the token expires. This may be
+     *     negative to describe an expired token.
+     *
+     * @return
+     *     The JSON representation of the introspection response.
+     */
+    private static String active(String username, long lifetime) {
+        long exp = System.currentTimeMillis() / 1000 + lifetime;
+        return "{\"active\":true,\"iss\":\"" + ISSUER + "\","
+                + "\"email\":\"" + username + "\",\"exp\":" + exp + "}";
+    }
+
+    /**
+     * Starts the stub server and configures the extension to validate
+     * access tokens using the introspection endpoint of the stub server.
+     *
+     * @throws Exception
+     *     If the stub server cannot be started or the extension cannot be
+     *     configured.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new StubServer();
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", server.getURI("/authorize"));
+        properties.setProperty("oauth-issuer", ISSUER);
+        properties.setProperty("oauth-client-id", CLIENT_ID);
+        properties.setProperty("oauth-client-secret", CLIENT_SECRET);
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-token-validation", "introspection");
+        properties.setProperty("oauth-introspection-endpoint", server.getURI(INTROSPECTION_PATH));
+        properties.setProperty("oauth-introspection-connect-timeout", Integer.toString(TIMEOUT));
+        properties.setProperty("oauth-introspection-read-timeout", Integer.toString(TIMEOUT));
+        home = new TestGuacamoleHome(properties);
+
+        introspectionService = home.createInjector().getInstance(IntrospectionService.class);
+
+    }
+
+    /**
+     * Stops the stub server and removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        home.delete();
+    }
+
+    /**
+     * Verifies that an active token is accepted, that the token is
+     * introspected using the client credentials, and that later logins
+     * using the same token are served from the cache.
+     *
+     * @throws Exception
+     *     If the token is rejected.
+     */
+    @Test
+    public void testActiveToken() throws Exception {
+
+        server.respond(INTROSPECTION_PATH, 200, active("alice@example.net", 600));
+
+        UserIdentity identity = introspectionService.processIdentity("token-1");
+        assertEquals("alice@example.net", identity.getUsername());
+
+        assertEquals("token=token-1&token_type_hint=access_token",
+                server.getRequestBody(INTROSPECTION_PATH));
+        assertEquals("Basic " + Base64.encode((CLIENT_ID + ":" + CLIENT_SECRET).getBytes("UTF-8")),
+                server.getAuthorization(INTROSPECTION_PATH));
+
+        for (int i = 0; i < 10; i++)
+            assertEquals("alice@example.net",
+                    introspectionService.processIdentity("token-1").getUsername());
+
+        assertEquals(1, server.getRequests(INTROSPECTION_PATH));
+
+    }
+
+    /**
+     * Verifies that an inactive token is rejected, and that the rejection
+     * is not cached as if the token were active.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testInactiveToken() throws Exception {
+
+        server.respond(INTROSPECTION_PATH, 200, "{\"active\":false}");
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                introspectionService.processIdentity("revoked-token");
+                fail("Inactive token was accepted.");
+            }
+            catch (InvalidTokenException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(2, server.getRequests(INTROSPECTION_PATH));
+
+    }
+
+    /**
+     * Verifies that a token which has expired is rejected, even if
+     * reported as active.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = InvalidTokenException.class)
+    public void testExpiredToken() throws Exception {
+        server.respond(INTROSPECTION_PATH, 200, active("alice@example.net", -60));
+        introspectionService.processIdentity("expired-token");
+    }
+
+    /**
+     * Verifies that a token from a different issuer is rejected.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = InvalidTokenException.class)
+    public void testWrongIssuer() throws Exception {
+        server.respond(INTROSPECTION_PATH, 200, "{\"active\":true,"
+                + "\"iss\":\"https://other.example.net/\","
+                + "\"email\":\"alice@example.net\"}");
+        introspectionService.processIdentity("foreign-token");
+    }
+
+    /**
+     * Verifies that a token lacking a username is rejected.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = InvalidTokenException.class)
+    public void testMissingUsername() throws Exception {
+        server.respond(INTROSPECTION_PATH, 200, "{\"active\":true}");
+        introspectionService.processIdentity("anonymous-token");
+    }
+
+    /**
+     * Verifies that a failing introspection endpoint results in an error.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testServerError() throws Exception {
+        server.respond(INTROSPECTION_PATH, 500, "{}");
+        introspectionService.processIdentity("token-1");
+    }
+
+    /**
+     * Verifies that a response which cannot be parsed results in an error.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testInvalidResponse() throws Exception {
+        server.respond(INTROSPECTION_PATH, 200, "not an introspection response");
+        introspectionService.processIdentity("token-1");
+    }
+
+    /**
+     * Verifies that introspection which is not answered in time fails once
+     * the configured timeouts have elapsed.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        server.respond(INTROSPECTION_PATH, 200, active("alice@example.net", 600), 2000);
+
+        long start = System.currentTimeMillis();
+        try {
+            introspectionService.processIdentity("token-1");
+            fail("Token was introspected by an unresponsive endpoint.");
+        }
+        catch (GuacamoleServerException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+    }
+
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.jwks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.http.CircuitBreaker;
+import org.glyptodon.guacamole.auth.oauth.http.CircuitOpenException;
+import org.glyptodon.guacamole.auth.oauth.http.GuardedGet;
+import org.glyptodon.guacamole.auth.oauth.http.NegativeCache;
+import org.glyptodon.guacamole.auth.oauth.metrics.LoginMetrics;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.EllipticCurves;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.UnresolvableKeyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the retrieval, caching, and refresh of keys by JWKSCache, using keys
+ * served by a local StubServer through the same timeouts and circuit breaker
+ * used by the extension.
+ *
+ * @author Michael Jumper
+ */
+public class JWKSCacheTest {
+
+    /**
+     * The path of the JWKS served by the stub server.
+     */
+    private static final String JWKS_PATH = "/jwks";
+
+    /**
+     * The connect and read timeouts of each retrieval, in milliseconds.
+     */
+    private static final int TIMEOUT = 250;
+
+    /**
+     * The number of consecutive failed retrievals which open the circuit
+     * breaker.
+     */
+    private static final int FAILURE_THRESHOLD = 3;
+
+    /**
+     * The key originally published by the JWKS.
+     */
+    private static PublicJsonWebKey originalKey;
+
+    /**
+     * The key published by the JWKS after rotation.
+     */
+    private static PublicJsonWebKey rotatedKey;
+
+    /**
+     * The server serving the JWKS.
+     */
+    private StubServer server;
+
+    /**
+     * Executor performing retrievals and background refreshes.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Executor scheduling refreshes prior to expiration.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The circuit breaker guarding the JWKS endpoint.
+     */
+    private CircuitBreaker breaker;
+
+    /**
+     * The JWKS snapshot file, which does not exist until a test saves a
+     * snapshot.
+     */
+    private File snapshot;
+
+    /**
+     * Generates a new EC key having the given key ID.
+     *
+     * @param keyID
+     *     The key ID to assign to the new key.
+     *
+     * @return
+     *     A new EC key having the given key ID.
+     *
+     * @throws JoseException
+     *     If the key cannot be generated.
+     */
+    private static PublicJsonWebKey generateKey(String keyID)
+            throws JoseException {
+        PublicJsonWebKey key = EcJwkGenerator.generateJwk(EllipticCurves.P256);
+        key.setKeyId(keyID);
+        key.setAlgorithm(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256);
+        return key;
+    }
+
+    /**
+     * Produces the JSON representation of a JWKS containing the public
+     * portions of the given keys.
+     *
+     * @param keys
+     *     The keys to include within the JWKS.
+     *
+     * @return
+     *     The JSON representation of a JWKS containing the given keys.
+     */
+    private static String toJWKS(JsonWebKey... keys) {
+        return new JsonWebKeySet(Arrays.asList(keys)).toJson(
+                JsonWebKey.OutputControlLevel.PUBLIC_ONLY);
+    }
+
+    /**
+     * Produces an unsigned JWS whose header references the given key ID and
+     * algorithm, as would be passed to JWKSCache when verifying a token.
+     *
+     * @param keyID
+     *     The key ID to include within the header, or null to omit the key
+     *     ID.
+     *
+     * @param algorithm
+     *     The signature algorithm to include within the header.
+     *
+     * @return
+     *     A JWS whose header references the given key ID and algorithm.
+     */
+    private static JsonWebSignature createJWS(String keyID, String algorithm) {
+        JsonWebSignature jws = new JsonWebSignature();
+        if (keyID != null)
+            jws.setKeyIdHeaderValue(keyID);
+        jws.setAlgorithmHeaderValue(algorithm);
+        return jws;
+    }
+
+    /**
+     * Resolves the key referenced by the given key ID using the given
+     * JWKSCache.
+     *
+     * @param cache
+     *     The JWKSCache to resolve the key with.
+     *
+     * @param keyID
+     *     The key ID of the key to resolve.
+     *
+     * @return
+     *     The resolved key.
+     *
+     * @throws UnresolvableKeyException
+     *     If the key cannot be resolved.
+     */
+    private static Key resolve(JWKSCache cache, String keyID)
+            throws UnresolvableKeyException {
+        return cache.resolveKey(createJWS(keyID,
+                AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256),
+                new ArrayList<JsonWebStructure>());
+    }
+
+    /**
+     * Creates a new JWKSCache for the JWKS of the stub server.
+     *
+     * @param maxStale
+     *     The number of milliseconds that expired keys may be used without
+     *     being retrieved again.
+     *
+     * @return
+     *     A new JWKSCache for the JWKS of the stub server.
+     */
+    private JWKSCache createCache(long maxStale) {
+        return new JWKSCache(server.getURI(JWKS_PATH),
+                new GuardedGet(executor, breaker, TIMEOUT, TIMEOUT),
+                scheduler, executor, maxStale, new SnapshotFile(snapshot),
+                new NegativeCache<UnresolvableKeyException>(100, 60000),
+                new LoginMetrics());
+    }
+
+    /**
+     * Saves a snapshot containing the given keys, as if those keys were
+     * retrieved long ago, such that keys missing from the snapshot may be
+     * retrieved again immediately.
+     *
+     * @param keys
+     *     The keys to include within the snapshot.
+     *
+     * @throws IOException
+     *     If the snapshot cannot be written.
+     */
+    private void saveSnapshot(JsonWebKey... keys) throws IOException {
+        new SnapshotFile(snapshot).save(server.getURI(JWKS_PATH),
+                new KeySet(Arrays.asList(keys), 0, 0));
+    }
+
+    /**
+     * Generates the keys published by the JWKS throughout all tests.
+     *
+     * @throws JoseException
+     *     If the keys cannot be generated.
+     */
+    @BeforeClass
+    public static void generateKeys() throws JoseException {
+        originalKey = generateKey("original");
+        rotatedKey = generateKey("rotated");
+    }
+
+    /**
+     * Starts the stub server, initially publishing only the original key.
+     *
+     * @throws IOException
+     *     If the stub server cannot be started.
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        server = new StubServer();
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey));
+
+        executor = Executors.newCachedThreadPool();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        breaker = new CircuitBreaker(server.getURI(JWKS_PATH), FAILURE_THRESHOLD, 60000);
+
+        snapshot = File.createTempFile("jwks", ".json");
+        snapshot.delete();
+
+    }
+
+    /**
+     * Stops the stub server and all executors, and removes any snapshot.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for snapshots to be written.
+     */
+    @After
+    public void tearDown() throws InterruptedException {
+
+        server.stop();
+        scheduler.shutdownNow();
+
+        // Snapshots are written in the background
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        snapshot.delete();
+
+    }
+
+    /**
+     * Verifies that keys are retrieved only once, with later lookups served
+     * from the cache.
+     *
+     * @throws Exception
+     *     If the keys cannot be resolved.
+     */
+    @Test
+    public void testKeysCached() throws Exception {
+
+        JWKSCache cache = createCache(0);
+        Key key = resolve(cache, "original");
+        assertEquals(originalKey.getPublicKey(), key);
+
+        for (int i = 0; i < 10; i++)
+            assertSame(key, resolve(cache, "original"));
+
+        assertEquals(1, server.getRequests(JWKS_PATH));
+        assertEquals(1, cache.getStatistics().getFetches());
+
+    }
+
+    /**
+     * Verifies that concurrent lookups made while the keys are being
+     * retrieved share a single retrieval.
+     *
+     * @throws Exception
+     *     If the keys cannot be retrieved.
+     */
+    @Test
+    public void testConcurrentRetrievalCoalesced() throws Exception {
+
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey), 200);
+        final JWKSCache cache = createCache(0);
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<KeySet>> results = new ArrayList<Future<KeySet>>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(new Callable<KeySet>() {
+
+                @Override
+                public KeySet call() throws Exception {
+                    start.await();
+                    return cache.getKeySet();
+                }
+
+            }));
+        }
+
+        start.countDown();
+
+        KeySet keys = results.get(0).get();
+        for (Future<KeySet> result : results)
+            assertSame(keys, result.get());
+
+        assertEquals(1, server.getRequests(JWKS_PATH));
+        assertEquals(1, cache.getStatistics().getFetches());
+        assertEquals(threads - 1, cache.getStatistics().getCoalesced());
+
+    }
+
+    /**
+     * Verifies that a key missing from keys retrieved long ago causes the
+     * keys to be retrieved again, picking up rotated keys.
+     *
+     * @throws Exception
+     *     If the rotated key cannot be resolved.
+     */
+    @Test
+    public void testRotatedKeyRetrieved() throws Exception {
+
+        saveSnapshot(originalKey);
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey, rotatedKey));
+
+        JWKSCache cache = createCache(60000);
+        cache.loadSnapshot();
+
+        assertEquals(rotatedKey.getPublicKey(), resolve(cache, "rotated"));
+        assertTrue(server.getRequests(JWKS_PATH) >= 1);
+
+    }
+
+    /**
+     * Verifies that unknown key IDs, and tokens lacking a key ID entirely,
+     * do not cause recently-retrieved keys to be retrieved again.
+     *
+     * @throws Exception
+     *     If the original key cannot be resolved.
+     */
+    @Test
+    public void testUnknownKeysThrottled() throws Exception {
+
+        JWKSCache cache = createCache(0);
+        resolve(cache, "original");
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                resolve(cache, "unknown-" + i);
+                fail("Unknown key ID was resolved.");
+            }
+            catch (UnresolvableKeyException e) {
+                // Expected
+            }
+        }
+
+        try {
+            cache.resolveKey(createJWS(null, AlgorithmIdentifiers.RSA_USING_SHA256),
+                    new ArrayList<JsonWebStructure>());
+            fail("Key of token lacking a key ID was resolved.");
+        }
+        catch (UnresolvableKeyException e) {
+            // Expected
+        }
+
+        assertEquals(1, server.getRequests(JWKS_PATH));
+
+    }
+
+    /**
+     * Verifies that a background refresh replaces the cached keys without
+     * blocking the caller.
+     *
+     * @throws Exception
+     *     If the keys cannot be retrieved.
+     */
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+
+        JWKSCache cache = createCache(0);
+        KeySet original = cache.getKeySet();
+
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey, rotatedKey));
+        cache.refreshInBackground();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getKeySet() == original && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertNotNull(cache.getKeySet().getKey("rotated",
+                AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256));
+        assertEquals(2, server.getRequests(JWKS_PATH));
+
+    }
+
+    /**
+     * Verifies that a stopped cache no longer refreshes its keys in the
+     * background, while still serving its cached keys.
+     *
+     * @throws Exception
+     *     If the keys cannot be retrieved.
+     */
+    @Test
+    public void testStoppedCacheDoesNotRefresh() throws Exception {
+
+        JWKSCache cache = createCache(0);
+        KeySet original = cache.getKeySet();
+
+        cache.stop();
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey, rotatedKey));
+        cache.refreshInBackground();
+
+        Thread.sleep(200);
+        assertSame(original, cache.getKeySet());
+        assertEquals(1, server.getRequests(JWKS_PATH));
+
+    }
+
+    /**
+     * Verifies that an endpoint which does not respond in time fails the
+     * lookup within the configured timeouts.
+     *
+     * @throws Exception
+     *     If the test is interrupted.
+     */
+    @Test
+    public void testSlowEndpointTimesOut() throws Exception {
+
+        server.respond(JWKS_PATH, 200, toJWKS(originalKey), 5000);
+        JWKSCache cache = createCache(0);
+
+        long start = System.currentTimeMillis();
+        try {
+            cache.getKeySet();
+            fail("Keys were retrieved from an endpoint which did not respond.");
+        }
+        catch (SocketTimeoutException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+    }
+
+    /**
+     * Verifies that a JWKS which cannot be parsed fails the lookup.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testInvalidJWKS() throws Exception {
+
+        server.respond(JWKS_PATH, 200, "not a JWKS");
+        JWKSCache cache = createCache(0);
+
+        try {
+            resolve(cache, "original");
+            fail("Key was resolved from an invalid JWKS.");
+        }
+        catch (UnresolvableKeyException e) {
+            assertTrue(e.getCause() instanceof JoseException);
+        }
+
+    }
+
+    /**
+     * Verifies that repeated server errors open the circuit breaker, after
+     * which the endpoint is no longer contacted and the last known keys
+     * continue to be used, even beyond the stale limit.
+     *
+     * @throws Exception
+     *     If the keys within the snapshot cannot be used.
+     */
+    @Test
+    public void testCircuitBreakerServesLastKnownKeys() throws Exception {
+
+        saveSnapshot(originalKey);
+        server.respond(JWKS_PATH, 503, "{}");
+
+        // Snapshot keys are immediately beyond the stale limit
+        JWKSCache cache = createCache(0);
+        cache.loadSnapshot();
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            try {
+                cache.getKeySet();
+                fail("Keys were retrieved from a failing endpoint.");
+            }
+            catch (CircuitOpenException e) {
+                fail("Circuit breaker opened before reaching its threshold.");
+            }
+            catch (IOException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN.name(), breaker.getState());
+
+        // Further lookups use the last known keys without contacting the
+        // endpoint
+        assertEquals(originalKey.getPublicKey(), resolve(cache, "original"));
+        assertEquals(FAILURE_THRESHOLD, server.getRequests(JWKS_PATH));
+        assertTrue(breaker.getRejectedRequests() > 0);
+
+    }
+
+    /**
+     * Verifies that an open circuit breaker fails lookups immediately if no
+     * keys have ever been retrieved.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception {
+
+        server.respond(JWKS_PATH, 500, "{}");
+        JWKSCache cache = createCache(0);
+
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            try {
+                cache.getKeySet();
+                fail("Keys were retrieved from a failing endpoint.");
+            }
+            catch (CircuitOpenException e) {
+                fail("Circuit breaker opened before reaching its threshold.");
+            }
+            catch (IOException e) {
+                // Expected
+            }
+        }
+
+        try {
+            cache.getKeySet();
+            fail("Keys were retrieved while the circuit breaker is open.");
+        }
+        catch (CircuitOpenException e) {
+            // Expected
+        }
+
+        assertEquals(FAILURE_THRESHOLD, server.getRequests(JWKS_PATH));
+        assertEquals(FAILURE_THRESHOLD + 1, cache.getStatistics().getFetches());
+        assertEquals(FAILURE_THRESHOLD + 1, cache.getStatistics().getFailures());
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.nonce;
+
+import java.util.Properties;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the storage, expiry, and eviction of pending logins by
+ * InMemoryNonceStore.
+ *
+ * @author Michael Jumper
+ */
+public class InMemoryNonceStoreTest {
+
+    /**
+     * The maximum number of pending logins retained by the store.
+     */
+    private static final int STORE_SIZE = 4;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The store under test.
+     */
+    private InMemoryNonceStore store;
+
+    /**
+     * Creates a store retaining at most STORE_SIZE pending logins.
+     *
+     * @throws Exception
+     *     If the temporary GUACAMOLE_HOME cannot be created.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", "https://idp.example.net/authorize");
+        properties.setProperty("oauth-jwks-endpoint", "https://idp.example.net/jwks");
+        properties.setProperty("oauth-issuer", "https://idp.example.net/");
+        properties.setProperty("oauth-client-id", "guacamole");
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-nonce-store-size", Integer.toString(STORE_SIZE));
+        home = new TestGuacamoleHome(properties);
+
+        store = home.createInjector().getInstance(InMemoryNonceStore.class);
+
+    }
+
+    /**
+     * Removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        home.delete();
+    }
+
+    /**
+     * Returns an expiration time the given number of milliseconds from now.
+     *
+     * @param delay
+     *     The number of milliseconds from now. This may be negative to
+     *     produce a time which has already passed.
+     *
+     * @return
+     *     An expiration time the given number of milliseconds from now.
+     */
+    private static long in(long delay) {
+        return System.currentTimeMillis() + delay;
+    }
+
+    /**
+     * Verifies that each stored nonce can be consumed exactly once.
+     */
+    @Test
+    public void testConsumeOnce() {
+
+        assertTrue(store.put("a", in(60000)));
+        assertTrue(store.put("b", in(60000)));
+
+        assertTrue(store.consume("a"));
+        assertFalse(store.consume("a"));
+        assertFalse(store.consume("unknown"));
+        assertTrue(store.consume("b"));
+
+    }
+
+    /**
+     * Verifies that expired nonces are not consumed, whether or not they
+     * have been swept.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for nonces to expire.
+     */
+    @Test
+    public void testExpiry() throws InterruptedException {
+
+        assertTrue(store.put("a", in(50)));
+        assertTrue(store.put("b", in(50)));
+        assertTrue(store.put("c", in(60000)));
+        Thread.sleep(100);
+
+        assertFalse(store.consume("a"));
+
+        store.sweep();
+        assertFalse(store.consume("b"));
+        assertTrue(store.consume("c"));
+
+    }
+
+    /**
+     * Verifies that a full store discards the oldest pending logins rather
+     * than refusing new logins.
+     */
+    @Test
+    public void testOldestDiscardedWhenFull() {
+
+        for (int i = 0; i < STORE_SIZE + 2; i++)
+            assertTrue(store.put("nonce" + i, in(60000)));
+
+        assertFalse(store.consume("nonce0"));
+        assertFalse(store.consume("nonce1"));
+        for (int i = 2; i < STORE_SIZE + 2; i++)
+            assertTrue(store.consume("nonce" + i));
+
+    }
+
+    /**
+     * Verifies that consumed and swept nonces no longer count toward the
+     * size of the store, such that they do not cause pending logins to be
+     * discarded.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for nonces to expire.
+     */
+    @Test
+    public void testSweepFreesSpace() throws InterruptedException {
+
+        for (int i = 0; i < STORE_SIZE; i++)
+            assertTrue(store.put("short" + i, in(50)));
+        Thread.sleep(100);
+        store.sweep();
+
+        assertTrue(store.put("consumed", in(60000)));
+        assertTrue(store.consume("consumed"));
+
+        for (int i = 0; i < STORE_SIZE; i++)
+            assertTrue(store.put("nonce" + i, in(60000)));
+        for (int i = 0; i < STORE_SIZE; i++)
+            assertTrue(store.consume("nonce" + i));
+
+    }
+
+}
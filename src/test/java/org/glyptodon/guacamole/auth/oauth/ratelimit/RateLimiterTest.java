@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.ratelimit;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the bursts, refill, eviction, and overflow behavior of RateLimiter.
+ *
+ * @author Michael Jumper
+ */
+public class RateLimiterTest {
+
+    /**
+     * The number of requests allowed per minute for each key, such that a
+     * single token is added to each bucket every 10 milliseconds.
+     */
+    private static final int PER_MINUTE = 6000;
+
+    /**
+     * The number of requests which may be made in rapid succession.
+     */
+    private static final int BURST = 3;
+
+    /**
+     * Verifies that a full bucket allows exactly its burst of requests in
+     * rapid succession, and that each key has its own bucket.
+     */
+    @Test
+    public void testBurst() {
+
+        RateLimiter limiter = new RateLimiter(1, BURST, 100);
+
+        for (int i = 0; i < BURST; i++)
+            assertTrue(limiter.tryAcquire("a"));
+        assertFalse(limiter.tryAcquire("a"));
+
+        // Other keys are unaffected
+        assertTrue(limiter.tryAcquire("b"));
+
+    }
+
+    /**
+     * Verifies that an empty bucket allows further requests once tokens have
+     * been added at the configured rate.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for the bucket to refill.
+     */
+    @Test
+    public void testRefill() throws InterruptedException {
+
+        RateLimiter limiter = new RateLimiter(PER_MINUTE, BURST, 100);
+
+        for (int i = 0; i < BURST; i++)
+            assertTrue(limiter.tryAcquire("a"));
+        assertFalse(limiter.tryAcquire("a"));
+
+        Thread.sleep(50);
+        assertTrue(limiter.tryAcquire("a"));
+
+    }
+
+    /**
+     * Verifies that only buckets which have refilled completely are evicted.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for buckets to refill.
+     */
+    @Test
+    public void testEvictIdle() throws InterruptedException {
+
+        RateLimiter limiter = new RateLimiter(PER_MINUTE, BURST, 100);
+        limiter.tryAcquire("a");
+        assertEquals(1, limiter.getSize());
+
+        // A bucket with a token missing is not yet idle
+        RateLimiter slow = new RateLimiter(1, BURST, 100);
+        slow.tryAcquire("a");
+        slow.evictIdle();
+        assertEquals(1, slow.getSize());
+
+        Thread.sleep(50);
+        limiter.evictIdle();
+        assertEquals(0, limiter.getSize());
+
+    }
+
+    /**
+     * Verifies that keys beyond the maximum number of buckets are limited as
+     * a whole, rather than not being limited at all.
+     */
+    @Test
+    public void testOverflowLimited() {
+
+        RateLimiter limiter = new RateLimiter(1, BURST, 2);
+        assertTrue(limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("b"));
+        assertEquals(2, limiter.getSize());
+
+        // Untracked keys share a single bucket
+        for (int i = 0; i < BURST; i++)
+            assertTrue(limiter.tryAcquire("overflow-" + i));
+        assertFalse(limiter.tryAcquire("overflow-" + BURST));
+        assertFalse(limiter.tryAcquire("overflow-0"));
+        assertEquals(2, limiter.getSize());
+
+        // Tracked keys retain their own buckets
+        assertTrue(limiter.tryAcquire("a"));
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the detection and expiry of replayed identifiers by
+ * InProcessReplayCache.
+ *
+ * @author Michael Jumper
+ */
+public class InProcessReplayCacheTest {
+
+    /**
+     * Verifies that an identifier is accepted once, and refused while it has
+     * not yet expired.
+     *
+     * @throws IOException
+     *     If the cache is full.
+     */
+    @Test
+    public void testReplayDetected() throws IOException {
+
+        InProcessReplayCache cache = new InProcessReplayCache(10);
+        long expires = System.currentTimeMillis() + 60000;
+
+        assertTrue(cache.add("a", expires));
+        assertFalse(cache.add("a", expires));
+        assertTrue(cache.add("b", expires));
+
+        // Removed identifiers are accepted again
+        cache.remove("a");
+        assertTrue(cache.add("a", expires));
+
+    }
+
+    /**
+     * Verifies that expired identifiers are accepted again, whether or not
+     * they have been swept.
+     *
+     * @throws Exception
+     *     If the cache is full, or the test is interrupted.
+     */
+    @Test
+    public void testExpiry() throws Exception {
+
+        InProcessReplayCache cache = new InProcessReplayCache(10);
+
+        assertTrue(cache.add("a", System.currentTimeMillis() + 50));
+        assertTrue(cache.add("b", System.currentTimeMillis() + 50));
+        Thread.sleep(100);
+
+        assertTrue(cache.add("a", System.currentTimeMillis() + 60000));
+        assertFalse(cache.add("a", System.currentTimeMillis() + 60000));
+
+        cache.sweep();
+        assertTrue(cache.add("b", System.currentTimeMillis() + 60000));
+
+    }
+
+    /**
+     * Verifies that a full cache makes room by removing expired identifiers,
+     * and otherwise fails rather than forgetting unexpired identifiers.
+     *
+     * @throws Exception
+     *     If the cache is unexpectedly full, or the test is interrupted.
+     */
+    @Test
+    public void testFull() throws Exception {
+
+        InProcessReplayCache cache = new InProcessReplayCache(2);
+        long expires = System.currentTimeMillis() + 60000;
+
+        assertTrue(cache.add("a", expires));
+        assertTrue(cache.add("short", System.currentTimeMillis() + 50));
+        Thread.sleep(100);
+
+        assertTrue(cache.add("b", expires));
+        try {
+            cache.add("c", expires);
+            fail("Unexpired identifiers were discarded.");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertFalse(cache.add("a", expires));
+        assertFalse(cache.add("b", expires));
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the detection and expiry of replayed identifiers by
+ * MappedFileReplayCache, including behavior once its table is full.
+ *
+ * @author Michael Jumper
+ */
+public class MappedFileReplayCacheTest {
+
+    /**
+     * The number of slots in the table of each cache.
+     */
+    private static final int SLOTS = 4;
+
+    /**
+     * The file containing the table, which does not exist until a cache is
+     * created.
+     */
+    private File file;
+
+    /**
+     * Allocates a temporary path for the table.
+     *
+     * @throws IOException
+     *     If the temporary path cannot be allocated.
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("replay", ".cache");
+        file.delete();
+    }
+
+    /**
+     * Removes the table.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Verifies that an identifier is accepted once, and refused while it has
+     * not yet expired.
+     *
+     * @throws IOException
+     *     If the table cannot be accessed.
+     */
+    @Test
+    public void testReplayDetected() throws IOException {
+
+        MappedFileReplayCache cache = new MappedFileReplayCache(file, SLOTS);
+        try {
+            long expires = System.currentTimeMillis() + 60000;
+            assertTrue(cache.add("a", expires));
+            assertFalse(cache.add("a", expires));
+            assertTrue(cache.add("b", expires));
+        }
+        finally {
+            cache.close();
+        }
+
+    }
+
+    /**
+     * Verifies that identifiers recorded by one cache are refused by another
+     * cache sharing the same file.
+     *
+     * @throws IOException
+     *     If the table cannot be accessed.
+     */
+    @Test
+    public void testReplayDetectedAcrossInstances() throws IOException {
+
+        MappedFileReplayCache first = new MappedFileReplayCache(file, SLOTS);
+        MappedFileReplayCache second = new MappedFileReplayCache(file, SLOTS * 2);
+        try {
+            assertTrue(first.add("a", System.currentTimeMillis() + 60000));
+            assertFalse(second.add("a", System.currentTimeMillis() + 60000));
+        }
+        finally {
+            first.close();
+            second.close();
+        }
+
+    }
+
+    /**
+     * Verifies that expired identifiers are accepted again, and that their
+     * slots are reused.
+     *
+     * @throws IOException
+     *     If the table cannot be accessed.
+     */
+    @Test
+    public void testExpiredReused() throws IOException {
+
+        MappedFileReplayCache cache = new MappedFileReplayCache(file, SLOTS);
+        try {
+
+            long expired = System.currentTimeMillis() - 1;
+            for (int i = 0; i < SLOTS; i++)
+                assertTrue(cache.add("expired-" + i, expired));
+
+            assertTrue(cache.add("expired-0", expired));
+
+            long expires = System.currentTimeMillis() + 60000;
+            for (int i = 0; i < SLOTS; i++)
+                assertTrue(cache.add("live-" + i, expires));
+            for (int i = 0; i < SLOTS; i++)
+                assertFalse(cache.add("live-" + i, expires));
+
+        }
+        finally {
+            cache.close();
+        }
+
+    }
+
+    /**
+     * Verifies that a full table overwrites the entry closest to expiring
+     * rather than refusing further identifiers.
+     *
+     * @throws IOException
+     *     If the table cannot be accessed.
+     */
+    @Test
+    public void testFullTableOverwritesOldest() throws IOException {
+
+        MappedFileReplayCache cache = new MappedFileReplayCache(file, SLOTS);
+        try {
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < SLOTS; i++)
+                assertTrue(cache.add("live-" + i, now + 60000 + i * 1000));
+
+            // Further identifiers are still accepted, and recorded
+            assertTrue(cache.add("overflow", now + 120000));
+            assertFalse(cache.add("overflow", now + 120000));
+
+            // Only the entry closest to expiring was sacrificed
+            assertTrue(cache.add("live-0", now + 60000));
+            for (int i = 2; i < SLOTS; i++)
+                assertFalse(cache.add("live-" + i, now + 60000));
+
+        }
+        finally {
+            cache.close();
+        }
+
+    }
+
+}
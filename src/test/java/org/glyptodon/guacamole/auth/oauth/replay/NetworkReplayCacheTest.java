@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.replay;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the RESP framing and replay detection of NetworkReplayCache, using a
+ * local stub key/value service which implements "SET key value NX PX ttl".
+ *
+ * @author Michael Jumper
+ */
+public class NetworkReplayCacheTest {
+
+    /**
+     * The number of milliseconds to wait for the stub key/value service.
+     */
+    private static final int TIMEOUT = 1000;
+
+    /**
+     * The pattern which each command received by the stub key/value service
+     * must match exactly, capturing the declared length of the TTL, the TTL
+     * itself, and the key.
+     */
+    private static final Pattern SET_COMMAND = Pattern.compile(
+              "\\*6\r\n"
+            + "\\$3\r\nSET\r\n"
+            + "\\$([0-9]+)\r\n(guacamole-auth-openid:replay:[^\r\n]*)\r\n"
+            + "\\$1\r\n1\r\n"
+            + "\\$2\r\nNX\r\n"
+            + "\\$2\r\nPX\r\n"
+            + "\\$([0-9]+)\r\n([0-9]+)\r\n");
+
+    /**
+     * Minimal key/value service which accepts RESP arrays of bulk strings,
+     * recording each command exactly as received, and which replies to each
+     * command as "SET key value NX" would, unless a different reply has been
+     * queued.
+     */
+    private static class StubKeyValueServer {
+
+        /**
+         * The socket accepting connections.
+         */
+        private final ServerSocket serverSocket;
+
+        /**
+         * All connections accepted thus far.
+         */
+        private final List<Socket> connections =
+                Collections.synchronizedList(new ArrayList<Socket>());
+
+        /**
+         * Each command received thus far, exactly as received.
+         */
+        private final List<String> commands =
+                Collections.synchronizedList(new ArrayList<String>());
+
+        /**
+         * All keys which have been set.
+         */
+        private final Set<String> keys =
+                Collections.synchronizedSet(new HashSet<String>());
+
+        /**
+         * Replies to send in place of the normal reply to the next commands
+         * received, in order.
+         */
+        private final Queue<String> replies = new ConcurrentLinkedQueue<String>();
+
+        /**
+         * Starts a new stub key/value service listening on an arbitrary
+         * port of the loopback interface.
+         *
+         * @throws IOException
+         *     If the listening socket cannot be created.
+         */
+        public StubKeyValueServer() throws IOException {
+
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+            Thread acceptor = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            final Socket socket = serverSocket.accept();
+                            socket.setTcpNoDelay(true);
+                            connections.add(socket);
+                            Thread handler = new Thread() {
+
+                                @Override
+                                public void run() {
+                                    serve(socket);
+                                }
+
+                            };
+                            handler.setDaemon(true);
+                            handler.start();
+                        }
+                    }
+                    catch (IOException e) {
+                        // Server stopped
+                    }
+                }
+
+            };
+
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+        }
+
+        /**
+         * Reads a single CRLF-terminated line, appending the line and its
+         * terminator to the given buffer.
+         *
+         * @param input
+         *     The stream to read from.
+         *
+         * @param raw
+         *     The buffer receiving everything read.
+         *
+         * @return
+         *     The line read, without its terminator.
+         *
+         * @throws IOException
+         *     If the line cannot be read.
+         */
+        private static String readLine(InputStream input, StringBuilder raw)
+                throws IOException {
+
+            StringBuilder line = new StringBuilder();
+            for (;;) {
+                int c = input.read();
+                if (c == -1)
+                    throw new EOFException();
+                raw.append((char) c);
+                if (c == '\n')
+                    break;
+                line.append((char) c);
+            }
+
+            if (line.length() == 0 || line.charAt(line.length() - 1) != '\r')
+                throw new IOException("Line not terminated with CRLF.");
+
+            return line.substring(0, line.length() - 1);
+
+        }
+
+        /**
+         * Reads and replies to commands from the given connection until
+         * that connection is closed.
+         *
+         * @param socket
+         *     The connection to serve.
+         */
+        private void serve(Socket socket) {
+            try {
+
+                InputStream input = new BufferedInputStream(socket.getInputStream());
+                OutputStream output = socket.getOutputStream();
+
+                for (;;) {
+
+                    StringBuilder raw = new StringBuilder();
+
+                    // Read array of bulk strings
+                    String header = readLine(input, raw);
+                    if (!header.startsWith("*"))
+                        throw new IOException("Expected array: " + header);
+
+                    List<String> args = new ArrayList<String>();
+                    int count = Integer.parseInt(header.substring(1));
+                    for (int i = 0; i < count; i++) {
+
+                        String length = readLine(input, raw);
+                        if (!length.startsWith("$"))
+                            throw new IOException("Expected bulk string: " + length);
+
+                        String value = readLine(input, raw);
+                        if (value.length() != Integer.parseInt(length.substring(1)))
+                            throw new IOException("Incorrect bulk string length.");
+
+                        args.add(value);
+
+                    }
+
+                    commands.add(raw.toString());
+
+                    String reply = replies.poll();
+                    if (reply == null)
+                        reply = keys.add(args.get(1)) ? "+OK" : "$-1";
+
+                    output.write((reply + "\r\n").getBytes("UTF-8"));
+                    output.flush();
+
+                }
+
+            }
+            catch (IOException e) {
+                // Connection closed
+            }
+        }
+
+        /**
+         * Queues the given reply to be sent in place of the normal reply to
+         * the next command received.
+         *
+         * @param reply
+         *     The reply to send, without its CRLF terminator.
+         */
+        public void reply(String reply) {
+            replies.add(reply);
+        }
+
+        /**
+         * Returns the port on which this service is listening.
+         *
+         * @return
+         *     The port on which this service is listening.
+         */
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * Returns each command received thus far, exactly as received.
+         *
+         * @return
+         *     Each command received thus far.
+         */
+        public List<String> getCommands() {
+            synchronized (commands) {
+                return new ArrayList<String>(commands);
+            }
+        }
+
+        /**
+         * Returns the number of connections accepted thus far.
+         *
+         * @return
+         *     The number of connections accepted thus far.
+         */
+        public int getConnectionCount() {
+            return connections.size();
+        }
+
+        /**
+         * Stops this service, closing all connections.
+         */
+        public void stop() {
+
+            try {
+                serverSocket.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+
+            synchronized (connections) {
+                for (Socket socket : connections) {
+                    try {
+                        socket.close();
+                    }
+                    catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * The stub key/value service.
+     */
+    private StubKeyValueServer server;
+
+    /**
+     * The cache under test.
+     */
+    private NetworkReplayCache cache;
+
+    /**
+     * Starts the stub key/value service and creates a cache which uses it.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be started.
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new StubKeyValueServer();
+        cache = new NetworkReplayCache("127.0.0.1", server.getPort(), TIMEOUT);
+    }
+
+    /**
+     * Stops the stub key/value service.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Returns an expiration time the given number of milliseconds from now.
+     *
+     * @param delay
+     *     The number of milliseconds from now. This may be negative to
+     *     produce a time which has already passed.
+     *
+     * @return
+     *     An expiration time the given number of milliseconds from now.
+     */
+    private static long in(long delay) {
+        return System.currentTimeMillis() + delay;
+    }
+
+    /**
+     * Verifies that each identifier is added with a single, correctly-framed
+     * SET command whose TTL is the time remaining until expiration.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be reached.
+     */
+    @Test
+    public void testFraming() throws IOException {
+
+        assertTrue(cache.add("abc", in(60000)));
+
+        List<String> commands = server.getCommands();
+        assertEquals(1, commands.size());
+
+        Matcher matcher = SET_COMMAND.matcher(commands.get(0));
+        assertTrue(commands.get(0), matcher.matches());
+
+        String key = matcher.group(2);
+        assertEquals("guacamole-auth-openid:replay:abc", key);
+        assertEquals(key.length(), Integer.parseInt(matcher.group(1)));
+
+        String ttl = matcher.group(4);
+        assertEquals(ttl.length(), Integer.parseInt(matcher.group(3)));
+        assertTrue(Long.parseLong(ttl) > 0);
+        assertTrue(Long.parseLong(ttl) <= 60000);
+
+    }
+
+    /**
+     * Verifies that identifiers already present are detected as replays,
+     * whether the key/value service replies with a RESP2 or RESP3 null.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be reached.
+     */
+    @Test
+    public void testReplayDetected() throws IOException {
+
+        assertTrue(cache.add("a", in(60000)));
+        assertFalse(cache.add("a", in(60000)));
+        assertTrue(cache.add("b", in(60000)));
+
+        server.reply("_");
+        assertFalse(cache.add("c", in(60000)));
+
+        assertEquals(1, server.getConnectionCount());
+
+    }
+
+    /**
+     * Verifies that identifiers which have already expired are accepted
+     * without contacting the key/value service.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be reached.
+     */
+    @Test
+    public void testExpiredNotSent() throws IOException {
+        assertTrue(cache.add("a", in(-1)));
+        assertTrue(cache.add("a", in(-1)));
+        assertTrue(server.getCommands().isEmpty());
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    /**
+     * Verifies that a request rejected by the key/value service fails only
+     * that request, leaving the connection in use.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be reached.
+     */
+    @Test
+    public void testErrorReply() throws IOException {
+
+        server.reply("-ERR out of memory");
+        try {
+            cache.add("a", in(60000));
+            fail("Rejected request was treated as successful.");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertTrue(cache.add("b", in(60000)));
+        assertEquals(1, server.getConnectionCount());
+
+    }
+
+    /**
+     * Verifies that an unexpected reply fails the request and closes the
+     * connection, with a new connection used for the next request.
+     *
+     * @throws IOException
+     *     If the stub key/value service cannot be reached.
+     */
+    @Test
+    public void testUnexpectedReply() throws IOException {
+
+        server.reply(":1");
+        try {
+            cache.add("a", in(60000));
+            fail("Unexpected reply was treated as successful.");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertTrue(cache.add("b", in(60000)));
+        assertEquals(2, server.getConnectionCount());
+
+    }
+
+    /**
+     * Verifies that concurrent requests each receive their own reply, such
+     * that every distinct identifier is accepted exactly once.
+     *
+     * @throws Exception
+     *     If any request fails.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+
+        final int threads = 8;
+        final int perThread = 50;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws IOException {
+                        int added = 0;
+                        for (int j = 0; j < perThread; j++) {
+                            if (cache.add("id" + (thread * perThread + j), in(60000)))
+                                added++;
+                        }
+                        return added;
+                    }
+
+                }));
+            }
+
+            for (Future<Integer> result : results)
+                assertEquals(perThread, result.get().intValue());
+
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * perThread, server.getCommands().size());
+        for (int i = 0; i < threads * perThread; i++)
+            assertFalse(cache.add("id" + i, in(60000)));
+
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.security.Key;
+import java.util.Arrays;
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.HeaderParameterNames;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.keys.EllipticCurves;
+import org.jose4j.lang.InvalidKeyException;
+import org.jose4j.lang.JoseException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the verification of signatures by SignatureVerifier, including the
+ * conversion of ECDSA signatures to DER and the rejection of unacceptable
+ * keys and critical header parameters.
+ *
+ * @author Michael Jumper
+ */
+public class SignatureVerifierTest {
+
+    /**
+     * The claims of each token produced by the tests.
+     */
+    private static final String CLAIMS = "{\"sub\":\"user\"}";
+
+    /**
+     * Key for the P-256 curve, used with ES256.
+     */
+    private static PublicJsonWebKey p256Key;
+
+    /**
+     * Key for the P-384 curve, used with ES384.
+     */
+    private static PublicJsonWebKey p384Key;
+
+    /**
+     * Key for the P-521 curve, used with ES512.
+     */
+    private static PublicJsonWebKey p521Key;
+
+    /**
+     * RSA key of the minimum acceptable size.
+     */
+    private static PublicJsonWebKey rsaKey;
+
+    /**
+     * RSA key smaller than the minimum acceptable size.
+     */
+    private static PublicJsonWebKey smallRsaKey;
+
+    /**
+     * Generates the keys used to sign and verify tokens.
+     *
+     * @throws JoseException
+     *     If the keys cannot be generated.
+     */
+    @BeforeClass
+    public static void generateKeys() throws JoseException {
+        p256Key = EcJwkGenerator.generateJwk(EllipticCurves.P256);
+        p384Key = EcJwkGenerator.generateJwk(EllipticCurves.P384);
+        p521Key = EcJwkGenerator.generateJwk(EllipticCurves.P521);
+        rsaKey = RsaJwkGenerator.generateJwk(2048);
+        smallRsaKey = RsaJwkGenerator.generateJwk(1024);
+    }
+
+    /**
+     * Signs a token using the given algorithm and key, returning the token
+     * as parsed by a recipient, without any signature verified.
+     *
+     * @param algorithm
+     *     The JWS signature algorithm to sign with.
+     *
+     * @param key
+     *     The key to sign with.
+     *
+     * @param critical
+     *     The names to list within the "crit" header parameter, if any.
+     *
+     * @return
+     *     The signed token, as parsed by a recipient.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed or parsed.
+     */
+    private static JsonWebSignature sign(String algorithm,
+            PublicJsonWebKey key, String... critical) throws JoseException {
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(CLAIMS);
+        jws.setAlgorithmHeaderValue(algorithm);
+        if (critical.length > 0)
+            jws.getHeaders().setObjectHeaderValue(HeaderParameterNames.CRITICAL,
+                    Arrays.asList(critical));
+        jws.setKey(key.getPrivateKey());
+
+        return parse(jws.getCompactSerialization());
+
+    }
+
+    /**
+     * Parses the given token as a recipient would, without verifying its
+     * signature.
+     *
+     * @param token
+     *     The token to parse, in compact serialization.
+     *
+     * @return
+     *     The parsed token.
+     *
+     * @throws JoseException
+     *     If the token cannot be parsed.
+     */
+    private static JsonWebSignature parse(String token) throws JoseException {
+        return (JsonWebSignature) JsonWebStructure.fromCompactSerialization(token);
+    }
+
+    /**
+     * Replaces the signature of the given token with the given bytes.
+     *
+     * @param jws
+     *     The token whose signature should be replaced.
+     *
+     * @param signature
+     *     The new signature.
+     *
+     * @return
+     *     The token bearing the new signature, as parsed by a recipient.
+     *
+     * @throws JoseException
+     *     If the token cannot be parsed.
+     */
+    private static JsonWebSignature withSignature(JsonWebSignature jws,
+            byte[] signature) throws JoseException {
+        return parse(jws.getHeaders().getEncodedHeader() + "."
+                + jws.getEncodedPayload() + "." + Base64Url.encode(signature));
+    }
+
+    /**
+     * Verifies that the given key is rejected for the given token.
+     *
+     * @param jws
+     *     The token to verify.
+     *
+     * @param key
+     *     The unacceptable key.
+     *
+     * @throws JoseException
+     *     If verification fails for any reason other than the key.
+     */
+    private static void assertKeyRejected(JsonWebSignature jws, Key key)
+            throws JoseException {
+        try {
+            SignatureVerifier.verify(jws, key);
+            fail("Accepted unacceptable key.");
+        }
+        catch (InvalidKeyException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Verifies that ECDSA signatures, which are concatenations of R and S
+     * within a JWS, are verified for each supported curve, and that altered
+     * signatures are not.
+     *
+     * @throws JoseException
+     *     If a signature cannot be produced or verified.
+     */
+    @Test
+    public void testECDSA() throws JoseException {
+
+        String[] algorithms = {
+            AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256,
+            AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384,
+            AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512
+        };
+        PublicJsonWebKey[] keys = { p256Key, p384Key, p521Key };
+
+        for (int i = 0; i < algorithms.length; i++) {
+
+            JsonWebSignature jws = sign(algorithms[i], keys[i]);
+            assertTrue(SignatureVerifier.verify(jws, keys[i].getPublicKey()));
+
+            // Repeated verification reuses the same Signature
+            assertTrue(SignatureVerifier.verify(jws, keys[i].getPublicKey()));
+
+            // Altering either R or S invalidates the signature
+            byte[] signature = Base64Url.decode(jws.getEncodedSignature());
+            byte[] alteredR = signature.clone();
+            alteredR[0] ^= 1;
+            byte[] alteredS = signature.clone();
+            alteredS[signature.length - 1] ^= 1;
+
+            assertFalse(SignatureVerifier.verify(withSignature(jws, alteredR),
+                    keys[i].getPublicKey()));
+            assertFalse(SignatureVerifier.verify(withSignature(jws, alteredS),
+                    keys[i].getPublicKey()));
+
+        }
+
+    }
+
+    /**
+     * Verifies that ECDSA signatures which cannot be converted to DER, or
+     * which are all zero, are not accepted.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    @Test
+    public void testMalformedECDSA() throws JoseException {
+
+        JsonWebSignature jws = sign(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256, p256Key);
+
+        byte[][] malformed = { new byte[64], new byte[1], new byte[0] };
+        for (byte[] signature : malformed) {
+            try {
+                assertFalse(SignatureVerifier.verify(withSignature(jws, signature),
+                        p256Key.getPublicKey()));
+            }
+            catch (JoseException e) {
+                // Also acceptable
+            }
+        }
+
+    }
+
+    /**
+     * Verifies that RSA signatures are verified, and that altered signatures
+     * are not.
+     *
+     * @throws JoseException
+     *     If a signature cannot be produced or verified.
+     */
+    @Test
+    public void testRSA() throws JoseException {
+
+        JsonWebSignature jws = sign(AlgorithmIdentifiers.RSA_USING_SHA256, rsaKey);
+        assertTrue(SignatureVerifier.verify(jws, rsaKey.getPublicKey()));
+
+        byte[] signature = Base64Url.decode(jws.getEncodedSignature());
+        signature[0] ^= 1;
+        assertFalse(SignatureVerifier.verify(withSignature(jws, signature),
+                rsaKey.getPublicKey()));
+
+    }
+
+    /**
+     * Verifies that RSA keys smaller than 2048 bits, keys of the wrong type,
+     * and elliptic curve keys on the wrong curve are rejected.
+     *
+     * @throws JoseException
+     *     If verification fails for any reason other than the key.
+     */
+    @Test
+    public void testUnacceptableKeys() throws JoseException {
+
+        JsonWebSignature rsa = sign(AlgorithmIdentifiers.RSA_USING_SHA256, rsaKey);
+        assertKeyRejected(rsa, smallRsaKey.getPublicKey());
+        assertKeyRejected(rsa, p256Key.getPublicKey());
+
+        JsonWebSignature ec = sign(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256, p256Key);
+        assertKeyRejected(ec, p384Key.getPublicKey());
+        assertKeyRejected(ec, rsaKey.getPublicKey());
+
+    }
+
+    /**
+     * Verifies that tokens bearing critical header parameters are rejected,
+     * as no such parameters are understood.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    @Test
+    public void testCriticalHeaderRejected() throws JoseException {
+
+        String[] algorithms = {
+            AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256,
+            AlgorithmIdentifiers.RSA_USING_SHA256
+        };
+        PublicJsonWebKey[] keys = { p256Key, rsaKey };
+
+        for (int i = 0; i < algorithms.length; i++) {
+            JsonWebSignature jws = sign(algorithms[i], keys[i], "exp");
+            try {
+                SignatureVerifier.verify(jws, keys[i].getPublicKey());
+                fail("Accepted token with critical header parameters.");
+            }
+            catch (JoseException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
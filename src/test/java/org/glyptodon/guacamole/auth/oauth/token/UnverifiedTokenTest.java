@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.token;
+
+import java.util.Arrays;
+import org.glyptodon.guacamole.auth.oauth.claims.ClaimExtractor;
+import org.glyptodon.guacamole.auth.oauth.metrics.FailureCause;
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.keys.EllipticCurves;
+import org.jose4j.lang.JoseException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the checks performed by UnverifiedToken on the structure and length
+ * of tokens prior to decoding, and the decoding of their header and claims.
+ *
+ * @author Michael Jumper
+ */
+public class UnverifiedTokenTest {
+
+    /**
+     * The claims of each token produced by the tests.
+     */
+    private static final String CLAIMS = "{\"iss\":\"https://issuer.example\","
+            + "\"aud\":[\"client\",\"other\"],\"exp\":2000000000,\"sub\":\"user\"}";
+
+    /**
+     * Extractor which extracts the claims read by the tests.
+     */
+    private static final ClaimExtractor EXTRACTOR =
+            new ClaimExtractor(Arrays.asList("iss", "aud", "exp"));
+
+    /**
+     * The key used to sign tokens.
+     */
+    private static PublicJsonWebKey key;
+
+    /**
+     * Generates the key used to sign tokens.
+     *
+     * @throws JoseException
+     *     If the key cannot be generated.
+     */
+    @BeforeClass
+    public static void generateKey() throws JoseException {
+        key = EcJwkGenerator.generateJwk(EllipticCurves.P256);
+    }
+
+    /**
+     * Produces a token having the given claims, signed using ES256.
+     *
+     * @param claims
+     *     The JSON claims of the token.
+     *
+     * @return
+     *     A signed token having the given claims, in compact serialization.
+     *
+     * @throws JoseException
+     *     If the token cannot be signed.
+     */
+    private static String sign(String claims) throws JoseException {
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims);
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256);
+        jws.setKey(key.getPrivateKey());
+        return jws.getCompactSerialization();
+    }
+
+    /**
+     * Produces a token having the given header and claims, with an arbitrary
+     * signature.
+     *
+     * @param header
+     *     The JSON header of the token.
+     *
+     * @param claims
+     *     The JSON claims of the token.
+     *
+     * @return
+     *     A token having the given header and claims, in compact
+     *     serialization.
+     */
+    private static String forge(String header, String claims) {
+        return Base64Url.encodeUtf8ByteRepresentation(header) + "."
+                + Base64Url.encodeUtf8ByteRepresentation(claims) + ".c2ln";
+    }
+
+    /**
+     * Verifies that the given token is rejected as invalid.
+     *
+     * @param token
+     *     The token which should be rejected.
+     */
+    private static void assertRejected(String token) {
+        try {
+            UnverifiedToken.parse(token, EXTRACTOR);
+            fail("Accepted invalid token: " + token);
+        }
+        catch (InvalidTokenException e) {
+            assertEquals(FailureCause.INVALID_TOKEN, e.getFailureCause());
+        }
+    }
+
+    /**
+     * Verifies that the header and requested claims of a well-formed token
+     * are decoded, and that the decoded JWS retains the original header.
+     *
+     * @throws Exception
+     *     If the token cannot be signed or is rejected.
+     */
+    @Test
+    public void testParse() throws Exception {
+
+        String token = sign(CLAIMS);
+        UnverifiedToken unverified = UnverifiedToken.parse(token, EXTRACTOR);
+
+        assertEquals(token, unverified.getToken());
+        assertEquals(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256,
+                unverified.getAlgorithm());
+        assertEquals("https://issuer.example", unverified.getIssuer());
+        assertTrue(unverified.hasAudience("client"));
+        assertFalse(unverified.hasAudience("nobody"));
+        assertEquals(Long.valueOf(2000000000L), unverified.getExpirationTime());
+
+        // Only requested claims are decoded
+        assertFalse(unverified.getClaims().containsKey("sub"));
+
+        // The decoded JWS can be verified as-is
+        JsonWebSignature jws = unverified.getSignature();
+        assertEquals(token.substring(0, token.indexOf('.')),
+                jws.getHeaders().getEncodedHeader());
+        assertTrue(SignatureVerifier.verify(jws, key.getPublicKey()));
+
+    }
+
+    /**
+     * Verifies that tokens are rejected by length alone once longer than
+     * MAX_LENGTH.
+     *
+     * @throws Exception
+     *     If a token within the length limit is rejected by length.
+     */
+    @Test
+    public void testLength() throws Exception {
+
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < UnverifiedToken.MAX_LENGTH; i++)
+            token.append('a');
+
+        UnverifiedToken.checkLength(token.toString());
+
+        token.append('a');
+        try {
+            UnverifiedToken.checkLength(token.toString());
+            fail("Accepted token longer than MAX_LENGTH.");
+        }
+        catch (InvalidTokenException e) {
+            assertEquals(FailureCause.INVALID_TOKEN, e.getFailureCause());
+        }
+
+        // Otherwise-valid tokens are rejected if too long
+        assertRejected(sign("{\"padding\":\"" + token + "\","
+                + CLAIMS.substring(1)));
+
+    }
+
+    /**
+     * Verifies that tokens which are not three non-empty base64url segments
+     * are rejected.
+     *
+     * @throws Exception
+     *     If the token cannot be signed.
+     */
+    @Test
+    public void testSegments() throws Exception {
+
+        String token = sign(CLAIMS);
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = token.lastIndexOf('.');
+
+        assertRejected("");
+        assertRejected(".");
+        assertRejected("..");
+        assertRejected(token.substring(0, payloadEnd));
+        assertRejected(token + ".");
+        assertRejected(token + ".c2ln");
+        assertRejected(token.substring(0, payloadEnd + 1));
+        assertRejected(token.substring(headerEnd));
+        assertRejected(token.substring(0, headerEnd + 1) + token.substring(payloadEnd));
+
+        // Segments must use the unpadded base64url alphabet
+        assertRejected(token + "=");
+        assertRejected(token.substring(0, payloadEnd) + ".ab+/");
+        assertRejected(token.substring(0, payloadEnd) + ".ab cd");
+
+        // Unsigned tokens have an empty signature segment
+        assertRejected(forge("{\"alg\":\"none\"}", CLAIMS).replaceAll("c2ln$", ""));
+
+    }
+
+    /**
+     * Verifies that tokens whose header or claims are not JSON objects are
+     * rejected, and that non-string algorithms are ignored.
+     *
+     * @throws Exception
+     *     If a well-formed token is rejected.
+     */
+    @Test
+    public void testMalformedContent() throws Exception {
+
+        assertRejected(forge("not json", CLAIMS));
+        assertRejected(forge("null", CLAIMS));
+        assertRejected(forge("[]", CLAIMS));
+        assertRejected(forge("{\"alg\":\"ES256\"}", "not json"));
+        assertRejected(forge("{\"alg\":\"ES256\"}", "[]"));
+        assertRejected(forge("{\"alg\":\"ES256\"}", "{\"exp\":1,\"exp\":2}"));
+
+        assertNull(UnverifiedToken.parse(forge("{\"alg\":256}", CLAIMS),
+                EXTRACTOR).getAlgorithm());
+
+    }
+
+}
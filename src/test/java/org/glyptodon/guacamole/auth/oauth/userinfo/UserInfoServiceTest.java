@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 Glyptodon LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.glyptodon.guacamole.auth.oauth.userinfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.glyptodon.guacamole.auth.oauth.StubServer;
+import org.glyptodon.guacamole.auth.oauth.TestGuacamoleHome;
+import org.glyptodon.guacamole.auth.oauth.claims.UserIdentity;
+import org.glyptodon.guacamole.auth.oauth.token.InvalidTokenException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the retrieval of UserInfo by UserInfoService, using a UserInfo
+ * endpoint served by a local StubServer.
+ *
+ * @author Michael Jumper
+ */
+public class UserInfoServiceTest {
+
+    /**
+     * The path of the UserInfo endpoint served by the stub server.
+     */
+    private static final String USERINFO_PATH = "/userinfo";
+
+    /**
+     * The issuer of all tokens.
+     */
+    private static final String ISSUER = "https://idp.example.net/";
+
+    /**
+     * The number of milliseconds to wait for UserInfo.
+     */
+    private static final int TIMEOUT = 300;
+
+    /**
+     * The UserInfo of the test user.
+     */
+    private static final String USERINFO = "{\"sub\":\"alice\","
+            + "\"email\":\"alice@example.net\",\"department\":\"Engineering\"}";
+
+    /**
+     * The server serving the UserInfo endpoint and JWKS.
+     */
+    private StubServer server;
+
+    /**
+     * The GUACAMOLE_HOME from which the extension is configured.
+     */
+    private TestGuacamoleHome home;
+
+    /**
+     * The service under test.
+     */
+    private UserInfoService userInfoService;
+
+    /**
+     * Returns the claims of an ID token issued to the given subject.
+     *
+     * @param subject
+     *     The subject of the ID token.
+     *
+     * @return
+     *     The claims of an ID token issued to the given subject.
+     */
+    private static Map<String, Object> claims(String subject) {
+        Map<String, Object> claims = new HashMap<String, Object>();
+        claims.put("iss", ISSUER);
+        claims.put("sub", subject);
+        return claims;
+    }
+
+    /**
+     * Returns an identity having the given username and no attributes or
+     * groups.
+     *
+     * @param username
+     *     The username of the identity, or null if the username is not
+     *     known.
+     *
+     * @return
+     *     An identity having the given username.
+     */
+    private static UserIdentity identity(String username) {
+        return new UserIdentity(username, Collections.<String, String>emptyMap(),
+                Collections.<String>emptySet(), false);
+    }
+
+    /**
+     * Retrieves the UserInfo of the given subject, merging it with the given
+     * identity.
+     *
+     * @param identity
+     *     The identity derived from the ID token.
+     *
+     * @param subject
+     *     The subject of the ID token.
+     *
+     * @return
+     *     The given identity, merged with the identity derived from UserInfo.
+     *
+     * @throws GuacamoleException
+     *     If UserInfo cannot be retrieved.
+     */
+    private UserIdentity enrich(UserIdentity identity, String subject)
+            throws GuacamoleException {
+        return userInfoService.complete(userInfoService.prepare(identity,
+                claims(subject), "access-token"));
+    }
+
+    /**
+     * Starts the stub server and configures the extension to enrich all
+     * logins using the UserInfo endpoint of the stub server.
+     *
+     * @throws Exception
+     *     If the stub server cannot be started or the extension cannot be
+     *     configured.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new StubServer();
+        server.respond("/jwks", 200, "{\"keys\":[]}");
+
+        Properties properties = new Properties();
+        properties.setProperty("oauth-authorization-endpoint", server.getURI("/authorize"));
+        properties.setProperty("oauth-jwks-endpoint", server.getURI("/jwks"));
+        properties.setProperty("oauth-issuer", ISSUER);
+        properties.setProperty("oauth-client-id", "guacamole");
+        properties.setProperty("oauth-redirect-uri", "https://guacamole.example.net/guacamole/");
+        properties.setProperty("oauth-username-claim-type", "email");
+        properties.setProperty("oauth-attribute-mappings", "department=department");
+        properties.setProperty("oauth-userinfo", "always");
+        properties.setProperty("oauth-userinfo-endpoint", server.getURI(USERINFO_PATH));
+        properties.setProperty("oauth-userinfo-timeout", Integer.toString(TIMEOUT));
+        home = new TestGuacamoleHome(properties);
+
+        userInfoService = home.createInjector().getInstance(UserInfoService.class);
+
+    }
+
+    /**
+     * Stops the stub server and removes the temporary GUACAMOLE_HOME.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+        home.delete();
+    }
+
+    /**
+     * Verifies that UserInfo is retrieved using the access token, adding
+     * its attributes to the identity, and that UserInfo is retrieved only
+     * once for repeated logins of the same subject.
+     *
+     * @throws Exception
+     *     If UserInfo cannot be retrieved.
+     */
+    @Test
+    public void testEnrichment() throws Exception {
+
+        server.respond(USERINFO_PATH, 200, USERINFO);
+
+        UserIdentity identity = enrich(identity("alice@example.net"), "alice");
+        assertEquals("alice@example.net", identity.getUsername());
+        assertEquals("Engineering", identity.getAttributes().get("department"));
+        assertEquals("Bearer access-token", server.getAuthorization(USERINFO_PATH));
+
+        for (int i = 0; i < 10; i++)
+            enrich(identity("alice@example.net"), "alice");
+
+        assertEquals(1, server.getRequests(USERINFO_PATH));
+
+    }
+
+    /**
+     * Verifies that the username is read from UserInfo if absent from the
+     * ID token.
+     *
+     * @throws Exception
+     *     If UserInfo cannot be retrieved.
+     */
+    @Test
+    public void testUsernameFromUserInfo() throws Exception {
+        server.respond(USERINFO_PATH, 200, USERINFO);
+        assertEquals("alice@example.net", enrich(identity(null), "alice").getUsername());
+    }
+
+    /**
+     * Verifies that concurrent logins of the same subject share a single
+     * request for UserInfo.
+     *
+     * @throws Exception
+     *     If UserInfo cannot be retrieved.
+     */
+    @Test
+    public void testConcurrentRequestsCoalesced() throws Exception {
+
+        server.respond(USERINFO_PATH, 200, USERINFO, 100);
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+
+            List<Future<UserIdentity>> results = new ArrayList<Future<UserIdentity>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<UserIdentity>() {
+
+                    @Override
+                    public UserIdentity call() throws Exception {
+                        start.await();
+                        return enrich(identity("alice@example.net"), "alice");
+                    }
+
+                }));
+            }
+
+            start.countDown();
+            for (Future<UserIdentity> result : results)
+                assertEquals("Engineering", result.get().getAttributes().get("department"));
+
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, server.getRequests(USERINFO_PATH));
+
+    }
+
+    /**
+     * Verifies that UserInfo describing a different subject than the ID
+     * token is refused.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testWrongSubject() throws Exception {
+        server.respond(USERINFO_PATH, 200, USERINFO);
+        enrich(identity("mallory@example.net"), "mallory");
+    }
+
+    /**
+     * Verifies that a failing UserInfo endpoint results in an error.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testServerError() throws Exception {
+        server.respond(USERINFO_PATH, 500, "{}");
+        enrich(identity("alice@example.net"), "alice");
+    }
+
+    /**
+     * Verifies that a login waits no longer than the configured timeout for
+     * UserInfo.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        server.respond(USERINFO_PATH, 200, USERINFO, 2000);
+
+        // Either the wait or the request itself may time out first
+        long start = System.currentTimeMillis();
+        try {
+            enrich(identity("alice@example.net"), "alice");
+            fail("UserInfo was retrieved from an unresponsive endpoint.");
+        }
+        catch (GuacamoleException e) {
+            // Expected
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+    }
+
+    /**
+     * Verifies that a login is refused if the username is absent from the
+     * ID token and no access token is available to retrieve UserInfo.
+     *
+     * @throws Exception
+     *     If the test fails unexpectedly.
+     */
+    @Test(expected = InvalidTokenException.class)
+    public void testMissingAccessToken() throws Exception {
+        userInfoService.prepare(identity(null), claims("alice"), null);
+    }
+
+}